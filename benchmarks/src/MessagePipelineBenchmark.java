@@ -0,0 +1,312 @@
+/**
+ * JMH microbenchmarks of the per-message hot path of the TCP servers.
+ *
+ * <p>Each step is measured twice : the original implementation ({@code baseline...}, as done in
+ * {@code ConnectionThread.run()} before the optimizations) and its replacement, so every change can be
+ * compared against the same baseline. Steps covered:</p>
+ * <ul>
+ *     <li>decoding of the received bytes into a String ({@link FrameCodec} slices),</li>
+ *     <li>command matching ({@link CommandRegistry}) and dispatch (handler table),</li>
+ *     <li>the {@link WireCodec} that replaced them on the session path : text lines and binary frames
+ *     decoded with their opcode, and the opcode switch of {@code ConnectionThread.handleMessage},</li>
+ *     <li>client ID building, per message or once per connection,</li>
+ *     <li>receive buffer allocation ({@link BufferPool}),</li>
+ *     <li>the echo write, and the whole pipeline of one message.</li>
+ * </ul>
+ *
+ * <p>Usage: `java -cp <classes and JMH jars> MessagePipelineBenchmark [benchmark regex]`</p>
+ *
+ * <p>The main method always adds the GC profiler, so each result comes with its allocation rate
+ * ({@code gc.alloc.rate.norm} is the number of bytes allocated per message).</p>
+ */
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagePipelineBenchmark {
+    private final int maxBufSize = 1024;
+
+    // Plain chat message, long chat message and command
+    @Param({"Hello, everyone!", "A longer chat message, typed by a client who has a lot to say to the others", "close server"})
+    public String message;
+
+    // Received bytes, as left in the read buffer by one read()
+    private byte[] readBuf;
+    private int bytesRead;
+
+    // Client of the session
+    private InetAddress clientAddress;
+    private final int clientPort = 54321;
+    private String cachedClientID;
+
+    // Echo sent back for each message
+    private final byte[] echo_buf = "Message received\n".getBytes(StandardCharsets.UTF_8);
+    private final OutputStream output = OutputStream.nullOutputStream();
+
+    // Decoder and dispatch table of the current implementation
+    private final FrameCodec frameCodec = new FrameCodec(maxBufSize);
+    private final CommandHandler[] commandHandlers = CommandRegistry.newDispatchTable();
+    private String decoded;
+    private int handledCommands;
+    private final FrameCodec.FrameHandler decodeHandler = (frame, offset, length) -> decoded = FrameCodec.toString(frame, offset, length);
+    private final FrameCodec.FrameHandler pipelineHandler = this::handleMessage;
+
+    // Same message as a binary frame, and the decoders of the wire protocol (the first bytes fix their mode)
+    private byte[] binaryFrame;
+    private final WireCodec wireTextCodec = new WireCodec(WireProtocol.maxFrameLength);
+    private final WireCodec wireBinaryCodec = new WireCodec(WireProtocol.maxFrameLength);
+    private int decodedOpcode;
+    private final WireCodec.MessageHandler wireDecodeHandler = (opcode, flags, sequence, data, offset, length) -> {
+        decodedOpcode = opcode;
+        decoded = FrameCodec.toString(data, offset, length);
+    };
+    private final WireCodec.MessageHandler wireDispatchHandler = this::dispatchOpcode;
+    private final WireCodec.MessageHandler wirePipelineHandler = this::handleWireMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        readBuf = new byte[maxBufSize];
+        byte[] frame = FrameCodec.encode(message);
+        System.arraycopy(frame, 0, readBuf, 0, frame.length);
+        bytesRead = frame.length;
+        binaryFrame = WireCodec.encodeLine(message, 1);
+
+        clientAddress = InetAddress.getByName("127.0.0.1");
+        cachedClientID = clientAddress + ":" + clientPort;
+
+        for (CommandRegistry.Command command : CommandRegistry.Command.values()) {
+            commandHandlers[command.ordinal()] = (id, text) -> handledCommands++;
+        }
+    }
+
+    // Decoding
+
+    @Benchmark
+    public String baselineDecode() {
+        // The whole buffer was decoded, trailing zeros included
+        return new String(readBuf, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String frameDecode() throws IOException {
+        frameCodec.decode(readBuf, 0, bytesRead, decodeHandler);
+        return decoded;
+    }
+
+    @Benchmark
+    public String wireTextDecode() throws IOException {
+        wireTextCodec.decode(readBuf, 0, bytesRead, wireDecodeHandler);
+        return decoded;
+    }
+
+    @Benchmark
+    public String wireBinaryDecode() throws IOException {
+        wireBinaryCodec.decode(binaryFrame, 0, binaryFrame.length, wireDecodeHandler);
+        return decoded;
+    }
+
+    // Command matching and dispatch
+
+    @Benchmark
+    public boolean baselineCommandMatch() {
+        String receivedData = new String(readBuf, 0, bytesRead - 1, StandardCharsets.UTF_8);
+        return receivedData.trim().equalsIgnoreCase("exit console") || receivedData.trim().equalsIgnoreCase("close server");
+    }
+
+    @Benchmark
+    public CommandRegistry.Command registryCommandMatch() {
+        return CommandRegistry.shared.match(readBuf, 0, bytesRead - 1);
+    }
+
+    @Benchmark
+    public int baselineDispatch() {
+        String receivedData = new String(readBuf, 0, bytesRead - 1, StandardCharsets.UTF_8);
+        if (receivedData.trim().equalsIgnoreCase("?")) {
+            handledCommands++;
+        }
+        if (receivedData.trim().equalsIgnoreCase("exit console")) {
+            handledCommands++;
+        }
+        if (receivedData.trim().equalsIgnoreCase("close server")) {
+            handledCommands++;
+        }
+        return handledCommands;
+    }
+
+    @Benchmark
+    public int tableDispatch() {
+        CommandRegistry.Command command = CommandRegistry.shared.match(readBuf, 0, bytesRead - 1);
+        if (command != null) {
+            commandHandlers[command.ordinal()].handle(cachedClientID, command.getText());
+        }
+        return handledCommands;
+    }
+
+    @Benchmark
+    public int opcodeDispatch() throws IOException {
+        // The opcode comes with the frame header, no text matching
+        wireBinaryCodec.decode(binaryFrame, 0, binaryFrame.length, wireDispatchHandler);
+        return handledCommands;
+    }
+
+    // Client ID
+
+    @Benchmark
+    public String baselineClientID() {
+        // Built again for every message
+        return clientAddress + ":" + clientPort;
+    }
+
+    @Benchmark
+    public String cachedClientID() {
+        // Built once when the session starts
+        return cachedClientID;
+    }
+
+    // Receive buffer
+
+    @Benchmark
+    public byte[] baselineBufferAllocation() {
+        return new byte[maxBufSize];
+    }
+
+    @Benchmark
+    public void pooledBuffer(Blackhole blackhole) {
+        ByteBuffer buf = BufferPool.shared.acquire();
+        blackhole.consume(buf);
+        BufferPool.shared.release(buf);
+    }
+
+    // Echo
+
+    @Benchmark
+    public void echoWrite() throws IOException {
+        output.write(echo_buf);
+        output.flush();
+    }
+
+    // Whole pipeline of one message
+
+    @Benchmark
+    public boolean baselinePipeline(Blackhole blackhole) throws IOException {
+        String clientID = clientAddress + ":" + clientPort;
+        byte[] buf = new byte[maxBufSize];
+        System.arraycopy(readBuf, 0, buf, 0, bytesRead);
+        String receivedData = new String(buf, StandardCharsets.UTF_8);
+        blackhole.consume("Client " + clientID + " says : " + receivedData);
+        boolean command = receivedData.trim().equalsIgnoreCase("exit console") || receivedData.trim().equalsIgnoreCase("close server");
+        output.write(echo_buf);
+        output.flush();
+        return command;
+    }
+
+    @Benchmark
+    public String currentPipeline() throws IOException {
+        ByteBuffer buf = BufferPool.shared.acquire();
+        try {
+            System.arraycopy(readBuf, 0, buf.array(), buf.arrayOffset(), bytesRead);
+            frameCodec.decode(buf.array(), buf.arrayOffset(), bytesRead, pipelineHandler);
+        } finally {
+            BufferPool.shared.release(buf);
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public String wirePipeline() throws IOException {
+        ByteBuffer buf = BufferPool.shared.acquire();
+        try {
+            System.arraycopy(binaryFrame, 0, buf.array(), buf.arrayOffset(), binaryFrame.length);
+            wireBinaryCodec.decode(buf.array(), buf.arrayOffset(), binaryFrame.length, wirePipelineHandler);
+        } finally {
+            BufferPool.shared.release(buf);
+        }
+        return decoded;
+    }
+
+    /**
+     * Opcode switch of {@code ConnectionThread.handleMessage}, without the logging and the reply.
+     */
+    private void dispatchOpcode(int opcode, int flags, int sequence, byte[] data, int offset, int length) {
+        switch (opcode) {
+            case WireProtocol.opcodeChat:
+                decodedOpcode = opcode;
+                break;
+            default:
+                CommandRegistry.Command command = CommandRegistry.commandOf(opcode);
+                if (command != null) {
+                    commandHandlers[command.ordinal()].handle(cachedClientID, command.getText());
+                }
+                break;
+        }
+    }
+
+    /**
+     * Message handler of the binary sessions, as in {@code ConnectionThread.handleMessage} : the opcode
+     * switch, then an acknowledgement frame instead of the echo line.
+     */
+    private void handleWireMessage(int opcode, int flags, int sequence, byte[] data, int offset, int length) throws IOException {
+        decoded = "Client " + cachedClientID + " says : " + FrameCodec.toString(data, offset, length);
+        dispatchOpcode(opcode, flags, sequence, data, offset, length);
+        output.write(WireProtocol.encode(WireProtocol.opcodeAck, sequence));
+        output.flush();
+    }
+
+    /**
+     * Message handler of the current pipeline, as in {@code ConnectionThread.handleMessage}.
+     */
+    private void handleMessage(byte[] frame, int offset, int length) throws IOException {
+        CommandRegistry.Command command = CommandRegistry.shared.match(frame, offset, length);
+        decoded = "Client " + cachedClientID + " says : " + FrameCodec.toString(frame, offset, length);
+        if (command != null) {
+            commandHandlers[command.ordinal()].handle(cachedClientID, command.getText());
+        }
+        output.write(echo_buf);
+        output.flush();
+    }
+
+    /**
+     * Runs the benchmarks with the GC profiler.
+     *
+     * <p>Usage: `java MessagePipelineBenchmark [benchmark regex]`</p>
+     *
+     * @param args optional regular expression selecting the benchmarks to run.
+     * @throws RunnerException if JMH fails to run the benchmarks.
+     */
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : MessagePipelineBenchmark.class.getSimpleName();
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
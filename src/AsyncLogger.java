@@ -0,0 +1,316 @@
+/**
+ * Asynchronous logger used by the servers instead of {@code System.out.println} in their receive loops.
+ *
+ * <p>Network threads only publish their line into a bounded lock-free ring buffer and return : they never
+ * take the console lock nor wait for a write. A background writer thread drains the ring, joins the lines
+ * of a batch and prints them with one write and one flush.</p>
+ *
+ * <p>Features:</p>
+ * <ul>
+ *     <li>Levels : lines below the configured level are discarded before reaching the ring.</li>
+ *     <li>Multi-producer ring buffer with per-slot sequence numbers, no lock on the logging path.</li>
+ *     <li>Batched writes : {@code ERROR} lines go to {@code System.err}, the others to {@code System.out}.</li>
+ *     <li>The writer parks while the ring is empty, woken by the producer that publishes the next line :
+ *     an idle server doesn't wake it up.</li>
+ *     <li>Overflow policy when the writer can't keep up : drop the line (default) or wait for a free slot.
+ *     Dropped lines are counted and reported by the writer.</li>
+ * </ul>
+ *
+ * <p>The level and overflow policy of the shared logger can be set with the {@code chat.log.level}
+ * (DEBUG, INFO, WARN, ERROR) and {@code chat.log.overflow} (DROP, BLOCK) system properties.</p>
+ */
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+public class AsyncLogger {
+    /**
+     * Log levels, in increasing order of importance.
+     */
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    /**
+     * What a producer does when the ring is full.
+     */
+    public enum OverflowPolicy { DROP, BLOCK }
+
+    // Logger shared by the servers
+    public static final AsyncLogger shared = new AsyncLogger(8192,
+            Level.valueOf(System.getProperty("chat.log.level", "INFO").toUpperCase()),
+            OverflowPolicy.valueOf(System.getProperty("chat.log.overflow", "DROP").toUpperCase()));
+
+    // Wait of a blocked producer for a free slot
+    private static final long fullParkNanos = 1_000_000;   // 1 ms
+    private static final int maxBatchLines = 256;
+
+    // Ring buffer : slot i is free for position p when sequences[i] == p, readable when sequences[i] == p + 1
+    private final int capacity;
+    private final int mask;
+    private final String[] lines;
+    private final Level[] levels;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();   // Next position claimed by a producer
+    private volatile long head = 0;   // Next position read by the writer
+
+    private volatile Level level;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong droppedLines = new AtomicLong();
+
+    private volatile Thread writerThread;
+    private volatile boolean writerParked = false;   // Set by the writer before it parks on an empty ring
+
+    // Signaled by the writer after each batch while flush() callers wait
+    private final Object flushed = new Object();
+    private volatile int flushWaiters = 0;
+
+    /**
+     * Creates an asynchronous logger.
+     *
+     * @param capacity the number of lines the ring can hold, rounded up to a power of two.
+     * @param level the minimum level of the lines to print.
+     * @param overflowPolicy the behavior when the ring is full.
+     */
+    public AsyncLogger(int capacity, Level level, OverflowPolicy overflowPolicy) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = this.capacity - 1;
+        this.lines = new String[this.capacity];
+        this.levels = new Level[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.level = level;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets the minimum level of the lines to print.
+     *
+     * @param level the new level.
+     */
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * Checks if lines of a level would be printed, to skip building expensive messages.
+     *
+     * @param lineLevel the level to check.
+     * @return {@code true} if the level is enabled.
+     */
+    public boolean isEnabled(Level lineLevel) {
+        return lineLevel.compareTo(level) >= 0;
+    }
+
+    /**
+     * Gets the number of lines dropped because the ring was full.
+     *
+     * @return the dropped lines count.
+     */
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    /**
+     * Publishes a {@code DEBUG} line, see {@link #log(Level, String)}.
+     *
+     * @param line the line, without line separator.
+     */
+    public void debug(String line) {
+        log(Level.DEBUG, line);
+    }
+
+    /**
+     * Publishes an {@code INFO} line, see {@link #log(Level, String)}.
+     *
+     * @param line the line, without line separator.
+     */
+    public void info(String line) {
+        log(Level.INFO, line);
+    }
+
+    /**
+     * Publishes a {@code WARN} line, see {@link #log(Level, String)}.
+     *
+     * @param line the line, without line separator.
+     */
+    public void warn(String line) {
+        log(Level.WARN, line);
+    }
+
+    /**
+     * Publishes an {@code ERROR} line, printed on {@code System.err}, see {@link #log(Level, String)}.
+     *
+     * @param line the line, without line separator.
+     */
+    public void error(String line) {
+        log(Level.ERROR, line);
+    }
+
+    /**
+     * Publishes a line for the writer thread. Never waits for the console.
+     *
+     * @param lineLevel the level of the line.
+     * @param line the line, without line separator.
+     */
+    public void log(Level lineLevel, String line) {
+        if (!isEnabled(lineLevel)) {
+            return;
+        }
+        startWriter();
+
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long available = sequences.get(index) - position;
+            if (available == 0) {
+                // Free slot : try to claim it
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (available < 0) {
+                // Ring full
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    droppedLines.incrementAndGet();
+                    return;
+                }
+                LockSupport.parkNanos(fullParkNanos);
+                position = tail.get();
+            } else {
+                // Another producer claimed it first
+                position = tail.get();
+            }
+        }
+
+        // Fill the claimed slot, then publish it to the writer
+        int index = (int) position & mask;
+        lines[index] = line;
+        levels[index] = lineLevel;
+        sequences.set(index, position + 1);
+        // The writer checks the ring again after setting the flag, so one of the two sees the other
+        if (writerParked) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * Waits until every line published before the call has been printed.
+     * Used before the servers print their closure or exit.
+     */
+    public void flush() {
+        long target = tail.get();
+        if (writerThread == null || head >= target) {
+            return;
+        }
+        synchronized (flushed) {
+            flushWaiters++;
+            try {
+                while (head < target) {
+                    flushed.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                flushWaiters--;
+            }
+        }
+    }
+
+    /**
+     * Starts the daemon writer thread on first use.
+     */
+    private void startWriter() {
+        if (writerThread != null) {
+            return;
+        }
+        synchronized (this) {
+            if (writerThread == null) {
+                Thread thread = new Thread(this::drainLoop, "async-logger");
+                thread.setDaemon(true);
+                thread.start();
+                // Print the last lines when the program calls System.exit()
+                Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+                writerThread = thread;
+            }
+        }
+    }
+
+    /**
+     * Writer thread loop : prints the published lines by batches.
+     */
+    private void drainLoop() {
+        StringBuilder outBatch = new StringBuilder();
+        StringBuilder errBatch = new StringBuilder();
+        long reportedDrops = 0;
+
+        while (true) {
+            int batchLines = 0;
+            long position = head;
+            while (batchLines < maxBatchLines) {
+                int index = (int) position & mask;
+                if (sequences.get(index) != position + 1) {
+                    break;   // Nothing more published
+                }
+                StringBuilder batch = levels[index] == Level.ERROR ? errBatch : outBatch;
+                batch.append(lines[index]).append(System.lineSeparator());
+                lines[index] = null;
+                // Free the slot for the producer that will wrap around to it
+                sequences.set(index, position + capacity);
+                position++;
+                batchLines++;
+            }
+
+            // Report lost lines once per batch
+            long drops = droppedLines.get();
+            if (drops != reportedDrops) {
+                errBatch.append("[logger] ").append(drops - reportedDrops).append(" lines dropped").append(System.lineSeparator());
+                reportedDrops = drops;
+            }
+
+            write(System.out, outBatch);
+            write(System.err, errBatch);
+            // Lines are only marked as read once printed, so flush() really waits for the console
+            head = position;
+            if (flushWaiters > 0) {
+                synchronized (flushed) {
+                    flushed.notifyAll();
+                }
+            }
+
+            if (batchLines == 0) {
+                awaitLine(position);
+            }
+        }
+    }
+
+    /**
+     * Parks the writer until a producer publishes the line at a position.
+     */
+    private void awaitLine(long position) {
+        int index = (int) position & mask;
+        writerParked = true;
+        // Published between the last check and the flag : the producer may not have seen the flag
+        while (sequences.get(index) != position + 1) {
+            LockSupport.park(this);
+        }
+        writerParked = false;
+    }
+
+    /**
+     * Prints a batch with one write and one flush, then clears it.
+     */
+    private static void write(PrintStream stream, StringBuilder batch) {
+        if (batch.length() == 0) {
+            return;
+        }
+        stream.print(batch);
+        stream.flush();
+        batch.setLength(0);
+    }
+}
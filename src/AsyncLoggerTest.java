@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code AsyncLogger}.
+ */
+class AsyncLoggerTest {
+    private final int capacity = 16;
+    private PrintStream originalOut;
+    private ByteArrayOutputStream consoleOutput;
+
+    @BeforeEach
+    void setUp() {
+        // Capture console output, the writer thread prints to the current System.out
+        originalOut = System.out;
+        consoleOutput = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(consoleOutput));
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Test
+    void testLinesArePrintedInOrderAfterFlush() {
+        AsyncLogger logger = new AsyncLogger(capacity, AsyncLogger.Level.INFO, AsyncLogger.OverflowPolicy.BLOCK);
+        // More lines than the ring holds, the BLOCK policy makes the producer wait for the writer
+        for (int i = 0; i < capacity * 4; i++) {
+            logger.info("line " + i);
+        }
+        logger.flush();
+
+        String[] printed = consoleOutput.toString().split(System.lineSeparator());
+        assertEquals(capacity * 4, printed.length);
+        for (int i = 0; i < printed.length; i++) {
+            assertEquals("line " + i, printed[i]);
+        }
+        assertEquals(0, logger.getDroppedLines());
+    }
+
+    @Test
+    void testLinesBelowLevelAreDiscarded() {
+        AsyncLogger logger = new AsyncLogger(capacity, AsyncLogger.Level.WARN, AsyncLogger.OverflowPolicy.DROP);
+        logger.info("chat message");
+        logger.warn("slow client");
+        logger.flush();
+
+        assertFalse(logger.isEnabled(AsyncLogger.Level.DEBUG));
+        assertEquals("slow client" + System.lineSeparator(), consoleOutput.toString());
+    }
+
+    /**
+     * Checks if every logger writer thread waits without timeout.
+     */
+    private static boolean writersWaiting() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("async-logger") && thread.getState() != Thread.State.WAITING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    void testIdleWriterWaitsForTheNextLine() throws InterruptedException {
+        AsyncLogger logger = new AsyncLogger(capacity, AsyncLogger.Level.INFO, AsyncLogger.OverflowPolicy.DROP);
+        logger.info("first");
+        logger.flush();
+
+        // Every writer parks without timeout on its empty ring, none polls it
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!writersWaiting() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(writersWaiting(), "An idle writer should park until the next line");
+
+        // Woken up by the next line
+        logger.info("second");
+        logger.flush();
+        assertEquals("first" + System.lineSeparator() + "second" + System.lineSeparator(), consoleOutput.toString());
+    }
+}
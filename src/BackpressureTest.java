@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the outbound queue watermarks on a running {@code TCPMultiServer}.
+ */
+class BackpressureTest {
+    private final int testPort = 12394;
+
+    private void assertNonReadingClientIsDisconnected(ServerMode mode, int port) throws Exception {
+        TCPMultiServer server = new TCPMultiServer(port, mode);
+        server.setOutboundWatermarks(1024, 4096);
+        server.setWriteStallTimeout(300);
+        Thread serverThread = TestServers.launch(server);
+
+        byte[] lines = new byte[64 * 1024];
+        Arrays.fill(lines, (byte) '\n');
+        try (Socket floodSocket = new Socket()) {
+            // A small receive window, quickly full of echoes the client never reads
+            floodSocket.setReceiveBufferSize(4096);
+            floodSocket.connect(new InetSocketAddress("localhost", port));
+            Thread flooder = new Thread(() -> {
+                try {
+                    OutputStream output = floodSocket.getOutputStream();
+                    while (true) {
+                        output.write(lines);
+                    }
+                } catch (IOException e) {
+                    // Disconnected by the server
+                }
+            });
+            flooder.start();
+            flooder.join(15000);
+            assertFalse(flooder.isAlive(), "A client that stops reading should be disconnected");
+        }
+        // Its session ends too, even though its last writes failed
+        for (int i = 0; i < 50 && server.getMetrics().getActiveSessions() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, server.getMetrics().getActiveSessions(), "The session of the disconnected client should end");
+
+        // The other clients are still served
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write("close server\n".getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            assertEquals("Message received\n", new String(socket.getInputStream().readNBytes(17), StandardCharsets.UTF_8));
+        }
+        serverThread.join(15000);
+        assertFalse(serverThread.isAlive(), "The server should be closed");
+    }
+
+    @Test
+    void testThreadServerDisconnectsNonReadingClient() throws Exception {
+        assertNonReadingClientIsDisconnected(ServerMode.THREAD, testPort);
+    }
+
+    @Test
+    void testSelectorServerDisconnectsNonReadingClient() throws Exception {
+        assertNonReadingClientIsDisconnected(ServerMode.SELECTOR, testPort + 1);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * A pool of fixed-size receive buffers shared by the client sessions.
+ *
+ * <p>Instead of allocating a new {@code byte[]} for every read, sessions borrow a buffer with {@link #acquire()}
+ * and give it back with {@link #release(ByteBuffer)}. In steady state the receive path allocates nothing,
+ * which keeps the garbage collector quiet when thousands of clients chat at once.</p>
+ *
+ * <p>Features:</p>
+ * <ul>
+ *     <li>Buffers are heap {@link ByteBuffer} slices cut from larger slabs, so they work with both
+ *     {@code InputStream.read(byte[], int, int)} (through {@link ByteBuffer#array()}) and NIO channels.</li>
+ *     <li>A shared lock-free queue holds the free buffers of every thread.</li>
+ *     <li>Long-lived threads (event loops, accept loops) can enable a small per-thread cache with
+ *     {@link #enableThreadCache()} to skip the shared queue entirely.</li>
+ *     <li>The number of pooled buffers is capped : extra released buffers are left to the garbage collector.</li>
+ * </ul>
+ *
+ * <p>Users of {@link ByteBuffer#array()} must add {@link ByteBuffer#arrayOffset()} since the buffers share their slab.</p>
+ */
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BufferPool {
+    // Pool shared by the servers, sized for their 1024 bytes receive buffers
+    public static final BufferPool shared = new BufferPool(1024, 64, 16, 16384);
+
+    private final int bufferSize;
+    private final int buffersPerSlab;
+    private final int threadCacheSize;
+    private final int maxPooledBuffers;
+
+    // Free buffers available to every thread
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+
+    // Per-thread free buffers, null unless the thread enabled its cache
+    private final ThreadLocal<ArrayDeque<ByteBuffer>> threadCache = new ThreadLocal<>();
+
+    /**
+     * Creates a buffer pool.
+     *
+     * @param bufferSize the capacity of each buffer in bytes.
+     * @param buffersPerSlab the number of buffers cut from one slab allocation.
+     * @param threadCacheSize the maximum number of free buffers kept by a thread cache.
+     * @param maxPooledBuffers the maximum number of free buffers kept in the shared queue.
+     */
+    public BufferPool(int bufferSize, int buffersPerSlab, int threadCacheSize, int maxPooledBuffers) {
+        this.bufferSize = bufferSize;
+        this.buffersPerSlab = buffersPerSlab;
+        this.threadCacheSize = threadCacheSize;
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * Gets the capacity of the buffers handed out by this pool.
+     *
+     * @return the buffer size in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the number of buffers allocated since the pool was created.
+     * A value that stops growing means the receive path no longer allocates.
+     *
+     * @return the number of allocated buffers.
+     */
+    public int getAllocatedBuffers() {
+        return allocatedBuffers.get();
+    }
+
+    /**
+     * Enables a per-thread cache of free buffers for the calling thread.
+     * Only worth it for threads living as long as the server, a cache dies with its thread.
+     */
+    public void enableThreadCache() {
+        if (threadCache.get() == null) {
+            threadCache.set(new ArrayDeque<>(threadCacheSize));
+        }
+    }
+
+    /**
+     * Borrows a cleared buffer from the pool.
+     *
+     * @return a buffer of {@link #getBufferSize()} bytes, to give back with {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire() {
+        // Thread cache first, no synchronization at all
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache != null && !cache.isEmpty()) {
+            return cache.pop();
+        }
+
+        // Then the shared queue
+        ByteBuffer buf = freeBuffers.poll();
+        if (buf != null) {
+            pooledBuffers.decrementAndGet();
+            return buf;
+        }
+
+        // Pool empty : cut a new slab, keep one buffer and share the others
+        return allocateSlab();
+    }
+
+    /**
+     * Gives a buffer back to the pool. The buffer must not be used by the caller afterwards.
+     *
+     * @param buf the buffer obtained from {@link #acquire()}, ignored if {@code null}.
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null) {
+            return;
+        }
+        buf.clear();
+
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache != null && cache.size() < threadCacheSize) {
+            cache.push(buf);
+            return;
+        }
+        share(buf);
+    }
+
+    /**
+     * Adds a free buffer to the shared queue.
+     *
+     * @param buf the cleared buffer.
+     */
+    private void share(ByteBuffer buf) {
+        // Over the cap, the buffer is left to the garbage collector
+        if (pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+            freeBuffers.offer(buf);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Allocates one slab, slices it into buffers and returns the first one.
+     *
+     * @return a new buffer.
+     */
+    private ByteBuffer allocateSlab() {
+        ByteBuffer slab = ByteBuffer.allocate(bufferSize * buffersPerSlab);
+        allocatedBuffers.addAndGet(buffersPerSlab);
+
+        ByteBuffer first = null;
+        for (int i = 0; i < buffersPerSlab; i++) {
+            slab.limit((i + 1) * bufferSize).position(i * bufferSize);
+            ByteBuffer buf = slab.slice();
+            if (first == null) {
+                first = buf;
+            } else {
+                // Shared rather than cached : the thread cache stays free for the buffers the caller releases
+                share(buf);
+            }
+        }
+        return first;
+    }
+}
@@ -0,0 +1,63 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code BufferPool}.
+ */
+class BufferPoolTest {
+    private final int bufferSize = 1024;
+    private final int buffersPerSlab = 4;
+    private final int threadCacheSize = 2;
+    private final int maxPooledBuffers = 8;
+    private BufferPool bufferPool;
+
+    @BeforeEach
+    void setUp() {
+        bufferPool = new BufferPool(bufferSize, buffersPerSlab, threadCacheSize, maxPooledBuffers);
+    }
+
+    @Test
+    void testBuffersAreCutFromOneSlab() {
+        ByteBuffer first = bufferPool.acquire();
+        ByteBuffer second = bufferPool.acquire();
+
+        assertEquals(bufferSize, first.capacity());
+        assertEquals(bufferSize, second.remaining());
+        assertSame(first.array(), second.array(), "Buffers of one slab should share their backing array");
+        assertNotEquals(first.arrayOffset(), second.arrayOffset());
+        assertEquals(buffersPerSlab, bufferPool.getAllocatedBuffers());
+    }
+
+    @Test
+    void testSteadyStateDoesNotAllocate() {
+        for (int i = 0; i < 1000; i++) {
+            ByteBuffer buf = bufferPool.acquire();
+            buf.put((byte) i);
+            bufferPool.release(buf);
+        }
+        assertEquals(buffersPerSlab, bufferPool.getAllocatedBuffers(), "Released buffers should be reused");
+    }
+
+    @Test
+    void testReleasedBufferIsCleared() {
+        ByteBuffer buf = bufferPool.acquire();
+        buf.put(new byte[10]).flip();
+        bufferPool.release(buf);
+
+        ByteBuffer reused = bufferPool.acquire();
+        assertEquals(0, reused.position());
+        assertEquals(bufferSize, reused.limit());
+    }
+
+    @Test
+    void testThreadCacheReturnsLastReleasedBuffer() {
+        bufferPool.enableThreadCache();
+        ByteBuffer buf = bufferPool.acquire();
+        bufferPool.release(buf);
+        assertSame(buf, bufferPool.acquire());
+    }
+}
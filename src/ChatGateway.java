@@ -0,0 +1,172 @@
+/**
+ * Serves the UDP and TCP clients of one chat from a single process.
+ *
+ * <p>Usage: `java ChatGateway <tcp port> <udp port> [thread|selector|virtual] [channel | <receiver threads> <worker threads>]`</p>
+ *
+ * <p>The gateway runs a {@link TCPMultiServer} and a {@link UDPServer} side by side, on one shared engine :</p>
+ * <ul>
+ *     <li>One {@link ChatRoom}, built with the TCP settings : a message sent over UDP reaches the TCP clients,
+ *     and a UDP client that sends a hello frame receives the messages of everyone ({@link UDPChatMember}).</li>
+ *     <li>One pool of writer threads draining the outbound queues of the blocking TCP sessions.</li>
+ *     <li>One {@link ChatJournal}, fed by the room whatever the transport, and replayed to the TCP clients.</li>
+ *     <li>The same decoding ({@link WireProtocol}, {@link CommandRegistry}), buffers ({@link BufferPool}),
+ *     timers ({@link IdleTimer}), compressor and log thread, warmed up by both transports.</li>
+ * </ul>
+ *
+ * <p>A UDP broadcast runs on the receiving thread : the TCP sessions take deliveries from any thread, and in
+ * selector mode each one hands them to its own event loop. A {@code close server} command over either transport
+ * stops both servers.</p>
+ */
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ChatGateway {
+    private static final int systemShutdown = 1;
+
+    private final TCPMultiServer tcpServer;
+    private final UDPServer udpServer;
+    private ChatRoom chatRoom;
+
+    // Writers of the blocking TCP sessions : virtual threads in virtual mode, none in selector mode
+    private final ExecutorService writerExecutor;
+
+    /**
+     * Creates a gateway. The servers can be configured through {@link #getTcpServer()} and
+     * {@link #getUdpServer()} before {@link #launch()}, the room takes the chat settings of the TCP server.
+     *
+     * @param tcpPort the TCP listening port.
+     * @param udpPort the UDP listening port.
+     * @param mode the execution model of the TCP sessions.
+     * @param journal the journal of the chat messages, {@code null} for none.
+     */
+    public ChatGateway(int tcpPort, int udpPort, ServerMode mode, ChatJournal journal) {
+        this.tcpServer = new TCPMultiServer(tcpPort, mode);
+        this.udpServer = new UDPServer(udpPort);
+        tcpServer.setJournal(journal);
+        this.writerExecutor = newWriterExecutor(mode);
+    }
+
+    /**
+     * Creates the writer pool of the blocking TCP sessions : a virtual thread per drain in virtual mode, like
+     * the standalone {@link TCPMultiServer}, reused platform threads in thread mode.
+     */
+    private static ExecutorService newWriterExecutor(ServerMode mode) {
+        switch (mode) {
+            case SELECTOR:
+                return null;
+            case VIRTUAL:
+                return Executors.newVirtualThreadPerTaskExecutor();
+            default:
+                return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Returns the TCP server of the gateway.
+     *
+     * @return the TCP server.
+     */
+    public TCPMultiServer getTcpServer() {
+        return tcpServer;
+    }
+
+    /**
+     * Returns the UDP server of the gateway.
+     *
+     * @return the UDP server.
+     */
+    public UDPServer getUdpServer() {
+        return udpServer;
+    }
+
+    /**
+     * Returns the room shared by the TCP and UDP clients, created by {@link #launch()}.
+     *
+     * @return the chat room, or {@code null} before launch.
+     */
+    public ChatRoom getChatRoom() {
+        return chatRoom;
+    }
+
+    /**
+     * Runs both servers until one of them closes : the UDP server on its own thread, the TCP server on the
+     * calling thread.
+     *
+     * @throws IOException if the TCP server cannot be started or fails.
+     */
+    public void launch() throws IOException {
+        chatRoom = tcpServer.newChatRoom(writerExecutor);
+        tcpServer.setChatRoom(chatRoom);
+        // UDP chat keeps the gateway alive like TCP connections do
+        udpServer.setChatRoom(chatRoom, task -> {
+            tcpServer.recordActivity();
+            task.run();
+        });
+
+        Thread udpThread = new Thread(() -> {
+            try {
+                udpServer.launch();
+            } catch (IOException e) {
+                AsyncLogger.shared.error("UDP server failed: " + e.getMessage());
+            } finally {
+                // No chat without one of the transports
+                tcpServer.close();
+            }
+        }, "udp-gateway");
+        udpThread.start();
+        try {
+            tcpServer.launch();
+        } finally {
+            udpServer.close();
+            try {
+                udpThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writerExecutor != null) {
+                writerExecutor.shutdown();
+            }
+            AsyncLogger.shared.flush();
+        }
+    }
+
+    /**
+     * The main method to start the gateway.
+     *
+     * @param args the command-line arguments : the TCP and UDP listening ports, then optionally the TCP server
+     *             mode and the UDP threading.
+     * @throws IOException if an error occurs while starting or running the servers.
+     */
+    public static void main(String[] args) throws IOException {
+        // Parses command-line args
+        if (args.length < 2) {
+            System.err.println("Usage: java ChatGateway <tcp port> <udp port> [thread|selector|virtual] [channel | <receiver threads> <worker threads>]");
+            System.exit(systemShutdown);
+        }
+
+        int tcpPort = Integer.parseInt(args[0]);
+        int udpPort = Integer.parseInt(args[1]);
+        // Optional execution mode of the TCP sessions, selector by default : event loops shared by every client
+        ServerMode mode = args.length > 2 ? ServerMode.fromArg(args[2]) : ServerMode.SELECTOR;
+
+        // Optional message journal, set with -Dchat.journal.dir=<directory>
+        ChatJournal journal = ChatJournal.openConfigured();
+        ChatGateway gateway = new ChatGateway(tcpPort, udpPort, mode, journal);
+        // Optional idle timeout of the TCP sessions, set with -Dchat.idle.timeout=<ms>
+        gateway.getTcpServer().setIdleTimeout(SessionTimeouts.configuredIdleTimeout());
+        // Optional TLS for the TCP clients, set with -Dchat.tls.keystore=<PKCS12 file> -Dchat.tls.password=<password>
+        gateway.getTcpServer().setTls(TlsContext.openConfigured());
+        // Optional non-blocking channel or multi-threaded receive path for UDP
+        if (args.length > 3 && args[3].equalsIgnoreCase("channel")) {
+            gateway.getUdpServer().setChannelMode(true);
+        } else if (args.length > 4) {
+            gateway.getUdpServer().setThreading(Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+        }
+        gateway.launch();
+        if (journal != null) {
+            journal.close();
+        }
+        System.exit(systemShutdown);
+    }
+}
@@ -0,0 +1,115 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code ChatGateway}.
+ */
+class ChatGatewayTest {
+    private final int tcpPort = 12396;
+    private final int udpPort = 12397;
+
+    /**
+     * Waits for the next chat frame sent to a UDP member, and returns its payload.
+     */
+    private static String receiveChat(DatagramChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(2048);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            buf.clear();
+            if (channel.receive(buf) == null) {
+                Thread.yield();
+                continue;
+            }
+            buf.flip();
+            WireProtocol.Reader reader = new WireProtocol.Reader().wrap(buf, 0);
+            assertTrue(reader.hasMagic(), "UDP members should receive binary frames");
+            if (reader.opcode() == WireProtocol.opcodeChat) {
+                return new String(buf.array(), reader.payloadOffset(), reader.length(), StandardCharsets.UTF_8);
+            }
+        }
+        throw new SocketTimeoutException("No chat frame received");
+    }
+
+    private void assertTransportsShareTheChat(ServerMode mode, int tcpPort, int udpPort) throws Exception {
+        Path directory = Files.createTempDirectory("chat-gateway");
+        try (ChatJournal journal = ChatJournal.open(directory, 4096, 5)) {
+            ChatGateway gateway = new ChatGateway(tcpPort, udpPort, mode, journal);
+            gateway.getTcpServer().setHistoryLength(0);
+            Thread gatewayThread = TestServers.launch(gateway);
+
+            try (Socket tcpSocket = new Socket("localhost", tcpPort);
+                 DatagramChannel udpMember = DatagramChannel.open();
+                 DatagramChannel udpSender = DatagramChannel.open()) {
+                tcpSocket.setSoTimeout(5000);
+                BufferedReader tcpReader = new BufferedReader(new InputStreamReader(tcpSocket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream tcpOutput = tcpSocket.getOutputStream();
+                udpMember.connect(new InetSocketAddress("localhost", udpPort));
+                udpMember.configureBlocking(false);
+                udpSender.connect(new InetSocketAddress("localhost", udpPort));
+                Thread.sleep(200);
+
+                // A UDP client joins the room with a hello frame
+                udpMember.write(ByteBuffer.wrap(WireProtocol.encode(WireProtocol.opcodeHello, 0)));
+                Thread.sleep(200);
+
+                // A plain UDP datagram reaches the TCP client and the UDP member
+                udpSender.write(ByteBuffer.wrap("from udp".getBytes(StandardCharsets.UTF_8)));
+                assertTrue(tcpReader.readLine().endsWith("says : from udp"));
+                assertTrue(receiveChat(udpMember).endsWith("says : from udp"));
+
+                // A TCP message reaches the UDP member
+                tcpOutput.write("from tcp\n".getBytes(StandardCharsets.UTF_8));
+                tcpOutput.flush();
+                assertEquals("Message received", tcpReader.readLine());
+                assertTrue(receiveChat(udpMember).endsWith("says : from tcp"));
+
+                // One journal for both transports
+                assertEquals(2, journal.getLastSequence());
+                ByteArrayOutputStream history = new ByteArrayOutputStream();
+                try (ChatJournal.Replay replay = journal.replayFrom(1)) {
+                    replay.transferTo(Channels.newChannel(history), Long.MAX_VALUE);
+                }
+                String[] lines = history.toString(StandardCharsets.UTF_8).split("\n");
+                assertTrue(lines[0].endsWith("from udp"));
+                assertTrue(lines[1].endsWith("from tcp"));
+
+                // Closing over UDP stops the TCP side too
+                udpSender.write(ByteBuffer.wrap("close server".getBytes(StandardCharsets.UTF_8)));
+            }
+            // The thread mode notices the closure at its next accept timeout
+            gatewayThread.join(15000);
+            assertFalse(gatewayThread.isAlive(), "The gateway should be closed");
+        }
+    }
+
+    @Test
+    void testSelectorGatewaySharesTheChat() throws Exception {
+        assertTransportsShareTheChat(ServerMode.SELECTOR, tcpPort, udpPort);
+    }
+
+    @Test
+    void testThreadGatewaySharesTheChat() throws Exception {
+        assertTransportsShareTheChat(ServerMode.THREAD, tcpPort + 2, udpPort + 2);
+    }
+
+    @Test
+    void testVirtualGatewaySharesTheChat() throws Exception {
+        assertTransportsShareTheChat(ServerMode.VIRTUAL, tcpPort + 6, udpPort + 6);
+    }
+}
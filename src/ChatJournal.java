@@ -0,0 +1,781 @@
+/**
+ * Append-only journal of the chat messages, in memory-mapped segment files.
+ *
+ * <p>Each message is one text line : {@code <sequence> <timestamp ms> <sender> says : <message>}, the same
+ * line the chat room broadcasts, prefixed with its sequence number and time. Line breaks inside a message
+ * are written as spaces, so a segment can be read, grepped or streamed to a client as it is.</p>
+ *
+ * <ul>
+ *     <li>Appending copies the record into the mapped segment under a short lock : no system call, so a
+ *     session thread never waits for the disk.</li>
+ *     <li>Group commit : a flusher thread forces everything appended since its last pass with one
+ *     {@code msync}, every few milliseconds or as soon as a caller of {@link #awaitDurable} waits. All the
+ *     sessions appending in the meantime share that single flush.</li>
+ *     <li>Segments : a full segment is sealed, flushed and truncated to its data by the flusher. The next one
+ *     is created and mapped ahead of time by the flusher, so rolling only renames a file. Segments are named
+ *     after the sequence number of their first record.</li>
+ * </ul>
+ *
+ * <p>A {@link Replay} streams a range of records from the segment files to a channel with
+ * {@link FileChannel#transferTo} (sendfile), without copying them through the Java heap. A sparse index of
+ * every 64th record in each segment finds where a range starts.</p>
+ *
+ * <p>When a journal is opened on an existing directory, the segments are scanned to rebuild their index and
+ * cut after their last complete record (a crash may leave a torn record or zeros), and the sequence numbers
+ * go on from there.</p>
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+public class ChatJournal implements AutoCloseable {
+    /**
+     * One segment file. Only the active segment is mapped, sealed segments are read through their file.
+     */
+    static final class Segment {
+        private final Path path;
+        private final long baseSequence;
+        private volatile FileChannel channel;
+        private volatile MappedByteBuffer buffer;
+        private volatile int writePosition;
+        private volatile long lastSequence;
+        private volatile boolean sealed = false;
+        private int forcedPosition;   // Only used by the flusher
+
+        // Position of every indexInterval-th record, only used under the journal lock
+        private int[] index = new int[16];
+        private int indexCount = 0;
+
+        private Segment(Path path, long baseSequence, FileChannel channel, MappedByteBuffer buffer,
+                        int writePosition, long lastSequence) {
+            this.path = path;
+            this.baseSequence = baseSequence;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.writePosition = writePosition;
+            this.forcedPosition = writePosition;
+            this.lastSequence = lastSequence;
+        }
+
+        /**
+         * Records the position of the next indexed record.
+         */
+        private void addIndex(int position) {
+            if (indexCount == index.length) {
+                index = Arrays.copyOf(index, indexCount * 2);
+            }
+            index[indexCount++] = position;
+        }
+    }
+
+    /**
+     * A range of records being copied to a channel, segment after segment. The end of the range is fixed
+     * when the replay starts : the records appended later are not part of it.
+     *
+     * <p>Not thread-safe : a replay is driven by one session.</p>
+     */
+    public static final class Replay implements AutoCloseable {
+        private final List<Path> paths;
+        private final long[] starts;
+        private final long[] ends;
+        private int region = 0;
+        private long position;
+        private FileChannel channel;
+
+        private Replay(List<Path> paths, long[] starts, long[] ends, FileChannel firstChannel) {
+            this.paths = paths;
+            this.starts = starts;
+            this.ends = ends;
+            this.channel = firstChannel;
+            this.position = paths.isEmpty() ? 0 : starts[0];
+        }
+
+        /**
+         * Copies the next records to a channel, with sendfile when it is a socket. A non-blocking channel
+         * takes what fits in its send buffer : the replay goes on when it is writable again.
+         *
+         * @param target the channel of the client.
+         * @param maxBytes the most bytes copied by this call.
+         * @return the number of bytes copied.
+         * @throws IOException if a segment cannot be read or the channel written.
+         */
+        public long transferTo(WritableByteChannel target, long maxBytes) throws IOException {
+            long transferred = 0;
+            while (region < paths.size() && transferred < maxBytes) {
+                if (channel == null) {
+                    channel = FileChannel.open(paths.get(region), StandardOpenOption.READ);
+                    position = starts[region];
+                }
+                long count = Math.min(ends[region] - position, maxBytes - transferred);
+                long written = count > 0 ? channel.transferTo(position, count, target) : 0;
+                position += written;
+                transferred += written;
+                if (position >= ends[region]) {
+                    channel.close();
+                    channel = null;
+                    region++;
+                } else if (written < count) {
+                    // The channel is full
+                    break;
+                }
+            }
+            return transferred;
+        }
+
+        /**
+         * Checks if every record of the range was copied.
+         *
+         * @return {@code true} once the replay is over.
+         */
+        public boolean isDone() {
+            return region >= paths.size();
+        }
+
+        /**
+         * Gets the number of bytes left to copy.
+         *
+         * @return the remaining bytes.
+         */
+        public long getRemainingBytes() {
+            long remaining = 0;
+            for (int i = region; i < paths.size(); i++) {
+                remaining += ends[i] - (i == region && channel != null ? position : starts[i]);
+            }
+            return remaining;
+        }
+
+        /**
+         * Closes the segment file being read. Safe to call several times.
+         */
+        @Override
+        public void close() {
+            region = paths.size();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    AsyncLogger.shared.error("Error closing resources: " + e.getMessage());
+                }
+                channel = null;
+            }
+        }
+    }
+
+    // Journal directory set on the command line of the servers, no journal when absent
+    private static final String directoryProperty = "chat.journal.dir";
+
+    private static final String segmentSuffix = ".log";
+    private static final String preparedSegmentName = "next.segment";
+    private static final byte[] separator = " says : ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte space = ' ';
+    private static final byte lineBreak = '\n';
+    private static final int indexInterval = 64;   // One index entry every 64 records of a segment
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long flushIntervalNanos;
+
+    // Segments oldest first, the last one is active
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private Segment active;
+    private Segment prepared;   // Mapped ahead by the flusher, taken by the next roll
+    private long nextSequence;
+    private boolean closed = false;
+
+    // Scratch for the decimal numbers, only used under the lock
+    private final byte[] digits = new byte[20];
+
+    // Group commit : last sequence number forced to disk, waited on by awaitDurable
+    private final Object durableMonitor = new Object();
+    private volatile long durableSequence;
+    private volatile boolean flusherRunning = true;
+    private Thread flusher;
+
+    /**
+     * Recovers the segments of a directory. The flusher is started by {@link #open(Path, int, long)}.
+     */
+    private ChatJournal(Path directory, int segmentSize, long flushIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        Files.createDirectories(directory);
+        recover();
+        this.durableSequence = nextSequence - 1;
+    }
+
+    /**
+     * Opens the journal of a directory with 64 MB segments and a flush every 5 ms.
+     *
+     * @param directory the journal directory, created if needed.
+     * @return the journal, ready for appends.
+     * @throws IOException if the directory or a segment cannot be opened.
+     */
+    public static ChatJournal open(Path directory) throws IOException {
+        return open(directory, 64 << 20, 5);
+    }
+
+    /**
+     * Opens the journal of a directory, recovering its existing segments, and starts its flusher.
+     *
+     * @param directory the journal directory, created if needed.
+     * @param segmentSize the size of a segment file (bytes).
+     * @param flushIntervalMillis the longest time a record waits to be forced to disk (ms).
+     * @return the journal, ready for appends.
+     * @throws IOException if the directory or a segment cannot be opened.
+     */
+    public static ChatJournal open(Path directory, int segmentSize, long flushIntervalMillis) throws IOException {
+        ChatJournal journal = new ChatJournal(directory, segmentSize, flushIntervalMillis);
+        journal.startFlusher();
+        return journal;
+    }
+
+    /**
+     * Starts the flusher thread, once the segments are recovered.
+     */
+    private void startFlusher() {
+        flusher = new Thread(this::flushLoop, "chat-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Opens the journal set by the {@code chat.journal.dir} system property.
+     *
+     * @return the journal, or {@code null} when the property is not set.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public static ChatJournal openConfigured() throws IOException {
+        String directory = System.getProperty(directoryProperty);
+        return directory == null ? null : open(Paths.get(directory));
+    }
+
+    /**
+     * Appends a chat message. Never waits for the disk : the record is durable once
+     * {@link #awaitDurable} returns for its sequence number, a few milliseconds later at most.
+     *
+     * @param sender the client identifier.
+     * @param message the message bytes, UTF-8.
+     * @param offset the start of the message.
+     * @param length the message length.
+     * @return the sequence number of the record, or -1 if it could not be written (logged).
+     */
+    public long append(String sender, byte[] message, int offset, int length) {
+        long timestamp = System.currentTimeMillis();
+        int senderLength = utf8Length(sender);
+
+        synchronized (this) {
+            if (closed) {
+                return -1;
+            }
+            long sequence = nextSequence;
+            int recordLength = decimalLength(sequence) + 1 + decimalLength(timestamp) + 1 + senderLength
+                    + separator.length + length + 1;
+            if (recordLength > segmentSize) {
+                AsyncLogger.shared.warn("Message of " + sender + " too long for the journal (" + length + " bytes)");
+                return -1;
+            }
+            if (active.writePosition + recordLength > active.buffer.capacity()) {
+                try {
+                    roll(sequence);
+                } catch (IOException e) {
+                    AsyncLogger.shared.error("Journal segment cannot be created: " + e.getMessage());
+                    return -1;
+                }
+            }
+
+            MappedByteBuffer buffer = active.buffer;
+            int position = active.writePosition;
+            if ((sequence - active.baseSequence) % indexInterval == 0) {
+                active.addIndex(position);
+            }
+            position = putDecimal(buffer, position, sequence);
+            buffer.put(position++, space);
+            position = putDecimal(buffer, position, timestamp);
+            buffer.put(position++, space);
+            position = putString(buffer, position, sender);
+            buffer.put(position, separator, 0, separator.length);
+            position += separator.length;
+            position = putMessage(buffer, position, message, offset, length);
+            buffer.put(position++, lineBreak);
+
+            // Published once the record is complete
+            active.lastSequence = sequence;
+            active.writePosition = position;
+            nextSequence++;
+            return sequence;
+        }
+    }
+
+    /**
+     * Appends a chat message.
+     *
+     * @param sender the client identifier.
+     * @param message the message.
+     * @return the sequence number of the record, or -1 if it could not be written (logged).
+     */
+    public long append(String sender, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return append(sender, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Waits until a record is forced to disk. The flusher is woken at once, so the callers waiting at the
+     * same time share one flush.
+     *
+     * @param sequence the sequence number returned by {@link #append}.
+     * @param timeoutMillis the longest wait (ms).
+     * @return {@code true} if the record is durable.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public boolean awaitDurable(long sequence, long timeoutMillis) throws InterruptedException {
+        if (durableSequence >= sequence) {
+            return true;
+        }
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (durableMonitor) {
+            while (durableSequence < sequence) {
+                LockSupport.unpark(flusher);
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (remainingMillis <= 0 || !flusher.isAlive()) {
+                    return false;
+                }
+                durableMonitor.wait(remainingMillis);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts a replay of the records from a sequence number to the last one appended.
+     *
+     * @param fromSequence the first record to replay, older ones are skipped.
+     * @return the replay, empty when there is no record from that sequence number.
+     * @throws IOException if the first segment cannot be read.
+     */
+    public Replay replayFrom(long fromSequence) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        List<Long> ends = new ArrayList<>();
+        long indexedSequence;
+        int indexedPosition;
+        synchronized (this) {
+            long lastSequence = nextSequence - 1;
+            long firstSequence = Math.max(fromSequence, segments.get(0).baseSequence);
+            if (firstSequence > lastSequence) {
+                return new Replay(List.of(), new long[0], new long[0], null);
+            }
+
+            // Segment holding the first record, then its closest index entry
+            int first = segments.size() - 1;
+            while (segments.get(first).baseSequence > firstSequence) {
+                first--;
+            }
+            Segment segment = segments.get(first);
+            int entry = (int) Math.min((firstSequence - segment.baseSequence) / indexInterval, segment.indexCount - 1);
+            indexedSequence = entry < 0 ? segment.baseSequence : segment.baseSequence + (long) entry * indexInterval;
+            indexedPosition = entry < 0 ? 0 : segment.index[entry];
+            fromSequence = firstSequence;
+
+            // The writes of the active segment after this point are not part of the replay
+            for (int i = first; i < segments.size(); i++) {
+                paths.add(segments.get(i).path);
+                ends.add((long) segments.get(i).writePosition);
+            }
+        }
+
+        // Skip the records before the first one, from the index entry
+        FileChannel channel = FileChannel.open(paths.get(0), StandardOpenOption.READ);
+        long[] starts = new long[paths.size()];
+        long[] endPositions = new long[paths.size()];
+        for (int i = 0; i < paths.size(); i++) {
+            endPositions[i] = ends.get(i);
+        }
+        try {
+            starts[0] = skipRecords(channel, indexedPosition, endPositions[0], fromSequence - indexedSequence);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new Replay(paths, starts, endPositions, channel);
+    }
+
+    /**
+     * Starts a replay of the last records appended.
+     *
+     * @param count the number of records.
+     * @return the replay, empty when the journal is.
+     * @throws IOException if the first segment cannot be read.
+     */
+    public Replay replayLast(int count) throws IOException {
+        long fromSequence;
+        synchronized (this) {
+            fromSequence = nextSequence - count;
+        }
+        return replayFrom(fromSequence);
+    }
+
+    /**
+     * Gets the sequence number of the last record appended.
+     *
+     * @return the last sequence number, 0 when the journal is empty.
+     */
+    public synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Gets the sequence number of the last record forced to disk.
+     *
+     * @return the last durable sequence number.
+     */
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * Gets the number of segment files.
+     *
+     * @return the segment count.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Flushes the journal, truncates the active segment to its records and closes the files.
+     *
+     * @throws IOException if the last flush fails.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusherRunning = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        seal(active);
+        if (prepared != null) {
+            prepared.channel.close();
+            Files.deleteIfExists(prepared.path);
+        }
+    }
+
+    /**
+     * Opens the existing segments and the active one.
+     */
+    private void recover() throws IOException {
+        Files.deleteIfExists(directory.resolve(preparedSegmentName));
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(path -> path.getFileName().toString().endsWith(segmentSuffix)).sorted().forEach(paths::add);
+        }
+
+        for (int i = 0; i < paths.size(); i++) {
+            Path path = paths.get(i);
+            long baseSequence = baseSequenceOf(path);
+            boolean last = i == paths.size() - 1;
+            if (!last) {
+                long nextBase = baseSequenceOf(paths.get(i + 1));
+                long size = Files.size(path);
+                Segment segment = new Segment(path, baseSequence, null, null, 0, nextBase - 1);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    // Cut after the last record, in case the segment was not truncated before a crash
+                    size = scanRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), baseSequence, segment)[0];
+                    if (size < channel.size()) {
+                        channel.truncate(size);
+                    }
+                }
+                segment.writePosition = (int) size;
+                segments.add(segment);
+            } else {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                int mapSize = (int) Math.max(segmentSize, channel.size());
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize);
+                active = new Segment(path, baseSequence, channel, buffer, 0, baseSequence - 1);
+                long[] end = scanRecords(buffer, baseSequence, active);
+                // Zero the torn tail, so it is never read as a record
+                for (int position = (int) end[0]; position < mapSize && buffer.get(position) != 0; position++) {
+                    buffer.put(position, (byte) 0);
+                }
+                active.writePosition = (int) end[0];
+                active.forcedPosition = (int) end[0];
+                active.lastSequence = end[1];
+                segments.add(active);
+            }
+        }
+
+        if (active == null) {
+            active = createSegment(segmentPath(1), 1);
+            segments.add(active);
+        }
+        nextSequence = active.lastSequence + 1;
+    }
+
+    /**
+     * Finds the end of the complete records of a segment and rebuilds its index.
+     *
+     * @return the position after the last complete record, and its sequence number.
+     */
+    private static long[] scanRecords(ByteBuffer buffer, long baseSequence, Segment segment) {
+        int position = 0;
+        long expected = baseSequence;
+        int limit = buffer.limit();
+        while (position < limit) {
+            // Sequence number, which must follow the previous one
+            long sequence = 0;
+            int cursor = position;
+            while (cursor < limit && buffer.get(cursor) >= '0' && buffer.get(cursor) <= '9') {
+                sequence = sequence * 10 + (buffer.get(cursor) - '0');
+                cursor++;
+            }
+            if (cursor == position || sequence != expected) {
+                break;
+            }
+            // Complete record : ends with its line break
+            while (cursor < limit && buffer.get(cursor) != lineBreak) {
+                cursor++;
+            }
+            if (cursor == limit) {
+                break;
+            }
+            if ((sequence - baseSequence) % indexInterval == 0) {
+                segment.addIndex(position);
+            }
+            position = cursor + 1;
+            expected++;
+        }
+        return new long[] {position, expected - 1};
+    }
+
+    /**
+     * Seals the active segment and switches to a new one starting at a sequence number.
+     */
+    private void roll(long baseSequence) throws IOException {
+        active.sealed = true;
+        Path path = segmentPath(baseSequence);
+        Segment next;
+        if (prepared != null) {
+            // Mapped ahead by the flusher : only a rename
+            Files.move(prepared.path, path, StandardCopyOption.ATOMIC_MOVE);
+            next = new Segment(path, baseSequence, prepared.channel, prepared.buffer, 0, baseSequence - 1);
+            prepared = null;
+        } else {
+            next = createSegment(path, baseSequence);
+        }
+        segments.add(next);
+        active = next;
+        LockSupport.unpark(flusher);
+    }
+
+    /**
+     * Creates and maps an empty segment file.
+     */
+    private Segment createSegment(Path path, long baseSequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        return new Segment(path, baseSequence, channel, buffer, 0, baseSequence - 1);
+    }
+
+    /**
+     * Flusher thread loop : one flush per interval, or as soon as a caller waits for durability.
+     */
+    private void flushLoop() {
+        while (flusherRunning) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            flush();
+        }
+        flush();
+    }
+
+    /**
+     * Forces what was appended since the last flush, finishes the sealed segments and prepares the next one.
+     */
+    private void flush() {
+        Segment segment;
+        int position;
+        long lastSequence;
+        boolean needsPrepared;
+        synchronized (this) {
+            segment = active;
+            position = segment.writePosition;
+            lastSequence = nextSequence - 1;
+            needsPrepared = prepared == null && !closed;
+        }
+
+        try {
+            // One msync for every record appended since the last flush, whoever wrote it
+            if (!segment.sealed && position > segment.forcedPosition) {
+                segment.buffer.force(segment.forcedPosition, position - segment.forcedPosition);
+                segment.forcedPosition = position;
+            }
+            for (Segment sealed : segments) {
+                if (sealed.sealed && sealed.channel != null) {
+                    seal(sealed);
+                }
+            }
+            publishDurable(lastSequence);
+
+            if (needsPrepared) {
+                Path path = directory.resolve(preparedSegmentName);
+                Segment next = createSegment(path, 0);
+                synchronized (this) {
+                    if (prepared == null && !closed) {
+                        prepared = next;
+                        next = null;
+                    }
+                }
+                if (next != null) {
+                    // Closed meanwhile : close() already looked for a prepared segment
+                    next.channel.close();
+                    Files.deleteIfExists(next.path);
+                }
+            }
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Journal flush failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forces a segment that receives no more records, truncates it to its records and closes it.
+     */
+    private void seal(Segment segment) throws IOException {
+        FileChannel channel = segment.channel;
+        if (channel == null) {
+            return;
+        }
+        segment.buffer.force();
+        segment.forcedPosition = segment.writePosition;
+        channel.truncate(segment.writePosition);
+        channel.close();
+        segment.channel = null;
+        segment.buffer = null;
+    }
+
+    private void publishDurable(long sequence) {
+        synchronized (durableMonitor) {
+            if (sequence > durableSequence) {
+                durableSequence = sequence;
+            }
+            durableMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Finds the position after a number of records, reading the segment from a record start.
+     */
+    private static long skipRecords(FileChannel channel, long position, long end, long count) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(8192);
+        while (count > 0 && position < end) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), end - position));
+            int read = channel.read(chunk, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (chunk.get(i) == lineBreak && --count == 0) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return position;
+    }
+
+    private Path segmentPath(long baseSequence) {
+        return directory.resolve(String.format("%020d", baseSequence) + segmentSuffix);
+    }
+
+    private static long baseSequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - segmentSuffix.length()));
+    }
+
+    /**
+     * Writes a positive number in decimal.
+     */
+    private int putDecimal(MappedByteBuffer buffer, int position, long value) {
+        int length = decimalLength(value);
+        for (int i = length - 1; i >= 0; i--) {
+            digits[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        buffer.put(position, digits, 0, length);
+        return position + length;
+    }
+
+    private static int decimalLength(long value) {
+        int length = 1;
+        while (value >= 10) {
+            value /= 10;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a string in UTF-8, without allocating when it is ASCII (client identifiers are).
+     */
+    private static int putString(MappedByteBuffer buffer, int position, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                buffer.put(position - i, bytes, 0, bytes.length);
+                return position - i + bytes.length;
+            }
+            buffer.put(position++, (byte) c);
+        }
+        return position;
+    }
+
+    private static int utf8Length(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return value.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return value.length();
+    }
+
+    /**
+     * Writes the message, with its line breaks as spaces so the record stays on one line.
+     */
+    private static int putMessage(MappedByteBuffer buffer, int position, byte[] message, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end && message[i] != '\n' && message[i] != '\r') {
+            i++;
+        }
+        if (i == end) {
+            buffer.put(position, message, offset, length);
+            return position + length;
+        }
+        for (i = offset; i < end; i++) {
+            byte b = message[i];
+            buffer.put(position++, b == '\n' || b == '\r' ? space : b);
+        }
+        return position;
+    }
+}
@@ -0,0 +1,332 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code ChatJournal}.
+ */
+class ChatJournalTest {
+    private final int testPort = 12380;
+    private final int segmentSize = 4096;
+    private final long flushInterval = 5;
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("chat-journal");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private List<String> records() throws IOException {
+        List<String> records = new ArrayList<>();
+        for (Path segment : segmentFiles()) {
+            records.addAll(Files.readAllLines(segment, StandardCharsets.UTF_8));
+        }
+        return records;
+    }
+
+    @Test
+    void testRecordsAreReadBack() throws IOException {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            assertEquals(1, journal.append("/127.0.0.1:5000", "hello"));
+            assertEquals(2, journal.append("/127.0.0.1:5001", "two\nlines"));
+            assertEquals(3, journal.append("/127.0.0.1:5000", "héllo"));
+        }
+
+        List<String> records = records();
+        assertEquals(3, records.size());
+        assertTrue(records.get(0).matches("1 \\d+ /127\\.0\\.0\\.1:5000 says : hello"), records.get(0));
+        assertTrue(records.get(1).endsWith("/127.0.0.1:5001 says : two lines"), "Line breaks should become spaces");
+        assertTrue(records.get(2).endsWith(" says : héllo"));
+    }
+
+    @Test
+    void testSegmentsRoll() throws IOException {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            for (int i = 1; i <= 500; i++) {
+                assertEquals(i, journal.append("/127.0.0.1:5000", "message " + i));
+            }
+            assertTrue(journal.getSegmentCount() > 1, "The journal should have rolled");
+        }
+
+        List<Path> segments = segmentFiles();
+        assertEquals("00000000000000000001.log", segments.get(0).getFileName().toString());
+        for (Path segment : segments) {
+            assertTrue(Files.size(segment) <= segmentSize);
+            // Each segment is named after its first record
+            String first = Files.readAllLines(segment).get(0);
+            assertEquals(Long.parseLong(segment.getFileName().toString().replace(".log", "")),
+                    Long.parseLong(first.substring(0, first.indexOf(' '))));
+        }
+        List<String> records = records();
+        assertEquals(500, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertTrue(records.get(i).startsWith((i + 1) + " "));
+            assertTrue(records.get(i).endsWith("says : message " + (i + 1)));
+        }
+        assertFalse(Files.exists(directory.resolve("next.segment")), "The prepared segment should be removed");
+    }
+
+    @Test
+    void testAwaitDurable() throws Exception {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, 10000)) {
+            long sequence = journal.append("/127.0.0.1:5000", "hello");
+            // The flusher is woken by the waiter, long before its interval
+            long start = System.nanoTime();
+            assertTrue(journal.awaitDurable(sequence, 5000));
+            assertTrue(System.nanoTime() - start < 5_000_000_000L);
+            assertTrue(journal.getDurableSequence() >= sequence);
+        }
+    }
+
+    @Test
+    void testRecoveryAfterTornRecord() throws IOException {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            journal.append("/127.0.0.1:5000", "first");
+            journal.append("/127.0.0.1:5000", "second");
+        }
+        // A crash in the middle of a record : no line break, then the free space of the segment
+        Path segment = segmentFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("3 12345 /127.0.0.1:5000 says : thi".getBytes()), channel.size());
+            channel.write(ByteBuffer.allocate(100), channel.size());
+        }
+
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            assertEquals(2, journal.getLastSequence());
+            assertEquals(3, journal.append("/127.0.0.1:5000", "third"));
+        }
+        List<String> records = records();
+        assertEquals(3, records.size());
+        assertTrue(records.get(2).startsWith("3 "));
+        assertTrue(records.get(2).endsWith("says : third"));
+    }
+
+    @Test
+    void testReopenContinuesAfterRoll() throws IOException {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            for (int i = 0; i < 300; i++) {
+                journal.append("/127.0.0.1:5000", "message");
+            }
+        }
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            assertEquals(300, journal.getLastSequence());
+            assertEquals(301, journal.append("/127.0.0.1:5000", "message"));
+        }
+        assertEquals(301, records().size());
+    }
+
+    @Test
+    void testConcurrentAppends() throws Exception {
+        int threads = 8;
+        int messagesPerThread = 2000;
+        Set<String> seen = new HashSet<>();
+        try (ChatJournal journal = ChatJournal.open(directory, 64 * 1024, flushInterval)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String sender = "/127.0.0.1:" + (5000 + t);
+                Thread writer = new Thread(() -> {
+                    for (int i = 0; i < messagesPerThread; i++) {
+                        long sequence = journal.append(sender, "message " + i);
+                        if (i % 500 == 0) {
+                            try {
+                                assertTrue(journal.awaitDurable(sequence, 5000));
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }
+                });
+                writers.add(writer);
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals((long) threads * messagesPerThread, journal.getLastSequence());
+        }
+
+        List<String> records = records();
+        assertEquals(threads * messagesPerThread, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            String record = records.get(i);
+            assertTrue(record.startsWith((i + 1) + " "), "Sequence numbers should have no gap");
+            String[] fields = record.split(" ", 3);
+            assertTrue(seen.add(fields[2]), "Each message should be recorded once");
+        }
+    }
+
+    @Test
+    void testChatRoomJournalsBroadcasts() throws IOException {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            ChatRoom chatRoom = new ChatRoom(SlowConsumerPolicy.DROP, 16, null, journal);
+            ChatMember sender = new ChatMember() {
+                @Override
+                public String getClientID() {
+                    return "/127.0.0.1:5000";
+                }
+
+                @Override
+                public void deliver(byte[] frame) {
+                }
+
+                @Override
+                public void disconnect() {
+                }
+            };
+            chatRoom.join(sender);
+            chatRoom.broadcast(sender, "hello room");
+            assertEquals(1, journal.getLastSequence());
+        }
+        assertTrue(records().get(0).endsWith("/127.0.0.1:5000 says : hello room"));
+    }
+
+    // Copies a whole replay, in small chunks
+    private List<String> replayed(ChatJournal.Replay replay) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel(bytes);
+        try (replay) {
+            while (!replay.isDone()) {
+                assertTrue(replay.transferTo(target, 1000) <= 1000);
+            }
+        }
+        String text = bytes.toString(StandardCharsets.UTF_8);
+        return text.isEmpty() ? List.of() : List.of(text.split("\n"));
+    }
+
+    @Test
+    void testReplayFromSequence() throws IOException {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            for (int i = 1; i <= 500; i++) {
+                journal.append("/127.0.0.1:5000", "message " + i);
+            }
+            // Across segments, from any record
+            for (long from : new long[] {1, 2, 64, 65, 130, 333, 500}) {
+                List<String> records = replayed(journal.replayFrom(from));
+                assertEquals(500 - from + 1, records.size(), "Replay from " + from);
+                assertTrue(records.get(0).startsWith(from + " "));
+                assertTrue(records.get(records.size() - 1).endsWith("says : message 500"));
+            }
+            assertEquals(0, replayed(journal.replayFrom(501)).size());
+
+            // The records appended after the start are not part of the replay
+            ChatJournal.Replay replay = journal.replayLast(10);
+            journal.append("/127.0.0.1:5000", "later");
+            List<String> records = replayed(replay);
+            assertEquals(10, records.size());
+            assertTrue(records.get(0).startsWith("491 "));
+        }
+    }
+
+    @Test
+    void testReplayAfterReopen() throws IOException {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            for (int i = 1; i <= 300; i++) {
+                journal.append("/127.0.0.1:5000", "message " + i);
+            }
+        }
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            List<String> records = replayed(journal.replayFrom(150));
+            assertEquals(151, records.size());
+            assertTrue(records.get(0).startsWith("150 "));
+            assertEquals(300, replayed(journal.replayLast(1000)).size());
+        }
+    }
+
+    // Reads lines from a client socket until one ends with the expected text
+    private List<String> readUntil(BufferedReader reader, String last) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+            if (line.endsWith(last)) {
+                break;
+            }
+        }
+        return lines;
+    }
+
+    private void assertServerReplaysHistory(ServerMode mode, int port) throws Exception {
+        try (ChatJournal journal = ChatJournal.open(directory, segmentSize, flushInterval)) {
+            for (int i = 1; i <= 200; i++) {
+                journal.append("/127.0.0.1:5000", "message " + i);
+            }
+            TCPMultiServer server = new TCPMultiServer(port, mode);
+            server.setJournal(journal);
+            server.setHistoryLength(5);
+            Thread serverThread = TestServers.launch(server);
+
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream output = socket.getOutputStream();
+
+                // The last messages on connection
+                List<String> lines = readUntil(reader, "says : message 200");
+                assertEquals(5, lines.size());
+                assertTrue(lines.get(0).startsWith("196 "));
+
+                // Then on request, from a sequence number
+                output.write("history from 190\n".getBytes());
+                output.flush();
+                lines = readUntil(reader, "says : message 200");
+                lines.remove("Message received");
+                assertEquals(11, lines.size());
+                assertTrue(lines.get(0).startsWith("190 "));
+
+                output.write("close server\n".getBytes());
+                output.flush();
+            }
+            // The thread mode notices the closure at its next accept timeout
+            serverThread.join(15000);
+            assertFalse(serverThread.isAlive(), "The server should be closed");
+        }
+    }
+
+    @Test
+    void testThreadServerReplaysHistory() throws Exception {
+        assertServerReplaysHistory(ServerMode.THREAD, testPort);
+    }
+
+    @Test
+    void testSelectorServerReplaysHistory() throws Exception {
+        assertServerReplaysHistory(ServerMode.SELECTOR, testPort + 1);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * A session that can receive the messages broadcast in a {@link ChatRoom}, and be ended by the server.
+ */
+public interface ChatMember {
+    /**
+     * Gets the printable "address:port" identifier of the member.
+     *
+     * @return the client ID.
+     */
+    String getClientID();
+
+    /**
+     * Queues an encoded frame for this member. Must not wait for the network.
+     * The frame is shared by every recipient and must never be modified.
+     *
+     * @param frame the encoded frame, ready to be written on the socket.
+     */
+    void deliver(byte[] frame);
+
+    /**
+     * Checks if the member speaks the binary protocol, and takes {@link WireProtocol} frames.
+     *
+     * @return {@code true} for a binary session, {@code false} for newline-delimited text.
+     */
+    default boolean isBinary() {
+        return false;
+    }
+
+    /**
+     * Checks if the member negotiated compression : its binary frames may carry deflated payloads.
+     *
+     * @return {@code true} for a compressed binary session.
+     */
+    default boolean isCompressed() {
+        return false;
+    }
+
+    /**
+     * Ends the session. Can be called from any thread, the session cleans up on its own thread.
+     */
+    void disconnect();
+}
@@ -0,0 +1,174 @@
+/**
+ * Fans chat messages out to every connected session of a {@link TCPMultiServer}.
+ *
+ * <p>A message is encoded once into a frame shared read-only by every recipient (once per protocol : text,
+ * {@link WireProtocol} binary or compressed binary), then queued in each recipient's bounded
+ * {@link OutboundQueue}. The sender never writes to other sockets itself, so a slow client cannot stall the
+ * sender or the other recipients (unless the {@link SlowConsumerPolicy#BLOCK} policy is chosen). The queues
+ * are bounded in frames and in bytes : past their high watermark, a recipient gets no more frames until it
+ * reads enough of them.</p>
+ *
+ * <p>With a {@link ChatJournal}, every broadcast message is also appended to the journal, without waiting
+ * for the disk.</p>
+ *
+ * <p>Members join and leave from any thread : the member set is concurrent and broadcasts iterate over
+ * a weakly consistent view of it.</p>
+ */
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+public class ChatRoom {
+    private final Set<ChatMember> members = ConcurrentHashMap.newKeySet();
+
+    // Settings of the members' outbound queues
+    private final SlowConsumerPolicy policy;
+    private final int queueCapacity;
+    private int lowWatermark = OutboundQueue.defaultLowWatermark;
+    private int highWatermark = OutboundQueue.defaultHighWatermark;
+
+    // Runs the outbound queue drains of blocking sessions
+    private final Executor writerExecutor;
+
+    // Records every message, may be null
+    private final ChatJournal journal;
+
+    /**
+     * Creates a chat room.
+     *
+     * @param policy the behavior when a member's outbound queue is full.
+     * @param queueCapacity the maximum number of frames queued per member.
+     * @param writerExecutor the executor draining the queues of blocking sessions, may be {@code null}
+     *                       if every member writes from its own event loop.
+     */
+    public ChatRoom(SlowConsumerPolicy policy, int queueCapacity, Executor writerExecutor) {
+        this(policy, queueCapacity, writerExecutor, null);
+    }
+
+    /**
+     * Creates a chat room that journals its messages.
+     *
+     * @param policy the behavior when a member's outbound queue is full.
+     * @param queueCapacity the maximum number of frames queued per member.
+     * @param writerExecutor the executor draining the queues of blocking sessions, may be {@code null}
+     *                       if every member writes from its own event loop.
+     * @param journal the journal of the messages, may be {@code null}.
+     */
+    public ChatRoom(SlowConsumerPolicy policy, int queueCapacity, Executor writerExecutor, ChatJournal journal) {
+        this.policy = policy;
+        this.queueCapacity = queueCapacity;
+        this.writerExecutor = writerExecutor;
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the byte watermarks of the members' outbound queues. Must be called before the first member joins.
+     *
+     * @param lowWatermark the queued bytes under which a member is writable again.
+     * @param highWatermark the queued bytes over which a member is not writable.
+     */
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Creates an outbound queue with the room settings, for a new member.
+     *
+     * @return a new empty outbound queue.
+     */
+    public OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(queueCapacity, policy, lowWatermark, highWatermark);
+    }
+
+    /**
+     * Gets the executor draining the queues of blocking sessions.
+     *
+     * @return the writer executor.
+     */
+    public Executor getWriterExecutor() {
+        return writerExecutor;
+    }
+
+    /**
+     * Adds a member to the room.
+     *
+     * @param member the session joining the chat.
+     */
+    public void join(ChatMember member) {
+        members.add(member);
+    }
+
+    /**
+     * Removes a member from the room. Safe to call several times.
+     *
+     * @param member the session leaving the chat.
+     */
+    public void leave(ChatMember member) {
+        members.remove(member);
+    }
+
+    /**
+     * Gets the number of members in the room.
+     *
+     * @return the member count.
+     */
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Sends a message from a member to every other member.
+     *
+     * @param sender the member who wrote the message.
+     * @param message the chat message.
+     * @return the number of members the frame was queued for.
+     */
+    public int broadcast(ChatMember sender, String message) {
+        return broadcast(sender, sender.getClientID(), message);
+    }
+
+    /**
+     * Sends a message from a client outside the room to every member, such as a UDP client that never said
+     * hello : it speaks without receiving.
+     *
+     * @param senderID the printable "address:port" identifier of the client.
+     * @param message the chat message.
+     * @return the number of members the frame was queued for.
+     */
+    public int broadcast(String senderID, String message) {
+        return broadcast(null, senderID, message);
+    }
+
+    private int broadcast(ChatMember sender, String senderID, String message) {
+        if (journal != null) {
+            journal.append(senderID, message);
+        }
+
+        // Encoded once per protocol, the same bytes are queued for every recipient
+        byte[] textFrame = FrameCodec.encode(senderID + " says : " + message);
+        byte[] binaryFrame = null;
+        byte[] compressedFrame = null;
+
+        int recipients = 0;
+        for (ChatMember member : members) {
+            if (member != sender) {
+                if (member.isCompressed()) {
+                    if (compressedFrame == null) {
+                        compressedFrame = PayloadCompressor.shared.encode(WireProtocol.opcodeChat, 0, textFrame, 0, textFrame.length - 1);
+                    }
+                    member.deliver(compressedFrame);
+                } else if (member.isBinary()) {
+                    if (binaryFrame == null) {
+                        binaryFrame = WireProtocol.encode(WireProtocol.opcodeChat, 0, textFrame, 0, textFrame.length - 1);
+                    }
+                    member.deliver(binaryFrame);
+                } else {
+                    member.deliver(textFrame);
+                }
+                recipients++;
+            }
+        }
+        return recipients;
+    }
+}
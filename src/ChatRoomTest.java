@@ -0,0 +1,217 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code ChatRoom} and {@code OutboundQueue}.
+ */
+class ChatRoomTest {
+    private final int queueCapacity = 2;
+
+    // Member keeping the frames it receives
+    private static class TestMember implements ChatMember {
+        private final String clientID;
+        private final List<byte[]> frames = new ArrayList<>();
+        private boolean disconnected = false;
+
+        TestMember(String clientID) {
+            this.clientID = clientID;
+        }
+
+        @Override
+        public String getClientID() {
+            return clientID;
+        }
+
+        @Override
+        public void deliver(byte[] frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void disconnect() {
+            disconnected = true;
+        }
+    }
+
+    @Test
+    void testBroadcastSkipsSenderAndSharesFrame() {
+        ChatRoom chatRoom = new ChatRoom(SlowConsumerPolicy.DROP, queueCapacity, null);
+        TestMember alice = new TestMember("/127.0.0.1:1001");
+        TestMember bob = new TestMember("/127.0.0.1:1002");
+        TestMember carol = new TestMember("/127.0.0.1:1003");
+        chatRoom.join(alice);
+        chatRoom.join(bob);
+        chatRoom.join(carol);
+
+        assertEquals(2, chatRoom.broadcast(alice, "hello"));
+        assertTrue(alice.frames.isEmpty(), "The sender should not receive its own message");
+        assertSame(bob.frames.get(0), carol.frames.get(0), "The message should be encoded only once");
+        assertEquals("/127.0.0.1:1001 says : hello\n", new String(bob.frames.get(0), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testSenderOutsideTheRoomReachesEveryMember() {
+        ChatRoom chatRoom = new ChatRoom(SlowConsumerPolicy.DROP, queueCapacity, null);
+        TestMember alice = new TestMember("/127.0.0.1:1001");
+        TestMember bob = new TestMember("/127.0.0.1:1002");
+        chatRoom.join(alice);
+        chatRoom.join(bob);
+
+        assertEquals(2, chatRoom.broadcast("/127.0.0.1:2001", "from udp"));
+        assertEquals("/127.0.0.1:2001 says : from udp\n", new String(alice.frames.get(0), StandardCharsets.UTF_8));
+        assertSame(alice.frames.get(0), bob.frames.get(0));
+    }
+
+    @Test
+    void testLeftMemberReceivesNothing() {
+        ChatRoom chatRoom = new ChatRoom(SlowConsumerPolicy.DROP, queueCapacity, null);
+        TestMember alice = new TestMember("/127.0.0.1:1001");
+        TestMember bob = new TestMember("/127.0.0.1:1002");
+        chatRoom.join(alice);
+        chatRoom.join(bob);
+        chatRoom.leave(bob);
+
+        assertEquals(0, chatRoom.broadcast(alice, "anyone ?"));
+        assertEquals(1, chatRoom.size());
+    }
+
+    @Test
+    void testDropPolicyKeepsConsumer() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(queueCapacity, SlowConsumerPolicy.DROP);
+        byte[] frame = FrameCodec.encode("spam");
+        for (int i = 0; i < queueCapacity + 3; i++) {
+            assertTrue(queue.offer(frame));
+        }
+        assertEquals(3, queue.getDroppedFrames());
+    }
+
+    @Test
+    void testDisconnectPolicyRejectsWhenFull() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(queueCapacity, SlowConsumerPolicy.DISCONNECT);
+        byte[] frame = FrameCodec.encode("spam");
+        assertTrue(queue.offer(frame));
+        assertTrue(queue.offer(frame));
+        assertFalse(queue.offer(frame), "A full queue should ask for the consumer's disconnection");
+    }
+
+    @Test
+    void testBlockPolicyNeverWaitsOnTryOffer() {
+        OutboundQueue queue = new OutboundQueue(queueCapacity, SlowConsumerPolicy.BLOCK);
+        byte[] frame = FrameCodec.encode("spam");
+        assertTrue(queue.tryOffer(frame));
+        assertTrue(queue.tryOffer(frame));
+        assertFalse(queue.tryOffer(frame), "Event loop senders should disconnect instead of waiting");
+    }
+
+    @Test
+    void testWatermarksChangeWritability() {
+        OutboundQueue queue = new OutboundQueue(queueCapacity, SlowConsumerPolicy.DISCONNECT, 10, 20);
+        List<Boolean> changes = new ArrayList<>();
+        queue.setWritabilityListener(changes::add);
+        byte[] reply = new byte[8];
+
+        // Over the high watermark, then writable again only at the low watermark
+        queue.addReply(reply);
+        queue.addReply(reply);
+        assertTrue(queue.isWritable());
+        queue.addReply(reply);
+        assertFalse(queue.isWritable());
+        assertEquals(24, queue.getQueuedBytes());
+        queue.poll();
+        assertFalse(queue.isWritable(), "Between the watermarks the queue should stay unwritable");
+        queue.poll();
+        assertTrue(queue.isWritable());
+        assertEquals(List.of(false, true), changes);
+    }
+
+    @Test
+    void testRepliesAreWrittenFirst() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(queueCapacity, SlowConsumerPolicy.DROP);
+        byte[] broadcast = FrameCodec.encode("broadcast");
+        byte[] reply = FrameCodec.encode("reply");
+        queue.offer(broadcast);
+        queue.addReply(reply);
+
+        assertNull(new OutboundQueue(queueCapacity, SlowConsumerPolicy.DROP).pollReply());
+        assertSame(reply, queue.poll());
+        assertSame(broadcast, queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.getQueuedBytes());
+    }
+
+    @Test
+    void testDropPolicyDropsWhileUnwritable() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(8, SlowConsumerPolicy.DROP, 0, 16);
+        queue.addReply(new byte[32]);
+        assertTrue(queue.offer(FrameCodec.encode("spam")));
+        assertEquals(1, queue.getDroppedFrames(), "An unwritable queue should drop the broadcast frames");
+    }
+
+    @Test
+    void testBlockPolicyWaitsForLowWatermark() throws Exception {
+        OutboundQueue queue = new OutboundQueue(8, SlowConsumerPolicy.BLOCK, 0, 16);
+        queue.addReply(new byte[32]);
+        CountDownLatch queued = new CountDownLatch(1);
+        Thread sender = new Thread(() -> {
+            try {
+                queue.offer(FrameCodec.encode("waits"));
+                queued.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sender.start();
+
+        assertFalse(queued.await(200, TimeUnit.MILLISECONDS), "The sender should wait while the queue is unwritable");
+        queue.poll();
+        assertTrue(queued.await(2, TimeUnit.SECONDS), "The sender should resume at the low watermark");
+        sender.join();
+    }
+
+    @Test
+    void testCloseReleasesWaiters() throws Exception {
+        OutboundQueue queue = new OutboundQueue(queueCapacity, SlowConsumerPolicy.BLOCK, 0, 16);
+        queue.addReply(new byte[32]);
+        Thread session = new Thread(() -> {
+            try {
+                queue.awaitWritable();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        session.start();
+        queue.close();
+        session.join(2000);
+        assertFalse(session.isAlive(), "Closing the queue should release the session");
+    }
+
+    @Test
+    void testCloseReleasesSenderOfFullQueue() throws Exception {
+        // Small frames fill the capacity long before the high watermark
+        OutboundQueue queue = new OutboundQueue(queueCapacity, SlowConsumerPolicy.BLOCK);
+        for (int i = 0; i < queueCapacity; i++) {
+            assertTrue(queue.offer(FrameCodec.encode("fills")));
+        }
+        Thread sender = new Thread(() -> {
+            try {
+                queue.offer(FrameCodec.encode("waits"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sender.start();
+        Thread.sleep(200);
+        assertTrue(sender.isAlive(), "The sender should wait for room");
+
+        queue.close();
+        sender.join(2000);
+        assertFalse(sender.isAlive(), "Closing the queue should release the sender");
+    }
+}
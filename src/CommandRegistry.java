@@ -0,0 +1,187 @@
+/**
+ * Recognizes the client commands directly on the received bytes, before any String is created.
+ *
+ * <p>Matching ignores the ASCII case and the surrounding whitespace, like the previous
+ * {@code receivedData.trim().equalsIgnoreCase(...)} checks, but without allocating. Commands are indexed
+ * by their length : most chat messages have no command of the same length and are rejected by a single
+ * table lookup. A command taking an argument ({@code history 20}) also matches when followed by a space, at
+ * the cost of one byte comparison per such command.</p>
+ *
+ * <p>The servers dispatch a matched {@link Command} through an array of {@link CommandHandler} indexed by
+ * {@link Command#ordinal()}, see {@link #newDispatchTable()}.</p>
+ */
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class CommandRegistry {
+    /**
+     * Commands understood by the servers.
+     */
+    public enum Command {
+        HELP("?", WireProtocol.opcodeHelp),
+        EXIT_CONSOLE("exit console", WireProtocol.opcodeExitConsole),
+        CLOSE_SERVER("close server", WireProtocol.opcodeCloseServer),
+        HISTORY("history", WireProtocol.opcodeHistory, true);
+
+        private final String text;
+        private final int opcode;
+        private final boolean hasArgument;
+
+        Command(String text, int opcode) {
+            this(text, opcode, false);
+        }
+
+        Command(String text, int opcode, boolean hasArgument) {
+            this.text = text;
+            this.opcode = opcode;
+            this.hasArgument = hasArgument;
+        }
+
+        /**
+         * Gets the text typed by the client, in lower case.
+         *
+         * @return the command text.
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Gets the opcode of the command in the binary protocol ({@link WireProtocol}).
+         *
+         * @return the command opcode.
+         */
+        public int getOpcode() {
+            return opcode;
+        }
+
+        /**
+         * Checks if the command can be followed by an argument, after a space.
+         *
+         * @return {@code true} for a command with an optional argument.
+         */
+        public boolean hasArgument() {
+            return hasArgument;
+        }
+    }
+
+    // Commands indexed by opcode, null for the other opcodes
+    private static final Command[] commandsByOpcode = new Command[WireProtocol.opcodeCount];
+    static {
+        for (Command command : Command.values()) {
+            commandsByOpcode[command.getOpcode()] = command;
+        }
+    }
+
+    // Registry shared by every server
+    public static final CommandRegistry shared = new CommandRegistry();
+
+    // ASCII lower case of each byte value, other bytes unchanged
+    private static final byte[] lowerCase = new byte[256];
+    static {
+        for (int i = 0; i < lowerCase.length; i++) {
+            lowerCase[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    // Commands indexed by the length of their text, null when no command has that length
+    private final Command[][] commandsByLength;
+    private final byte[][] patterns;
+    private final Command[] argumentCommands;
+
+    /**
+     * Creates a registry of every {@link Command}.
+     */
+    public CommandRegistry() {
+        Command[] commands = Command.values();
+        patterns = new byte[commands.length][];
+        int maxLength = 0;
+        for (Command command : commands) {
+            patterns[command.ordinal()] = command.getText().getBytes(StandardCharsets.US_ASCII);
+            maxLength = Math.max(maxLength, patterns[command.ordinal()].length);
+        }
+
+        argumentCommands = Arrays.stream(commands).filter(Command::hasArgument).toArray(Command[]::new);
+        commandsByLength = new Command[maxLength + 1][];
+        for (Command command : commands) {
+            int length = patterns[command.ordinal()].length;
+            Command[] previous = commandsByLength[length];
+            Command[] candidates = new Command[previous == null ? 1 : previous.length + 1];
+            if (previous != null) {
+                System.arraycopy(previous, 0, candidates, 0, previous.length);
+            }
+            candidates[candidates.length - 1] = command;
+            commandsByLength[length] = candidates;
+        }
+    }
+
+    /**
+     * Creates an empty dispatch table, to fill with the handlers of a server.
+     *
+     * @return an array of handlers indexed by {@link Command#ordinal()}.
+     */
+    public static CommandHandler[] newDispatchTable() {
+        return new CommandHandler[Command.values().length];
+    }
+
+    /**
+     * Gets the command of an opcode of the binary protocol.
+     *
+     * @param opcode the frame opcode.
+     * @return the command, or {@code null} if the opcode is not a command.
+     */
+    public static Command commandOf(int opcode) {
+        return opcode >= 0 && opcode < commandsByOpcode.length ? commandsByOpcode[opcode] : null;
+    }
+
+    /**
+     * Finds the command contained in a message, ignoring case and surrounding whitespace.
+     *
+     * @param data the buffer holding the message.
+     * @param offset the start of the message.
+     * @param length the message length.
+     * @return the matching command, or {@code null} for a plain chat message.
+     */
+    public Command match(byte[] data, int offset, int length) {
+        // Skip the surrounding whitespace (same rule as String.trim())
+        int start = offset;
+        int end = offset + length;
+        while (start < end && (data[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+
+        // Single check for plain chat messages
+        int trimmedLength = end - start;
+        if (trimmedLength < commandsByLength.length && commandsByLength[trimmedLength] != null) {
+            for (Command command : commandsByLength[trimmedLength]) {
+                if (matches(patterns[command.ordinal()], data, start)) {
+                    return command;
+                }
+            }
+        }
+
+        // Command followed by its argument
+        for (Command command : argumentCommands) {
+            byte[] pattern = patterns[command.ordinal()];
+            if (trimmedLength > pattern.length && data[start + pattern.length] == ' ' && matches(pattern, data, start)) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares a lower case pattern with the bytes at a position, ignoring ASCII case.
+     */
+    private static boolean matches(byte[] pattern, byte[] data, int start) {
+        for (int i = 0; i < pattern.length; i++) {
+            if (lowerCase[data[start + i] & 0xFF] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
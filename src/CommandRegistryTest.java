@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code CommandRegistry}.
+ */
+class CommandRegistryTest {
+    private final CommandRegistry registry = new CommandRegistry();
+
+    // Matches a string through its UTF-8 bytes
+    private CommandRegistry.Command match(String message) {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        return registry.match(data, 0, data.length);
+    }
+
+    @Test
+    void testCommandsMatchIgnoringCaseAndWhitespace() {
+        assertEquals(CommandRegistry.Command.HELP, match("?"));
+        assertEquals(CommandRegistry.Command.EXIT_CONSOLE, match("  EXIT Console\r"));
+        assertEquals(CommandRegistry.Command.CLOSE_SERVER, match("close server\n"));
+    }
+
+    @Test
+    void testPlainMessagesAreNotCommands() {
+        assertNull(match("hello"));
+        assertNull(match("close serverx"));
+        assertNull(match("exit-console"));
+        assertNull(match(""));
+        assertNull(match("   "));
+        assertNull(match("éxit console"));
+    }
+
+    @Test
+    void testCommandWithArgument() {
+        assertEquals(CommandRegistry.Command.HISTORY, match("history"));
+        assertEquals(CommandRegistry.Command.HISTORY, match(" History 20\n"));
+        assertEquals(CommandRegistry.Command.HISTORY, match("history from 42"));
+        assertNull(match("historyx"));
+        assertNull(match("my history"));
+    }
+
+    @Test
+    void testMatchUsesOnlyTheGivenRange() {
+        byte[] data = "xx?yy".getBytes(StandardCharsets.UTF_8);
+        assertEquals(CommandRegistry.Command.HELP, registry.match(data, 2, 1));
+        assertNull(registry.match(data, 1, 3));
+    }
+
+    @Test
+    void testDispatchTableHasOneSlotPerCommand() {
+        assertEquals(CommandRegistry.Command.values().length, CommandRegistry.newDispatchTable().length);
+    }
+}
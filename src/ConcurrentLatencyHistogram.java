@@ -0,0 +1,100 @@
+/**
+ * Latency histogram recorded by many threads at once, used by {@link ServerMetrics}.
+ *
+ * <p>Same buckets as {@link LatencyHistogram}, but the counts are spread over a few striped arrays like a
+ * {@link LongAdder} spreads its cells : each thread increments the stripe picked by its identity hash, so
+ * session threads rarely touch the same cache line. Reading merges the stripes into a
+ * {@link LatencyHistogram} snapshot, which is only weakly consistent with the records in progress.</p>
+ */
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConcurrentLatencyHistogram {
+    // Stripe count : a power of two close to the processor count, bounded to keep the memory small
+    private static final int maxStripes = 16;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator maxValue = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates an empty histogram.
+     */
+    public ConcurrentLatencyHistogram() {
+        int size = 1;
+        while (size < Runtime.getRuntime().availableProcessors() && size < maxStripes) {
+            size <<= 1;
+        }
+        stripes = new AtomicLongArray[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new AtomicLongArray(LatencyHistogram.bucketCount);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Records one value, from any thread.
+     *
+     * @param value the latency in nanoseconds, negative values count as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int hash = System.identityHashCode(Thread.currentThread());
+        stripes[(hash ^ (hash >>> 16)) & mask].incrementAndGet(LatencyHistogram.bucketIndex(value));
+        totalCount.increment();
+        sum.add(value);
+        maxValue.accumulate(value);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the value count.
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return the mean, or 0 when empty.
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return the maximum, or 0 when empty.
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Merges the stripes into a single-threaded histogram, to compute percentiles.
+     *
+     * @return a snapshot of the recorded values, each counted as the highest value of its bucket.
+     */
+    public LatencyHistogram snapshot() {
+        LatencyHistogram snapshot = new LatencyHistogram();
+        for (int i = 0; i < LatencyHistogram.bucketCount; i++) {
+            long count = 0;
+            for (AtomicLongArray stripe : stripes) {
+                count += stripe.get(i);
+            }
+            if (count > 0) {
+                snapshot.recordValues(LatencyHistogram.highestValueOf(i), count);
+            }
+        }
+        return snapshot;
+    }
+}
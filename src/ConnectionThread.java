@@ -7,35 +7,83 @@
  *
  * <p>Features:</p>
  * <ul>
+ *     <li>Splits the byte stream into newline-delimited messages, or into the frames of the binary
+ *     {@link WireProtocol} when the client opens the session with a hello frame ({@link WireCodec}).</li>
  *     <li>Echoes received messages back to the client.</li>
  *     <li>Manages client disconnections gracefully.</li>
  *     <li>Processes specific commands such as "exit console" and "close server".</li>
+ *     <li>Broadcasts chat messages to the other clients of its {@link ChatRoom}, if any.</li>
  * </ul>
+ *
+ * <p>Messages from other clients are queued in a bounded {@link OutboundQueue} and written by a task of the
+ * room's writer executor, so the sender thread never waits for this client's socket. The echoes go through
+ * the same queue, ahead of the broadcasts : the session thread never waits for the socket either. When the
+ * client reads too slowly and its queue goes over the high watermark, the session stops reading until the
+ * queue is back to the low watermark, and is disconnected if it stays over for the write stall timeout.</p>
+ *
+ * <p>With a {@link ChatJournal}, the last messages are replayed to the client when it connects, and on the
+ * {@code history} command. The replay goes from the segment files to the socket with sendfile, in chunks
+ * paced by the blocking socket, while the broadcast frames wait in the queue. The history of a new client
+ * waits for its hello frame at most {@link TCPMultiServer#getHelloTimeout()}, to be sent in its protocol.</p>
+ *
+ * <p>With TLS, the socket is an {@link SSLSocket} layered by {@link TlsContext#wrapAccepted(Socket)} : the
+ * handshake runs on this thread before anything else, and the history is copied through the TLS streams
+ * rather than sent with sendfile.</p>
  */
+import javax.net.ssl.SSLSocket;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class ConnectionThread extends Thread {
+public class ConnectionThread extends Thread implements ChatMember {
     private final TCPMultiServer tcpMultiServer;
     private final Socket clientSocket;
     private final InputStream clientInput;
     private final OutputStream clientOutput;
     private final Runnable disconnectCallback;
+    private final ChatRoom chatRoom;
+    private final ServerMetrics metrics;
 
     // Set variables for buffer size and client connection status
     private final int maxBufSize = 1024;
-    protected boolean clientConnected = true;
+    private final int replayChunk = 64 * 1024;   // History bytes sent by each sendfile call
+    protected volatile boolean clientConnected = true;
 
     // Set echo message and convert to byte array for transmission
     protected final String echo = "Message received\n";
     protected final byte[] echo_buf = echo.getBytes(StandardCharsets.UTF_8);
 
+    // Rebuilds the text lines or the binary frames from the byte stream
+    private final WireCodec wireCodec = new WireCodec(WireProtocol.maxFrameLength);
+    private final WireCodec.MessageHandler messageHandler = this::handleMessage;
+    private volatile boolean compressed = false;   // Deflated payloads negotiated by the hello frame
+    private final String clientID;
+
+    // Messages from the other clients, drained by at most one writer task at a time
+    private final OutboundQueue outboundQueue;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Runnable drainTask = this::drainOutbound;
+    // The session thread waiting to write in place of the drain task, woken when the flag is released
+    private final Object drainReleased = new Object();
+    private volatile boolean drainWanted = false;
+
+    // Handlers of the client commands, indexed by command
+    private final CommandHandler[] commandHandlers = CommandRegistry.newDispatchTable();
+
+    // Idle and read timeouts, started with the session loop
+    private SessionTimeouts timeouts;
+
     public ConnectionThread(TCPMultiServer tcpMultiServer, Socket clientSocket, InputStream clientInput, OutputStream clientOutput, Runnable disconnectCallback) {
         /**
-         * Creates a new connection thread for a client.
+         * Creates a new connection thread for a client, without chat room.
          *
          * @param tcpMultiServer the TCPMultiServer instance managing this connection.
          * @param clientSocket the socket connected to the client.
@@ -43,11 +91,41 @@ public class ConnectionThread extends Thread {
          * @param clientOutput the output stream to the client.
          * @param disconnectCallback callback to notify server when the client disconnects.
          */
+        this(tcpMultiServer, clientSocket, clientInput, clientOutput, disconnectCallback, null);
+    }
+
+    /**
+     * Creates a new connection thread for a client taking part in a chat room.
+     *
+     * @param tcpMultiServer the TCPMultiServer instance managing this connection.
+     * @param clientSocket the socket connected to the client.
+     * @param clientInput the input stream from the client.
+     * @param clientOutput the output stream to the client.
+     * @param disconnectCallback callback to notify server when the client disconnects.
+     * @param chatRoom the room receiving this client's messages, or {@code null} for echo only.
+     */
+    public ConnectionThread(TCPMultiServer tcpMultiServer, Socket clientSocket, InputStream clientInput, OutputStream clientOutput, Runnable disconnectCallback, ChatRoom chatRoom) {
         this.tcpMultiServer = tcpMultiServer;
         this.clientSocket = clientSocket;
         this.clientInput = clientInput;
         this.clientOutput = clientOutput;
         this.disconnectCallback = disconnectCallback;
+        this.chatRoom = chatRoom;
+        this.metrics = tcpMultiServer.getMetrics();
+        this.clientID = clientSocket.getInetAddress()+ ":" +clientSocket.getPort();
+        this.outboundQueue = chatRoom != null ? chatRoom.newOutboundQueue() : null;
+    }
+
+    /**
+     * Fills the command dispatch table with the handlers of this session, once the session loop starts.
+     */
+    private void registerCommandHandlers() {
+        commandHandlers[CommandRegistry.Command.EXIT_CONSOLE.ordinal()] = new TCPExitCommandHandler(this);
+        commandHandlers[CommandRegistry.Command.CLOSE_SERVER.ordinal()] = new TCPCloseServerCommandHandler(this);
+        if (tcpMultiServer.getJournal() != null) {
+            commandHandlers[CommandRegistry.Command.HISTORY.ordinal()] =
+                    new HistoryCommandHandler(tcpMultiServer.getJournal(), tcpMultiServer.getHistoryLength(), this::replayHistory);
+        }
     }
 
     /**
@@ -64,6 +142,36 @@ public class ConnectionThread extends Thread {
         return this.tcpMultiServer;
     }
 
+    /**
+     * Gets the printable "address:port" identifier of the client.
+     *
+     * @return the client ID.
+     */
+    @Override
+    public String getClientID() {
+        return clientID;
+    }
+
+    /**
+     * Checks if the client speaks the binary protocol.
+     *
+     * @return {@code true} once the client opened the session with a hello frame.
+     */
+    @Override
+    public boolean isBinary() {
+        return wireCodec.isBinary();
+    }
+
+    /**
+     * Checks if the client negotiated compression.
+     *
+     * @return {@code true} once the client offered compression in its hello frame, and the server accepted.
+     */
+    @Override
+    public boolean isCompressed() {
+        return compressed;
+    }
+
     /**
      * Executes the communication with the client in a separate thread.
      *
@@ -78,44 +186,87 @@ public class ConnectionThread extends Thread {
      */
     @Override
     public void run() {
+        // Receive buffer borrowed for the whole session
+        ByteBuffer buf = BufferPool.shared.acquire();
+        registerCommandHandlers();
         try {
+            // Start receiving the other clients' messages
+            if (chatRoom != null) {
+                chatRoom.join(this);
+            }
+            // A silent client is disconnected instead of blocking this read forever
+            timeouts = tcpMultiServer.newSessionTimeouts(clientID, wireCodec, outboundQueue, this::disconnect);
+            // A TLS client completes its handshake before the hello timeout starts, nothing is sent before
+            if (clientSocket instanceof SSLSocket) {
+                ((SSLSocket) clientSocket).startHandshake();
+            }
+            // Catch up with the last messages of the chat, once the protocol of the client is known
+            CommandHandler history = commandHandlers[CommandRegistry.Command.HISTORY.ordinal()];
+            boolean historyPending = history != null && tcpMultiServer.getHistoryLength() > 0;
+            if (historyPending) {
+                clientSocket.setSoTimeout((int) tcpMultiServer.getHelloTimeout());
+            }
+
             while (clientConnected) {
+                // Backpressure : no new message from a client that doesn't read the previous answers
+                if (outboundQueue != null && !outboundQueue.isWritable()) {
+                    outboundQueue.awaitWritable();
+                    continue;
+                }
                 // WIP : manage ? and not displaying when client use a command
-                // Define Client ID
-                String clientID = clientSocket.getInetAddress()+ ":" +clientSocket.getPort();
-
-                // Get the Client's message
-                byte[] buf = new byte[maxBufSize];
-                int bytesRead = clientInput.read(buf);
-                String receivedData = new String(buf, StandardCharsets.UTF_8);
-                System.out.println("Client " + clientID + " says : " + receivedData);
+                // Get the Client's bytes
+                int bytesRead;
+                try {
+                    bytesRead = clientInput.read(buf.array(), buf.arrayOffset(), buf.capacity());
+                } catch (SocketTimeoutException e) {
+                    // No hello frame : a text client, which may never speak first
+                    bytesRead = 0;
+                }
 
                 // Handle connection loss (client disconnects unexpectedly)
                 if (bytesRead == -1) {
-                    System.out.println("Client " + clientID + " disappeared\n");
+                    AsyncLogger.shared.info("Client " + clientID + " disappeared\n");
                     break;
                 }
-                // Handle user's disconnection
-                if (receivedData.trim().equalsIgnoreCase("exit console")) {
-                    System.out.println("Client " + clientID + " left the chat.\n");
-                    clientConnected = false;
+                if (bytesRead > 0) {
+                    metrics.bytesReceived(bytesRead);
+                    timeouts.onRead();
+
+                    // Handle every complete message of this read, in order
+                    wireCodec.decode(buf.array(), buf.arrayOffset(), bytesRead, messageHandler);
                 }
-                // Handle TCP multiserver closure commanded by client
-                if (receivedData.trim().equalsIgnoreCase("close server")) {
-                    System.out.println("Client " + clientID + " requested server shutdown.");
-                    System.out.println("Server closing...\n");
-                    tcpMultiServer.serverConnected = false;
-                    clientConnected = false;
+                if (historyPending && (bytesRead == 0 || wireCodec.pendingBytes() == 0)) {
+                    // Sent after the hello reply of a binary client
+                    historyPending = false;
+                    clientSocket.setSoTimeout(0);
+                    history.handle(clientID, "");
                 }
-
-                // Send an echo message back to the client
-                clientOutput.write(echo_buf);
-                clientOutput.flush();
-                // WIP: handle different echo message if no messages received (relevant feature ?)
+            }
+            // The echo of a closing command is still queued
+            if (outboundQueue != null) {
+                flushReplies();
             }
         } catch (IOException e){
-            System.err.println("Error in the client connection: "+e.getMessage());
+            // A socket closed by disconnect() is expected, not an error
+            if (clientConnected) {
+                AsyncLogger.shared.error("Error in the client connection: "+e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
+            if (timeouts != null) {
+                timeouts.cancel();
+            }
+            // Release the senders blocked on this client
+            if (outboundQueue != null) {
+                outboundQueue.close();
+            }
+            // Stop receiving the other clients' messages
+            if (chatRoom != null) {
+                chatRoom.leave(this);
+            }
+            // Give the receive buffer back for the next sessions
+            BufferPool.shared.release(buf);
             // Notify the server that the connection is closed
             if (disconnectCallback != null) {
                 disconnectCallback.run();
@@ -124,8 +275,254 @@ public class ConnectionThread extends Thread {
             try {
                 clientSocket.close();
             } catch (IOException e) {
-                System.err.println("Error closing resources: " + e.getMessage());
+                AsyncLogger.shared.error("Error closing resources: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handles one message received from the client, text or binary : displays it, processes the commands
+     * and sends the echo message back (an acknowledgement frame in binary mode).
+     *
+     * @param opcode the message opcode.
+     * @param flags the frame flags.
+     * @param sequence the sequence number of the client, returned in the acknowledgement.
+     * @param data the buffer holding the message.
+     * @param offset the start of the message.
+     * @param length the message length.
+     * @throws IOException if the echo cannot be sent.
+     */
+    private void handleMessage(int opcode, int flags, int sequence, byte[] data, int offset, int length) throws IOException {
+        // Ignore messages pipelined after a closing command
+        if (!clientConnected) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        timeouts.onMessage();
+
+        // Decode only the message bytes
+        String receivedData = FrameCodec.toString(data, offset, length);
+        byte[] reply = echo_buf;
+
+        switch (opcode) {
+            case WireProtocol.opcodeHello:
+                // Binary session opened : answer with the protocol version of the server and the compression
+                // accepted, and no echo
+                compressed = (flags & WireProtocol.flagDeflated) != 0 && tcpMultiServer.isCompression();
+                AsyncLogger.shared.info("Client " + clientID + " speaks the binary protocol" + (compressed ? ", compressed" : ""));
+                reply = WireProtocol.encodeHello(sequence, compressed);
+                break;
+            case WireProtocol.opcodeChat:
+                AsyncLogger.shared.info("Client " + clientID + " says : " + receivedData);
+                // Share plain chat messages with the other clients
+                if (chatRoom != null) {
+                    chatRoom.broadcast(this, receivedData);
+                }
+                break;
+            default:
+                AsyncLogger.shared.info("Client " + clientID + " says : " + receivedData);
+                // Handle user's disconnection or TCP multiserver closure commanded by client
+                CommandRegistry.Command command = CommandRegistry.commandOf(opcode);
+                CommandHandler handler = command != null ? commandHandlers[command.ordinal()] : null;
+                if (handler != null) {
+                    handler.handle(clientID, receivedData);
+                }
+                break;
+        }
+        if (reply == echo_buf && wireCodec.isBinary()) {
+            reply = WireProtocol.encode(WireProtocol.opcodeAck, sequence);
+        }
+
+        if (outboundQueue != null) {
+            // Written by the drain task before the broadcast frames, counted there
+            outboundQueue.addReply(reply);
+            scheduleDrain();
+        } else {
+            // Send an echo message back to the client, never in the middle of a broadcast frame
+            synchronized (clientOutput) {
+                clientOutput.write(reply);
+                clientOutput.flush();
             }
+            metrics.messageSent(reply.length);
+        }
+        metrics.messageHandled(startNanos);
+        // WIP: handle different echo message if no messages received (relevant feature ?)
+    }
+
+    /**
+     * Sends a range of the journal to the client, on the session thread. The broadcast frames stay queued
+     * until the replay is over, so their lines never interleave with the history. A binary client gets
+     * each chunk in a history frame.
+     *
+     * @param replay the records to send.
+     * @throws IOException if the client socket cannot be written.
+     */
+    private void replayHistory(ChatJournal.Replay replay) throws IOException {
+        // Take the place of the drain task, waiting for the one in progress if any
+        if (outboundQueue != null) {
+            acquireDrain();
+        }
+        // Sockets accepted by a channel use sendfile, other streams go through a copy. A TLS socket reports the
+        // channel of the socket it is layered on, which would skip the encryption
+        boolean sendfile = clientSocket.getChannel() != null && !(clientSocket instanceof SSLSocket);
+        WritableByteChannel target = sendfile ? clientSocket.getChannel() : Channels.newChannel(clientOutput);
+        try (replay) {
+            while (clientConnected && !replay.isDone()) {
+                if (!wireCodec.isBinary()) {
+                    metrics.bytesSent(replay.transferTo(target, replayChunk));
+                    continue;
+                }
+                // Header announcing the chunk, then exactly its bytes
+                int chunk = (int) Math.min(replayChunk, replay.getRemainingBytes());
+                synchronized (clientOutput) {
+                    clientOutput.write(WireProtocol.encodeHeader(WireProtocol.opcodeHistory, 0, chunk));
+                    clientOutput.flush();
+                }
+                for (long sent = 0; sent < chunk; ) {
+                    sent += replay.transferTo(target, chunk - sent);
+                }
+                metrics.bytesSent(WireProtocol.headerLength + chunk);
+            }
+        } finally {
+            if (outboundQueue != null) {
+                releaseDrain();
+                if (!outboundQueue.isEmpty()) {
+                    scheduleDrain();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the replies left in the queue on the session thread, when the session ends. The drain task
+     * in progress, if any, finishes first, and no other one starts afterwards.
+     *
+     * @throws IOException if the client socket cannot be written.
+     */
+    private void flushReplies() throws IOException {
+        acquireDrain();
+        byte[] frame;
+        while ((frame = outboundQueue.pollReply()) != null) {
+            synchronized (clientOutput) {
+                clientOutput.write(frame);
+                clientOutput.flush();
+            }
+            metrics.messageSent(frame.length);
+        }
+    }
+
+    /**
+     * Queues a message broadcast by another client and makes sure a writer task will send it.
+     * Called from the sender's thread, never waits for this client's socket.
+     *
+     * @param frame the encoded frame shared by every recipient.
+     */
+    @Override
+    public void deliver(byte[] frame) {
+        if (!clientConnected) {
+            return;
+        }
+        try {
+            if (!outboundQueue.offer(frame)) {
+                AsyncLogger.shared.warn("Client " + clientID + " is too slow, disconnecting.");
+                disconnect();
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Makes sure a writer task will send the queued frames. Only one drain at a time keeps the frames in order.
+     */
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            chatRoom.getWriterExecutor().execute(drainTask);
+        }
+    }
+
+    /**
+     * Writes every queued reply and broadcast frame to the client. Runs on the room's writer executor.
+     */
+    private void drainOutbound() {
+        boolean draining = true;
+        try {
+            while (draining) {
+                byte[] frame;
+                while ((frame = outboundQueue.poll()) != null) {
+                    synchronized (clientOutput) {
+                        clientOutput.write(frame);
+                        clientOutput.flush();
+                    }
+                    metrics.messageSent(frame.length);
+                }
+                draining = false;
+                releaseDrain();
+                // A frame queued right before the flag was cleared would be left behind otherwise, unless the
+                // session thread waits to write : it schedules a drain once done
+                draining = !drainWanted && !outboundQueue.isEmpty() && drainScheduled.compareAndSet(false, true);
+            }
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Error in the client connection: " + e.getMessage());
+            disconnect();
+        } finally {
+            // A failed write must not keep the session thread waiting for the flag
+            if (draining) {
+                releaseDrain();
+            }
+        }
+    }
+
+    /**
+     * Takes the drain flag for the session thread, waiting for the drain task in progress if any.
+     *
+     * @throws InterruptedIOException if the session thread is interrupted while waiting.
+     */
+    private void acquireDrain() throws InterruptedIOException {
+        drainWanted = true;
+        try {
+            synchronized (drainReleased) {
+                while (!drainScheduled.compareAndSet(false, true)) {
+                    drainReleased.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer task of " + clientID);
+        } finally {
+            drainWanted = false;
+        }
+    }
+
+    /**
+     * Releases the drain flag, and wakes the session thread if it waits for it.
+     */
+    private void releaseDrain() {
+        drainScheduled.set(false);
+        if (drainWanted) {
+            synchronized (drainReleased) {
+                drainReleased.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Closes the client socket from another thread, which makes the session loop end.
+     */
+    @Override
+    public void disconnect() {
+        clientConnected = false;
+        // Wake the session thread up if it waits for writability
+        if (outboundQueue != null) {
+            outboundQueue.close();
+        }
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Error closing resources: " + e.getMessage());
         }
     }
 }
@@ -0,0 +1,159 @@
+/**
+ * One I/O event loop of the {@link TCPMultiServer} selector mode : a thread running its own {@link Selector}
+ * for the {@link NioSession}s the acceptor assigned to it.
+ *
+ * <p>A session is registered on one loop and stays there until it closes : its channel, key, buffers and
+ * replay are only touched by that thread, so they need no lock. Other threads hand work to the loop with
+ * {@link #execute(Runnable)}, which queues the task and wakes the selector up once per round.</p>
+ */
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EventLoop extends Thread {
+    private final Selector selector;
+
+    // Tasks handed to the loop by other threads, and whether a wake-up is already on its way
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+    // Sessions assigned to the loop, counted from their assignment to their closure
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /**
+     * Creates an event loop, started with {@link #start()}.
+     *
+     * @param name the thread name, for the logs and thread dumps.
+     * @throws IOException if the selector cannot be opened.
+     */
+    public EventLoop(String name) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Returns the selector of the loop, to register channels on from the loop thread.
+     *
+     * @return the selector.
+     */
+    public Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Checks if the caller runs on this loop.
+     *
+     * @return {@code true} on the loop thread.
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    /**
+     * Runs a task on the loop thread, from any thread. The task runs after the current round of ready channels.
+     *
+     * @param task the task, which must not block.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        // One wake-up is enough for every task queued before the loop drains them
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Returns the number of sessions assigned to the loop.
+     *
+     * @return the session count.
+     */
+    public int getSessionCount() {
+        return sessionCount.get();
+    }
+
+    /**
+     * Counts a session assigned to the loop, before its registration runs.
+     */
+    public void sessionOpened() {
+        sessionCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a session of the loop that closed.
+     */
+    public void sessionClosed() {
+        sessionCount.decrementAndGet();
+    }
+
+    /**
+     * Stops the loop from any thread. The loop closes its sessions before its thread ends.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Serves the ready channels and the queued tasks until {@link #shutdown()}.
+     */
+    @Override
+    public void run() {
+        // The loop lives as long as the server, keep its receive buffers local
+        BufferPool.shared.enableThreadCache();
+        try {
+            while (running) {
+                selector.select();
+                wakeupPending.set(false);
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        ((NioSession) key.attachment()).handleRead();
+                    } else if (key.isWritable()) {
+                        ((NioSession) key.attachment()).handleWrite();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Event loop " + getName() + " failed: " + e.getMessage());
+        } finally {
+            // Registrations still queued run first, so that every session is closed below
+            runTasks();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioSession) {
+                    ((NioSession) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                AsyncLogger.shared.error("Error closing resources: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks handed to the loop by other threads, in order.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                AsyncLogger.shared.error("Event loop task failed: " + e.getMessage());
+            }
+        }
+    }
+}
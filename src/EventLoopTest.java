@@ -0,0 +1,101 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code EventLoop}, alone and as the reactor of a {@code TCPMultiServer} in selector mode.
+ */
+class EventLoopTest {
+    private final int testPort = 12400;
+
+    @Test
+    void testExecuteRunsTasksOnTheLoopThread() throws Exception {
+        EventLoop eventLoop = new EventLoop("test-loop");
+        eventLoop.start();
+        try {
+            AtomicReference<Thread> runner = new AtomicReference<>();
+            CountDownLatch done = new CountDownLatch(2);
+            eventLoop.execute(() -> {
+                runner.set(Thread.currentThread());
+                done.countDown();
+            });
+            eventLoop.execute(() -> {
+                assertTrue(eventLoop.inEventLoop());
+                done.countDown();
+            });
+            assertTrue(done.await(5, TimeUnit.SECONDS), "Both tasks should run");
+            assertSame(eventLoop, runner.get());
+            assertFalse(eventLoop.inEventLoop());
+        } finally {
+            eventLoop.shutdown();
+            eventLoop.join(5000);
+        }
+        assertFalse(eventLoop.isAlive(), "The loop should stop on shutdown");
+    }
+
+    @Test
+    void testSessionCountFollowsAssignments() throws Exception {
+        EventLoop eventLoop = new EventLoop("test-loop");
+        eventLoop.sessionOpened();
+        eventLoop.sessionOpened();
+        eventLoop.sessionClosed();
+        assertEquals(1, eventLoop.getSessionCount());
+    }
+
+    private void assertChatCrossesLoops(LoopAssignment assignment, int port) throws Exception {
+        TCPMultiServer server = new TCPMultiServer(port, ServerMode.SELECTOR);
+        server.setEventLoops(2, assignment);
+        server.setHistoryLength(0);
+        Thread serverThread = TestServers.launch(server);
+
+        // Two clients in a row land on different loops, whatever the assignment
+        try (Socket first = new Socket("localhost", port);
+             Socket second = new Socket("localhost", port)) {
+            first.setSoTimeout(5000);
+            second.setSoTimeout(5000);
+            BufferedReader firstReader = new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.UTF_8));
+            BufferedReader secondReader = new BufferedReader(new InputStreamReader(second.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream firstOutput = first.getOutputStream();
+            OutputStream secondOutput = second.getOutputStream();
+            Thread.sleep(200);
+
+            firstOutput.write("from first\n".getBytes(StandardCharsets.UTF_8));
+            firstOutput.flush();
+            assertEquals("Message received", firstReader.readLine());
+            assertTrue(secondReader.readLine().endsWith("says : from first"));
+
+            secondOutput.write("from second\n".getBytes(StandardCharsets.UTF_8));
+            secondOutput.flush();
+            assertEquals("Message received", secondReader.readLine());
+            assertTrue(firstReader.readLine().endsWith("says : from second"));
+            assertEquals(2, server.getMetrics().getActiveSessions());
+
+            // The accepting thread stops right away, and the loops close their sessions
+            firstOutput.write("close server\n".getBytes(StandardCharsets.UTF_8));
+            firstOutput.flush();
+            assertEquals("Message received", firstReader.readLine());
+            serverThread.join(5000);
+            assertFalse(serverThread.isAlive(), "The server should be closed");
+            assertNull(secondReader.readLine(), "The other sessions should be closed with the server");
+        }
+    }
+
+    @Test
+    void testRoundRobinLoopsShareTheChat() throws Exception {
+        assertChatCrossesLoops(LoopAssignment.ROUND_ROBIN, testPort);
+    }
+
+    @Test
+    void testLeastLoadedLoopsShareTheChat() throws Exception {
+        assertChatCrossesLoops(LoopAssignment.LEAST_LOADED, testPort + 1);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Header of the fragments of a UDP message longer than one datagram, split by {@link UDPClient} and put
+ * back together by the {@link FragmentReassembler} of the server.
+ *
+ * <p>A fragment is : a marker byte that never appears in UTF-8 text, the message id chosen by the client,
+ * the fragment index, the fragment count and the message length, then a slice of the message. With the
+ * length in every fragment, the server rejects a message too long from whichever fragment arrives first.
+ * Messages that fit in one datagram are sent as they are, without header. Integers are big-endian.</p>
+ *
+ * <p>Fragments are sized to the receive buffer of the server (1024 bytes), well below the Ethernet MTU,
+ * so the IP layer never has to fragment them.</p>
+ */
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class FragmentPacket {
+    // 0xFF is not a valid byte in UTF-8 text, nor the marker of the reliable mode
+    static final byte marker = (byte) 0xFF;
+    static final int headerLength = 13;   // marker, message id, fragment index, fragment count, message length
+    static final int maxFragments = 0xFFFF;
+
+    private static final int messageIdOffset = 1;
+    private static final int indexOffset = 5;
+    private static final int countOffset = 7;
+    private static final int messageLengthOffset = 9;
+
+    private FragmentPacket() {
+    }
+
+    /**
+     * Checks if a message is a fragment.
+     *
+     * @param data the buffer holding the message.
+     * @param offset the start of the message.
+     * @param length the message length.
+     * @return {@code true} for a fragment with a complete header.
+     */
+    public static boolean isFragment(byte[] data, int offset, int length) {
+        return length >= headerLength && data[offset] == marker;
+    }
+
+    /**
+     * Splits a message into fragments, or returns it whole when it fits in one datagram.
+     *
+     * @param message the message bytes.
+     * @param maxDatagramSize the largest datagram the server receives.
+     * @param messageId the id of the message, unique among the recent messages of the client.
+     * @return the datagrams to send, in order.
+     * @throws IllegalArgumentException if the message needs more than {@link #maxFragments} fragments.
+     */
+    public static List<byte[]> split(byte[] message, int maxDatagramSize, int messageId) {
+        if (message.length <= maxDatagramSize) {
+            return List.of(message);
+        }
+        int sliceLength = maxDatagramSize - headerLength;
+        int count = (message.length + sliceLength - 1) / sliceLength;
+        if (count > maxFragments) {
+            throw new IllegalArgumentException("Message of " + message.length + " bytes is too long to be fragmented");
+        }
+
+        List<byte[]> fragments = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            int start = index * sliceLength;
+            int length = Math.min(sliceLength, message.length - start);
+            ByteBuffer fragment = ByteBuffer.allocate(headerLength + length);
+            fragment.put(marker).putInt(messageId).putShort((short) index).putShort((short) count)
+                    .putInt(message.length).put(message, start, length);
+            fragments.add(fragment.array());
+        }
+        return fragments;
+    }
+
+    /**
+     * Gets the message id of a fragment.
+     */
+    static int messageId(byte[] data, int offset) {
+        return readInt(data, offset + messageIdOffset);
+    }
+
+    /**
+     * Gets the index of a fragment in its message.
+     */
+    static int index(byte[] data, int offset) {
+        return readUnsignedShort(data, offset + indexOffset);
+    }
+
+    /**
+     * Gets the number of fragments of the message.
+     */
+    static int count(byte[] data, int offset) {
+        return readUnsignedShort(data, offset + countOffset);
+    }
+
+    /**
+     * Gets the length of the whole message.
+     */
+    static int messageLength(byte[] data, int offset) {
+        return readInt(data, offset + messageLengthOffset);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Puts the fragmented UDP messages back together on the server ({@link FragmentPacket}).
+ *
+ * <p>The table of partial messages is bounded, so lost fragments or a misbehaving client can't exhaust
+ * the memory :</p>
+ * <ul>
+ *     <li>a message longer than the maximum size is dropped;</li>
+ *     <li>a partial message older than the timeout is evicted;</li>
+ *     <li>when the number of partial messages or their total size is over its cap, the oldest ones are
+ *     evicted to make room.</li>
+ * </ul>
+ *
+ * <p>Partial messages are kept in arrival order, so the stale ones are always at the head of the table
+ * and are checked on each fragment, without a timer. Thread-safe : the fragments of every worker go
+ * through one lock, plain messages never take it.</p>
+ */
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+public class FragmentReassembler {
+    // A message being received : its fragments by index
+    private static final class PartialMessage {
+        private final byte[][] fragments;
+        private final int messageLength;
+        private final long firstFragmentTime;
+        private int receivedFragments = 0;
+        private int receivedBytes = 0;
+
+        private PartialMessage(int count, int messageLength, long firstFragmentTime) {
+            this.fragments = new byte[count][];
+            this.messageLength = messageLength;
+            this.firstFragmentTime = firstFragmentTime;
+        }
+    }
+
+    // Client and message id of a partial message
+    private static final class MessageKey {
+        private final InetSocketAddress sender;
+        private final int messageId;
+
+        private MessageKey(InetSocketAddress sender, int messageId) {
+            this.sender = sender;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof MessageKey key && key.messageId == messageId && key.sender.equals(sender);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sender, messageId);
+        }
+    }
+
+    private final int maxMessageSize;
+    private final long maxBufferedBytes;
+    private final int maxPartialMessages;
+    private final long timeoutNanos;
+
+    // Partial messages, oldest first
+    private final LinkedHashMap<MessageKey, PartialMessage> partialMessages = new LinkedHashMap<>();
+    private long bufferedBytes = 0;
+    private long evictedMessages = 0;
+    private long droppedFragments = 0;
+
+    /**
+     * Creates a reassembly table.
+     *
+     * @param maxMessageSize the longest message put back together (bytes).
+     * @param maxBufferedBytes the memory cap of all the partial messages (bytes).
+     * @param maxPartialMessages the number of messages received at the same time, at most.
+     * @param timeoutMillis the time given to a message to arrive completely (ms).
+     */
+    public FragmentReassembler(int maxMessageSize, long maxBufferedBytes, int maxPartialMessages, long timeoutMillis) {
+        this.maxMessageSize = maxMessageSize;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.maxPartialMessages = maxPartialMessages;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Adds a fragment to its message.
+     *
+     * @param sender the client that sent the fragment.
+     * @param data the buffer holding the fragment, header included.
+     * @param offset the start of the fragment.
+     * @param length the fragment length.
+     * @param now the current {@link System#nanoTime()}.
+     * @return the whole message once its last missing fragment arrives, {@code null} until then or if the
+     *         fragment is invalid.
+     */
+    public synchronized byte[] add(InetSocketAddress sender, byte[] data, int offset, int length, long now) {
+        evictStale(now);
+
+        int count = FragmentPacket.count(data, offset);
+        int index = FragmentPacket.index(data, offset);
+        int messageLength = FragmentPacket.messageLength(data, offset);
+        int sliceLength = length - FragmentPacket.headerLength;
+        if (count == 0 || index >= count || messageLength < 0 || messageLength > maxMessageSize) {
+            droppedFragments++;
+            return null;
+        }
+
+        MessageKey key = new MessageKey(sender, FragmentPacket.messageId(data, offset));
+        PartialMessage message = partialMessages.get(key);
+        if (message == null) {
+            message = new PartialMessage(count, messageLength, now);
+        } else if (message.fragments.length != count || message.messageLength != messageLength) {
+            // Inconsistent header : the message can't be completed
+            remove(key, message);
+            evictedMessages++;
+            droppedFragments++;
+            return null;
+        }
+        if (message.fragments[index] != null) {
+            // Duplicate
+            return null;
+        }
+        if (message.receivedBytes + sliceLength > messageLength) {
+            // More bytes than announced
+            remove(key, message);
+            evictedMessages++;
+            droppedFragments++;
+            return null;
+        }
+
+        byte[] slice = new byte[sliceLength];
+        System.arraycopy(data, offset + FragmentPacket.headerLength, slice, 0, sliceLength);
+        message.fragments[index] = slice;
+        message.receivedFragments++;
+        message.receivedBytes += sliceLength;
+        bufferedBytes += sliceLength;
+
+        if (message.receivedFragments == count) {
+            remove(key, message);
+            if (message.receivedBytes != messageLength) {
+                // Fewer bytes than announced
+                evictedMessages++;
+                return null;
+            }
+            return assemble(message);
+        }
+        if (message.receivedFragments == 1) {
+            partialMessages.put(key, message);
+        }
+        evictOverCap(message);
+        return null;
+    }
+
+    /**
+     * Gets the number of messages being received.
+     *
+     * @return the partial messages count.
+     */
+    public synchronized int getPartialMessages() {
+        return partialMessages.size();
+    }
+
+    /**
+     * Gets the size of the fragments held.
+     *
+     * @return the buffered bytes.
+     */
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Gets the number of partial messages evicted : timed out, over a cap or too long.
+     *
+     * @return the evicted messages count.
+     */
+    public synchronized long getEvictedMessages() {
+        return evictedMessages;
+    }
+
+    /**
+     * Gets the number of fragments dropped because their header was invalid or their message too long.
+     *
+     * @return the dropped fragments count.
+     */
+    public synchronized long getDroppedFragments() {
+        return droppedFragments;
+    }
+
+    /**
+     * Evicts the partial messages older than the timeout, at the head of the table.
+     */
+    private void evictStale(long now) {
+        Iterator<PartialMessage> oldest = partialMessages.values().iterator();
+        while (oldest.hasNext()) {
+            PartialMessage message = oldest.next();
+            if (now - message.firstFragmentTime < timeoutNanos) {
+                return;
+            }
+            oldest.remove();
+            bufferedBytes -= message.receivedBytes;
+            evictedMessages++;
+        }
+    }
+
+    /**
+     * Evicts the oldest partial messages while a cap is exceeded, never the one just added to.
+     */
+    private void evictOverCap(PartialMessage current) {
+        Iterator<PartialMessage> oldest = partialMessages.values().iterator();
+        while ((bufferedBytes > maxBufferedBytes || partialMessages.size() > maxPartialMessages) && oldest.hasNext()) {
+            PartialMessage message = oldest.next();
+            if (message == current) {
+                continue;
+            }
+            oldest.remove();
+            bufferedBytes -= message.receivedBytes;
+            evictedMessages++;
+        }
+    }
+
+    /**
+     * Removes a message from the table, its fragments no longer count in the buffered bytes.
+     */
+    private void remove(MessageKey key, PartialMessage message) {
+        partialMessages.remove(key);
+        bufferedBytes -= message.receivedBytes;
+    }
+
+    /**
+     * Concatenates the fragments of a complete message.
+     */
+    private static byte[] assemble(PartialMessage message) {
+        byte[] whole = new byte[message.receivedBytes];
+        int position = 0;
+        for (byte[] fragment : message.fragments) {
+            System.arraycopy(fragment, 0, whole, position, fragment.length);
+            position += fragment.length;
+        }
+        return whole;
+    }
+}
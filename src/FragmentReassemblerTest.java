@@ -0,0 +1,149 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code FragmentPacket} and {@code FragmentReassembler}.
+ */
+class FragmentReassemblerTest {
+    private final int testPort = 12370;
+    private final int maxDatagramSize = 1024;
+    private final int maxMessageSize = 64 * 1024;
+    private final long timeoutMillis = 5000;
+    private final InetSocketAddress sender = new InetSocketAddress("localhost", 40000);
+
+    private byte[] randomMessage(int length) {
+        byte[] message = new byte[length];
+        new Random(length).nextBytes(message);
+        return message;
+    }
+
+    private byte[] addAll(FragmentReassembler reassembler, List<byte[]> fragments, long now) {
+        byte[] message = null;
+        for (byte[] fragment : fragments) {
+            byte[] result = reassembler.add(sender, fragment, 0, fragment.length, now);
+            if (result != null) {
+                assertNull(message, "The message should be completed once");
+                message = result;
+            }
+        }
+        return message;
+    }
+
+    @Test
+    void testShortMessageIsNotFragmented() {
+        byte[] message = randomMessage(maxDatagramSize);
+        List<byte[]> datagrams = FragmentPacket.split(message, maxDatagramSize, 1);
+
+        assertEquals(1, datagrams.size());
+        assertSame(message, datagrams.get(0));
+    }
+
+    @Test
+    void testFragmentsFitInDatagrams() {
+        List<byte[]> fragments = FragmentPacket.split(randomMessage(10000), maxDatagramSize, 1);
+
+        assertEquals(10, fragments.size());
+        for (byte[] fragment : fragments) {
+            assertTrue(fragment.length <= maxDatagramSize, "A fragment should fit in one datagram");
+            assertTrue(FragmentPacket.isFragment(fragment, 0, fragment.length));
+        }
+    }
+
+    @Test
+    void testReassemblyInAnyOrder() {
+        FragmentReassembler reassembler = new FragmentReassembler(maxMessageSize, 1 << 20, 16, timeoutMillis);
+        byte[] message = randomMessage(20000);
+        List<byte[]> fragments = new ArrayList<>(FragmentPacket.split(message, maxDatagramSize, 7));
+        Collections.shuffle(fragments, new Random(3));
+        // Duplicates are ignored
+        fragments.add(3, fragments.get(0));
+
+        assertArrayEquals(message, addAll(reassembler, fragments, System.nanoTime()));
+        assertEquals(0, reassembler.getPartialMessages());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    void testInterleavedMessages() {
+        FragmentReassembler reassembler = new FragmentReassembler(maxMessageSize, 1 << 20, 16, timeoutMillis);
+        byte[] first = randomMessage(3000);
+        byte[] second = randomMessage(4000);
+        List<byte[]> firstFragments = FragmentPacket.split(first, maxDatagramSize, 1);
+        List<byte[]> secondFragments = FragmentPacket.split(second, maxDatagramSize, 2);
+        long now = System.nanoTime();
+
+        assertNull(addAll(reassembler, secondFragments.subList(0, 2), now));
+        assertArrayEquals(first, addAll(reassembler, firstFragments, now));
+        assertArrayEquals(second, addAll(reassembler, secondFragments.subList(2, secondFragments.size()), now));
+    }
+
+    @Test
+    void testStaleMessageIsEvicted() {
+        FragmentReassembler reassembler = new FragmentReassembler(maxMessageSize, 1 << 20, 16, timeoutMillis);
+        List<byte[]> fragments = FragmentPacket.split(randomMessage(5000), maxDatagramSize, 1);
+        long start = System.nanoTime();
+
+        assertNull(addAll(reassembler, fragments.subList(0, fragments.size() - 1), start));
+        assertEquals(1, reassembler.getPartialMessages());
+
+        // The last fragment arrives after the timeout : the message is gone
+        long late = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        assertNull(addAll(reassembler, fragments.subList(fragments.size() - 1, fragments.size()), late));
+        assertEquals(1, reassembler.getEvictedMessages());
+    }
+
+    @Test
+    void testMemoryCapEvictsOldestMessage() {
+        // Room for about 3 fragments in the whole table
+        FragmentReassembler reassembler = new FragmentReassembler(maxMessageSize, 3 * maxDatagramSize, 16, timeoutMillis);
+        long now = System.nanoTime();
+        for (int id = 0; id < 4; id++) {
+            List<byte[]> fragments = FragmentPacket.split(randomMessage(3000), maxDatagramSize, id);
+            assertNull(addAll(reassembler, fragments.subList(0, 1), now));
+        }
+
+        assertEquals(3, reassembler.getPartialMessages());
+        assertEquals(1, reassembler.getEvictedMessages());
+        assertTrue(reassembler.getBufferedBytes() <= 3 * maxDatagramSize);
+    }
+
+    @Test
+    void testTooLongMessageIsDropped() {
+        FragmentReassembler reassembler = new FragmentReassembler(maxMessageSize, 1 << 20, 16, timeoutMillis);
+        List<byte[]> fragments = FragmentPacket.split(randomMessage(2 * maxMessageSize), maxDatagramSize, 1);
+
+        assertNull(addAll(reassembler, fragments, System.nanoTime()));
+        assertEquals(0, reassembler.getPartialMessages());
+        assertEquals(fragments.size(), reassembler.getDroppedFragments(), "Every fragment should be dropped");
+    }
+
+    @Test
+    void testUDPServerHandlesLargeMessages() throws Exception {
+        UDPServer server = new UDPServer(testPort);
+        Thread serverThread = TestServers.launch(server);
+
+        UDPClient client = new UDPClient("localhost", testPort);
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(new InetSocketAddress("localhost", testPort));
+            client.queueMessage(randomMessage(20000));
+            assertEquals(20, client.flushMessages(channel));
+            Thread.sleep(200);
+            channel.write(ByteBuffer.wrap("close server".getBytes()));
+        }
+        serverThread.join(timeoutMillis);
+
+        assertFalse(serverThread.isAlive(), "The server should be closed");
+        assertEquals(2, server.getMetrics().getHandlingLatencyCount(), "The large message should be handled once");
+        assertEquals(0, server.getFragmentReassembler().getPartialMessages());
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Newline-delimited message framing for the TCP path.
+ *
+ * <p>TCP is a byte stream : one {@code read()} can return half a message or several messages at once.
+ * Each message is therefore sent as its UTF-8 bytes followed by {@code '\n'}, which keeps the protocol
+ * usable from netcat, and a {@code FrameCodec} instance rebuilds the messages on the receiving side.</p>
+ *
+ * <p>Decoding features:</p>
+ * <ul>
+ *     <li>Handles partial reads : an incomplete message is kept until its delimiter arrives.</li>
+ *     <li>Handles coalesced reads : every message of a single read is delivered in one pass.</li>
+ *     <li>Complete messages are handed out as slices of the read buffer, without copy.</li>
+ *     <li>A trailing {@code '\r'} is dropped so CRLF line endings work too.</li>
+ *     <li>A message longer than the maximum frame size is delivered in chunks of that size, whether it arrives
+ *     in one read or across several, so a peer that never sends a delimiter cannot make the buffer grow.</li>
+ * </ul>
+ *
+ * <p>A decoder keeps per-connection state and is not thread-safe : use one instance per session.</p>
+ */
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class FrameCodec {
+    // Frame delimiter and optional carriage return before it
+    public static final byte delimiter = '\n';
+    private static final byte carriageReturn = '\r';
+
+    // Bytes of a message whose delimiter has not been received yet, allocated on the first partial read
+    private final int maxFrameSize;
+    private byte[] partialBuf = null;
+    private int partialLength = 0;
+    // Set once a chunk of an oversized message was delivered, until its delimiter arrives
+    private boolean chunked = false;
+
+    /**
+     * Callback receiving each decoded frame, delimiter excluded.
+     * The bytes are only valid during the call.
+     */
+    public interface FrameHandler {
+        void onFrame(byte[] frame, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Creates a decoder with a maximum frame size.
+     *
+     * @param maxFrameSize the maximum number of bytes kept for one incomplete message.
+     */
+    public FrameCodec(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Encodes a message as a frame ready to be written on the socket.
+     *
+     * @param message the message to encode.
+     * @return the UTF-8 bytes of the message followed by the delimiter.
+     */
+    public static byte[] encode(String message) {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[data.length + 1];
+        System.arraycopy(data, 0, frame, 0, data.length);
+        frame[data.length] = delimiter;
+        return frame;
+    }
+
+    /**
+     * Decodes a frame payload as a UTF-8 string.
+     *
+     * @param frame the buffer holding the frame.
+     * @param offset the start of the frame.
+     * @param length the frame length.
+     * @return the decoded message.
+     */
+    public static String toString(byte[] frame, int offset, int length) {
+        return new String(frame, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Feeds received bytes to the decoder and delivers every complete frame to the handler, in order.
+     *
+     * @param data the buffer holding the received bytes.
+     * @param offset the start of the received bytes.
+     * @param length the number of received bytes.
+     * @param handler the callback receiving the complete frames.
+     * @throws IOException if the handler fails.
+     */
+    public void decode(byte[] data, int offset, int length, FrameHandler handler) throws IOException {
+        int end = offset + length;
+        int frameStart = offset;
+
+        for (int i = offset; i < end; i++) {
+            if (data[i] != delimiter) {
+                continue;
+            }
+            if (partialLength == 0) {
+                // Whole frame inside the received bytes : hand out a slice of the read buffer
+                deliver(data, frameStart, i - frameStart, handler);
+            } else {
+                // End of a frame started in a previous read
+                append(data, frameStart, i - frameStart, handler);
+                deliver(partialBuf, 0, partialLength, handler);
+                partialLength = 0;
+            }
+            frameStart = i + 1;
+        }
+
+        // Keep the bytes of the incomplete last frame
+        append(data, frameStart, end - frameStart, handler);
+    }
+
+    /**
+     * Returns the number of buffered bytes waiting for their delimiter.
+     *
+     * @return the length of the incomplete frame.
+     */
+    public int pendingBytes() {
+        return partialLength;
+    }
+
+    /**
+     * Drops any incomplete frame, so the decoder can be reused for a new connection.
+     */
+    public void reset() {
+        partialLength = 0;
+        chunked = false;
+    }
+
+    /**
+     * Copies bytes to the incomplete frame, flushing it as a chunk when the maximum size is reached.
+     */
+    private void append(byte[] data, int offset, int length, FrameHandler handler) throws IOException {
+        // Sessions whose messages always arrive whole never need the buffer
+        if (length > 0 && partialBuf == null) {
+            partialBuf = new byte[maxFrameSize];
+        }
+        while (length > 0) {
+            int copied = Math.min(length, partialBuf.length - partialLength);
+            System.arraycopy(data, offset, partialBuf, partialLength, copied);
+            partialLength += copied;
+            offset += copied;
+            length -= copied;
+            // Oversized message : deliver what we have instead of growing the buffer
+            if (partialLength == partialBuf.length) {
+                handler.onFrame(partialBuf, 0, partialLength);
+                partialLength = 0;
+                chunked = true;
+            }
+        }
+    }
+
+    /**
+     * Delivers the end of a frame to the handler without its optional trailing carriage return, in chunks if it
+     * exceeds the maximum frame size.
+     */
+    private void deliver(byte[] frame, int offset, int length, FrameHandler handler) throws IOException {
+        // Oversized message within one read : same chunks as when it spans several reads
+        while (length > maxFrameSize) {
+            handler.onFrame(frame, offset, maxFrameSize);
+            offset += maxFrameSize;
+            length -= maxFrameSize;
+            chunked = true;
+        }
+        if (length > 0 && frame[offset + length - 1] == carriageReturn) {
+            length--;
+        }
+        // An oversized message ending on a chunk boundary has nothing left, not an empty message
+        if (length > 0 || !chunked) {
+            handler.onFrame(frame, offset, length);
+        }
+        chunked = false;
+    }
+}
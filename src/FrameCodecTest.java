@@ -0,0 +1,87 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code FrameCodec}.
+ */
+class FrameCodecTest {
+    private final int maxFrameSize = 16;
+    private FrameCodec frameCodec;
+    private List<String> frames;
+
+    @BeforeEach
+    void setUp() {
+        frameCodec = new FrameCodec(maxFrameSize);
+        frames = new ArrayList<>();
+    }
+
+    // Feeds a string to the decoder, collecting the decoded frames
+    private void feed(String data) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        frameCodec.decode(bytes, 0, bytes.length,
+                (frame, offset, length) -> frames.add(FrameCodec.toString(frame, offset, length)));
+    }
+
+    @Test
+    void testEncodeAppendsDelimiter() {
+        assertEquals("exit console\n", new String(FrameCodec.encode("exit console"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testCoalescedFramesDecodedInOnePass() throws IOException {
+        feed("hello\nexit console\nclose server\n");
+        assertEquals(List.of("hello", "exit console", "close server"), frames);
+        assertEquals(0, frameCodec.pendingBytes());
+    }
+
+    @Test
+    void testPartialFrameKeptUntilDelimiter() throws IOException {
+        feed("hel");
+        assertTrue(frames.isEmpty(), "No frame should be delivered without its delimiter");
+        assertEquals(3, frameCodec.pendingBytes());
+
+        feed("lo\nwor");
+        assertEquals(List.of("hello"), frames);
+
+        feed("ld\n");
+        assertEquals(List.of("hello", "world"), frames);
+    }
+
+    @Test
+    void testCarriageReturnIsDropped() throws IOException {
+        feed("netcat\r\n");
+        assertEquals(List.of("netcat"), frames);
+    }
+
+    @Test
+    void testOversizedFrameDeliveredInChunks() throws IOException {
+        feed("0123456789abcdefXYZ\n");
+        assertEquals(List.of("0123456789abcdef", "XYZ"), frames);
+    }
+
+    @Test
+    void testOversizedFrameEndingOnChunkBoundary() throws IOException {
+        feed("0123456789abcdef");
+        feed("\n");
+        assertEquals(List.of("0123456789abcdef"), frames, "No empty frame should follow the last chunk");
+
+        feed("0123456789abcdef0123456789abcdef\r\nnext\n");
+        assertEquals(List.of("0123456789abcdef", "0123456789abcdef", "0123456789abcdef", "next"), frames);
+    }
+
+    @Test
+    void testMultiByteCharacterSplitAcrossReads() throws IOException {
+        byte[] bytes = "été\n".getBytes(StandardCharsets.UTF_8);
+        FrameCodec.FrameHandler handler = (frame, offset, length) -> frames.add(FrameCodec.toString(frame, offset, length));
+        frameCodec.decode(bytes, 0, 1, handler);
+        frameCodec.decode(bytes, 1, bytes.length - 1, handler);
+        assertEquals(List.of("été"), frames);
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Handles the {@code history} command of a {@link TCPMultiServer} session : replays past messages of the
+ * {@link ChatJournal} to the client.
+ *
+ * <ul>
+ *     <li>{@code history} : the last messages, as many as replayed when the client connects;</li>
+ *     <li>{@code history <count>} : the last {@code count} messages;</li>
+ *     <li>{@code history from <sequence>} : every message from a sequence number, the first number of each
+ *     journal line (a client coming back gives the number after the last line it saw).</li>
+ * </ul>
+ */
+import java.io.IOException;
+
+public class HistoryCommandHandler implements CommandHandler {
+    /**
+     * Sends a replay to the client, paced by its socket.
+     */
+    public interface Replayer {
+        void replay(ChatJournal.Replay replay) throws IOException;
+    }
+
+    private final ChatJournal journal;
+    private final int defaultCount;
+    private final Replayer replayer;
+
+    /**
+     * Creates the history handler of a session.
+     *
+     * @param journal the journal of the chat messages.
+     * @param defaultCount the number of messages replayed without argument.
+     * @param replayer sends the replay to the client.
+     */
+    public HistoryCommandHandler(ChatJournal journal, int defaultCount, Replayer replayer) {
+        this.journal = journal;
+        this.defaultCount = defaultCount;
+        this.replayer = replayer;
+    }
+
+    @Override
+    public void handle(String clientID, String receivedData) {
+        // Text clients send the whole command line, binary clients only its argument
+        String argument = receivedData.trim();
+        String command = CommandRegistry.Command.HISTORY.getText();
+        if (argument.regionMatches(true, 0, command, 0, command.length())) {
+            argument = argument.substring(command.length()).trim();
+        }
+        try {
+            ChatJournal.Replay replay;
+            if (argument.isEmpty()) {
+                replay = journal.replayLast(defaultCount);
+            } else if (argument.regionMatches(true, 0, "from ", 0, 5)) {
+                replay = journal.replayFrom(Long.parseLong(argument.substring(5).trim()));
+            } else {
+                replay = journal.replayLast(Integer.parseInt(argument));
+            }
+            AsyncLogger.shared.info("Replaying " + replay.getRemainingBytes() + " bytes of history to client " + clientID);
+            replayer.replay(replay);
+        } catch (NumberFormatException e) {
+            AsyncLogger.shared.warn("Client " + clientID + " sent an invalid history request: " + receivedData);
+        } catch (IOException e) {
+            AsyncLogger.shared.error("History replay to client " + clientID + " failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Hashed timing wheel driving the idle and read timeouts of every session, on one shared thread.
+ *
+ * <p>The wheel is an array of slots, each holding a linked list of {@link Timeout}s. A background thread
+ * advances one slot per tick and checks the timeouts of that slot only, so the cost of a tick doesn't
+ * depend on the number of sessions. A timeout due in more than one turn of the wheel waits in its slot
+ * with a count of remaining rounds.</p>
+ *
+ * <p>Activity never moves a timeout in the wheel : {@link Timeout#touch()} only records the time of the
+ * last tick in the timeout, one volatile write with no allocation. When the slot comes up, the timer
+ * checks the recorded activity and puts the timeout back at its new deadline if the session was active,
+ * or fires it. 100k sessions cost 100k small objects and one thread, however often they are active.</p>
+ *
+ * <p>The precision of a timeout is one tick. Expiry callbacks run on the timer thread and must be short.</p>
+ */
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class IdleTimer {
+    /**
+     * A timeout, rescheduled by every {@link #touch()} and fired after a whole period without one.
+     */
+    public static final class Timeout {
+        private final IdleTimer timer;
+        private final long timeoutNanos;
+        private final Runnable onExpire;
+        private volatile long lastActivity;
+        private volatile boolean cancelled = false;
+
+        // Position in the wheel, only used by the timer thread
+        private Timeout next;
+        private long remainingRounds;
+
+        private Timeout(IdleTimer timer, long timeoutNanos, Runnable onExpire) {
+            this.timer = timer;
+            this.timeoutNanos = timeoutNanos;
+            this.onExpire = onExpire;
+            this.lastActivity = System.nanoTime();
+        }
+
+        /**
+         * Records activity : the timeout restarts from now. O(1), never allocates nor locks.
+         */
+        public void touch() {
+            lastActivity = timer.currentTime;
+        }
+
+        /**
+         * Stops the timeout for good. It leaves the wheel the next time its slot comes up.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Checks if the timeout was cancelled.
+         *
+         * @return {@code true} after {@link #cancel()}.
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private long deadline() {
+            return lastActivity + timeoutNanos;
+        }
+    }
+
+    // Timer shared by the servers : 100 ms ticks, one turn of the wheel every 51.2 s
+    public static final IdleTimer shared = new IdleTimer(100, 512);
+
+    private final long tickNanos;
+    private final Timeout[] wheel;
+    private final int mask;
+
+    // Timeouts scheduled by the sessions, moved into the wheel by the timer thread
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+
+    // Time of the last tick, read by touch() instead of the clock
+    private volatile long currentTime = System.nanoTime();
+    private final long startTime = currentTime;
+    private long tick = 0;   // Next tick to process, only used by the timer thread
+
+    private volatile Thread timerThread;
+
+    /**
+     * Creates a timing wheel. Its thread starts with the first scheduled timeout.
+     *
+     * @param tickMillis the duration of a tick, which is the precision of the timeouts.
+     * @param wheelSize the number of slots, rounded up to a power of two.
+     */
+    public IdleTimer(long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.wheel = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Schedules a timeout, from any thread. Allocates once per session, {@link Timeout#touch()} then
+     * reschedules it for free.
+     *
+     * @param timeoutMillis the inactivity period before expiry.
+     * @param onExpire the callback run on the timer thread when the timeout expires. The timeout is
+     *                 scheduled again if the callback calls {@link Timeout#touch()}.
+     * @return the timeout, to touch on activity and cancel when the session ends.
+     */
+    public Timeout schedule(long timeoutMillis, Runnable onExpire) {
+        Timeout timeout = new Timeout(this, TimeUnit.MILLISECONDS.toNanos(timeoutMillis), onExpire);
+        startTimer();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Starts the daemon timer thread on first use.
+     */
+    private void startTimer() {
+        if (timerThread != null) {
+            return;
+        }
+        synchronized (this) {
+            if (timerThread == null) {
+                Thread thread = new Thread(this::tickLoop, "idle-timer");
+                thread.setDaemon(true);
+                thread.start();
+                timerThread = thread;
+            }
+        }
+    }
+
+    /**
+     * Timer thread loop : waits for each tick, then checks the timeouts of its slot.
+     */
+    private void tickLoop() {
+        while (true) {
+            // Wait for the end of the tick
+            long tickEnd = startTime + (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime()) < tickEnd) {
+                LockSupport.parkNanos(tickEnd - now);
+            }
+            currentTime = now;
+
+            // Newly scheduled timeouts enter the wheel before the slot is processed
+            Timeout timeout;
+            while ((timeout = newTimeouts.poll()) != null) {
+                insert(timeout, tick);
+            }
+
+            expireSlot(now);
+            tick++;
+        }
+    }
+
+    /**
+     * Processes the slot of the current tick : fires the expired timeouts, puts back the others.
+     *
+     * @param now the time of the tick.
+     */
+    private void expireSlot(long now) {
+        int slot = (int) (tick & mask);
+        Timeout timeout = wheel[slot];
+        wheel[slot] = null;
+        Timeout rescheduled = null;
+
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.cancelled) {
+                // Dropped from the wheel
+            } else if (timeout.remainingRounds > 0) {
+                // Due in a later turn of the wheel
+                timeout.remainingRounds--;
+                timeout.next = wheel[slot];
+                wheel[slot] = timeout;
+            } else {
+                if (timeout.deadline() <= now) {
+                    fire(timeout);
+                }
+                // Active since it was scheduled, or touched by its callback : keep it for the new deadline
+                if (!timeout.cancelled && timeout.deadline() > now) {
+                    timeout.next = rescheduled;
+                    rescheduled = timeout;
+                }
+            }
+            timeout = next;
+        }
+
+        // Put back after the slot is done, from the next tick, so a timeout is never seen twice in a tick
+        while (rescheduled != null) {
+            Timeout next = rescheduled.next;
+            rescheduled.next = null;
+            insert(rescheduled, tick + 1);
+            rescheduled = next;
+        }
+    }
+
+    /**
+     * Runs the expiry callback, a failing callback must not stop the timer.
+     */
+    private void fire(Timeout timeout) {
+        try {
+            timeout.onExpire.run();
+        } catch (RuntimeException e) {
+            AsyncLogger.shared.error("Idle timeout callback failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Puts a timeout in the slot of its deadline, never before the first tick still to process.
+     *
+     * @param timeout the timeout to insert.
+     * @param firstTick the first tick whose slot will be processed after the insertion.
+     */
+    private void insert(Timeout timeout, long firstTick) {
+        long deadlineTick = Math.max((timeout.deadline() - startTime) / tickNanos, firstTick);
+        // Turns of the wheel to skip : the slot comes up every wheel.length ticks from firstTick
+        timeout.remainingRounds = (deadlineTick - firstTick) / wheel.length;
+        int slot = (int) (deadlineTick & mask);
+        timeout.next = wheel[slot];
+        wheel[slot] = timeout;
+    }
+}
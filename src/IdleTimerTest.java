@@ -0,0 +1,148 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code IdleTimer} and {@code SessionTimeouts}.
+ */
+class IdleTimerTest {
+    // Small wheel with short ticks, so a few hundred milliseconds span several turns
+    private final long tickMillis = 10;
+    private final int wheelSize = 8;
+
+    @Test
+    void testTimeoutExpires() throws InterruptedException {
+        IdleTimer timer = new IdleTimer(tickMillis, wheelSize);
+        CountDownLatch expired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.schedule(50, expired::countDown);
+
+        assertTrue(expired.await(2, TimeUnit.SECONDS), "The timeout should expire");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 50, "The timeout expired too early: " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testTimeoutLongerThanOneTurnExpires() throws InterruptedException {
+        IdleTimer timer = new IdleTimer(tickMillis, wheelSize);
+        CountDownLatch expired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        // 250 ms is about three turns of an 8 slots wheel of 10 ms ticks
+        timer.schedule(250, expired::countDown);
+
+        assertTrue(expired.await(2, TimeUnit.SECONDS), "The timeout should expire");
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMillis >= 250, "The timeout expired too early: " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testTouchPostponesExpiry() throws InterruptedException {
+        IdleTimer timer = new IdleTimer(tickMillis, wheelSize);
+        CountDownLatch expired = new CountDownLatch(1);
+        IdleTimer.Timeout timeout = timer.schedule(100, expired::countDown);
+
+        // Activity every 20 ms for 300 ms keeps the timeout from expiring
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        while (System.nanoTime() < end) {
+            timeout.touch();
+            assertEquals(1, expired.getCount(), "An active timeout should not expire");
+            Thread.sleep(20);
+        }
+
+        // Then silence lets it expire
+        assertTrue(expired.await(2, TimeUnit.SECONDS), "The timeout should expire once inactive");
+    }
+
+    @Test
+    void testCancelledTimeoutNeverFires() throws InterruptedException {
+        IdleTimer timer = new IdleTimer(tickMillis, wheelSize);
+        AtomicInteger fired = new AtomicInteger();
+        IdleTimer.Timeout timeout = timer.schedule(50, fired::incrementAndGet);
+        timeout.cancel();
+
+        Thread.sleep(200);
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, fired.get(), "A cancelled timeout should not fire");
+    }
+
+    @Test
+    void testManyTimeoutsExpireOnce() throws InterruptedException {
+        IdleTimer timer = new IdleTimer(tickMillis, wheelSize);
+        int timeoutCount = 10000;
+        CountDownLatch expired = new CountDownLatch(timeoutCount);
+        AtomicInteger fired = new AtomicInteger();
+        for (int i = 0; i < timeoutCount; i++) {
+            timer.schedule(20 + i % 100, () -> {
+                fired.incrementAndGet();
+                expired.countDown();
+            });
+        }
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS), "Every timeout should expire");
+        Thread.sleep(100);
+        assertEquals(timeoutCount, fired.get(), "Each timeout should fire exactly once");
+    }
+
+    @Test
+    void testIdleSessionIsDisconnected() throws InterruptedException {
+        IdleTimer timer = new IdleTimer(tickMillis, wheelSize);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        SessionTimeouts timeouts = new SessionTimeouts(timer, 50, 0, "test-client",
+                new FrameCodec(64), disconnected::countDown).start();
+
+        assertTrue(disconnected.await(2, TimeUnit.SECONDS), "An idle session should be disconnected");
+        timeouts.cancel();
+    }
+
+    @Test
+    void testStalledMessageIsDisconnected() throws Exception {
+        IdleTimer timer = new IdleTimer(tickMillis, wheelSize);
+        FrameCodec frameCodec = new FrameCodec(64);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        SessionTimeouts timeouts = new SessionTimeouts(timer, 0, 50, "test-client",
+                frameCodec, disconnected::countDown).start();
+
+        // Without a partial message, the read timeout keeps waiting
+        assertFalse(disconnected.await(200, TimeUnit.MILLISECONDS), "A session with no partial message should stay");
+
+        // Half a message, then nothing
+        byte[] partial = "hel".getBytes();
+        frameCodec.decode(partial, 0, partial.length, (frame, offset, length) -> { });
+        timeouts.onRead();
+        assertTrue(disconnected.await(2, TimeUnit.SECONDS), "A stalled session should be disconnected");
+    }
+
+    @Test
+    void testWriteStallIsDisconnected() throws Exception {
+        IdleTimer timer = new IdleTimer(tickMillis, wheelSize);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        SessionTimeouts timeouts = new SessionTimeouts(timer, 0, 0, "test-client",
+                new FrameCodec(64), disconnected::countDown).start();
+        OutboundQueue queue = new OutboundQueue(4, SlowConsumerPolicy.DROP, 0, 16);
+        timeouts.watchWritability(queue, 100);
+
+        // Back under the low watermark in time : the stall timeout stops
+        queue.addReply(new byte[32]);
+        queue.poll();
+        assertFalse(disconnected.await(300, TimeUnit.MILLISECONDS), "A client catching up should stay");
+
+        // Over the high watermark for good
+        queue.addReply(new byte[32]);
+        assertTrue(disconnected.await(2, TimeUnit.SECONDS), "A client that stopped reading should be disconnected");
+    }
+
+    @Test
+    void testIdleTimeoutFromSystemProperty() {
+        assertEquals(0, SessionTimeouts.configuredIdleTimeout());
+        System.setProperty("chat.idle.timeout", "300000");
+        try {
+            assertEquals(300000, SessionTimeouts.configuredIdleTimeout());
+        } finally {
+            System.clearProperty("chat.idle.timeout");
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Fixed-size histogram of latencies, in nanoseconds, used by the load tools to report percentiles.
+ *
+ * <p>Values are counted in log-linear buckets : each power of two is split into 32 sub-buckets, so a
+ * recorded value is known within about 3% whatever its magnitude, from nanoseconds to hours. Recording is
+ * a few shifts and one array increment, with no allocation.</p>
+ *
+ * <p>A histogram is not thread-safe : each sender thread records into its own instance, and the results
+ * are combined with {@link #add(LatencyHistogram)}. {@link ConcurrentLatencyHistogram} is the version shared
+ * by many threads.</p>
+ */
+public class LatencyHistogram {
+    // Values below subBucketCount have their own bucket, then each power of two has subBucketCount / 2 buckets
+    private static final int subBucketBits = 6;
+    private static final int subBucketCount = 1 << subBucketBits;
+    private static final int subBucketHalf = subBucketCount / 2;
+    static final int bucketCount = (Long.SIZE - subBucketBits + 2) * subBucketHalf;
+
+    private final long[] counts = new long[bucketCount];
+    private long totalCount = 0;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue = 0;
+    private long sum = 0;
+
+    /**
+     * Records one value.
+     *
+     * @param value the latency in nanoseconds, negative values count as 0.
+     */
+    public void record(long value) {
+        recordValues(value, 1);
+    }
+
+    /**
+     * Records the same value several times.
+     *
+     * @param value the latency in nanoseconds, negative values count as 0.
+     * @param count the number of times the value was seen.
+     */
+    public void recordValues(long value, long count) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketIndex(value)] += count;
+        totalCount += count;
+        sum += value * count;
+        minValue = Math.min(minValue, value);
+        maxValue = Math.max(maxValue, value);
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     *
+     * @param other the histogram to merge.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < bucketCount; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return the value count.
+     */
+    public long getCount() {
+        return totalCount;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return the maximum, or 0 when empty.
+     */
+    public long getMax() {
+        return maxValue;
+    }
+
+    /**
+     * Gets the smallest recorded value.
+     *
+     * @return the minimum, or 0 when empty.
+     */
+    public long getMin() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return the mean, or 0 when empty.
+     */
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    /**
+     * Gets the value below which a percentage of the recorded values fall.
+     *
+     * @param percentile the percentage, between 0 and 100 (e.g. 99.9).
+     * @return the highest value of the bucket holding that percentile, never above the maximum, 0 when empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Finds the bucket of a value.
+     */
+    static int bucketIndex(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+        // Keep the subBucketBits - 1 bits below the highest one bit
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - (subBucketBits - 1);
+        return shift * subBucketHalf + (int) (value >>> shift);
+    }
+
+    /**
+     * Gets the highest value counted in a bucket.
+     */
+    static long highestValueOf(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+        int shift = index / subBucketHalf - 1;
+        long subBucket = index - (long) shift * subBucketHalf;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
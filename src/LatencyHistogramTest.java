@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code LatencyHistogram}.
+ */
+class LatencyHistogramTest {
+    // Log-linear buckets keep values within about 3%
+    private final double precision = 0.04;
+
+    @Test
+    void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMin());
+    }
+
+    @Test
+    void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 50; value++) {
+            histogram.record(value);
+        }
+        assertEquals(25, histogram.getValueAtPercentile(50));
+        assertEquals(50, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getMin());
+        assertEquals(25.5, histogram.getMean());
+    }
+
+    @Test
+    void testPercentilesOfLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 to 100 000 microseconds, in nanoseconds
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(50_000_000, histogram.getValueAtPercentile(50), 50_000_000 * precision);
+        assertEquals(99_000_000, histogram.getValueAtPercentile(99), 99_000_000 * precision);
+        assertEquals(99_900_000, histogram.getValueAtPercentile(99.9), 99_900_000 * precision);
+        assertEquals(100_000_000, histogram.getMax());
+    }
+
+    @Test
+    void testPercentileNeverExceedsMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_001);
+        assertEquals(1_000_001, histogram.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    void testAddMergesHistograms() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(Long.MAX_VALUE);
+
+        first.add(second);
+        assertEquals(2, first.getCount());
+        assertEquals(10, first.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, first.getValueAtPercentile(100));
+    }
+}
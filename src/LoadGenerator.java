@@ -0,0 +1,349 @@
+/**
+ * Headless load generator for the chat servers : no console needed, every session is driven by the tool.
+ *
+ * <p>Usage: `java LoadGenerator <tcp|udp> <host> <port> <sessions> <messages/s per session> <message bytes>
+ * <duration s> [exit every N messages] [close]`</p>
+ *
+ * <p>Each session sends messages of the given size at the target rate (0 : as fast as possible) until the
+ * duration is over, then the tool reports the throughput and the latency percentiles.</p>
+ * <ul>
+ *     <li>TCP : a session sends one framed message and waits for its echo, the latency is the round trip.
+ *     With a target rate it is measured from the scheduled send time, so a slow server can't hide its
+ *     queueing delay by slowing the sender down. Chat messages broadcast by the other sessions are skipped.</li>
+ *     <li>UDP : the server sends no echo, so only the send rate and the time spent sending are reported.</li>
+ *     <li>Every N messages a session sends `exit console` and opens a new session, as real clients come and go.</li>
+ *     <li>With `close`, a last client sends `close server` once the load is over.</li>
+ * </ul>
+ */
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadGenerator {
+    private static final int systemShutdown = 1;
+    private static final int maxBufSize = 1024;
+    private static final int socketTimeout = 5000;   // Time waited for an echo before failing the session (ms)
+    private static final long nanosToMicros = 1000;
+    private static final double nanosToSec = 1e9;
+
+    // Echo sent back by the TCP servers for each message
+    private static final byte[] echo = "Message received".getBytes(StandardCharsets.UTF_8);
+
+    private final boolean tcp;
+    private final String host;
+    private final int port;
+    private final int sessions;
+    private final int rate;
+    private final int exitEvery;
+
+    // Message sent by every session : printable bytes, never a command
+    private final byte[] payload;
+    private final byte[] frame;
+
+    // Results shared by the sessions
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong exits = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * Creates a load generator.
+     *
+     * @param tcp {@code true} to load a TCP server, {@code false} for the UDP server.
+     * @param host the server host.
+     * @param port the server port.
+     * @param sessions the number of concurrent sessions.
+     * @param rate the messages per second sent by each session, 0 for no limit.
+     * @param messageSize the size of a message in bytes, delimiter excluded.
+     * @param exitEvery the number of messages after which a session exits and reconnects, 0 to never exit.
+     */
+    public LoadGenerator(boolean tcp, String host, int port, int sessions, int rate, int messageSize, int exitEvery) {
+        this.tcp = tcp;
+        this.host = host;
+        this.port = port;
+        this.sessions = sessions;
+        this.rate = rate;
+        this.exitEvery = exitEvery;
+
+        this.payload = new byte[Math.max(1, Math.min(messageSize, maxBufSize - 1))];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) ('a' + i % 26);
+        }
+        this.frame = Arrays.copyOf(payload, payload.length + 1);
+        this.frame[payload.length] = FrameCodec.delimiter;
+    }
+
+    /**
+     * Runs every session for a duration and merges their latencies.
+     *
+     * @param durationMillis the load duration.
+     * @return the latencies of all the sessions.
+     * @throws InterruptedException if interrupted while waiting for the sessions.
+     */
+    public LatencyHistogram run(long durationMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + durationMillis * 1_000_000;
+        LatencyHistogram total = new LatencyHistogram();
+        List<Future<LatencyHistogram>> results = new ArrayList<>(sessions);
+
+        // One lightweight thread per session, blocking calls are cheap there
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < sessions; i++) {
+            results.add(executor.submit(() -> runSession(deadline)));
+        }
+        for (Future<LatencyHistogram> result : results) {
+            try {
+                total.add(result.get());
+            } catch (ExecutionException e) {
+                errors.incrementAndGet();
+            }
+        }
+        executor.shutdown();
+        return total;
+    }
+
+    /**
+     * Sends messages until the deadline, reconnecting after each exit.
+     *
+     * @param deadline the end of the load, in {@link System#nanoTime()} units.
+     * @return the latencies recorded by this session.
+     */
+    private LatencyHistogram runSession(long deadline) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long interval = rate > 0 ? (long) (nanosToSec / rate) : 0;
+        long nextSend = System.nanoTime();
+
+        while (System.nanoTime() < deadline) {
+            try {
+                nextSend = tcp ? runTcpSession(deadline, interval, nextSend, histogram)
+                        : runUdpSession(deadline, interval, nextSend, histogram);
+            } catch (IOException e) {
+                errors.incrementAndGet();
+                // Don't hammer a server that refuses connections
+                LockSupport.parkNanos(socketTimeout * 1_000_000L / 10);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Runs one TCP connection until the deadline or its exit.
+     *
+     * @return the scheduled time of the next message.
+     */
+    private long runTcpSession(long deadline, long interval, long nextSend, LatencyHistogram histogram) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(socketTimeout);
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            EchoReader echoReader = new EchoReader(input);
+
+            int sent = 0;
+            while (System.nanoTime() < deadline) {
+                if (exitEvery > 0 && sent == exitEvery) {
+                    // Leave like a real client, then wait for the server to close the connection
+                    output.write(FrameCodec.encode(CommandRegistry.Command.EXIT_CONSOLE.getText()));
+                    output.flush();
+                    socket.shutdownOutput();
+                    echoReader.drain();
+                    exits.incrementAndGet();
+                    return nextSend;
+                }
+
+                long sendTime = waitForSchedule(interval, nextSend);
+                output.write(frame);
+                output.flush();
+                echoReader.awaitEcho();
+                histogram.record(System.nanoTime() - sendTime);
+
+                sentMessages.incrementAndGet();
+                sent++;
+                nextSend = sendTime + interval;
+            }
+        }
+        return nextSend;
+    }
+
+    /**
+     * Runs one UDP client until the deadline or its exit.
+     *
+     * @return the scheduled time of the next message.
+     */
+    private long runUdpSession(long deadline, long interval, long nextSend, LatencyHistogram histogram) throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(new InetSocketAddress(host, port));
+            ByteBuffer message = ByteBuffer.wrap(payload);
+
+            int sent = 0;
+            while (System.nanoTime() < deadline) {
+                if (exitEvery > 0 && sent == exitEvery) {
+                    // A new channel gets a new port : the server sees a new client
+                    channel.write(ByteBuffer.wrap(CommandRegistry.Command.EXIT_CONSOLE.getText().getBytes(StandardCharsets.UTF_8)));
+                    exits.incrementAndGet();
+                    return nextSend;
+                }
+
+                long sendTime = waitForSchedule(interval, nextSend);
+                long start = System.nanoTime();
+                message.rewind();
+                channel.write(message);
+                // No echo in UDP : only the time spent sending
+                histogram.record(System.nanoTime() - start);
+
+                sentMessages.incrementAndGet();
+                sent++;
+                nextSend = sendTime + interval;
+            }
+        }
+        return nextSend;
+    }
+
+    /**
+     * Waits for the scheduled send time when a rate is set.
+     *
+     * @return the time the message counts as sent from.
+     */
+    private static long waitForSchedule(long interval, long nextSend) {
+        if (interval == 0) {
+            return System.nanoTime();
+        }
+        long now;
+        while ((now = System.nanoTime()) < nextSend) {
+            LockSupport.parkNanos(nextSend - now);
+        }
+        // Late sends keep their scheduled time, the delay is part of the latency
+        return nextSend;
+    }
+
+    /**
+     * Sends `close server` to the server.
+     *
+     * @throws IOException if the command cannot be sent.
+     */
+    public void closeServer() throws IOException {
+        String command = CommandRegistry.Command.CLOSE_SERVER.getText();
+        if (tcp) {
+            try (Socket socket = new Socket(host, port)) {
+                socket.setSoTimeout(socketTimeout);
+                socket.getOutputStream().write(FrameCodec.encode(command));
+                socket.getOutputStream().flush();
+                new EchoReader(socket.getInputStream()).awaitEcho();
+            }
+        } else {
+            try (DatagramChannel channel = DatagramChannel.open()) {
+                channel.connect(new InetSocketAddress(host, port));
+                channel.write(ByteBuffer.wrap(command.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+    }
+
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    public long getExits() {
+        return exits.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Reads the frames of a TCP session until the echo, skipping the chat messages of the other sessions.
+     */
+    private static class EchoReader {
+        private final InputStream input;
+        private final byte[] buf = new byte[maxBufSize];
+        private final FrameCodec frameCodec = new FrameCodec(maxBufSize);
+        private int pendingEchoes = 0;
+        private final FrameCodec.FrameHandler echoCounter = (data, offset, length) -> {
+            if (Arrays.equals(data, offset, offset + length, echo, 0, echo.length)) {
+                pendingEchoes++;
+            }
+        };
+
+        private EchoReader(InputStream input) {
+            this.input = input;
+        }
+
+        /**
+         * Blocks until the next echo is received.
+         */
+        private void awaitEcho() throws IOException {
+            while (pendingEchoes == 0) {
+                int bytesRead = input.read(buf);
+                if (bytesRead == -1) {
+                    throw new IOException("Connection closed by the server");
+                }
+                frameCodec.decode(buf, 0, bytesRead, echoCounter);
+            }
+            pendingEchoes--;
+        }
+
+        /**
+         * Reads until the server closes the connection.
+         */
+        private void drain() throws IOException {
+            while (input.read(buf) != -1) {
+                // Discard the last echo and broadcasts
+            }
+        }
+    }
+
+    /**
+     * The main method to run a load test.
+     *
+     * <p>Usage: `java LoadGenerator <tcp|udp> <host> <port> <sessions> <messages/s per session> <message bytes>
+     * <duration s> [exit every N messages] [close]`</p>
+     *
+     * @param args command-line arguments describing the load.
+     * @throws Exception if the load test cannot run.
+     */
+    public static void main(String[] args) throws Exception {
+        // Parses command-line args
+        if (args.length < 7) {
+            System.err.println("Usage: java LoadGenerator <tcp|udp> <host> <port> <sessions> <messages/s per session> <message bytes> <duration s> [exit every N messages] [close]");
+            System.exit(systemShutdown);
+        }
+        boolean tcp = !args[0].equalsIgnoreCase("udp");
+        String host = args[1];
+        int port = Integer.parseInt(args[2]);
+        int sessions = Integer.parseInt(args[3]);
+        int rate = Integer.parseInt(args[4]);
+        int messageSize = Integer.parseInt(args[5]);
+        long durationMillis = Long.parseLong(args[6]) * 1000;
+        int exitEvery = args.length > 7 ? Integer.parseInt(args[7]) : 0;
+        boolean close = args.length > 8 && args[8].equalsIgnoreCase("close");
+
+        LoadGenerator generator = new LoadGenerator(tcp, host, port, sessions, rate, messageSize, exitEvery);
+        long start = System.nanoTime();
+        LatencyHistogram latencies = generator.run(durationMillis);
+        double seconds = (System.nanoTime() - start) / nanosToSec;
+        if (close) {
+            generator.closeServer();
+        }
+
+        System.out.printf("%s load : %d sessions, %d bytes, %s for %.1f s%n", tcp ? "TCP" : "UDP", sessions,
+                generator.payload.length, rate > 0 ? rate + " msg/s per session" : "no rate limit", seconds);
+        System.out.printf("  messages sent   : %d (%.0f msg/s)%n", generator.getSentMessages(), generator.getSentMessages() / seconds);
+        System.out.printf("  exits / errors  : %d / %d%n", generator.getExits(), generator.getErrors());
+        System.out.printf("  %s (us) : p50=%d p99=%d p999=%d max=%d mean=%.1f%n", tcp ? "round trip" : "send time ",
+                latencies.getValueAtPercentile(50) / nanosToMicros, latencies.getValueAtPercentile(99) / nanosToMicros,
+                latencies.getValueAtPercentile(99.9) / nanosToMicros, latencies.getMax() / nanosToMicros,
+                latencies.getMean() / nanosToMicros);
+    }
+}
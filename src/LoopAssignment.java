@@ -0,0 +1,24 @@
+/**
+ * How the {@link TCPMultiServer} acceptor picks the {@link EventLoop} of a new selector session.
+ *
+ * <ul>
+ *     <li>{@code ROUND_ROBIN} - each loop in turn (default).</li>
+ *     <li>{@code LEAST_LOADED} - the loop serving the fewest sessions, which evens out the loops when
+ *     long-lived and short-lived clients mix.</li>
+ * </ul>
+ */
+public enum LoopAssignment {
+    ROUND_ROBIN,
+    LEAST_LOADED;
+
+    /**
+     * Parses an assignment from a command-line argument, ignoring case.
+     *
+     * @param arg the command-line argument (ex : "least_loaded").
+     * @return the matching assignment.
+     * @throws IllegalArgumentException if the argument does not match any assignment.
+     */
+    public static LoopAssignment fromArg(String arg) {
+        return LoopAssignment.valueOf(arg.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,533 @@
+/**
+ * Represents a single client session multiplexed on one {@link EventLoop} of the {@link TCPMultiServer} selector mode.
+ *
+ * <p>This is the non-blocking counterpart of {@link ConnectionThread}: instead of owning a thread that
+ * blocks on {@code read()}, the session is attached to a {@link SelectionKey} and is only called back
+ * by its event loop when its channel is readable or writable. The session never leaves its loop : its state is
+ * only touched by the loop thread, except {@link #deliver(byte[])} and {@link #disconnect()}, which other loops
+ * and threads call and which hand the work over to the loop.</p>
+ *
+ * <p>Features:</p>
+ * <ul>
+ *     <li>Splits the byte stream into newline-delimited messages, or into the frames of the binary
+ *     {@link WireProtocol} when the client opens the session with a hello frame ({@link WireCodec}).</li>
+ *     <li>Echoes received messages back to the client.</li>
+ *     <li>Manages client disconnections gracefully.</li>
+ *     <li>Processes specific commands such as "exit console" and "close server".</li>
+ *     <li>Keeps pending echo bytes when the socket buffer is full and resumes on write readiness.</li>
+ *     <li>Stops reading the client while its {@link OutboundQueue} is over the high watermark.</li>
+ *     <li>Broadcasts chat messages to the other clients of its {@link ChatRoom}, if any.</li>
+ *     <li>Replays the last messages of the {@link ChatJournal}, if any, on connection and on the
+ *     {@code history} command.</li>
+ * </ul>
+ *
+ * <p>The history goes from the segment files to the socket with sendfile, one chunk per write readiness :
+ * a large replay never holds the event loop, the other sessions are served between two chunks. A binary
+ * client gets each chunk in a history frame, to tell it apart from the other frames. The history of a new
+ * client waits for its hello frame at most {@link TCPMultiServer#getHelloTimeout()}, to be sent in its
+ * protocol.</p>
+ *
+ * <p>The echoes and acknowledgements are queued ahead of the broadcast frames in the same outbound queue,
+ * whose bytes decide the interest ops : the key watches write readiness while something is queued, and
+ * read readiness until the queue goes over its high watermark, back once it is down to the low watermark.
+ * A client that doesn't read its answers can't make the server buffer more of them.</p>
+ *
+ * <p>When the server has a {@link TlsContext}, every byte goes through a {@link TlsChannel} : the handshake
+ * runs on the event loop between the reads, and nothing is written before it is over. The history is then
+ * copied through the engine rather than sent with sendfile, since the records must be encrypted.</p>
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class NioSession implements ChatMember {
+    private final TCPMultiServer tcpMultiServer;
+    private final EventLoop eventLoop;
+    private final SocketChannel clientChannel;
+    private final TlsChannel tls;   // Encryption of the connection, null in plaintext
+    private final ByteChannel channel;   // Reads and writes of the session, through the TLS engine if any
+    private final SelectionKey key;
+    private final String clientID;
+    private final Runnable disconnectCallback;
+    private final ChatRoom chatRoom;
+    private final ServerMetrics metrics;
+
+    // Set variables for buffer size and client connection status
+    private final int maxBufSize = 1024;
+    private final int replayChunk = 64 * 1024;   // History bytes sent at most per write readiness
+    protected boolean clientConnected = true;
+
+    // Echo message shared by every session, each write works on its own view
+    private static final byte[] echo_buf = "Message received\n".getBytes(StandardCharsets.UTF_8);
+    private ByteBuffer pendingWrite = null;
+
+    // Echoes, hello and acknowledgement frames, then messages from the other clients after the history
+    private final OutboundQueue outboundQueue;
+    private ChatJournal.Replay replay = null;
+    private long replayChunkLeft = 0;   // Bytes of the history chunk being written, nothing may cut it
+    private IdleTimer.Timeout helloTimeout = null;   // Pending history of a new client, until its protocol is known
+
+    // Frames delivered from other threads, written by one task on the event loop
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final Runnable scheduledFlush = this::runScheduledFlush;
+
+    // Handlers of the client commands, indexed by command
+    private final CommandHandler[] commandHandlers = CommandRegistry.newDispatchTable();
+
+    // Rebuilds the text lines or the binary frames from the byte stream
+    private final WireCodec wireCodec = new WireCodec(WireProtocol.maxFrameLength);
+    private final WireCodec.MessageHandler messageHandler = this::handleMessage;
+    private boolean compressed = false;   // Deflated payloads negotiated by the hello frame
+
+    // Idle and read timeouts : a silent client is disconnected from the timer thread, started with the session
+    private SessionTimeouts timeouts;
+
+    /**
+     * Creates a new selector session for a client.
+     *
+     * @param tcpMultiServer the TCPMultiServer instance managing this connection.
+     * @param eventLoop the event loop serving the session for its whole life.
+     * @param clientChannel the non-blocking channel connected to the client.
+     * @param key the selection key of the channel on the event loop selector.
+     * @param clientID the printable "address:port" identifier of the client.
+     * @param disconnectCallback callback to notify server when the client disconnects.
+     * @param chatRoom the room receiving this client's messages, or {@code null} for echo only.
+     */
+    public NioSession(TCPMultiServer tcpMultiServer, EventLoop eventLoop, SocketChannel clientChannel, SelectionKey key, String clientID, Runnable disconnectCallback, ChatRoom chatRoom) {
+        this.tcpMultiServer = tcpMultiServer;
+        this.eventLoop = eventLoop;
+        this.clientChannel = clientChannel;
+        TlsContext tlsContext = tcpMultiServer.getTls();
+        this.tls = tlsContext != null ? new TlsChannel(clientChannel,
+                tlsContext.newEngine(clientChannel.socket().getInetAddress().getHostAddress(), clientChannel.socket().getPort())) : null;
+        this.channel = tls != null ? tls : clientChannel;
+        this.key = key;
+        this.clientID = clientID;
+        this.disconnectCallback = disconnectCallback;
+        this.chatRoom = chatRoom;
+        this.metrics = tcpMultiServer.getMetrics();
+        // Without chat room the queue only holds the replies
+        this.outboundQueue = chatRoom != null ? chatRoom.newOutboundQueue() : new OutboundQueue(1, SlowConsumerPolicy.DROP);
+    }
+
+    /**
+     * Registers the command handlers and starts the timeouts of the session, once it is attached to its key.
+     * Called on the event loop thread, before the first read.
+     */
+    public void start() {
+        timeouts = tcpMultiServer.newSessionTimeouts(clientID, wireCodec, outboundQueue, this::disconnect);
+        commandHandlers[CommandRegistry.Command.EXIT_CONSOLE.ordinal()] = (id, command) -> {
+            AsyncLogger.shared.info("Client " + id + " left the chat.\n");
+            clientConnected = false;
+        };
+        commandHandlers[CommandRegistry.Command.CLOSE_SERVER.ordinal()] = (id, command) -> {
+            AsyncLogger.shared.info("Client " + id + " requested server shutdown.");
+            AsyncLogger.shared.info("Server closing...\n");
+            tcpMultiServer.close();
+            clientConnected = false;
+        };
+        if (tcpMultiServer.getJournal() != null) {
+            commandHandlers[CommandRegistry.Command.HISTORY.ordinal()] =
+                    new HistoryCommandHandler(tcpMultiServer.getJournal(), tcpMultiServer.getHistoryLength(), this::startReplay);
+        }
+    }
+
+    /**
+     * Gets the printable "address:port" identifier of the client.
+     *
+     * @return the client ID.
+     */
+    @Override
+    public String getClientID() {
+        return clientID;
+    }
+
+    /**
+     * Checks if the client speaks the binary protocol.
+     *
+     * @return {@code true} once the client opened the session with a hello frame.
+     */
+    @Override
+    public boolean isBinary() {
+        return wireCodec.isBinary();
+    }
+
+    /**
+     * Checks if the client negotiated compression.
+     *
+     * @return {@code true} once the client offered compression in its hello frame, and the server accepted.
+     */
+    @Override
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Replays the last messages of the journal to a new client, if the server has one. The replay starts
+     * after the hello frame of a binary client, or when the client stayed silent for the hello timeout.
+     */
+    public void sendHistory() {
+        CommandHandler history = commandHandlers[CommandRegistry.Command.HISTORY.ordinal()];
+        if (history != null && tcpMultiServer.getHistoryLength() > 0) {
+            helloTimeout = IdleTimer.shared.schedule(tcpMultiServer.getHelloTimeout(),
+                    () -> eventLoop.execute(this::startPendingHistory));
+        }
+    }
+
+    /**
+     * Starts the history of a new client if it still waits. Called on the event loop thread.
+     */
+    private void startPendingHistory() {
+        if (helloTimeout == null || !clientChannel.isOpen()) {
+            return;
+        }
+        startHistory();
+        handleWrite();
+    }
+
+    /**
+     * Stops waiting for the hello frame and queues the history, written by {@link #flushPending()}.
+     */
+    private void startHistory() {
+        helloTimeout.cancel();
+        helloTimeout = null;
+        commandHandlers[CommandRegistry.Command.HISTORY.ordinal()].handle(clientID, "");
+    }
+
+    /**
+     * Called by the event loop when the channel is readable.
+     * Reads the available bytes, handles the client's commands and queues the echo message.
+     */
+    public void handleRead() {
+        // Receive buffer borrowed only while handling the read, idle sessions hold none
+        ByteBuffer readBuf = BufferPool.shared.acquire();
+        try {
+            int bytesRead;
+            // A TLS record may decrypt to more than one buffer : read on while the engine holds bytes
+            do {
+                readBuf.clear();
+                bytesRead = channel.read(readBuf);
+
+                // Handle connection loss (client disconnects unexpectedly)
+                if (bytesRead == -1) {
+                    AsyncLogger.shared.info("Client " + clientID + " disappeared\n");
+                    close();
+                    return;
+                }
+                if (bytesRead > 0) {
+                    metrics.bytesReceived(bytesRead);
+                    timeouts.onRead();
+
+                    // Handle every complete message of this read, in order
+                    wireCodec.decode(readBuf.array(), readBuf.arrayOffset(), bytesRead, messageHandler);
+                    if (helloTimeout != null && wireCodec.pendingBytes() == 0) {
+                        // Protocol known : the history follows the hello reply of a binary client
+                        startHistory();
+                    }
+                }
+            } while (bytesRead > 0 && tls != null && tls.hasBufferedInput());
+
+            // Spurious wake-up, nothing to process (TLS handshake records still get their answers below)
+            if (bytesRead == 0 && tls == null) {
+                return;
+            }
+            // Send the echo messages back to the client
+            flushPending();
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Error in the client connection: " + e.getMessage());
+            close();
+        } finally {
+            BufferPool.shared.release(readBuf);
+        }
+    }
+
+    /**
+     * Handles one message received from the client, text or binary : displays it, processes the commands
+     * and queues the echo message (an acknowledgement frame in binary mode).
+     *
+     * @param opcode the message opcode.
+     * @param flags the frame flags.
+     * @param sequence the sequence number of the client, returned in the acknowledgement.
+     * @param data the buffer holding the message.
+     * @param offset the start of the message.
+     * @param length the message length.
+     */
+    private void handleMessage(int opcode, int flags, int sequence, byte[] data, int offset, int length) {
+        // Ignore messages pipelined after a closing command
+        if (!clientConnected) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        timeouts.onMessage();
+
+        // Decode only the message bytes
+        String receivedData = FrameCodec.toString(data, offset, length);
+
+        switch (opcode) {
+            case WireProtocol.opcodeHello:
+                // Binary session opened : answer with the protocol version of the server and the compression
+                // accepted, and no echo
+                compressed = (flags & WireProtocol.flagDeflated) != 0 && tcpMultiServer.isCompression();
+                AsyncLogger.shared.info("Client " + clientID + " speaks the binary protocol" + (compressed ? ", compressed" : ""));
+                outboundQueue.addReply(WireProtocol.encodeHello(sequence, compressed));
+                metrics.messageHandled(startNanos);
+                return;
+            case WireProtocol.opcodeChat:
+                AsyncLogger.shared.info("Client " + clientID + " says : " + receivedData);
+                // Share plain chat messages with the other clients
+                if (chatRoom != null) {
+                    chatRoom.broadcast(this, receivedData);
+                }
+                break;
+            default:
+                AsyncLogger.shared.info("Client " + clientID + " says : " + receivedData);
+                // Handle user's disconnection or TCP multiserver closure commanded by client
+                CommandRegistry.Command command = CommandRegistry.commandOf(opcode);
+                CommandHandler handler = command != null ? commandHandlers[command.ordinal()] : null;
+                if (handler != null) {
+                    handler.handle(clientID, receivedData);
+                }
+                break;
+        }
+
+        outboundQueue.addReply(wireCodec.isBinary() ? WireProtocol.encode(WireProtocol.opcodeAck, sequence) : echo_buf);
+        // The echo is only queued here, its write is counted by flushPending()
+        metrics.messageHandled(startNanos);
+    }
+
+    /**
+     * Queues a message broadcast by another client, from any thread, and never waits : a full queue disconnects
+     * the client. On the event loop thread, writes what the socket accepts right away, otherwise schedules one
+     * flush on the event loop for every frame delivered until it runs.
+     *
+     * @param frame the encoded frame shared by every recipient.
+     */
+    @Override
+    public void deliver(byte[] frame) {
+        if (!clientChannel.isOpen()) {
+            return;
+        }
+        if (!outboundQueue.tryOffer(frame)) {
+            AsyncLogger.shared.warn("Client " + clientID + " is too slow, disconnecting.");
+            disconnect();
+            return;
+        }
+        if (eventLoop.inEventLoop()) {
+            flushDelivered();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(scheduledFlush);
+        }
+    }
+
+    /**
+     * Writes the frames delivered from other threads. Called on the event loop thread.
+     */
+    private void runScheduledFlush() {
+        flushScheduled.set(false);
+        if (clientChannel.isOpen()) {
+            flushDelivered();
+        }
+    }
+
+    /**
+     * Writes the delivered frames, unless an earlier write is still in progress. Called on the event loop thread.
+     */
+    private void flushDelivered() {
+        // Nothing to do while a previous write or the history waits for the socket, the write readiness will resume it,
+        // nor before the history of a new client
+        if (pendingWrite == null && replay == null && helloTimeout == null) {
+            handleWrite();
+        } else if (!outboundQueue.isWritable() && key.isValid()) {
+            // Over the high watermark : stop reading until the client catches up
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Called by the event loop when the channel is writable again.
+     * Flushes the pending echo bytes and stops watching for write readiness once done.
+     */
+    public void handleWrite() {
+        try {
+            flushPending();
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Error in the client connection: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Writes as many of the queued echo and broadcast messages as the socket accepts.
+     * If some bytes remain, the key is switched to write interest, and reads go on only while the queue is
+     * under its high watermark, so a client that stops reading cannot make the server buffer unbounded echoes.
+     *
+     * @throws IOException if the write fails.
+     */
+    private void flushPending() throws IOException {
+        // Records encrypted by an earlier write go first, and nothing is written before the handshake is over
+        if (tls != null) {
+            if (!tls.flush()) {
+                watchWrite();
+                return;
+            }
+            if (tls.isHandshaking()) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+        }
+        while (pendingWrite != null || replayChunkLeft > 0 || outboundQueue.hasReplies() || replay != null
+                || (helloTimeout == null && !outboundQueue.isEmpty())) {
+            // Finish the history chunk started, then the next queued echo, the history, and the next broadcast frame
+            if (pendingWrite == null) {
+                if (replayChunkLeft > 0) {
+                    if (!writeReplay()) {
+                        watchWrite();
+                        return;
+                    }
+                    continue;
+                } else if (outboundQueue.hasReplies()) {
+                    pendingWrite = ByteBuffer.wrap(outboundQueue.pollReply()).asReadOnlyBuffer();
+                } else if (replay != null) {
+                    pendingWrite = startReplayChunk();
+                    if (pendingWrite == null) {
+                        continue;
+                    }
+                } else if (helloTimeout == null) {
+                    pendingWrite = ByteBuffer.wrap(outboundQueue.poll()).asReadOnlyBuffer();
+                }
+            }
+            channel.write(pendingWrite);
+            if (pendingWrite.hasRemaining()) {
+                watchWrite();
+                return;
+            }
+            metrics.messageSent(pendingWrite.limit());
+            pendingWrite = null;
+        }
+        // The last records may still wait for the socket
+        if (tls != null && !tls.flush()) {
+            watchWrite();
+            return;
+        }
+        // Everything was written : close if requested, otherwise go back to reading
+        if (!clientConnected) {
+            close();
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Waits for write readiness, and keeps reading the client only while its queue is writable and no history
+     * is being sent (a history command read meanwhile would cut the chunk in progress).
+     */
+    private void watchWrite() {
+        int ops = SelectionKey.OP_WRITE;
+        if (replay == null && outboundQueue.isWritable()) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Replaces the history being sent to the client. Called on the event loop thread, the replay is
+     * written by {@link #flushPending()}.
+     *
+     * @param next the records to send.
+     */
+    private void startReplay(ChatJournal.Replay next) {
+        if (replay != null) {
+            replay.close();
+        }
+        replay = next;
+    }
+
+    /**
+     * Starts the next chunk of the history. A text history is one chunk, since an echo written in the middle
+     * would cut a line. A binary chunk goes in a history frame, whose header is returned.
+     *
+     * @return the header of the chunk to write first, {@code null} in text mode or when the replay is over.
+     */
+    private ByteBuffer startReplayChunk() {
+        long remaining = replay.getRemainingBytes();
+        if (remaining == 0) {
+            replay.close();
+            replay = null;
+            return null;
+        }
+        if (!wireCodec.isBinary()) {
+            replayChunkLeft = remaining;
+            return null;
+        }
+        replayChunkLeft = Math.min(replayChunk, remaining);
+        return ByteBuffer.wrap(WireProtocol.encodeHeader(WireProtocol.opcodeHistory, 0, (int) replayChunkLeft));
+    }
+
+    /**
+     * Sends the next bytes of the history chunk, without waiting for the socket.
+     *
+     * @return {@code true} once the chunk is written, {@code false} to wait for write readiness.
+     * @throws IOException if the write fails.
+     */
+    private boolean writeReplay() throws IOException {
+        long written = replay.transferTo(channel, Math.min(replayChunkLeft, replayChunk));
+        metrics.bytesSent(written);
+        replayChunkLeft -= written;
+        if (replayChunkLeft > 0 || !replay.isDone()) {
+            // Socket full, or chunk sent : the other sessions get their turn first
+            return false;
+        }
+        replay.close();
+        replay = null;
+        return true;
+    }
+
+    /**
+     * Ends the session from any thread. The session is closed on the event loop thread, even if its reads
+     * are paused by a client that stopped reading.
+     */
+    @Override
+    public void disconnect() {
+        eventLoop.execute(this::close);
+    }
+
+    /**
+     * Closes the client channel, cancels its key and notifies the server.
+     * Safe to call several times.
+     */
+    public void close() {
+        if (!clientChannel.isOpen()) {
+            return;
+        }
+        clientConnected = false;
+        timeouts.cancel();
+        outboundQueue.close();
+        key.cancel();
+        if (helloTimeout != null) {
+            helloTimeout.cancel();
+            helloTimeout = null;
+        }
+        if (replay != null) {
+            replay.close();
+            replay = null;
+        }
+        // Stop receiving the other clients' messages
+        if (chatRoom != null) {
+            chatRoom.leave(this);
+        }
+        // Resources closure, with the closing alert of a TLS connection
+        try {
+            channel.close();
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Error closing resources: " + e.getMessage());
+        }
+        // Notify the server that the connection is closed
+        if (disconnectCallback != null) {
+            disconnectCallback.run();
+        }
+    }
+}
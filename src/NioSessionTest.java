@@ -0,0 +1,92 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code NioSession}, through a {@code TCPMultiServer} running in selector mode.
+ */
+class NioSessionTest {
+    private TCPMultiServer serverThread;
+    private Thread server;
+
+    private final int testPort = 12346;
+    private final int timeSleep = 500;
+    private final int maxBufSize = 1024;
+    private final int dataOffset = 0;
+
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        // Start server in selector mode on a test port
+        serverThread = new TCPMultiServer(testPort, ServerMode.SELECTOR);
+        server = new Thread(() -> {
+            try {
+                serverThread.launch();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        server.start();
+
+        // Give the server some time to start
+        Thread.sleep(timeSleep);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        // Stop server after each test, and wait for it to release the port
+        serverThread.close();
+        server.join();
+    }
+
+    @Test
+    public void testSessionEchoesMessage() throws IOException {
+        try (Socket clientSocket = new Socket("localhost", testPort)) {
+            OutputStream outputStream = clientSocket.getOutputStream();
+            outputStream.write("Hello, Server!\n".getBytes());
+            outputStream.flush();
+
+            byte[] response = new byte[maxBufSize];
+            int bytesRead = clientSocket.getInputStream().read(response);
+            String echo = new String(response, dataOffset, bytesRead);
+
+            assertEquals("Message received", echo.trim());
+        }
+    }
+
+    @Test
+    public void testExitConsoleClosesSession() throws IOException {
+        try (Socket clientSocket = new Socket("localhost", testPort)) {
+            OutputStream outputStream = clientSocket.getOutputStream();
+            InputStream inputStream = clientSocket.getInputStream();
+            outputStream.write("exit console\n".getBytes());
+            outputStream.flush();
+
+            // The echo is sent before the session is closed
+            byte[] response = new byte[maxBufSize];
+            int bytesRead = inputStream.read(response);
+            assertEquals("Message received", new String(response, dataOffset, bytesRead).trim());
+            assertEquals(-1, inputStream.read(response), "Session should be closed after 'exit console' command.");
+        }
+    }
+
+    @Test
+    public void testCloseServerCommand() throws IOException, InterruptedException {
+        try (Socket clientSocket = new Socket("localhost", testPort)) {
+            OutputStream outputStream = clientSocket.getOutputStream();
+            outputStream.write("close server\n".getBytes());
+            outputStream.flush();
+
+            // Give the server time to shut down
+            server.join(timeSleep * 4);
+            assertFalse(serverThread.serverConnected, "Server should be closed after 'close server' command.");
+            assertEquals("Closed", serverThread.toString().split(":")[1].trim());
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/**
+ * Bounded queue of frames waiting to be written to one client, applying a {@link SlowConsumerPolicy} when full.
+ *
+ * <p>Frames are shared between recipients : the queue only stores references, never copies.
+ * The queue is thread-safe : any session can offer frames while the owner's writer polls them.</p>
+ *
+ * <p>Two lanes share the queue : the frames broadcast by the other clients, bounded in number, and the
+ * replies of the session to its own client (echoes, acknowledgements), written first. The replies are not
+ * bounded in number : the session stops reading its client while the queue is unwritable, so it stops
+ * producing them.</p>
+ *
+ * <p>The bytes queued in both lanes are counted against two watermarks. Above the high watermark the queue
+ * becomes unwritable, and writable again once the writer brings it down to the low watermark, each change
+ * being reported to the {@link WritabilityListener}. Producers pause in between : the session reads no more
+ * requests, a DROP queue drops the broadcast frames and a BLOCK queue makes their senders wait.</p>
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OutboundQueue {
+    /**
+     * Receives the writability changes of a queue.
+     */
+    public interface WritabilityListener {
+        /**
+         * Called when the queue crosses a watermark, on the thread that made it cross.
+         *
+         * @param writable {@code false} above the high watermark, {@code true} back at the low watermark.
+         */
+        void writabilityChanged(boolean writable);
+    }
+
+    // Default watermarks of the bytes waiting for one client
+    static final int defaultLowWatermark = 32 * 1024;
+    static final int defaultHighWatermark = 64 * 1024;
+    // Time a BLOCK sender waits for room before checking again that the consumer is still there (ms)
+    private static final long closedCheckMillis = 100;
+
+    private final ArrayBlockingQueue<byte[]> frames;
+    private final ConcurrentLinkedQueue<byte[]> replies = new ConcurrentLinkedQueue<>();
+    private final SlowConsumerPolicy policy;
+
+    // Bytes queued in both lanes, and the writability they give
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private volatile boolean writable = true;
+    private volatile boolean closed = false;
+    private volatile WritabilityListener listener;
+
+    // Frames lost because of the DROP policy
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /**
+     * Creates an outbound queue with the default watermarks.
+     *
+     * @param capacity the maximum number of frames waiting to be written.
+     * @param policy the behavior when the queue is full.
+     */
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy) {
+        this(capacity, policy, defaultLowWatermark, defaultHighWatermark);
+    }
+
+    /**
+     * Creates an outbound queue.
+     *
+     * @param capacity the maximum number of broadcast frames waiting to be written.
+     * @param policy the behavior when the queue is full.
+     * @param lowWatermark the queued bytes under which an unwritable queue becomes writable again.
+     * @param highWatermark the queued bytes over which the queue becomes unwritable.
+     */
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy, int lowWatermark, int highWatermark) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("Low watermark " + lowWatermark + " above high watermark " + highWatermark);
+        }
+        this.frames = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Gets the policy applied when the queue is full.
+     *
+     * @return the slow consumer policy.
+     */
+    public SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets the receiver of the writability changes, one per queue.
+     *
+     * @param listener the listener, or {@code null} for none.
+     */
+    public void setWritabilityListener(WritabilityListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a frame broadcast by another client, applying the slow consumer policy if the queue is full or
+     * unwritable.
+     *
+     * @param frame the encoded frame.
+     * @return {@code false} if the consumer must be disconnected, {@code true} otherwise.
+     * @throws InterruptedException if the sender is interrupted while waiting with the BLOCK policy.
+     */
+    public boolean offer(byte[] frame) throws InterruptedException {
+        switch (policy) {
+            case BLOCK:
+                // Wait for the writer to bring the queue down to the low watermark
+                synchronized (this) {
+                    while (!writable && !closed) {
+                        wait();
+                    }
+                }
+                // Then for room, looking for the closure between tries : close() cannot wake a put()
+                while (!closed) {
+                    if (frames.offer(frame, closedCheckMillis, TimeUnit.MILLISECONDS)) {
+                        bytesAdded(frame.length);
+                        return true;
+                    }
+                }
+                return true;
+            case DISCONNECT:
+                if (!frames.offer(frame)) {
+                    return false;
+                }
+                bytesAdded(frame.length);
+                return true;
+            default:
+                return offerOrDrop(frame);
+        }
+    }
+
+    /**
+     * Adds a frame without ever waiting, for senders that must not block such as event loops.
+     * With the BLOCK policy a full queue is handled like DISCONNECT.
+     *
+     * @param frame the encoded frame.
+     * @return {@code false} if the consumer must be disconnected, {@code true} otherwise.
+     */
+    public boolean tryOffer(byte[] frame) {
+        if (policy == SlowConsumerPolicy.DROP) {
+            return offerOrDrop(frame);
+        }
+        if (!frames.offer(frame)) {
+            return false;
+        }
+        bytesAdded(frame.length);
+        return true;
+    }
+
+    /**
+     * Adds a reply of the session to its own client, written before the broadcast frames.
+     * Never waits nor drops : the session must stop reading while the queue is unwritable.
+     *
+     * @param frame the encoded reply.
+     */
+    public void addReply(byte[] frame) {
+        replies.add(frame);
+        bytesAdded(frame.length);
+    }
+
+    /**
+     * Removes the oldest reply, then the oldest broadcast frame once every reply is written.
+     *
+     * @return the next frame to write, or {@code null} if the queue is empty.
+     */
+    public byte[] poll() {
+        byte[] frame = replies.poll();
+        if (frame == null) {
+            frame = frames.poll();
+        }
+        if (frame != null) {
+            bytesRemoved(frame.length);
+        }
+        return frame;
+    }
+
+    /**
+     * Removes the oldest reply only, leaving the broadcast frames queued.
+     *
+     * @return the next reply to write, or {@code null} if there is none.
+     */
+    public byte[] pollReply() {
+        byte[] frame = replies.poll();
+        if (frame != null) {
+            bytesRemoved(frame.length);
+        }
+        return frame;
+    }
+
+    /**
+     * Checks if frames are waiting to be written.
+     *
+     * @return {@code true} if the queue is empty.
+     */
+    public boolean isEmpty() {
+        return replies.isEmpty() && frames.isEmpty();
+    }
+
+    /**
+     * Checks if replies are waiting to be written.
+     *
+     * @return {@code true} if there is at least one reply.
+     */
+    public boolean hasReplies() {
+        return !replies.isEmpty();
+    }
+
+    /**
+     * Checks if the queue is under its high watermark, or back to its low watermark.
+     *
+     * @return {@code true} if the producers can go on.
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Waits until the queue is writable, or closed.
+     *
+     * @return {@code true} if the queue is writable, {@code false} if it was closed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitWritable() throws InterruptedException {
+        while (!writable && !closed) {
+            wait();
+        }
+        return !closed;
+    }
+
+    /**
+     * Gets the number of bytes waiting to be written, in both lanes.
+     *
+     * @return the queued bytes.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * Gets the number of frames dropped because the queue was full.
+     *
+     * @return the dropped frames count.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * Releases the senders and the session waiting for writability, when the session ends.
+     * Frames offered afterwards are ignored.
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private boolean offerOrDrop(byte[] frame) {
+        if (!writable || !frames.offer(frame)) {
+            droppedFrames.incrementAndGet();
+            return true;
+        }
+        bytesAdded(frame.length);
+        return true;
+    }
+
+    private void bytesAdded(int length) {
+        if (queuedBytes.addAndGet(length) > highWatermark && writable) {
+            updateWritability();
+        }
+    }
+
+    private void bytesRemoved(int length) {
+        if (queuedBytes.addAndGet(-length) <= lowWatermark && !writable) {
+            updateWritability();
+        }
+    }
+
+    /**
+     * Applies the watermarks to the queued bytes. The bytes are read again after each change : a writer
+     * that removed bytes meanwhile saw the new state and calls again, or its removal is seen here.
+     */
+    private synchronized void updateWritability() {
+        boolean next;
+        while ((next = writable ? queuedBytes.get() <= highWatermark : queuedBytes.get() <= lowWatermark) != writable) {
+            writable = next;
+            if (next) {
+                notifyAll();
+            }
+            WritabilityListener current = listener;
+            if (current != null) {
+                current.writabilityChanged(next);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Compresses the payloads of {@link WireProtocol} frames, for the sessions that negotiated it.
+ *
+ * <p>Each payload is compressed on its own (raw deflate, no context kept between messages), so frames can
+ * be shared by several recipients and decoded in any order. Chat messages are short : a preset dictionary
+ * of the usual chat and command strings, known by both sides, gives deflate something to refer to from the
+ * first byte. Payloads under the threshold, or that don't shrink, are sent as they are.</p>
+ *
+ * <p>{@link Deflater} and {@link Inflater} hold native memory and are slow to create : they are borrowed
+ * from bounded pools and reset after each message, like the receive buffers of {@link BufferPool}.</p>
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class PayloadCompressor {
+    // Compressor shared by the servers and clients
+    public static final PayloadCompressor shared = new PayloadCompressor(64, 64);
+
+    // Preset dictionary of protocol version 1, the most frequent strings last (deflate refers to them cheaply)
+    private static final byte[] dictionary = ("hello everyone thanks please what when where why how yes no ok "
+            + "the and you for that this with have are is was not but history from close server exit console "
+            + "Server says : Message received /127.0.0.1: says : ").getBytes(StandardCharsets.UTF_8);
+
+    private final int threshold;
+    private final ArrayBlockingQueue<Deflater> deflaters;
+    private final ArrayBlockingQueue<Inflater> inflaters;
+
+    /**
+     * Creates a compressor.
+     *
+     * @param threshold the shortest payload compressed (bytes).
+     * @param poolSize the maximum number of idle deflaters, and of idle inflaters, kept for reuse.
+     */
+    public PayloadCompressor(int threshold, int poolSize) {
+        this.threshold = threshold;
+        this.deflaters = new ArrayBlockingQueue<>(poolSize);
+        this.inflaters = new ArrayBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * Gets the shortest payload compressed.
+     *
+     * @return the threshold in bytes.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Encodes a whole frame, with a deflated payload when it is long enough and shrinks. The receiver inflates
+     * the payload into a buffer of its frame size : the payload must fit in a frame of the receiver before
+     * compression, as {@link WireCodec#encodeLine(String, int, boolean)} ensures for the chat messages.
+     *
+     * @param opcode the frame opcode.
+     * @param sequence the sequence number.
+     * @param payload the payload bytes.
+     * @param offset the start of the payload.
+     * @param length the payload length.
+     * @return the frame, ready to send.
+     */
+    public byte[] encode(int opcode, int sequence, byte[] payload, int offset, int length) {
+        if (length < threshold) {
+            return WireProtocol.encode(opcode, sequence, payload, offset, length);
+        }
+        // Deflate right after the header : a payload that doesn't fit in its own size is not worth it
+        byte[] frame = new byte[WireProtocol.headerLength + length];
+        Deflater deflater = acquireDeflater();
+        int compressedLength;
+        try {
+            deflater.setInput(payload, offset, length);
+            deflater.finish();
+            compressedLength = deflater.deflate(frame, WireProtocol.headerLength, length);
+            if (!deflater.finished() || compressedLength >= length) {
+                return WireProtocol.encode(opcode, sequence, payload, offset, length);
+            }
+        } finally {
+            releaseDeflater(deflater);
+        }
+        new WireProtocol.Writer().wrap(ByteBuffer.wrap(frame), 0)
+                .header(opcode, WireProtocol.flagDeflated, compressedLength, sequence);
+        return Arrays.copyOf(frame, WireProtocol.headerLength + compressedLength);
+    }
+
+    /**
+     * Inflates a deflated payload.
+     *
+     * @param data the buffer holding the deflated payload.
+     * @param offset the start of the deflated payload.
+     * @param length the deflated payload length.
+     * @param target the buffer receiving the payload.
+     * @return the payload length.
+     * @throws IOException if the payload is corrupted, or longer than the target buffer.
+     */
+    public int inflate(byte[] data, int offset, int length, byte[] target) throws IOException {
+        Inflater inflater = acquireInflater();
+        try {
+            inflater.setInput(data, offset, length);
+            int inflated = inflater.inflate(target);
+            if (!inflater.finished()) {
+                throw new IOException("Deflated payload longer than " + target.length + " bytes");
+            }
+            return inflated;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted deflated payload: " + e.getMessage());
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    private Deflater acquireDeflater() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setDictionary(dictionary);
+        }
+        return deflater;
+    }
+
+    private void releaseDeflater(Deflater deflater) {
+        // Reset forgets the dictionary too
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+            inflater.setDictionary(dictionary);
+        }
+        return inflater;
+    }
+
+    private void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+}
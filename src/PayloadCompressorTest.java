@@ -0,0 +1,237 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code PayloadCompressor}.
+ */
+class PayloadCompressorTest {
+    private final int testPort = 12392;
+    private final String chatLine = "/127.0.0.1:51234 says : hello everyone, what are you working on this morning ?";
+
+    private static WireProtocol.Reader header(byte[] frame) {
+        return new WireProtocol.Reader().wrap(ByteBuffer.wrap(frame), 0);
+    }
+
+    @Test
+    void testLongPayloadIsDeflatedAndInflated() throws IOException {
+        byte[] payload = chatLine.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = PayloadCompressor.shared.encode(WireProtocol.opcodeChat, 9, payload, 0, payload.length);
+
+        WireProtocol.Reader reader = header(frame);
+        assertEquals(WireProtocol.flagDeflated, reader.flags());
+        assertEquals(9, reader.sequence());
+        assertTrue(reader.length() < payload.length * 2 / 3, "The dictionary should shrink a chat line by a third");
+
+        byte[] target = new byte[1024];
+        int length = PayloadCompressor.shared.inflate(frame, reader.payloadOffset(), reader.length(), target);
+        assertEquals(chatLine, new String(target, 0, length, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testShortPayloadIsSentRaw() {
+        byte[] payload = "hi".getBytes(StandardCharsets.UTF_8);
+        byte[] frame = PayloadCompressor.shared.encode(WireProtocol.opcodeChat, 1, payload, 0, payload.length);
+        assertArrayEquals(WireProtocol.encode(WireProtocol.opcodeChat, 1, payload, 0, payload.length), frame);
+    }
+
+    @Test
+    void testIncompressiblePayloadIsSentRaw() {
+        byte[] payload = new byte[200];
+        new Random(42).nextBytes(payload);
+        byte[] frame = PayloadCompressor.shared.encode(WireProtocol.opcodeChat, 1, payload, 0, payload.length);
+        assertEquals(WireProtocol.flagsNone, header(frame).flags());
+        assertEquals(WireProtocol.headerLength + payload.length, frame.length);
+    }
+
+    @Test
+    void testInvalidPayloadsAreRejected() {
+        byte[] payload = chatLine.getBytes(StandardCharsets.UTF_8);
+        byte[] frame = PayloadCompressor.shared.encode(WireProtocol.opcodeChat, 1, payload, 0, payload.length);
+        int deflatedLength = header(frame).length();
+
+        // Longer than the target buffer
+        assertThrows(IOException.class,
+                () -> PayloadCompressor.shared.inflate(frame, WireProtocol.headerLength, deflatedLength, new byte[16]));
+        // Not deflate data
+        byte[] garbage = new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF};
+        assertThrows(IOException.class, () -> PayloadCompressor.shared.inflate(garbage, 0, garbage.length, new byte[1024]));
+        // The pooled inflaters still work afterwards
+        assertDoesNotThrow(() -> PayloadCompressor.shared.inflate(frame, WireProtocol.headerLength, deflatedLength, new byte[1024]));
+    }
+
+    @Test
+    void testConcurrentUseOfThePools() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor(16, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    byte[] target = new byte[1024];
+                    for (int i = 0; i < 2000; i++) {
+                        byte[] payload = (chatLine + " " + thread + "/" + i).getBytes(StandardCharsets.UTF_8);
+                        byte[] frame = compressor.encode(WireProtocol.opcodeChat, i, payload, 0, payload.length);
+                        int length = compressor.inflate(frame, WireProtocol.headerLength, header(frame).length(), target);
+                        if (!new String(target, 0, length, StandardCharsets.UTF_8).equals(chatLine + " " + thread + "/" + i)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testWireCodecInflatesPayloads() throws IOException {
+        byte[] frame = WireCodec.encodeLine(chatLine, 5, true);
+        assertEquals(WireProtocol.flagDeflated, header(frame).flags());
+
+        List<String> payloads = new ArrayList<>();
+        List<Integer> flags = new ArrayList<>();
+        WireCodec codec = new WireCodec(1024);
+        // Split in two reads, to go through the partial frame buffer too
+        WireCodec.MessageHandler handler = (opcode, frameFlags, sequence, data, offset, length) -> {
+            payloads.add(new String(data, offset, length, StandardCharsets.UTF_8));
+            flags.add(frameFlags);
+        };
+        codec.decode(frame, 0, 7, handler);
+        codec.decode(frame, 7, frame.length - 7, handler);
+        codec.decode(frame, 0, frame.length, handler);
+
+        assertEquals(List.of(chatLine, chatLine), payloads);
+        assertEquals(List.of(0, 0), flags);
+    }
+
+    @Test
+    void testLongCompressedLineFitsTheReceiver() throws IOException {
+        // Repetitive : the whole line deflates under the frame limit, but inflates above it
+        String line = "hello everyone ".repeat(260);
+        byte[] frames = WireCodec.encodeLine(line, 6, true);
+        assertEquals(WireProtocol.flagDeflated, header(frames).flags());
+
+        StringBuilder received = new StringBuilder();
+        List<Integer> sequences = new ArrayList<>();
+        new WireCodec(1024).decode(frames, 0, frames.length, (opcode, flags, sequence, data, offset, length) -> {
+            received.append(new String(data, offset, length, StandardCharsets.UTF_8));
+            sequences.add(sequence);
+        });
+        assertEquals(line, received.toString());
+        assertEquals(List.of(6, 6, 6, 6), sequences);
+    }
+
+    /**
+     * Reads the frames of a binary session until one has the given opcode, and returns its payload.
+     */
+    private static String readFrame(InputStream input, WireCodec codec, int expectedOpcode, int[] flagsOut) throws IOException {
+        List<String> found = new ArrayList<>();
+        byte[] buf = new byte[4096];
+        while (found.isEmpty()) {
+            int read = input.read(buf);
+            assertNotEquals(-1, read, "Connection closed by the server");
+            codec.decode(buf, 0, read, (opcode, flags, sequence, data, offset, length) -> {
+                if (opcode == expectedOpcode && found.isEmpty()) {
+                    found.add(new String(data, offset, length, StandardCharsets.UTF_8));
+                    flagsOut[0] = flags;
+                }
+            });
+        }
+        return found.get(0);
+    }
+
+    @Test
+    void testServerNegotiatesCompression() throws Exception {
+        TCPMultiServer server = new TCPMultiServer(testPort, ServerMode.SELECTOR);
+        Thread serverThread = TestServers.launch(server);
+
+        try (Socket compressedSocket = new Socket("localhost", testPort);
+             Socket textSocket = new Socket("localhost", testPort)) {
+            compressedSocket.setSoTimeout(5000);
+            textSocket.setSoTimeout(5000);
+            InputStream compressedInput = compressedSocket.getInputStream();
+            OutputStream compressedOutput = compressedSocket.getOutputStream();
+            WireCodec codec = new WireCodec(1024);
+            BufferedReader textReader = new BufferedReader(new InputStreamReader(textSocket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream textOutput = textSocket.getOutputStream();
+
+            // Compression offered and accepted
+            compressedOutput.write(WireProtocol.encodeHello(0, true));
+            compressedOutput.flush();
+            int[] flags = new int[1];
+            readFrame(compressedInput, codec, WireProtocol.opcodeHello, flags);
+            assertEquals(WireProtocol.flagDeflated, flags[0]);
+
+            // A deflated message reaches the text client as a plain line
+            compressedOutput.write(WireCodec.encodeLine(chatLine, 1, true));
+            compressedOutput.flush();
+            readFrame(compressedInput, codec, WireProtocol.opcodeAck, flags);
+            assertTrue(textReader.readLine().endsWith("says : " + chatLine));
+
+            // A deflated line longer than one frame once inflated doesn't drop the session
+            String longLine = chatLine.repeat(4000 / chatLine.length() + 1);
+            compressedOutput.write(WireCodec.encodeLine(longLine, 2, true));
+            compressedOutput.flush();
+            readFrame(compressedInput, codec, WireProtocol.opcodeAck, flags);
+            StringBuilder received = new StringBuilder();
+            while (received.length() < longLine.length()) {
+                String line = textReader.readLine();
+                received.append(line, line.indexOf("says : ") + "says : ".length(), line.length());
+            }
+            assertEquals(longLine, received.toString());
+
+            // A text message reaches the compressed client, inflated by its codec
+            textOutput.write((chatLine + "\n").getBytes(StandardCharsets.UTF_8));
+            textOutput.flush();
+            assertEquals(chatLine, readFrame(compressedInput, codec, WireProtocol.opcodeChat, flags).split(" says : ", 2)[1]);
+
+            compressedOutput.write(WireCodec.encodeLine("close server", 3, true));
+            compressedOutput.flush();
+        }
+        serverThread.join(5000);
+        assertFalse(serverThread.isAlive(), "The server should be closed");
+    }
+
+    @Test
+    void testServerCanRefuseCompression() throws Exception {
+        TCPMultiServer server = new TCPMultiServer(testPort + 1, ServerMode.SELECTOR);
+        server.setCompression(false);
+        Thread serverThread = TestServers.launch(server);
+
+        try (Socket socket = new Socket("localhost", testPort + 1)) {
+            socket.setSoTimeout(5000);
+            OutputStream output = socket.getOutputStream();
+            output.write(WireProtocol.encodeHello(0, true));
+            output.flush();
+            int[] flags = new int[1];
+            readFrame(socket.getInputStream(), new WireCodec(1024), WireProtocol.opcodeHello, flags);
+            assertEquals(WireProtocol.flagsNone, flags[0]);
+
+            output.write(WireCodec.encodeLine("close server", 1));
+            output.flush();
+        }
+        serverThread.join(5000);
+        assertFalse(serverThread.isAlive(), "The server should be closed");
+    }
+}
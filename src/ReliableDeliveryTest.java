@@ -0,0 +1,190 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the reliable UDP mode : {@code ReliableSender}, {@code ReliableReceiver} and their
+ * use by {@code UDPServer}, on loopback with injected losses.
+ */
+class ReliableDeliveryTest {
+    private final int testPort = 12360;
+    private final int maxDatagramSize = 1024;
+    private final int messageCount = 2000;
+    private final long flushTimeout = 10000;
+
+    // Receiving end on loopback, delivering the messages of one ReliableReceiver into a list
+    private static class LoopbackReceiver implements AutoCloseable {
+        private final DatagramChannel channel = DatagramChannel.open();
+        private final ReliableReceiver receiver = new ReliableReceiver();
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+        private final Thread thread;
+
+        LoopbackReceiver() throws IOException {
+            channel.bind(new InetSocketAddress("localhost", 0));
+            thread = new Thread(this::receiveLoop, "loopback-receiver");
+            thread.start();
+        }
+
+        private void receiveLoop() {
+            ByteBuffer buf = ByteBuffer.allocate(1024);
+            try {
+                while (true) {
+                    buf.clear();
+                    SocketAddress sender = channel.receive(buf);
+                    buf.flip();
+                    ByteBuffer ack = receiver.receive(buf.array(), 0, buf.limit(), (data, offset, length) ->
+                            messages.add(new String(data, offset, length, StandardCharsets.UTF_8)));
+                    channel.send(ack, sender);
+                }
+            } catch (AsynchronousCloseException e) {
+                // Test end
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        SocketAddress address() throws IOException {
+            return channel.getLocalAddress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private List<String> expectedMessages() {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < messageCount; i++) {
+            expected.add("message " + i);
+        }
+        return expected;
+    }
+
+    private ReliableSender sendAll(DatagramChannel channel, double lossRate) throws IOException {
+        ReliableSender sender = new ReliableSender(channel, maxDatagramSize);
+        if (lossRate > 0) {
+            sender.setLossRate(lossRate, 42);
+        }
+        for (String message : expectedMessages()) {
+            sender.send(message.getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(sender.flush(flushTimeout), "Every message should be acknowledged");
+        assertEquals(0, sender.getInFlight());
+        return sender;
+    }
+
+    @Test
+    void testDeliveryWithoutLoss() throws Exception {
+        try (LoopbackReceiver receiver = new LoopbackReceiver();
+             DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(receiver.address());
+            ReliableSender sender = sendAll(channel, 0);
+
+            assertEquals(expectedMessages(), receiver.messages);
+            sender.close();
+        }
+    }
+
+    @Test
+    void testDeliveryInOrderWithLoss() throws Exception {
+        try (LoopbackReceiver receiver = new LoopbackReceiver();
+             DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(receiver.address());
+            // 20% of the DATA and of the ACKs lost
+            ReliableSender sender = sendAll(channel, 0.2);
+
+            assertEquals(expectedMessages(), receiver.messages, "Every message should arrive once, in order");
+            assertTrue(sender.getRetransmissions() > 0, "The lost messages should be retransmitted");
+            sender.close();
+        }
+    }
+
+    @Test
+    void testReceiverReordersAndDropsDuplicates() {
+        ReliableReceiver receiver = new ReliableReceiver();
+        List<String> messages = new ArrayList<>();
+        ReliableReceiver.MessageHandler handler = (data, offset, length) ->
+                messages.add(new String(data, offset, length, StandardCharsets.UTF_8));
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        int session = 7;
+
+        // Messages 2 and 1 arrive before 0, then 1 again
+        int[] arrivals = {2, 1, 0, 1};
+        ByteBuffer ack = null;
+        for (int sequence : arrivals) {
+            byte[] message = ("m" + sequence).getBytes(StandardCharsets.UTF_8);
+            ReliablePacket.encodeData(buf, session, sequence, message, message.length);
+            ack = receiver.receive(buf.array(), 0, buf.limit(), handler);
+            if (sequence == 2) {
+                // Message 2 held, reported in the selective ACK (bit 1 : 0 + 1 + 1)
+                assertEquals(0, ReliablePacket.cumulativeAck(ack));
+                assertEquals(0b10, ReliablePacket.selectiveAck(ack));
+            }
+        }
+
+        assertEquals(List.of("m0", "m1", "m2"), messages);
+        assertEquals(3, ReliablePacket.cumulativeAck(ack));
+        assertEquals(0, ReliablePacket.selectiveAck(ack));
+    }
+
+    @Test
+    void testNewSessionRestartsSequence() {
+        ReliableReceiver receiver = new ReliableReceiver();
+        List<String> messages = new ArrayList<>();
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        byte[] message = "hello".getBytes(StandardCharsets.UTF_8);
+
+        ReliablePacket.encodeData(buf, 1, 0, message, message.length);
+        receiver.receive(buf.array(), 0, buf.limit(), (data, offset, length) -> messages.add("first"));
+        // A restarted client sends sequence 0 again with another session
+        ReliablePacket.encodeData(buf, 2, 0, message, message.length);
+        receiver.receive(buf.array(), 0, buf.limit(), (data, offset, length) -> messages.add("second"));
+
+        assertEquals(List.of("first", "second"), messages);
+    }
+
+    @Test
+    void testUDPServerHandlesEveryReliableMessage() throws Exception {
+        UDPServer server = new UDPServer(testPort);
+        server.setChannelMode(true);
+        Thread serverThread = TestServers.launch(server);
+
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(new InetSocketAddress("localhost", testPort));
+            ReliableSender sender = new ReliableSender(channel, maxDatagramSize);
+            sender.setLossRate(0.1, 7);
+            for (String message : expectedMessages()) {
+                sender.send(message.getBytes(StandardCharsets.UTF_8));
+            }
+            assertTrue(sender.flush(flushTimeout), "Every message should be acknowledged");
+
+            // No loss for the last message : once closed, the server can't acknowledge it again
+            sender.setLossRate(0, 0);
+            sender.send("close server".getBytes(StandardCharsets.UTF_8));
+            assertTrue(sender.flush(flushTimeout), "The closing message should be acknowledged");
+            sender.close();
+        }
+        serverThread.join(flushTimeout);
+
+        assertFalse(serverThread.isAlive(), "The server should close on the reliable 'close server'");
+        // Handled once each, retransmissions included
+        assertEquals(messageCount + 1, server.getMetrics().getHandlingLatencyCount());
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Header of the datagrams of the reliable UDP mode ({@link ReliableSender}, {@link ReliableReceiver}).
+ *
+ * <p>Every reliable datagram starts with a marker byte that never appears in UTF-8 text, so the server
+ * tells them from the plain text datagrams of the other clients with one comparison.</p>
+ *
+ * <ul>
+ *     <li>DATA : marker, type, session, sequence number, then the message bytes.</li>
+ *     <li>ACK : marker, type, session, cumulative acknowledgement (next sequence number expected), then a
+ *     64 bits selective acknowledgement : bit i is set when the message {@code cumulativeAck + 1 + i}
+ *     was received out of order.</li>
+ * </ul>
+ *
+ * <p>The session is a random number chosen by each sender, so a restarted client is never mistaken for
+ * the previous one sending from the same port. Integers are big-endian.</p>
+ */
+import java.nio.ByteBuffer;
+
+public final class ReliablePacket {
+    // 0xFE is not a valid byte in UTF-8 text
+    static final byte marker = (byte) 0xFE;
+    static final byte typeData = 1;
+    static final byte typeAck = 2;
+
+    static final int dataHeaderLength = 10;   // marker, type, session, sequence
+    static final int ackLength = 18;   // marker, type, session, cumulative ack, selective ack bits
+
+    // Messages in flight at most : the selective acknowledgement covers the whole window
+    static final int windowSize = Long.SIZE;
+
+    private static final int typeOffset = 1;
+    private static final int sessionOffset = 2;
+    private static final int sequenceOffset = 6;
+
+    private ReliablePacket() {
+    }
+
+    /**
+     * Checks if a datagram belongs to the reliable mode.
+     *
+     * @param data the buffer holding the datagram.
+     * @param offset the start of the datagram.
+     * @param length the datagram length.
+     * @return {@code true} for a DATA or ACK datagram.
+     */
+    public static boolean isReliable(byte[] data, int offset, int length) {
+        return length >= dataHeaderLength && data[offset] == marker;
+    }
+
+    /**
+     * Checks if a reliable datagram is a complete DATA datagram.
+     */
+    static boolean isData(byte[] data, int offset, int length) {
+        return length >= dataHeaderLength && data[offset] == marker && data[offset + typeOffset] == typeData;
+    }
+
+    /**
+     * Checks if a received datagram is an ACK.
+     */
+    static boolean isAck(ByteBuffer buf) {
+        return buf.remaining() >= ackLength && buf.get(buf.position()) == marker
+                && buf.get(buf.position() + typeOffset) == typeAck;
+    }
+
+    /**
+     * Gets the session of a DATA datagram.
+     */
+    static int session(byte[] data, int offset) {
+        return readInt(data, offset + sessionOffset);
+    }
+
+    /**
+     * Gets the sequence number of a DATA datagram.
+     */
+    static int sequence(byte[] data, int offset) {
+        return readInt(data, offset + sequenceOffset);
+    }
+
+    /**
+     * Writes a DATA datagram, ready to send.
+     *
+     * @param buf the send buffer, cleared then flipped.
+     * @param session the sender session.
+     * @param sequence the message sequence number.
+     * @param payload the message bytes.
+     * @param length the message length.
+     */
+    static void encodeData(ByteBuffer buf, int session, int sequence, byte[] payload, int length) {
+        buf.clear();
+        buf.put(marker).put(typeData).putInt(session).putInt(sequence).put(payload, 0, length).flip();
+    }
+
+    /**
+     * Writes an ACK datagram, ready to send.
+     *
+     * @param buf the send buffer, cleared then flipped.
+     * @param session the session acknowledged.
+     * @param cumulativeAck the next sequence number expected.
+     * @param selectiveAck the messages received after it, bit i for {@code cumulativeAck + 1 + i}.
+     */
+    static void encodeAck(ByteBuffer buf, int session, int cumulativeAck, long selectiveAck) {
+        buf.clear();
+        buf.put(marker).put(typeAck).putInt(session).putInt(cumulativeAck).putLong(selectiveAck).flip();
+    }
+
+    /**
+     * Gets the session of an ACK, without moving the buffer position.
+     */
+    static int ackSession(ByteBuffer buf) {
+        return buf.getInt(buf.position() + sessionOffset);
+    }
+
+    /**
+     * Gets the cumulative acknowledgement of an ACK, without moving the buffer position.
+     */
+    static int cumulativeAck(ByteBuffer buf) {
+        return buf.getInt(buf.position() + sequenceOffset);
+    }
+
+    /**
+     * Gets the selective acknowledgement bits of an ACK, without moving the buffer position.
+     */
+    static long selectiveAck(ByteBuffer buf) {
+        return buf.getLong(buf.position() + sequenceOffset + Integer.BYTES);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+    }
+}
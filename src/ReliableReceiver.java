@@ -0,0 +1,145 @@
+/**
+ * Receiving side of the reliable UDP mode, one per client : puts the DATA datagrams back in order,
+ * drops the duplicates and builds the ACK of each datagram.
+ *
+ * <p>The message expected next is handed over straight from the receive buffer. Messages arriving ahead
+ * of it are copied into a ring of {@link ReliablePacket#windowSize} slots until the gap is filled, and
+ * reported in the selective acknowledgement so the sender only retransmits what is missing.</p>
+ *
+ * <p>Not thread-safe : the datagrams of one client are handled by one thread at a time, which is the case
+ * in every {@link UDPServer} mode.</p>
+ */
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ReliableReceiver {
+    /**
+     * Receives the messages of a client, in the order they were sent.
+     */
+    public interface MessageHandler {
+        void onMessage(byte[] data, int offset, int length);
+    }
+
+    private final int windowMask = ReliablePacket.windowSize - 1;
+
+    private int session;
+    private int nextExpected = 0;
+
+    // Messages received ahead of nextExpected, in the slot of their sequence number
+    private final byte[][] outOfOrder = new byte[ReliablePacket.windowSize][];
+    private int outOfOrderCount = 0;
+
+    // ACK of the last datagram, sent back by the server
+    private final ByteBuffer ackBuf = ByteBuffer.allocate(ReliablePacket.ackLength);
+
+    // Removes this receiver once the client is gone, set by the server
+    private IdleTimer.Timeout idleTimeout;
+
+    /**
+     * Handles one DATA datagram : delivers every message now in order and builds the ACK.
+     *
+     * @param data the buffer holding the datagram.
+     * @param offset the start of the datagram.
+     * @param length the datagram length.
+     * @param handler receives the messages in order, each exactly once.
+     * @return the ACK to send back to the client, valid until the next call.
+     */
+    public ByteBuffer receive(byte[] data, int offset, int length, MessageHandler handler) {
+        int packetSession = ReliablePacket.session(data, offset);
+        if (packetSession != session) {
+            // First datagram of the client, or the client restarted with a new session
+            reset(packetSession);
+        }
+
+        int sequence = ReliablePacket.sequence(data, offset);
+        // Differences keep the comparisons right when the sequence numbers wrap
+        int distance = sequence - nextExpected;
+        if (distance == 0) {
+            handler.onMessage(data, offset + ReliablePacket.dataHeaderLength, length - ReliablePacket.dataHeaderLength);
+            nextExpected++;
+            deliverOutOfOrder(handler);
+        } else if (distance > 0 && distance < ReliablePacket.windowSize) {
+            int slot = sequence & windowMask;
+            if (outOfOrder[slot] == null) {
+                byte[] message = new byte[length - ReliablePacket.dataHeaderLength];
+                System.arraycopy(data, offset + ReliablePacket.dataHeaderLength, message, 0, message.length);
+                outOfOrder[slot] = message;
+                outOfOrderCount++;
+            }
+        }
+        // Older datagrams are duplicates of delivered messages : acknowledged again, not delivered
+
+        ReliablePacket.encodeAck(ackBuf, session, nextExpected, selectiveAck());
+        return ackBuf;
+    }
+
+    /**
+     * Gets the sequence number of the next message to deliver.
+     *
+     * @return the cumulative acknowledgement.
+     */
+    public int getNextExpected() {
+        return nextExpected;
+    }
+
+    /**
+     * Gets the idle timeout removing this receiver, set by the server.
+     *
+     * @return the timeout, or {@code null} if none was set.
+     */
+    public IdleTimer.Timeout getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the idle timeout removing this receiver when its client stops sending.
+     *
+     * @param idleTimeout the timeout, touched by the server on each datagram.
+     */
+    public void setIdleTimeout(IdleTimer.Timeout idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Delivers the buffered messages that directly follow the delivered ones.
+     */
+    private void deliverOutOfOrder(MessageHandler handler) {
+        while (outOfOrderCount > 0) {
+            int slot = nextExpected & windowMask;
+            byte[] message = outOfOrder[slot];
+            if (message == null) {
+                return;
+            }
+            outOfOrder[slot] = null;
+            outOfOrderCount--;
+            handler.onMessage(message, 0, message.length);
+            nextExpected++;
+        }
+    }
+
+    /**
+     * Builds the selective acknowledgement : bit i for the message {@code nextExpected + 1 + i}.
+     */
+    private long selectiveAck() {
+        if (outOfOrderCount == 0) {
+            return 0;
+        }
+        long bits = 0;
+        for (int i = 0; i < ReliablePacket.windowSize - 1; i++) {
+            if (outOfOrder[(nextExpected + 1 + i) & windowMask] != null) {
+                bits |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Starts a new session from sequence number 0.
+     */
+    private void reset(int newSession) {
+        session = newSession;
+        nextExpected = 0;
+        outOfOrderCount = 0;
+        Arrays.fill(outOfOrder, null);
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Sending side of the reliable UDP mode : numbers the messages, keeps them until they are acknowledged
+ * and retransmits the lost ones.
+ *
+ * <ul>
+ *     <li>Sliding window : up to {@link ReliablePacket#windowSize} messages in flight, {@link #send} waits
+ *     for room when the window is full.</li>
+ *     <li>Cumulative and selective ACKs : the receiver reports every message it holds, so only the missing
+ *     ones are sent again.</li>
+ *     <li>Fast retransmit : a message is resent as soon as 3 later messages are acknowledged without it,
+ *     without waiting for the timeout.</li>
+ *     <li>Retransmission timeout from the measured round trip time (RFC 6298 : smoothed RTT plus 4 times its
+ *     variation, doubled on each expiry), with no sample taken from retransmitted messages.</li>
+ * </ul>
+ *
+ * <p>Single-threaded : the ACKs are read and the timeouts checked by the thread calling {@link #send} and
+ * {@link #flush}, on a non-blocking channel with its own selector. Messages are sent at once, with no
+ * delay added when nothing is lost.</p>
+ */
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class ReliableSender implements AutoCloseable {
+    private final int windowSize = ReliablePacket.windowSize;
+    private final int windowMask = windowSize - 1;
+    private final int fastRetransmitThreshold = 3;   // Later messages acknowledged before a message counts as lost
+    private final int maxRetransmissions = 10;   // Retransmissions of a message before giving up
+
+    // Retransmission timeout bounds : losses inside the window are repaired by the fast retransmit, the
+    // timeout only covers the tail of a burst, so its floor stays above scheduling and GC pauses
+    private final long initialRto = TimeUnit.MILLISECONDS.toNanos(200);
+    private final long minRto = TimeUnit.MILLISECONDS.toNanos(30);
+    private final long maxRto = TimeUnit.SECONDS.toNanos(2);
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final int session = ThreadLocalRandom.current().nextInt();
+    private final ByteBuffer sendBuf;
+    private final ByteBuffer ackBuf = ByteBuffer.allocate(ReliablePacket.ackLength);
+
+    // Messages in flight, in the slot of their sequence number
+    private final byte[][] messages = new byte[windowSize][];
+    private final long[] sentAt = new long[windowSize];
+    private final int[] retransmissions = new int[windowSize];
+    private final boolean[] selectivelyAcked = new boolean[windowSize];
+    private int base = 0;   // Oldest message not acknowledged
+    private int nextSequence = 0;
+
+    // Round trip time estimation (ns), no sample yet while smoothedRtt is negative
+    private long smoothedRtt = -1;
+    private long rttVariation = 0;
+    private long rto = initialRto;
+    private long retransmittedMessages = 0;
+
+    // Test hook : drops this share of the DATA sent and of the ACKs received
+    private double lossRate = 0;
+    private Random lossRandom;
+
+    /**
+     * Creates the sender of a channel connected to the server. The channel is switched to non-blocking mode.
+     *
+     * @param channel the channel connected to the server.
+     * @param maxDatagramSize the largest datagram the server receives, header included.
+     * @throws IOException if the selector cannot be opened.
+     */
+    public ReliableSender(DatagramChannel channel, int maxDatagramSize) throws IOException {
+        this.channel = channel;
+        this.sendBuf = ByteBuffer.allocateDirect(maxDatagramSize);
+        channel.configureBlocking(false);
+        this.selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Gets the largest message sent in one datagram.
+     *
+     * @return the datagram size less the header.
+     */
+    public int getMaxMessageLength() {
+        return sendBuf.capacity() - ReliablePacket.dataHeaderLength;
+    }
+
+    /**
+     * Sends a message, waiting first for room in the window. Longer messages are truncated to
+     * {@link #getMaxMessageLength()}.
+     *
+     * @param data the message bytes.
+     * @throws IOException if the server stops acknowledging or an I/O error occurs.
+     */
+    public void send(byte[] data) throws IOException {
+        while (nextSequence - base >= windowSize) {
+            awaitProgress(rtoDeadline());
+        }
+        int length = Math.min(data.length, getMaxMessageLength());
+        int slot = nextSequence & windowMask;
+        messages[slot] = length == data.length ? data : Arrays.copyOf(data, length);
+        retransmissions[slot] = 0;
+        selectivelyAcked[slot] = false;
+        transmit(nextSequence);
+        nextSequence++;
+        // Take the ACKs already there, without waiting
+        readAcks();
+    }
+
+    /**
+     * Waits until every message sent is acknowledged.
+     *
+     * @param timeoutMillis the longest wait (ms).
+     * @return {@code true} if every message was acknowledged in time.
+     * @throws IOException if the server stops acknowledging or an I/O error occurs.
+     */
+    public boolean flush(long timeoutMillis) throws IOException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (base != nextSequence) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                return false;
+            }
+            awaitProgress(Math.min(rtoDeadline(), end));
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of messages not acknowledged yet.
+     *
+     * @return the messages in flight.
+     */
+    public int getInFlight() {
+        return nextSequence - base;
+    }
+
+    /**
+     * Gets the number of retransmitted datagrams.
+     *
+     * @return the retransmissions count.
+     */
+    public long getRetransmissions() {
+        return retransmittedMessages;
+    }
+
+    /**
+     * Gets the current retransmission timeout.
+     *
+     * @return the timeout (ms).
+     */
+    public double getRto() {
+        return rto / 1e6;
+    }
+
+    /**
+     * Drops a share of the DATA sent and of the ACKs received, to test the recovery without a lossy network.
+     *
+     * @param lossRate the share of datagrams lost, between 0 and 1.
+     * @param seed the seed of the losses, so a test is repeatable.
+     */
+    void setLossRate(double lossRate, long seed) {
+        this.lossRate = lossRate;
+        this.lossRandom = new Random(seed);
+    }
+
+    /**
+     * Closes the selector. The channel stays open, it belongs to the caller.
+     *
+     * @throws IOException if the selector cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        selector.close();
+    }
+
+    /**
+     * Waits for ACKs until a deadline, then retransmits the timed out messages.
+     */
+    private void awaitProgress(long deadline) throws IOException {
+        // Rounded up, so the deadline is not polled in a loop during its last millisecond
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime() + 999_999);
+        if (waitMillis > 0) {
+            selector.select(waitMillis);
+        } else {
+            selector.selectNow();
+        }
+        selector.selectedKeys().clear();
+        readAcks();
+        retransmitExpired();
+    }
+
+    /**
+     * Handles every ACK already received.
+     */
+    private void readAcks() throws IOException {
+        while (true) {
+            ackBuf.clear();
+            try {
+                if (channel.receive(ackBuf) == null) {
+                    return;
+                }
+            } catch (PortUnreachableException e) {
+                // No server yet : the retransmissions go on until the limit
+                return;
+            }
+            ackBuf.flip();
+            if (!isLost() && ReliablePacket.isAck(ackBuf) && ReliablePacket.ackSession(ackBuf) == session) {
+                handleAck(ReliablePacket.cumulativeAck(ackBuf), ReliablePacket.selectiveAck(ackBuf));
+            }
+        }
+    }
+
+    /**
+     * Releases the acknowledged messages, updates the RTT and retransmits the messages reported missing.
+     */
+    private void handleAck(int cumulativeAck, long selectiveAck) throws IOException {
+        long now = System.nanoTime();
+        long rttSample = -1;
+
+        // Cumulative : every message before cumulativeAck arrived
+        while (base != nextSequence && base - cumulativeAck < 0) {
+            int slot = base & windowMask;
+            if (!selectivelyAcked[slot] && retransmissions[slot] == 0) {
+                rttSample = now - sentAt[slot];
+            }
+            messages[slot] = null;
+            base++;
+        }
+
+        // Selective : the messages received after a gap
+        long bits = selectiveAck;
+        while (bits != 0) {
+            int bit = Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            int sequence = cumulativeAck + 1 + bit;
+            if (sequence - base >= 0 && sequence - nextSequence < 0) {
+                int slot = sequence & windowMask;
+                if (!selectivelyAcked[slot]) {
+                    selectivelyAcked[slot] = true;
+                    if (retransmissions[slot] == 0) {
+                        rttSample = now - sentAt[slot];
+                    }
+                }
+            }
+        }
+
+        if (rttSample >= 0) {
+            updateRto(rttSample);
+        }
+        fastRetransmit();
+    }
+
+    /**
+     * Resends, once, each message with enough later messages acknowledged (from the newest to the oldest).
+     */
+    private void fastRetransmit() throws IOException {
+        int ackedAfter = 0;
+        for (int sequence = nextSequence - 1; sequence - base >= 0; sequence--) {
+            int slot = sequence & windowMask;
+            if (selectivelyAcked[slot]) {
+                ackedAfter++;
+            } else if (ackedAfter >= fastRetransmitThreshold && retransmissions[slot] == 0) {
+                retransmit(sequence);
+            }
+        }
+    }
+
+    /**
+     * Resends the messages whose timeout expired, and backs off the timeout.
+     */
+    private void retransmitExpired() throws IOException {
+        long now = System.nanoTime();
+        boolean expired = false;
+        for (int sequence = base; sequence != nextSequence; sequence++) {
+            int slot = sequence & windowMask;
+            if (!selectivelyAcked[slot] && now - sentAt[slot] >= rto) {
+                if (retransmissions[slot] >= maxRetransmissions) {
+                    throw new IOException("Server not acknowledging message " + sequence + " after "
+                            + maxRetransmissions + " retransmissions");
+                }
+                retransmit(sequence);
+                expired = true;
+            }
+        }
+        if (expired) {
+            rto = Math.min(rto * 2, maxRto);
+        }
+    }
+
+    /**
+     * Gets the time the oldest unacknowledged message times out.
+     */
+    private long rtoDeadline() {
+        long oldest = Long.MAX_VALUE;
+        long now = System.nanoTime();
+        for (int sequence = base; sequence != nextSequence; sequence++) {
+            int slot = sequence & windowMask;
+            if (!selectivelyAcked[slot]) {
+                oldest = Math.min(oldest, sentAt[slot] - now);
+            }
+        }
+        return oldest == Long.MAX_VALUE ? now + rto : now + oldest + rto;
+    }
+
+    /**
+     * Updates the smoothed RTT and its variation with a new sample (RFC 6298).
+     */
+    private void updateRto(long rttSample) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rttSample;
+            rttVariation = rttSample / 2;
+        } else {
+            rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rttSample)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rttSample) / 8;
+        }
+        rto = Math.max(minRto, Math.min(maxRto, smoothedRtt + 4 * rttVariation));
+    }
+
+    private void retransmit(int sequence) throws IOException {
+        retransmissions[sequence & windowMask]++;
+        retransmittedMessages++;
+        transmit(sequence);
+    }
+
+    /**
+     * Sends the DATA datagram of a message in flight.
+     */
+    private void transmit(int sequence) throws IOException {
+        int slot = sequence & windowMask;
+        sentAt[slot] = System.nanoTime();
+        if (isLost()) {
+            return;
+        }
+        byte[] message = messages[slot];
+        ReliablePacket.encodeData(sendBuf, session, sequence, message, message.length);
+        try {
+            // A full socket buffer sends nothing : the datagram is retransmitted like a lost one
+            channel.write(sendBuf);
+        } catch (PortUnreachableException e) {
+            // ICMP error of a previous datagram : the retransmissions go on until the limit
+        }
+    }
+
+    private boolean isLost() {
+        return lossRate > 0 && lossRandom.nextDouble() < lossRate;
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * Live counters of a server, published as a JMX MBean ({@link ServerMetricsMBean}).
+ *
+ * <p>Every update is a {@link LongAdder} increment or a {@link ConcurrentLatencyHistogram} record : session
+ * threads, virtual threads and event loops update them concurrently without locks and mostly on separate
+ * cache lines. Only the JMX getters do the expensive work (summing cells, merging histograms,
+ * computing rates).</p>
+ *
+ * <p>Metrics:</p>
+ * <ul>
+ *     <li>active sessions (gauge), accepted and closed sessions (totals),</li>
+ *     <li>messages and bytes received and sent, as totals and per second,</li>
+ *     <li>per-message handling latency (p50, p99, p999, max, mean), from reception to echo.</li>
+ * </ul>
+ *
+ * <p>The MBean is registered as {@code chat:type=ServerMetrics,server=<server>,port=<port>} while the
+ * server runs, see {@link #register(int)}.</p>
+ */
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class ServerMetrics implements ServerMetricsMBean {
+    private static final String domain = "chat";
+    private static final long nanosToMicros = 1000;
+    private static final double nanosToSec = 1e9;
+    private static final long rateInterval = 1_000_000_000;   // Minimum time between two rate samples (ns)
+
+    private final String serverName;
+    private ObjectName objectName;
+
+    // Hot path counters
+    private final LongAdder acceptedSessions = new LongAdder();
+    private final LongAdder closedSessions = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final ConcurrentLatencyHistogram handlingLatency = new ConcurrentLatencyHistogram();
+
+    // Last rate sample : counter values and time, then the rates computed from it
+    private long sampleTime = System.nanoTime();
+    private final long[] sampleValues = new long[4];
+    private final double[] rates = new double[4];
+
+    /**
+     * Creates the metrics of a server.
+     *
+     * @param serverName the server class name, used in the MBean name.
+     */
+    public ServerMetrics(String serverName) {
+        this.serverName = serverName;
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server. A failure is logged, never thrown :
+     * the server runs the same without monitoring.
+     *
+     * @param port the server port, used in the MBean name.
+     */
+    public synchronized void register(int port) {
+        try {
+            ObjectName name = new ObjectName(domain + ":type=ServerMetrics,server=" + serverName + ",port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            AsyncLogger.shared.warn("Metrics not published over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, when the server closes.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            mBeanServer.unregisterMBean(objectName);
+        } catch (JMException e) {
+            AsyncLogger.shared.warn("Metrics not unpublished from JMX: " + e.getMessage());
+        }
+        objectName = null;
+    }
+
+    // Updates, called from the sessions
+
+    public void sessionOpened() {
+        acceptedSessions.increment();
+    }
+
+    public void sessionClosed() {
+        closedSessions.increment();
+    }
+
+    /**
+     * Counts bytes read from a client, before framing.
+     *
+     * @param bytes the number of bytes read.
+     */
+    public void bytesReceived(int bytes) {
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Counts a handled message and records its handling time.
+     *
+     * @param startNanos the {@link System#nanoTime()} when the message handling started.
+     */
+    public void messageHandled(long startNanos) {
+        messagesIn.increment();
+        handlingLatency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a message written to a client (echo or broadcast frame).
+     *
+     * @param bytes the size of the message.
+     */
+    public void messageSent(int bytes) {
+        messagesOut.increment();
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Counts bytes written to a client outside of a message, like a history replay.
+     *
+     * @param bytes the number of bytes written.
+     */
+    public void bytesSent(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    // JMX attributes
+
+    @Override
+    public long getActiveSessions() {
+        // Closed first : a session closing in between can't make the gauge negative
+        long closed = closedSessions.sum();
+        return acceptedSessions.sum() - closed;
+    }
+
+    @Override
+    public long getAcceptedSessions() {
+        return acceptedSessions.sum();
+    }
+
+    @Override
+    public long getClosedSessions() {
+        return closedSessions.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return sampleRate(0);
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        return sampleRate(1);
+    }
+
+    @Override
+    public double getBytesInPerSecond() {
+        return sampleRate(2);
+    }
+
+    @Override
+    public double getBytesOutPerSecond() {
+        return sampleRate(3);
+    }
+
+    @Override
+    public long getHandlingLatencyCount() {
+        return handlingLatency.getCount();
+    }
+
+    @Override
+    public double getHandlingLatencyMeanMicros() {
+        return handlingLatency.getMean() / nanosToMicros;
+    }
+
+    @Override
+    public long getHandlingLatencyP50Micros() {
+        return handlingLatency.snapshot().getValueAtPercentile(50) / nanosToMicros;
+    }
+
+    @Override
+    public long getHandlingLatencyP99Micros() {
+        return handlingLatency.snapshot().getValueAtPercentile(99) / nanosToMicros;
+    }
+
+    @Override
+    public long getHandlingLatencyP999Micros() {
+        return handlingLatency.snapshot().getValueAtPercentile(99.9) / nanosToMicros;
+    }
+
+    @Override
+    public long getHandlingLatencyMaxMicros() {
+        return handlingLatency.getMax() / nanosToMicros;
+    }
+
+    /**
+     * Gets the handling latencies, for reports outside JMX.
+     *
+     * @return the latency histogram.
+     */
+    public ConcurrentLatencyHistogram getHandlingLatency() {
+        return handlingLatency;
+    }
+
+    /**
+     * Recomputes the rates when the last sample is old enough, so every JMX poll sees rates over at least
+     * one second, whatever the polling frequency.
+     *
+     * @param counter 0 to 3 : messages in, messages out, bytes in, bytes out.
+     * @return the rate of the counter, per second.
+     */
+    private synchronized double sampleRate(int counter) {
+        long now = System.nanoTime();
+        long elapsed = now - sampleTime;
+        if (elapsed < rateInterval) {
+            return rates[counter];
+        }
+        long[] values = {messagesIn.sum(), messagesOut.sum(), bytesIn.sum(), bytesOut.sum()};
+        for (int i = 0; i < values.length; i++) {
+            rates[i] = (values[i] - sampleValues[i]) * nanosToSec / elapsed;
+            sampleValues[i] = values[i];
+        }
+        sampleTime = now;
+        return rates[counter];
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * JMX view of a {@link ServerMetrics} : the attributes shown by JConsole or VisualVM under the "chat" domain.
+ */
+public interface ServerMetricsMBean {
+    long getActiveSessions();
+
+    long getAcceptedSessions();
+
+    long getClosedSessions();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getMessagesInPerSecond();
+
+    double getMessagesOutPerSecond();
+
+    double getBytesInPerSecond();
+
+    double getBytesOutPerSecond();
+
+    long getHandlingLatencyCount();
+
+    double getHandlingLatencyMeanMicros();
+
+    long getHandlingLatencyP50Micros();
+
+    long getHandlingLatencyP99Micros();
+
+    long getHandlingLatencyP999Micros();
+
+    long getHandlingLatencyMaxMicros();
+}
@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code ServerMetrics} and its {@code ConcurrentLatencyHistogram}.
+ */
+class ServerMetricsTest {
+    private final int testPort = 12350;
+    private final int threads = 8;
+    private final int recordsPerThread = 10000;
+
+    @Test
+    void testSessionGauge() {
+        ServerMetrics metrics = new ServerMetrics("TestServer");
+        metrics.sessionOpened();
+        metrics.sessionOpened();
+        metrics.sessionClosed();
+
+        assertEquals(1, metrics.getActiveSessions());
+        assertEquals(2, metrics.getAcceptedSessions());
+        assertEquals(1, metrics.getClosedSessions());
+    }
+
+    @Test
+    void testMessageCounters() {
+        ServerMetrics metrics = new ServerMetrics("TestServer");
+        metrics.bytesReceived(12);
+        metrics.messageHandled(System.nanoTime());
+        metrics.messageSent(17);
+
+        assertEquals(1, metrics.getMessagesIn());
+        assertEquals(1, metrics.getMessagesOut());
+        assertEquals(12, metrics.getBytesIn());
+        assertEquals(17, metrics.getBytesOut());
+        assertEquals(1, metrics.getHandlingLatencyCount());
+    }
+
+    @Test
+    void testRegisteredAsMBean() throws Exception {
+        ServerMetrics metrics = new ServerMetrics("TestServer");
+        metrics.sessionOpened();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("chat:type=ServerMetrics,server=TestServer,port=" + testPort);
+
+        metrics.register(testPort);
+        assertEquals(1L, mBeanServer.getAttribute(name, "ActiveSessions"));
+
+        metrics.unregister();
+        assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    void testConcurrentRecordsAreAllCounted() throws InterruptedException {
+        ConcurrentLatencyHistogram histogram = new ConcurrentLatencyHistogram();
+        Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            recorders[t] = new Thread(() -> {
+                for (int i = 1; i <= recordsPerThread; i++) {
+                    histogram.record(i);
+                }
+            });
+            recorders[t].start();
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+
+        LatencyHistogram snapshot = histogram.snapshot();
+        assertEquals((long) threads * recordsPerThread, histogram.getCount());
+        assertEquals(histogram.getCount(), snapshot.getCount());
+        assertEquals(recordsPerThread, histogram.getMax());
+        assertEquals(recordsPerThread / 2.0, snapshot.getValueAtPercentile(50), recordsPerThread * 0.04);
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * Execution models available for the {@link TCPMultiServer} client sessions.
+ *
+ * <ul>
+ *     <li>{@code THREAD} - one {@link ConnectionThread} per client, blocking on read (default).</li>
+ *     <li>{@code SELECTOR} - every client multiplexed on one of a few non-blocking {@link EventLoop}s, fed by an accepting thread.</li>
+ *     <li>{@code VIRTUAL} - the blocking {@link ConnectionThread} loop, run on one virtual thread per client (JDK 21).</li>
+ * </ul>
+ */
+public enum ServerMode {
+    THREAD,
+    SELECTOR,
+    VIRTUAL;
+
+    /**
+     * Parses a mode from a command-line argument, ignoring case.
+     *
+     * @param arg the command-line argument (ex : "selector").
+     * @return the matching server mode.
+     * @throws IllegalArgumentException if the argument does not match any mode.
+     */
+    public static ServerMode fromArg(String arg) {
+        return ServerMode.valueOf(arg.trim().toUpperCase());
+    }
+}
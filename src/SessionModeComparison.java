@@ -0,0 +1,235 @@
+/**
+ * Compares the {@link ServerMode} execution models of {@link TCPMultiServer} under many concurrent connections.
+ *
+ * <p>The tool starts the server in-process, opens the requested number of client connections, then reports:</p>
+ * <ul>
+ *     <li>the live platform thread count and the heap used once every session is connected (after a GC),</li>
+ *     <li>the echo throughput (round trips per second) when every connection sends messages concurrently.</li>
+ * </ul>
+ *
+ * <p>Usage: `java SessionModeComparison <port> <thread|selector|virtual> <connections> <messages per connection>
+ * [client processes]`</p>
+ *
+ * <p>The server logs are discarded while measuring so the console speed doesn't hide the session model cost.
+ * Each connection costs two file descriptors when the clients run in the same process as the server : raise the
+ * open files limit (ulimit -n) above twice the number of connections, or open the connections from separate
+ * client processes, which only share the server's limit with their own.</p>
+ *
+ * <p>The clients send the help command, which is echoed but not broadcast : the run measures the session model,
+ * not the chat fan-out to every other connection.</p>
+ */
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SessionModeComparison {
+    private static final int systemShutdown = 1;
+    private static final int maxBufSize = 1024;
+    private static final int clientWorkers = 8;   // Threads sharing the client connections during the throughput run
+    private static final int startupDelay = 500;   // Time given to the server to bind its port (ms)
+    private static final int bytesToMegabytes = 1024 * 1024;
+
+    // Protocol between the tool and its client processes, one line each
+    private static final String clientProcessArg = "--clients";
+    private static final String readyLine = "connected";
+    private static final String startLine = "start\n";
+    private static final String doneLine = "done";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 4 && args[0].equals(clientProcessArg)) {
+            runClientProcess(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            return;
+        }
+        // Parses command-line args
+        if (args.length < 4){
+            System.err.println("Usage: java SessionModeComparison <port> <thread|selector|virtual> <connections> <messages per connection> [client processes]");
+            System.exit(systemShutdown);
+        }
+        int port = Integer.parseInt(args[0]);
+        ServerMode mode = ServerMode.fromArg(args[1]);
+        int connections = Integer.parseInt(args[2]);
+        int messages = Integer.parseInt(args[3]);
+        int clientProcesses = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        // Silence the server logs, results go to the original console
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        TCPMultiServer server = new TCPMultiServer(port, mode);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.launch();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        Thread.sleep(startupDelay);
+
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        // Open every connection and keep it idle
+        List<Socket> sockets = new ArrayList<>();
+        List<Process> clients = new ArrayList<>();
+        List<BufferedReader> clientOutputs = new ArrayList<>();
+        long connectStart = System.nanoTime();
+        if (clientProcesses == 0) {
+            sockets = openConnections(port, connections);
+        } else {
+            for (int p = 0; p < clientProcesses; p++) {
+                Process client = startClientProcess(port, connections / clientProcesses + (p < connections % clientProcesses ? 1 : 0), messages);
+                clients.add(client);
+                clientOutputs.add(new BufferedReader(new InputStreamReader(client.getInputStream())));
+            }
+            for (BufferedReader clientOutput : clientOutputs) {
+                awaitLine(clientOutput, readyLine);
+            }
+        }
+        long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+        // Let the server register all the sessions
+        Thread.sleep(startupDelay);
+
+        long heapIdle = usedHeap();
+        int threadsIdle = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        // Every connection sends its messages, spread over a few client threads
+        long runStart = System.nanoTime();
+        if (clientProcesses == 0) {
+            sendMessages(sockets, messages);
+        } else {
+            for (Process client : clients) {
+                client.getOutputStream().write(startLine.getBytes());
+                client.getOutputStream().flush();
+            }
+            for (BufferedReader clientOutput : clientOutputs) {
+                awaitLine(clientOutput, doneLine);
+            }
+        }
+        long runNanos = System.nanoTime() - runStart;
+        long roundTrips = (long) connections * messages;
+
+        // Shut the server down
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        for (Process client : clients) {
+            client.waitFor();
+        }
+        server.close();
+        serverThread.join();
+        System.setOut(console);
+
+        console.printf("mode=%s connections=%d%n", mode, connections);
+        console.printf("  connect time        : %d ms%n", connectMillis);
+        console.printf("  platform threads    : %d -> %d%n", threadsBefore, threadsIdle);
+        console.printf("  heap used (idle)    : %d MB -> %d MB%n", heapBefore / bytesToMegabytes, heapIdle / bytesToMegabytes);
+        console.printf("  echo throughput     : %.0f msg/s (%d round trips)%n", roundTrips / (runNanos / 1e9), roundTrips);
+        System.exit(0);
+    }
+
+    /**
+     * Opens client connections and keeps them idle.
+     *
+     * @return the connected sockets.
+     */
+    private static List<Socket> openConnections(int port, int connections) throws Exception {
+        List<Socket> sockets = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            sockets.add(new Socket("localhost", port));
+        }
+        return sockets;
+    }
+
+    /**
+     * Sends messages over every connection at once, spread over a few client threads, and waits for the echoes.
+     */
+    private static void sendMessages(List<Socket> sockets, int messages) throws InterruptedException {
+        byte[] message = FrameCodec.encode("?");
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < clientWorkers; w++) {
+            final int first = w;
+            Thread worker = new Thread(() -> {
+                byte[] buf = new byte[maxBufSize];
+                try {
+                    for (int m = 0; m < messages; m++) {
+                        for (int i = first; i < sockets.size(); i += clientWorkers) {
+                            Socket socket = sockets.get(i);
+                            OutputStream output = socket.getOutputStream();
+                            InputStream input = socket.getInputStream();
+                            output.write(message);
+                            output.flush();
+                            input.read(buf);
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("Client worker error: " + e.getMessage());
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Starts a JVM opening a share of the connections, from the same classes as this one.
+     */
+    private static Process startClientProcess(int port, int connections, int messages) throws Exception {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "SessionModeComparison",
+                clientProcessArg, String.valueOf(port), String.valueOf(connections), String.valueOf(messages))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    /**
+     * Waits for a client process to print a line.
+     */
+    private static void awaitLine(BufferedReader clientOutput, String expected) throws Exception {
+        String line;
+        while ((line = clientOutput.readLine()) != null && !line.equals(expected)) {
+            // Skip anything else the client printed
+        }
+        if (line == null) {
+            throw new IllegalStateException("Client process exited before printing " + expected);
+        }
+    }
+
+    /**
+     * Client side of a run spread over processes : connects, tells the parent, waits for it to start the
+     * messages, then tells it once every echo came back.
+     */
+    private static void runClientProcess(int port, int connections, int messages) throws Exception {
+        List<Socket> sockets = openConnections(port, connections);
+        System.out.println(readyLine);
+        System.out.flush();
+        new BufferedReader(new InputStreamReader(System.in)).readLine();
+        sendMessages(sockets, messages);
+        System.out.println(doneLine);
+        System.out.flush();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Returns the heap used after requesting a garbage collection.
+     *
+     * @return the used heap in bytes.
+     */
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Registry of the connected sessions of a {@link TCPMultiServer}, to find, message or disconnect a client.
+ *
+ * <p>Sessions are indexed by session id and by remote address in two {@link ConcurrentHashMap}s : lookups
+ * are O(1) and lock-free, registration and removal only lock the hash bin they touch, so accept and
+ * disconnect churn from many threads never contends on a global lock. Iterations see a weakly consistent
+ * view : sessions added or removed meanwhile may or may not be seen, and nothing is ever locked.</p>
+ *
+ * <p>The registry is also published as a JMX MBean ({@link SessionRegistryMBean}) while the server runs.</p>
+ */
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class SessionRegistry implements SessionRegistryMBean {
+    /**
+     * A registered session : its id, remote address and chat member.
+     */
+    public static final class Session {
+        private final long sessionId;
+        private final InetSocketAddress remoteAddress;
+        private final ChatMember member;
+
+        private Session(long sessionId, InetSocketAddress remoteAddress, ChatMember member) {
+            this.sessionId = sessionId;
+            this.remoteAddress = remoteAddress;
+            this.member = member;
+        }
+
+        public long getSessionId() {
+            return sessionId;
+        }
+
+        public InetSocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        public ChatMember getMember() {
+            return member;
+        }
+
+        @Override
+        public String toString() {
+            return sessionId + " " + member.getClientID();
+        }
+    }
+
+    private static final String domain = "chat";
+
+    private final ConcurrentHashMap<Long, Session> sessionsById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetSocketAddress, Session> sessionsByAddress = new ConcurrentHashMap<>();
+    private final AtomicLong nextSessionId = new AtomicLong(1);
+
+    private ObjectName objectName;
+
+    /**
+     * Reserves a new session id, before the session is created.
+     *
+     * @return a unique id, never reused by this registry.
+     */
+    public long newSessionId() {
+        return nextSessionId.getAndIncrement();
+    }
+
+    /**
+     * Adds a session.
+     *
+     * @param sessionId the id from {@link #newSessionId()}.
+     * @param remoteAddress the client address and port.
+     * @param member the session.
+     */
+    public void add(long sessionId, InetSocketAddress remoteAddress, ChatMember member) {
+        Session session = new Session(sessionId, remoteAddress, member);
+        sessionsById.put(sessionId, session);
+        sessionsByAddress.put(remoteAddress, session);
+    }
+
+    /**
+     * Removes a session. Safe to call several times.
+     *
+     * @param sessionId the id of the session.
+     */
+    public void remove(long sessionId) {
+        Session session = sessionsById.remove(sessionId);
+        if (session != null) {
+            // Only if the address was not reused by a newer session meanwhile
+            sessionsByAddress.remove(session.remoteAddress, session);
+        }
+    }
+
+    /**
+     * Finds a session by id.
+     *
+     * @param sessionId the session id.
+     * @return the session, or {@code null} if not connected.
+     */
+    public Session find(long sessionId) {
+        return sessionsById.get(sessionId);
+    }
+
+    /**
+     * Finds a session by remote address.
+     *
+     * @param remoteAddress the client address and port.
+     * @return the session, or {@code null} if not connected.
+     */
+    public Session findByAddress(InetSocketAddress remoteAddress) {
+        return sessionsByAddress.get(remoteAddress);
+    }
+
+    /**
+     * Gets a weakly consistent view of the sessions, for broadcasts and admin tools.
+     *
+     * @return the registered sessions.
+     */
+    public Collection<Session> sessions() {
+        return sessionsById.values();
+    }
+
+    /**
+     * Sends a chat line to one session.
+     *
+     * @param sessionId the session to message.
+     * @param message the message.
+     * @return {@code true} if the session exists.
+     */
+    @Override
+    public boolean sendMessage(long sessionId, String message) {
+        Session session = sessionsById.get(sessionId);
+        if (session == null) {
+            return false;
+        }
+        byte[] frame = FrameCodec.encode("Server says : " + message);
+        if (session.member.isCompressed()) {
+            frame = PayloadCompressor.shared.encode(WireProtocol.opcodeChat, 0, frame, 0, frame.length - 1);
+        } else if (session.member.isBinary()) {
+            frame = WireProtocol.encode(WireProtocol.opcodeChat, 0, frame, 0, frame.length - 1);
+        }
+        session.member.deliver(frame);
+        return true;
+    }
+
+    /**
+     * Disconnects one session. It is removed when its disconnection completes.
+     *
+     * @param sessionId the session to disconnect.
+     * @return {@code true} if the session exists.
+     */
+    @Override
+    public boolean killSession(long sessionId) {
+        Session session = sessionsById.get(sessionId);
+        if (session == null) {
+            return false;
+        }
+        AsyncLogger.shared.info("Disconnecting client " + session.member.getClientID() + " (session " + sessionId + ")");
+        session.member.disconnect();
+        return true;
+    }
+
+    @Override
+    public int getSessionCount() {
+        return sessionsById.size();
+    }
+
+    @Override
+    public String[] listSessions() {
+        List<String> lines = new ArrayList<>();
+        for (Session session : sessionsById.values()) {
+            lines.add(session.toString());
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    /**
+     * Publishes the registry on the platform MBean server. A failure is logged, never thrown.
+     *
+     * @param serverName the server class name, used in the MBean name.
+     * @param port the server port, used in the MBean name.
+     */
+    public synchronized void register(String serverName, int port) {
+        try {
+            ObjectName name = new ObjectName(domain + ":type=Sessions,server=" + serverName + ",port=" + port);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (JMException e) {
+            AsyncLogger.shared.warn("Sessions not published over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the registry from the platform MBean server, when the server closes.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            AsyncLogger.shared.warn("Sessions not unpublished from JMX: " + e.getMessage());
+        }
+        objectName = null;
+    }
+}
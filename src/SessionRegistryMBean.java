@@ -0,0 +1,30 @@
+/**
+ * JMX administration of the sessions of a {@link TCPMultiServer} : list, message or disconnect a client.
+ */
+public interface SessionRegistryMBean {
+    int getSessionCount();
+
+    /**
+     * Lists the connected sessions.
+     *
+     * @return one "id address" line per session.
+     */
+    String[] listSessions();
+
+    /**
+     * Sends a message to one session, as a chat line from the server.
+     *
+     * @param sessionId the session to message.
+     * @param message the message.
+     * @return {@code true} if the session exists.
+     */
+    boolean sendMessage(long sessionId, String message);
+
+    /**
+     * Disconnects one session.
+     *
+     * @param sessionId the session to disconnect.
+     * @return {@code true} if the session exists.
+     */
+    boolean killSession(long sessionId);
+}
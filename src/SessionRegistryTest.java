@@ -0,0 +1,115 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code SessionRegistry}.
+ */
+class SessionRegistryTest {
+    private final int threads = 8;
+    private final int sessionsPerThread = 5000;
+
+    // Member keeping the frames it receives
+    private static class TestMember implements ChatMember {
+        private final String clientID;
+        private final List<byte[]> frames = new ArrayList<>();
+        private boolean disconnected = false;
+
+        TestMember(String clientID) {
+            this.clientID = clientID;
+        }
+
+        @Override
+        public String getClientID() {
+            return clientID;
+        }
+
+        @Override
+        public void deliver(byte[] frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void disconnect() {
+            disconnected = true;
+        }
+    }
+
+    @Test
+    void testLookupByIdAndAddress() {
+        SessionRegistry registry = new SessionRegistry();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 1001);
+        TestMember member = new TestMember("/127.0.0.1:1001");
+        long sessionId = registry.newSessionId();
+
+        registry.add(sessionId, address, member);
+        assertSame(member, registry.find(sessionId).getMember());
+        assertSame(member, registry.findByAddress(address).getMember());
+        assertEquals(1, registry.getSessionCount());
+
+        registry.remove(sessionId);
+        registry.remove(sessionId);
+        assertNull(registry.find(sessionId));
+        assertNull(registry.findByAddress(address));
+        assertEquals(0, registry.getSessionCount());
+    }
+
+    @Test
+    void testRemovingOldSessionKeepsReusedAddress() {
+        SessionRegistry registry = new SessionRegistry();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", 1001);
+        long oldSession = registry.newSessionId();
+        long newSession = registry.newSessionId();
+        registry.add(oldSession, address, new TestMember("old"));
+        TestMember newMember = new TestMember("new");
+        registry.add(newSession, address, newMember);
+
+        registry.remove(oldSession);
+        assertSame(newMember, registry.findByAddress(address).getMember());
+    }
+
+    @Test
+    void testMessageAndKill() {
+        SessionRegistry registry = new SessionRegistry();
+        TestMember member = new TestMember("/127.0.0.1:1001");
+        long sessionId = registry.newSessionId();
+        registry.add(sessionId, new InetSocketAddress("127.0.0.1", 1001), member);
+
+        assertTrue(registry.sendMessage(sessionId, "hello"));
+        assertEquals("Server says : hello\n", new String(member.frames.get(0)));
+        assertTrue(registry.killSession(sessionId));
+        assertTrue(member.disconnected);
+        assertFalse(registry.killSession(registry.newSessionId()));
+    }
+
+    @Test
+    void testConcurrentChurn() throws InterruptedException {
+        SessionRegistry registry = new SessionRegistry();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int port = t * sessionsPerThread;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < sessionsPerThread; i++) {
+                    long sessionId = registry.newSessionId();
+                    InetSocketAddress address = new InetSocketAddress("127.0.0.1", (port + i) % 65535 + 1);
+                    registry.add(sessionId, address, new TestMember(address.toString()));
+                    // Keep every other session
+                    if (i % 2 == 0) {
+                        registry.remove(sessionId);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * sessionsPerThread / 2, registry.getSessionCount());
+        assertEquals(registry.getSessionCount(), registry.listSessions().length);
+    }
+}
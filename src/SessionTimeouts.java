@@ -0,0 +1,176 @@
+/**
+ * Idle and read timeouts of one client session, driven by the shared {@link IdleTimer}.
+ *
+ * <ul>
+ *     <li>Idle timeout : no complete message received from the client for the whole period.</li>
+ *     <li>Read timeout : a message was started but no byte of it arrived for the whole period
+ *     (a client stalled in the middle of a line).</li>
+ * </ul>
+ *
+ * <p>Either one disconnects the session. The session calls {@link #start()} once it is ready to be disconnected,
+ * {@link #onRead()} and {@link #onMessage()} from its read path, which only records the activity, and
+ * {@link #cancel()} when it ends.</p>
+ *
+ * <p>A third timeout watches the session's {@link OutboundQueue} : a client whose queue stays above its
+ * high watermark for the whole write stall period no longer reads, and is disconnected too.</p>
+ *
+ * <p>The idle timeout is disabled by default. The servers started from the command line read it from the
+ * {@code chat.idle.timeout} system property (ms).</p>
+ */
+import java.util.function.IntSupplier;
+
+public class SessionTimeouts {
+    private static final String idleTimeoutProperty = "chat.idle.timeout";
+
+    private final String clientID;
+    private final IntSupplier pendingBytes;
+    private final Runnable disconnect;
+    private final long idleMillis;
+    private final long readMillis;
+    private volatile IdleTimer.Timeout idleTimeout;
+    private volatile IdleTimer.Timeout readTimeout;
+
+    // Write stall timeout, running only while the outbound queue is unwritable
+    private final IdleTimer timer;
+    private volatile IdleTimer.Timeout writeTimeout;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates the timeouts of a session, scheduled by {@link #start()}.
+     *
+     * @param timer the timing wheel.
+     * @param idleMillis the idle timeout, 0 to disable it.
+     * @param readMillis the read timeout, 0 to disable it.
+     * @param clientID the client identifier, for the logs.
+     * @param frameCodec the session decoder, telling if a message is partly received.
+     * @param disconnect ends the session, called from the timer thread.
+     */
+    public SessionTimeouts(IdleTimer timer, long idleMillis, long readMillis, String clientID, FrameCodec frameCodec, Runnable disconnect) {
+        this(timer, idleMillis, readMillis, clientID, frameCodec::pendingBytes, disconnect);
+    }
+
+    /**
+     * Creates the timeouts of a session, scheduled by {@link #start()}.
+     *
+     * @param timer the timing wheel.
+     * @param idleMillis the idle timeout, 0 to disable it.
+     * @param readMillis the read timeout, 0 to disable it.
+     * @param clientID the client identifier, for the logs.
+     * @param pendingBytes the bytes of a message partly received by the session decoder.
+     * @param disconnect ends the session, called from the timer thread.
+     */
+    public SessionTimeouts(IdleTimer timer, long idleMillis, long readMillis, String clientID, IntSupplier pendingBytes, Runnable disconnect) {
+        this.timer = timer;
+        this.clientID = clientID;
+        this.pendingBytes = pendingBytes;
+        this.disconnect = disconnect;
+        this.idleMillis = idleMillis;
+        this.readMillis = readMillis;
+    }
+
+    /**
+     * Gets the idle timeout set by the {@code chat.idle.timeout} system property.
+     *
+     * @return the timeout (ms), 0 (disabled) when the property is not set.
+     */
+    public static long configuredIdleTimeout() {
+        return Long.getLong(idleTimeoutProperty, 0);
+    }
+
+    /**
+     * Schedules the idle and read timeouts.
+     *
+     * @return this, for chaining with the constructor.
+     */
+    public SessionTimeouts start() {
+        idleTimeout = idleMillis > 0 ? timer.schedule(idleMillis, this::onIdle) : null;
+        readTimeout = readMillis > 0 ? timer.schedule(readMillis, this::onReadStalled) : null;
+        return this;
+    }
+
+    /**
+     * Records that bytes were read from the client.
+     */
+    public void onRead() {
+        IdleTimer.Timeout current = readTimeout;
+        if (current != null) {
+            current.touch();
+        }
+    }
+
+    /**
+     * Records that a complete message was received from the client.
+     */
+    public void onMessage() {
+        IdleTimer.Timeout current = idleTimeout;
+        if (current != null) {
+            current.touch();
+        }
+    }
+
+    /**
+     * Disconnects the session if its outbound queue stays unwritable for too long. The timeout starts when the
+     * queue crosses its high watermark and stops when it is back to its low watermark.
+     *
+     * @param queue the outbound queue of the session, whose writability listener this becomes.
+     * @param stallMillis the write stall timeout, 0 to disable it.
+     */
+    public void watchWritability(OutboundQueue queue, long stallMillis) {
+        if (stallMillis <= 0) {
+            return;
+        }
+        // Called under the queue lock, the changes never overlap
+        queue.setWritabilityListener(writable -> {
+            IdleTimer.Timeout current = writeTimeout;
+            if (current != null) {
+                current.cancel();
+                writeTimeout = null;
+            }
+            if (!writable && !cancelled) {
+                writeTimeout = timer.schedule(stallMillis, this::onWriteStalled);
+            }
+        });
+    }
+
+    /**
+     * Stops every timeout, when the session ends.
+     */
+    public void cancel() {
+        cancelled = true;
+        IdleTimer.Timeout current = writeTimeout;
+        if (current != null) {
+            current.cancel();
+        }
+        current = idleTimeout;
+        if (current != null) {
+            current.cancel();
+        }
+        current = readTimeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    private void onIdle() {
+        AsyncLogger.shared.info("Client " + clientID + " idle for too long, disconnecting.");
+        cancel();
+        disconnect.run();
+    }
+
+    private void onReadStalled() {
+        // Nothing started : the idle timeout is in charge, check again one period later
+        if (pendingBytes.getAsInt() == 0) {
+            readTimeout.touch();
+            return;
+        }
+        AsyncLogger.shared.info("Client " + clientID + " stalled in the middle of a message, disconnecting.");
+        cancel();
+        disconnect.run();
+    }
+
+    private void onWriteStalled() {
+        AsyncLogger.shared.warn("Client " + clientID + " stopped reading its messages, disconnecting.");
+        cancel();
+        disconnect.run();
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * What a chat room does when a recipient's outbound queue is full.
+ *
+ * <ul>
+ *     <li>{@code DROP} - the message is not delivered to that recipient (default).</li>
+ *     <li>{@code DISCONNECT} - the recipient is disconnected.</li>
+ *     <li>{@code BLOCK} - the sender waits until the recipient's queue has room. Lossless, but a slow client
+ *     then slows its senders down. Sessions running on an event loop cannot wait and are disconnected instead.</li>
+ * </ul>
+ */
+public enum SlowConsumerPolicy {
+    DROP,
+    DISCONNECT,
+    BLOCK;
+
+    /**
+     * Parses a policy from a command-line argument, ignoring case.
+     *
+     * @param arg the command-line argument (ex : "drop").
+     * @return the matching policy.
+     * @throws IllegalArgumentException if the argument does not match any policy.
+     */
+    public static SlowConsumerPolicy fromArg(String arg) {
+        return SlowConsumerPolicy.valueOf(arg.trim().toUpperCase());
+    }
+}
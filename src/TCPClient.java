@@ -2,7 +2,7 @@
  * A TCP client that connects to a server, sends messages, and receives echoes.
  * The client supports interactive console input and handles specific commands to control the connection.
  *
- * <p>Usage: `java TCPClient <address> <port>`</p>
+ * <p>Usage: `java TCPClient <address> <port> [window] [binary|compress]`</p>
  *
  * <p>Supported commands:</p>
  * <ul>
@@ -10,12 +10,29 @@
  *     <li>`exit console` - Closes the client console and disconnects from the server.</li>
  *     <li>`close server` - Requests the server to shut down.</li>
  * </ul>
+ *
+ * <p>By default the client waits for the echo of each message before sending the next one. With a window
+ * above 1, a writer keeps up to that many messages in flight while a reader thread matches the echoes to
+ * them in order : throughput is no longer capped at one message per round trip, which suits high-latency
+ * links and bulk sends (input piped when there is no console). The round trip time of each message is
+ * displayed with its echo in both modes.</p>
+ *
+ * <p>In binary mode, the client opens the session with a hello frame and speaks the {@link WireProtocol} :
+ * each message is a frame whose opcode tells the commands from the chat messages, and the server answers
+ * with an acknowledgement carrying the sequence number of the message instead of the echo line. The
+ * compress mode also offers compression in the hello frame : if the server accepts, the payloads long
+ * enough are deflated ({@link PayloadCompressor}) both ways.</p>
  */
+import java.io.BufferedReader;
 import java.io.Console;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class TCPClient {
     private String serverHost;
@@ -23,9 +40,43 @@ public class TCPClient {
 
     //  Configuration constants
     private final int maxBufSize = 1024;
+    private final int maxFrameSize = 64 * 1024 + WireProtocol.headerLength;   // History frames hold up to 64 KB
     private static final int systemShutdown = 1;
     private boolean clientConnected = true;
 
+    // Rebuilds the echo messages from the byte stream, text lines or binary frames
+    private final WireCodec wireCodec = new WireCodec(maxFrameSize);
+    private final WireCodec.MessageHandler echoHandler = this::handleServerMessage;
+    private String receivedEcho;
+
+    // Binary protocol : sequence number of the next message, and the lines of the history frames
+    private boolean binary = false;
+    private boolean helloReceived = false;
+    private boolean compression = false;   // Compression offered in the hello frame
+    private boolean compressed = false;   // Compression accepted by the server
+    private int nextSequence = 1;
+    private int lastAcked = 0;
+    private final FrameCodec historyCodec = new FrameCodec(maxFrameSize);
+    private final FrameCodec.FrameHandler historyHandler =
+            (frame, offset, length) -> System.out.println(FrameCodec.toString(frame, offset, length));
+
+    // Echo sent by the server for each message, other messages come from the other clients
+    private final String echo = "Message received";
+
+    // Messages sent without waiting for their echo (1 : stop-and-wait)
+    private int window = 1;
+    private final long nanosToMicros = 1000;
+    private final int drainTimeout = 5000;   // Time given to the last echoes after a closing command (ms)
+
+    // Input source : the console, or the standard input when there is none
+    private Console console;
+    private BufferedReader inputReader;
+
+    // Send times of the messages waiting for their echo, oldest first, and their round trip times
+    private ArrayBlockingQueue<Long> inFlight;
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+    private long sendTime;
+
     /**
      * Creates a TCPClient instance with the specified server host and port.
      *
@@ -37,6 +88,36 @@ public class TCPClient {
         this.serverPort = serverPort;
     }
 
+    /**
+     * Sets the number of messages sent without waiting for their echo. Must be called before {@link #send()}.
+     *
+     * @param window the maximum number of messages in flight, 1 for stop-and-wait.
+     */
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    /**
+     * Selects the binary {@link WireProtocol} instead of text lines. Must be called before {@link #send()}.
+     *
+     * @param binary {@code true} to open a binary session.
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Offers compression to the server, in binary mode. Must be called before {@link #send()}.
+     *
+     * @param compression {@code true} to deflate the long payloads if the server accepts.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+        if (compression) {
+            this.binary = true;
+        }
+    }
+
     /**
      * Connects to the server, sends user input, and receives echoes from the server.
      *
@@ -50,74 +131,253 @@ public class TCPClient {
      * @throws Exception if there is an error in the socket connection or communication.
      */
     public void send() throws Exception {
-        Socket socket = new Socket(this.serverHost,this.serverPort);
+        // Retrieve the system console, or read the lines piped on the standard input
+        console = System.console();
+        if (console == null) {
+            inputReader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
 
-        // Retrieve the system console
-        Console console = System.console();
+        try (Socket socket = new Socket(this.serverHost,this.serverPort)) {
+            // Socket streams, fetched once for the whole session
+            OutputStream outputStream = socket.getOutputStream();
+            InputStream inputStream = socket.getInputStream();
+            if (binary) {
+                sayHello(outputStream, inputStream);
+            }
 
-        // Handle absence of console (e.g., running in an environment without console support)
-        if (console == null) {
-            System.err.println("No console available.");
-            System.exit(systemShutdown);
+            if (window > 1) {
+                // Small frames must leave at once, not wait for the previous echoes
+                socket.setTcpNoDelay(true);
+                sendPipelined(socket, outputStream, inputStream);
+            } else {
+                sendAndWait(outputStream, inputStream);
+            }
+        }
+        if (roundTrips.getCount() > 0) {
+            System.out.printf("%d echoes, round trip (us) : p50=%d p99=%d max=%d%n", roundTrips.getCount(),
+                    roundTrips.getValueAtPercentile(50) / nanosToMicros,
+                    roundTrips.getValueAtPercentile(99) / nanosToMicros, roundTrips.getMax() / nanosToMicros);
+        }
+        System.out.println("Console closed\n");
+    }
+
+    /**
+     * Opens a binary session : sends the hello frame and waits for the hello of the server.
+     */
+    private void sayHello(OutputStream outputStream, InputStream inputStream) throws IOException {
+        outputStream.write(WireProtocol.encodeHello(0, compression));
+        outputStream.flush();
+
+        byte[] buf = new byte[maxBufSize];
+        while (!helloReceived) {
+            int byteRead = inputStream.read(buf);
+            if (byteRead == -1) {
+                throw new IOException("Connection closed by the server");
+            }
+            wireCodec.decode(buf, 0, byteRead, echoHandler);
         }
+    }
 
+    /**
+     * Encodes an input line : a newline-delimited UTF-8 frame, or in binary mode a frame with the opcode of
+     * the command, if any, and only the command argument as payload.
+     */
+    private byte[] encode(String userInput) {
+        if (!binary) {
+            return FrameCodec.encode(userInput);
+        }
+        return WireCodec.encodeLine(userInput, nextSequence++, compressed);
+    }
+
+    /**
+     * Stop-and-wait session : sends one message, then waits for its echo.
+     */
+    private void sendAndWait(OutputStream outputStream, InputStream inputStream) throws IOException {
         // Buffer for receiving server echo messages
         byte[] buf = new byte[maxBufSize];
 
         // Client's session loop
         while(clientConnected){
-            // Prompt the user for input
-            String userInput = console.readLine("Enter a message or '?' for help : ");
+            String userInput = readInput();
 
-            // CTRL+D corresponds to en end-of-input (EOF), console.readLine() returns null
-            if (userInput==null){
-                // Treat CTRL+D as "exit console"
-                userInput = "exit console";
+            // Send data to the server, encoded as a newline-delimited UTF-8 frame or a binary frame
+            sendTime = System.nanoTime();
+            outputStream.write(encode(userInput));
+            outputStream.flush();
+
+            // Receive the server's response (echo), possibly split over several reads
+            receivedEcho = null;
+            while (receivedEcho == null) {
+                int byteRead = inputStream.read(buf);
+                // Server closed the connection before answering
+                if (byteRead == -1) {
+                    break;
+                }
+                wireCodec.decode(buf, 0, byteRead, echoHandler);
+            }
+            if (receivedEcho == null) {
+                System.out.println("Connection closed by the server");
+                clientConnected = false;
             }
 
-            // Encodes user's input as bytes in UTF-8
-            byte[] data = userInput.getBytes(StandardCharsets.UTF_8);
+            handleCommand(userInput);
+        }
+    }
 
-            // Send data to the server
-            OutputStream outputStream = socket.getOutputStream();
-            outputStream.write(data);
+    /**
+     * Pipelined session : the calling thread sends while a reader thread receives the echoes.
+     */
+    private void sendPipelined(Socket socket, OutputStream outputStream, InputStream inputStream) throws Exception {
+        inFlight = new ArrayBlockingQueue<>(window);
+        Thread reader = new Thread(() -> readEchoes(inputStream), "tcp-client-reader");
+        reader.start();
+
+        while (clientConnected) {
+            String userInput = readInput();
+
+            // Wait for a free slot in the window, the send time is queued before the message can be echoed
+            while (!inFlight.offer(System.nanoTime(), drainTimeout, TimeUnit.MILLISECONDS)) {
+                if (!reader.isAlive()) {
+                    throw new IOException("Connection closed by the server");
+                }
+            }
+            outputStream.write(encode(userInput));
             outputStream.flush();
 
-            // Receive the server's response (echo)
-            InputStream inputStream = socket.getInputStream();
-            int byteRead = inputStream.read(buf);
-            String receivedEcho = new String(buf, StandardCharsets.UTF_8);
-            System.out.println("server echo : " + receivedEcho);
-            // WIP : handle when no echo received
-
-            // Handle help panel display
-            if (userInput.trim().equalsIgnoreCase("?")){
-                System.out.println(">> Press CTRL+D or type 'exit console' to quit console\n" );
-                System.out.println(">> type 'close server' to disconnect the server\n");
+            handleCommand(userInput);
+        }
+
+        // The server closes the connection after a closing command : give the last echoes some time
+        reader.join(drainTimeout);
+        socket.close();
+        reader.join();
+    }
+
+    /**
+     * Reader thread loop of the pipelined mode : decodes the server's frames until the connection ends.
+     */
+    private void readEchoes(InputStream inputStream) {
+        byte[] buf = new byte[maxBufSize];
+        try {
+            int byteRead;
+            while ((byteRead = inputStream.read(buf)) != -1) {
+                wireCodec.decode(buf, 0, byteRead, echoHandler);
             }
+        } catch (IOException e) {
+            // Socket closed by the writer
+        }
+        if (!inFlight.isEmpty()) {
+            System.out.println(inFlight.size() + " messages without echo");
+        }
+    }
 
-            // Handle console and server closure
-            if (userInput.trim().equalsIgnoreCase("exit console") || userInput.trim().equalsIgnoreCase("close server")){
-                System.out.println("Closing console...\n");
-                clientConnected = false;
+    /**
+     * Reads the next input line, {@code null} (CTRL+D) counting as "exit console".
+     */
+    private String readInput() throws IOException {
+        // Prompt the user for input
+        String userInput = console != null
+                ? console.readLine("Enter a message or '?' for help : ")
+                : inputReader.readLine();
+
+        // CTRL+D corresponds to en end-of-input (EOF), readLine() returns null
+        if (userInput==null){
+            // Treat CTRL+D as "exit console"
+            userInput = "exit console";
+        }
+        return userInput;
+    }
+
+    /**
+     * Handles the client side of the commands : help display and console closure.
+     */
+    private void handleCommand(String userInput) {
+        // Handle help panel display
+        if (userInput.trim().equalsIgnoreCase("?")){
+            System.out.println(">> Press CTRL+D or type 'exit console' to quit console\n" );
+            System.out.println(">> type 'close server' to disconnect the server\n");
+            System.out.println(">> type 'history [<count> | from <sequence>]' to display the past messages (TCPMultiServer with a journal)\n");
+        }
+
+        // Handle console and server closure
+        if (userInput.trim().equalsIgnoreCase("exit console") || userInput.trim().equalsIgnoreCase("close server")){
+            System.out.println("Closing console...\n");
+            clientConnected = false;
+        }
+    }
+
+    /**
+     * Handles a message decoded from the server's byte stream : keeps the echo of the last message sent,
+     * and displays the messages of the other clients and the history received in the meantime.
+     *
+     * @param opcode the message opcode, {@link WireProtocol#opcodeChat} for a text line.
+     * @param flags the frame flags.
+     * @param sequence the sequence number of the acknowledged message.
+     * @param data the buffer holding the message.
+     * @param offset the start of the message.
+     * @param length the message length.
+     */
+    private void handleServerMessage(int opcode, int flags, int sequence, byte[] data, int offset, int length) throws IOException {
+        String message;
+        switch (opcode) {
+            case WireProtocol.opcodeHello:
+                compressed = (flags & WireProtocol.flagDeflated) != 0;
+                helloReceived = true;
+                return;
+            case WireProtocol.opcodeHistory:
+                // Chunks of the journal, cut anywhere : split them back into lines
+                historyCodec.decode(data, offset, length, historyHandler);
+                return;
+            case WireProtocol.opcodeAck:
+                // A line longer than one frame is acknowledged once per frame, with the same sequence number
+                if (sequence == lastAcked) {
+                    return;
+                }
+                lastAcked = sequence;
+                message = echo + " #" + sequence;
+                break;
+            default:
+                message = FrameCodec.toString(data, offset, length);
+                if (!message.equals(echo)) {
+                    System.out.println(message);
+                    return;
+                }
+                break;
+        }
+
+        if (inFlight != null) {
+            // Pipelined : the server echoes in order, so this is the oldest message in flight
+            Long sent = inFlight.poll();
+            if (sent != null) {
+                printEcho(message, System.nanoTime() - sent);
             }
+        } else if (receivedEcho == null) {
+            receivedEcho = message;
+            printEcho(message, System.nanoTime() - sendTime);
         }
-        socket.close();
-        System.out.println("Console closed\n");
+    }
+
+    /**
+     * Displays an echo with the round trip time of its message.
+     */
+    private void printEcho(String message, long roundTrip) {
+        roundTrips.record(roundTrip);
+        System.out.println("server echo : " + message + " (" + roundTrip / nanosToMicros + " us)");
     }
 
     /**
      * Main method to start the TCP client.
      *
-     * <p>Usage: `java TCPClient <address> <port>`</p>
+     * <p>Usage: `java TCPClient <address> <port> [window] [binary|compress]`</p>
      *
-     * @param args command-line arguments containing the server address and port number.
+     * @param args command-line arguments containing the server address and port number, then optionally the window
+     *             and the binary protocol, with or without compression.
      * @throws Exception if there is an error initializing or running the client.
      */
     public static void main(String[] args) throws Exception {
         // Parses command-line args
         if (args.length < 2) {
-            System.err.println("Usage: java TCPClient <address> <port>");
+            System.err.println("Usage: java TCPClient <address> <port> [window] [binary|compress]");
             System.exit(systemShutdown);
         }
 
@@ -127,6 +387,16 @@ public class TCPClient {
 
         // Instance of TCP Client
         TCPClient clientTCP = new TCPClient(host,port);
+        // Optional number of messages in flight, and protocol
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("binary")) {
+                clientTCP.setBinary(true);
+            } else if (args[i].equalsIgnoreCase("compress")) {
+                clientTCP.setCompression(true);
+            } else {
+                clientTCP.setWindow(Integer.parseInt(args[i]));
+            }
+        }
         clientTCP.send();
     }
 }
@@ -4,7 +4,10 @@ import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -85,4 +88,59 @@ class TCPClientTest {
             fail("Client exit console test failed: " + e.getMessage());
         }
     }
+
+    @Test
+    void testPipelinedClientMatchesEveryEcho() {
+        try {
+            TCPClient client = new TCPClient("localhost", testPort);
+            client.setWindow(8);
+
+            // Simulate piped input : 20 messages sent without waiting for each echo
+            StringBuilder simulatedInput = new StringBuilder();
+            for (int i = 0; i < 20; i++) {
+                simulatedInput.append("message ").append(i).append('\n');
+            }
+            simulatedInput.append("exit console\n");
+            System.setIn(new ByteArrayInputStream(simulatedInput.toString().getBytes()));
+
+            // Capture console output
+            ByteArrayOutputStream consoleOutput = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(consoleOutput));
+
+            client.send();
+
+            String output = consoleOutput.toString();
+            assertTrue(output.contains("21 echoes"), "Every message, exit command included, should get its echo");
+            assertFalse(output.contains("without echo"));
+        } catch (Exception e) {
+            fail("Pipelined client test failed: " + e.getMessage());
+        }
+    }
+
+    @Test
+    void testClientStopsWhenServerClosesBeforeEcho() throws Exception {
+        // A server that hangs up on its client without answering
+        try (ServerSocket silentServer = new ServerSocket(testPort + 2)) {
+            Thread closer = new Thread(() -> {
+                try (Socket socket = silentServer.accept()) {
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    // The test fails on the client side
+                }
+            });
+            closer.start();
+
+            TCPClient client = new TCPClient("localhost", testPort + 2);
+            System.setIn(new ByteArrayInputStream("Hello, Server!\nsecond message\n".getBytes()));
+            ByteArrayOutputStream consoleOutput = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(consoleOutput));
+
+            client.send();
+            closer.join();
+
+            String output = consoleOutput.toString();
+            assertTrue(output.contains("Connection closed by the server"));
+            assertFalse(output.contains("null"));
+        }
+    }
 }
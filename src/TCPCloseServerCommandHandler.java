@@ -7,6 +7,9 @@ public class TCPCloseServerCommandHandler implements CommandHandler{
 
     @Override
     public void handle(String clientID, String receivedData){
-
+        AsyncLogger.shared.info("Client " + clientID + " requested server shutdown.");
+        AsyncLogger.shared.info("Server closing...\n");
+        connectionThread.getTcpMultiServer().serverConnected = false;
+        connectionThread.clientConnected = false;
     }
 }
@@ -7,7 +7,7 @@ public class TCPExitCommandHandler implements CommandHandler{
 
     @Override
     public void handle(String clientID,String receivedData){
-        System.out.println("Client " + clientID + " left the chat.\n");
+        AsyncLogger.shared.info("Client " + clientID + " left the chat.\n");
         connectionThread.clientConnected = false;
     }
 }
@@ -2,31 +2,84 @@
  * The {@code TCPMultiServer} class implements a multithreaded TCP server capable of handling
  * multiple client connections simultaneously. Each client connection is managed in its own thread.
  * The server listens for incoming connections and allows for configurable timeouts and interval reminders.
+ *
+ * <p>With {@link ServerMode#SELECTOR}, every client is instead multiplexed on non-blocking {@link Selector}
+ * event loops, so idle sessions cost a {@link NioSession} object rather than a thread : the calling thread
+ * accepts the connections and spreads them over a fixed set of {@link EventLoop}s, one per core by default,
+ * where each session stays until it closes.
+ * With {@link ServerMode#VIRTUAL}, each {@link ConnectionThread} keeps its blocking read/echo loop but
+ * runs on a virtual thread from a per-task executor instead of its own platform thread.</p>
+ *
+ * <p>In every mode, the chat messages of a client are broadcast to the other clients through a shared
+ * {@link ChatRoom}, on top of the echo sent back to the sender.</p>
+ *
+ * <p>With a {@link TlsContext}, the sessions of every mode are encrypted with TLS, and reconnecting clients resume
+ * their session from the server cache or their session ticket instead of a full handshake.</p>
+ *
+ * <p>Sessions, messages, bytes and handling latencies are counted in {@link ServerMetrics}, published over
+ * JMX while the server runs. Connected sessions are kept in a {@link SessionRegistry}, also published
+ * over JMX, to find, message or disconnect a particular client.</p>
  */
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TCPMultiServer {
     private int listeningPort;
-    private String serverState;
+    private volatile String serverState;
+    private ServerMode serverMode;
 
     // Constants for server behavior and settings
     private final int defaultPort = 0;
     private static final int systemShutdown = 1;
-    protected boolean serverConnected = true;
+    protected volatile boolean serverConnected = true;
 
-    // Track the number of active connection on the server
-    private int activeConnections = 0;
+    // Live counters, including the number of active connections on the server
+    private final ServerMetrics metrics = new ServerMetrics("TCPMultiServer");
     private final int noActiveConnections = 0;
 
+    // Connected sessions, by session id and by remote address
+    private final SessionRegistry sessions = new SessionRegistry();
+
+    // Per-session timeouts, driven by the shared IdleTimer (0 disables them)
+    private long idleTimeout = 0;   // No message from a client for that long (ms), disabled unless set
+    private long readTimeout = 30000;   // Message started but not finished for 30 s (30000 ms)
+
     // Timing variables for connection timeout and interval reminder
     private final int millisToSec = 1000;   // Milliseconds to seconds conversion factor
     private final int timeout = 60000;  // Timeout for client connection inactivity (1 minute = 60000 ms)
     private final int interval = 10000;  // Interval for reminding users of remaining connection time (10 seconds)
-    private long lastActivityTime = System.currentTimeMillis();   // Set the last activity time as start time
+    private volatile long lastActivityTime = System.currentTimeMillis();   // Set the last activity time as start time
+
+    // Chat room settings : messages are broadcast to every other client through bounded queues
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP;
+    private int outboundQueueCapacity = 256;   // Frames waiting per client before the policy applies
+    private int lowWatermark = OutboundQueue.defaultLowWatermark;   // Bytes waiting per client when it is writable again
+    private int highWatermark = OutboundQueue.defaultHighWatermark;   // Bytes waiting per client before it pauses
+    private long writeStallTimeout = 30000;   // Client above its high watermark for 30 s (30000 ms)
+    private ChatRoom chatRoom;
+    private boolean sharedChatRoom = false;   // Room set by the caller, shared with other servers
+    private ChatJournal journal;   // Journal of the chat messages, none by default
+    private int historyLength = 20;   // Messages of the journal replayed to a new client
+    private boolean compression = true;   // Deflated payloads accepted when a binary client offers them
+    private final long helloTimeout = 200;   // Time given to a new client to open a binary session (ms)
+    private TlsContext tls;   // Encryption of the sessions, plaintext by default
+
+    // Selector mode reactor : one accepting thread, and I/O event loops each owning their sessions
+    private int eventLoopCount = Runtime.getRuntime().availableProcessors();
+    private LoopAssignment loopAssignment = LoopAssignment.ROUND_ROBIN;
+    private int nextLoop = 0;   // Round-robin position, only moved by the accepting thread
+    private volatile Selector acceptSelector;
 
     /**
      * Constructs a {@code TCPMultiServer} instance with a specified listening port.
@@ -34,7 +87,18 @@ public class TCPMultiServer {
      * @param listeningPort the port on which the server will listen for incoming connections.
      */
     public TCPMultiServer(int listeningPort) {
+        this(listeningPort, ServerMode.THREAD);
+    }
+
+    /**
+     * Constructs a {@code TCPMultiServer} instance with a specified listening port and execution mode.
+     *
+     * @param listeningPort the port on which the server will listen for incoming connections.
+     * @param serverMode the execution model used for the client sessions.
+     */
+    public TCPMultiServer(int listeningPort, ServerMode serverMode) {
         this.listeningPort = listeningPort;
+        this.serverMode = serverMode;
         this.serverState = "Closed";
     }
 
@@ -43,6 +107,7 @@ public class TCPMultiServer {
      */
     public TCPMultiServer() {
         this.listeningPort = defaultPort;
+        this.serverMode = ServerMode.THREAD;
         this.serverState = "Closed";
     }
 
@@ -56,66 +121,579 @@ public class TCPMultiServer {
     }
 
     /**
-     * Launches the server, starts listening for client connections, and handles each connection in a separate thread.
+     * Returns the execution model used for the client sessions.
+     *
+     * @return the server mode.
+     */
+    public ServerMode getServerMode() {
+        return serverMode;
+    }
+
+    /**
+     * Sets how the chat room treats clients that don't read their messages fast enough.
+     * Must be called before {@link #launch()}.
+     *
+     * @param slowConsumerPolicy the behavior when a client's outbound queue is full.
+     * @param outboundQueueCapacity the maximum number of messages queued per client.
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy, int outboundQueueCapacity) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.outboundQueueCapacity = outboundQueueCapacity;
+    }
+
+    /**
+     * Sets the watermarks of the bytes waiting for each client. Above the high watermark the session stops
+     * reading its client and the broadcasts to it follow the slow consumer policy, until the client reads
+     * enough to bring its queue down to the low watermark. Must be called before {@link #launch()}.
+     *
+     * @param lowWatermark the queued bytes under which a client is writable again.
+     * @param highWatermark the queued bytes over which a client is not writable.
+     */
+    public void setOutboundWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("Low watermark " + lowWatermark + " above high watermark " + highWatermark);
+        }
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Sets how long a client may stay above its high watermark before it is disconnected.
+     * Must be called before {@link #launch()}.
+     *
+     * @param writeStallTimeout the write stall timeout (ms), 0 to disable it.
+     */
+    public void setWriteStallTimeout(long writeStallTimeout) {
+        this.writeStallTimeout = writeStallTimeout;
+    }
+
+    /**
+     * Sets the journal where the chat messages are recorded. Must be called before {@link #launch()}.
+     * The journal stays open when the server closes.
+     *
+     * @param journal the message journal, {@code null} for none.
+     */
+    public void setJournal(ChatJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets how many messages of the journal are replayed to each new client, and by the {@code history}
+     * command without argument. Must be called before {@link #launch()}.
+     *
+     * @param historyLength the number of messages, 0 to replay none on connection.
+     */
+    public void setHistoryLength(int historyLength) {
+        this.historyLength = historyLength;
+    }
+
+    /**
+     * Returns how many messages of the journal are replayed to each new client.
+     *
+     * @return the number of messages.
+     */
+    public int getHistoryLength() {
+        return historyLength;
+    }
+
+    /**
+     * Sets whether the binary clients offering compression get it. Must be called before {@link #launch()}.
+     *
+     * @param compression {@code true} to accept deflated payloads, {@code false} to keep every payload raw.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns whether the binary clients offering compression get it.
+     *
+     * @return {@code true} if deflated payloads are accepted.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Returns how long a new client has to send the hello frame of the binary protocol. Without one, the
+     * session speaks text and the history is sent as text lines.
+     *
+     * @return the delay in milliseconds.
+     */
+    public long getHelloTimeout() {
+        return helloTimeout;
+    }
+
+    /**
+     * Sets the event loops of the selector mode. Must be called before {@link #launch()}.
+     *
+     * @param eventLoopCount the number of I/O event loops, the number of cores by default.
+     * @param loopAssignment how a new session picks its loop.
+     */
+    public void setEventLoops(int eventLoopCount, LoopAssignment loopAssignment) {
+        if (eventLoopCount < 1) {
+            throw new IllegalArgumentException("At least one event loop is needed");
+        }
+        this.eventLoopCount = eventLoopCount;
+        this.loopAssignment = loopAssignment;
+    }
+
+    /**
+     * Returns the number of I/O event loops of the selector mode.
+     *
+     * @return the event loop count.
+     */
+    public int getEventLoopCount() {
+        return eventLoopCount;
+    }
+
+    /**
+     * Encrypts the client sessions with TLS. Must be called before {@link #launch()}.
+     *
+     * @param tls the server certificate and session cache, {@code null} for plaintext.
+     */
+    public void setTls(TlsContext tls) {
+        this.tls = tls;
+    }
+
+    /**
+     * Returns the TLS settings of the client sessions.
+     *
+     * @return the TLS settings, or {@code null} in plaintext.
+     */
+    public TlsContext getTls() {
+        return tls;
+    }
+
+    /**
+     * Returns the journal of the chat messages.
+     *
+     * @return the journal, or {@code null} if the messages are not recorded.
+     */
+    public ChatJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets the idle and read timeouts of the client sessions. Must be called before {@link #launch()}.
+     *
+     * @param idleTimeout the time without any message before a client is disconnected (ms), 0 to disable it.
+     * @param readTimeout the time a client can stall in the middle of a message (ms), 0 to disable it.
+     */
+    public void setSessionTimeouts(long idleTimeout, long readTimeout) {
+        this.idleTimeout = idleTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sets the idle timeout of the client sessions, keeping the read timeout. Must be called before {@link #launch()}.
+     *
+     * @param idleTimeout the time without any message before a client is disconnected (ms), 0 to disable it.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Creates the idle, read and write stall timeouts of a new session.
+     *
+     * @param clientID the client identifier, for the logs.
+     * @param wireCodec the session decoder.
+     * @param outboundQueue the session outbound queue, or {@code null} for no write stall timeout.
+     * @param disconnect ends the session, called from the timer thread.
+     * @return the session timeouts, already running.
+     */
+    public SessionTimeouts newSessionTimeouts(String clientID, WireCodec wireCodec, OutboundQueue outboundQueue, Runnable disconnect) {
+        SessionTimeouts timeouts = new SessionTimeouts(IdleTimer.shared, idleTimeout, readTimeout, clientID, wireCodec::pendingBytes, disconnect).start();
+        if (outboundQueue != null) {
+            timeouts.watchWritability(outboundQueue, writeStallTimeout);
+        }
+        return timeouts;
+    }
+
+    /**
+     * Creates a chat room with the settings of this server : slow consumer policy, queue capacity,
+     * watermarks and journal.
+     *
+     * @param writerExecutor the executor draining the queues of blocking sessions, may be {@code null}
+     *                       in selector mode.
+     * @return a new empty chat room.
+     */
+    public ChatRoom newChatRoom(Executor writerExecutor) {
+        ChatRoom room = new ChatRoom(slowConsumerPolicy, outboundQueueCapacity, writerExecutor, journal);
+        room.setWatermarks(lowWatermark, highWatermark);
+        return room;
+    }
+
+    /**
+     * Makes the client sessions join a room shared with other servers of the process, instead of a room of
+     * their own created by {@link #launch()}. Must be called before {@link #launch()}. The caller owns the
+     * writer executor of the room.
+     *
+     * @param chatRoom the shared room, needing a writer executor in the thread and virtual modes.
+     */
+    public void setChatRoom(ChatRoom chatRoom) {
+        this.chatRoom = chatRoom;
+        this.sharedChatRoom = chatRoom != null;
+    }
+
+    /**
+     * Records activity coming from outside the server, such as the UDP clients of a shared room : the server
+     * doesn't close for lack of connections while the chat is active.
+     */
+    public void recordActivity() {
+        lastActivityTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Stops the server from any thread. The selector mode stops right away, the thread modes at their next
+     * accept timeout.
+     */
+    public void close() {
+        serverConnected = false;
+        Selector selector = acceptSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Returns the chat room shared by the client sessions, created by {@link #launch()}.
+     *
+     * @return the chat room, or {@code null} before launch.
+     */
+    public ChatRoom getChatRoom() {
+        return chatRoom;
+    }
+
+    /**
+     * Returns the live counters of the server, updated by every session.
+     *
+     * @return the server metrics.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the registry of the connected sessions.
+     *
+     * @return the session registry.
+     */
+    public SessionRegistry getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Launches the server with its configured execution mode.
      * If there are no client connections within the timeout period, the server will shut down automatically.
      *
      * @throws IOException if an I/O error occurs while setting up the server or handling client connections.
      */
     public void launch() throws IOException {
+        try {
+            launchMode();
+        } finally {
+            metrics.unregister();
+            sessions.unregister();
+        }
+    }
 
-        try(ServerSocket serverSocket = new ServerSocket(this.listeningPort)) {
+    /**
+     * Publishes the metrics and the session registry over JMX. Called once the port is bound, so the clients
+     * never wait for the MBean server setup, which can take a while on a cold JVM.
+     */
+    private void registerMBeans() {
+        metrics.register(listeningPort);
+        sessions.register("TCPMultiServer", listeningPort);
+    }
+
+    /**
+     * Runs the accept loop of the configured execution mode.
+     *
+     * @throws IOException if an I/O error occurs while setting up the server or handling client connections.
+     */
+    private void launchMode() throws IOException {
+        if (serverMode == ServerMode.SELECTOR) {
+            // Every session writes from its event loop, no writer executor needed
+            if (!sharedChatRoom) {
+                chatRoom = newChatRoom(null);
+            }
+            launchSelector();
+            return;
+        }
+
+        // One virtual thread per session, the executor never reuses or pools them
+        ExecutorService sessionExecutor = serverMode == ServerMode.VIRTUAL ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        // Broadcast writer tasks share the session executor, or a pool of reused platform threads, unless the room is shared
+        ExecutorService writerExecutor = null;
+        if (!sharedChatRoom) {
+            writerExecutor = sessionExecutor != null ? sessionExecutor : Executors.newCachedThreadPool();
+            chatRoom = newChatRoom(writerExecutor);
+        }
+        try {
+            launchThreads(sessionExecutor);
+        } finally {
+            // Stop accepting new sessions, running ones end when their client leaves
+            if (writerExecutor != null) {
+                writerExecutor.shutdown();
+            } else if (sessionExecutor != null) {
+                sessionExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Starts listening for client connections, and handles each connection in a separate thread.
+     *
+     * @param sessionExecutor executor running the {@link ConnectionThread} loops, or {@code null}
+     *                        to start each one as its own platform thread.
+     * @throws IOException if an I/O error occurs while setting up the server or handling client connections.
+     */
+    private void launchThreads(ExecutorService sessionExecutor) throws IOException {
+
+        // Accepted through a channel, so the sessions can send the history with sendfile
+        try(ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(this.listeningPort));
+            registerMBeans();
+            ServerSocket serverSocket = serverChannel.socket();
             this.serverState = "Running";
-            System.out.println("Server is running and listening on port " + this.getListeningPort());
+            AsyncLogger.shared.info("Server is running and listening on port " + this.getListeningPort() + (tls != null ? " (TLS)" : ""));
 
             // Waiting for Client connection
-            System.out.println("Waiting for connection...\n");
+            AsyncLogger.shared.info("Waiting for connection...\n");
             // Set timeout for client connection attempts by unblocking .accept()
             serverSocket.setSoTimeout(interval);
 
             // Server's session loop
             while(serverConnected){
                 // Shut down server if no active connections after timeout
-                if (activeConnections == noActiveConnections && System.currentTimeMillis() - lastActivityTime > timeout){
-                    System.out.println("Timeout reached. No connection received");
+                if (metrics.getActiveSessions() == noActiveConnections && System.currentTimeMillis() - lastActivityTime > timeout){
+                    AsyncLogger.shared.info("Timeout reached. No connection received");
                     break;
                 }
 
                 // Check for incoming connections
                 try {
-                    // Accept a client's connection
+                    // Accept a client's connection, encrypted by the session thread on its first read
                     Socket clientSocket = serverSocket.accept();
                     String clientID = clientSocket.getInetAddress()+":"+clientSocket.getPort();
-                    System.out.println("\nConnection from client : " + clientID +"\n");
+                    if (tls != null) {
+                        // Records are whole messages already, holding them back only adds round trips
+                        clientSocket.setTcpNoDelay(true);
+                        clientSocket = tls.wrapAccepted(clientSocket);
+                    }
+                    AsyncLogger.shared.info("\nConnection from client : " + clientID +"\n");
 
                     // Increment active connections
-                    activeConnections++;
+                    metrics.sessionOpened();
+                    long sessionId = sessions.newSessionId();
 
                     // New session for the client
                     InputStream clientInput = clientSocket.getInputStream();
                     OutputStream clientOutput = clientSocket.getOutputStream();
 
-                    // Pass a callback to decrement `activeConnections` and reset the countdown time when the thread ends
+                    // Pass a callback to unregister the session, decrement active connections and reset the countdown time when the thread ends
                     ConnectionThread client = new ConnectionThread(this,clientSocket, clientInput, clientOutput, () -> {
-                        activeConnections--;
-                        System.out.println("Client "+clientID+" disconnected. Active connections: " + activeConnections);
+                        sessions.remove(sessionId);
+                        metrics.sessionClosed();
+                        AsyncLogger.shared.info("Client "+clientID+" disconnected. Active connections: " + metrics.getActiveSessions());
                         lastActivityTime = System.currentTimeMillis();
-                    });
-                    client.start();
+                    }, chatRoom);
+                    sessions.add(sessionId, (InetSocketAddress) clientSocket.getRemoteSocketAddress(), client);
+                    if (sessionExecutor != null) {
+                        // Only the session loop runs on the executor, the thread object itself is never started
+                        sessionExecutor.execute(client);
+                    } else {
+                        client.start();
+                    }
 
                 }catch(java.net.SocketTimeoutException e) {
                     // Remind user of the connection time left if no clients are connected
-                    if (activeConnections == noActiveConnections) {
+                    if (metrics.getActiveSessions() == noActiveConnections) {
                         long countdownSec = (lastActivityTime + timeout - System.currentTimeMillis()) / millisToSec;
                         // Avoid negative countdown time
                         if (countdownSec < 0){ countdownSec = 0;}
-                        System.out.printf("Connection timeout in: %d sec\n", countdownSec);
+                        AsyncLogger.shared.info(String.format("Connection timeout in: %d sec", countdownSec));
                     }
                 }
             }
         }
         // Server closure
         this.serverState = "Closed";
-        System.out.println("Server closed\n");
+        AsyncLogger.shared.info("Server closed\n");
+        // Print the queued logs before returning to the caller
+        AsyncLogger.shared.flush();
+    }
+
+    /**
+     * Starts listening for client connections on a non-blocking channel, and spreads the client sessions
+     * over the {@link EventLoop}s. The calling thread only accepts : each new channel is handed to the loop
+     * picked by the {@link LoopAssignment}, which registers it and serves it until it closes.
+     *
+     * <p>The accepting thread wakes up at least every {@code interval} to apply the same timeout and
+     * countdown reminders as the thread-per-connection mode.</p>
+     *
+     * @throws IOException if an I/O error occurs while setting up the server or handling client connections.
+     */
+    private void launchSelector() throws IOException {
+        EventLoop[] eventLoops = new EventLoop[eventLoopCount];
+        try(Selector selector = Selector.open();
+            ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(this.listeningPort));
+            registerMBeans();
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            acceptSelector = selector;
+
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop("event-loop-" + i);
+                eventLoops[i].start();
+            }
+
+            this.serverState = "Running";
+            AsyncLogger.shared.info("Server is running and listening on port " + this.getListeningPort()
+                    + " (selector mode, " + eventLoops.length + " event loops" + (tls != null ? ", TLS" : "") + ")");
+            AsyncLogger.shared.info("Waiting for connection...\n");
+
+            // Accept loop
+            while(serverConnected){
+                // Shut down server if no active connections after timeout
+                if (metrics.getActiveSessions() == noActiveConnections && System.currentTimeMillis() - lastActivityTime > timeout){
+                    AsyncLogger.shared.info("Timeout reached. No connection received");
+                    break;
+                }
+
+                // Wait for connections, at most one reminder interval
+                int readyChannels = selector.select(interval);
+                if (readyChannels == 0) {
+                    // Remind user of the connection time left if no clients are connected
+                    if (serverConnected && metrics.getActiveSessions() == noActiveConnections) {
+                        long countdownSec = (lastActivityTime + timeout - System.currentTimeMillis()) / millisToSec;
+                        // Avoid negative countdown time
+                        if (countdownSec < 0){ countdownSec = 0;}
+                        AsyncLogger.shared.info(String.format("Connection timeout in: %d sec", countdownSec));
+                    }
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                acceptSessions(serverChannel, eventLoops);
+            }
+        } finally {
+            acceptSelector = null;
+            // Each loop closes its remaining sessions
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.shutdown();
+                }
+            }
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    try {
+                        eventLoop.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+        // Server closure
+        this.serverState = "Closed";
+        AsyncLogger.shared.info("Server closed\n");
+        // Print the queued logs before returning to the caller
+        AsyncLogger.shared.flush();
+    }
+
+    /**
+     * Accepts every pending connection and hands it to an event loop.
+     *
+     * @param serverChannel the listening channel.
+     * @param eventLoops the I/O event loops.
+     * @throws IOException if accepting or configuring the client channel fails.
+     */
+    private void acceptSessions(ServerSocketChannel serverChannel, EventLoop[] eventLoops) throws IOException {
+        SocketChannel clientChannel;
+        while ((clientChannel = serverChannel.accept()) != null) {
+            Socket clientSocket = clientChannel.socket();
+            String clientID = clientSocket.getInetAddress()+":"+clientSocket.getPort();
+            AsyncLogger.shared.info("\nConnection from client : " + clientID +"\n");
+
+            // Increment active connections
+            metrics.sessionOpened();
+            clientChannel.configureBlocking(false);
+            if (tls != null) {
+                // Records are whole messages already, holding them back only adds round trips
+                clientChannel.socket().setTcpNoDelay(true);
+            }
+
+            EventLoop eventLoop = pickEventLoop(eventLoops);
+            // Counted right away, so the next assignment sees it
+            eventLoop.sessionOpened();
+            SocketChannel channel = clientChannel;
+            eventLoop.execute(() -> registerSession(eventLoop, channel, clientID));
+        }
+    }
+
+    /**
+     * Picks the event loop of a new session.
+     *
+     * @param eventLoops the I/O event loops.
+     * @return the next loop in turn, or the one serving the fewest sessions.
+     */
+    private EventLoop pickEventLoop(EventLoop[] eventLoops) {
+        if (loopAssignment == LoopAssignment.LEAST_LOADED) {
+            EventLoop leastLoaded = eventLoops[0];
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop.getSessionCount() < leastLoaded.getSessionCount()) {
+                    leastLoaded = eventLoop;
+                }
+            }
+            return leastLoaded;
+        }
+        EventLoop eventLoop = eventLoops[nextLoop];
+        nextLoop = (nextLoop + 1) % eventLoops.length;
+        return eventLoop;
+    }
+
+    /**
+     * Registers a new client on its event loop for read readiness, and joins it to the chat room.
+     * Called on the loop thread, the only one that will ever touch the session.
+     *
+     * @param eventLoop the loop of the session.
+     * @param clientChannel the non-blocking client channel.
+     * @param clientID the printable "address:port" identifier of the client.
+     */
+    private void registerSession(EventLoop eventLoop, SocketChannel clientChannel, String clientID) {
+        Runnable disconnectCallback = () -> {
+            eventLoop.sessionClosed();
+            metrics.sessionClosed();
+            AsyncLogger.shared.info("Client "+clientID+" disconnected. Active connections: " + metrics.getActiveSessions());
+            lastActivityTime = System.currentTimeMillis();
+        };
+        SelectionKey clientKey;
+        try {
+            clientKey = clientChannel.register(eventLoop.getSelector(), SelectionKey.OP_READ);
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Error in the client connection: " + e.getMessage());
+            try {
+                clientChannel.close();
+            } catch (IOException closeError) {
+                AsyncLogger.shared.error("Error closing resources: " + closeError.getMessage());
+            }
+            disconnectCallback.run();
+            return;
+        }
+
+        long sessionId = sessions.newSessionId();
+        NioSession session = new NioSession(this, eventLoop, clientChannel, clientKey, clientID, () -> {
+            sessions.remove(sessionId);
+            disconnectCallback.run();
+        }, chatRoom);
+        clientKey.attach(session);
+        sessions.add(sessionId, (InetSocketAddress) clientChannel.socket().getRemoteSocketAddress(), session);
+        session.start();
+        chatRoom.join(session);
+        session.sendHistory();
     }
 
     /**
@@ -132,22 +710,44 @@ public class TCPMultiServer {
      * The main method to start the TCP multiserver.
      * Accepts a command-line argument for the listening port.
      *
-     * @param args the command-line arguments (expected: one argument specifying the listening port).
+     * @param args the command-line arguments (expected: the listening port, then optionally the server mode,
+     *             the slow consumer policy, and the event loops of the selector mode).
      * @throws IOException if an error occurs while starting or running the server.
      */
     public static void main(String[] args) throws IOException {
         // Parses command-line args
         if (args.length < 1){
-            System.err.println("Usage: java TCPMultiServer <listening port>");
+            System.err.println("Usage: java TCPMultiServer <listening port> [thread|selector|virtual] [drop|disconnect|block] [<event loops> [round_robin|least_loaded]]");
             System.exit(systemShutdown);
         }
 
         // Get port number from args and convert it in integer
         int port = Integer.parseInt(args[0]);
+        // Optional execution mode, thread-per-connection by default
+        ServerMode mode = args.length > 1 ? ServerMode.fromArg(args[1]) : ServerMode.THREAD;
 
         // Instance of TCP multiserver
-        TCPMultiServer servTCP = new TCPMultiServer(port);
+        TCPMultiServer servTCP = new TCPMultiServer(port, mode);
+        // Optional slow consumer policy for the chat room, drop by default
+        if (args.length > 2) {
+            servTCP.setSlowConsumerPolicy(SlowConsumerPolicy.fromArg(args[2]), servTCP.outboundQueueCapacity);
+        }
+        // Optional event loops of the selector mode, one per core in round-robin by default
+        if (args.length > 3) {
+            LoopAssignment assignment = args.length > 4 ? LoopAssignment.fromArg(args[4]) : LoopAssignment.ROUND_ROBIN;
+            servTCP.setEventLoops(Integer.parseInt(args[3]), assignment);
+        }
+        // Optional message journal, set with -Dchat.journal.dir=<directory>
+        ChatJournal journal = ChatJournal.openConfigured();
+        servTCP.setJournal(journal);
+        // Optional idle timeout of the sessions, set with -Dchat.idle.timeout=<ms>
+        servTCP.setIdleTimeout(SessionTimeouts.configuredIdleTimeout());
+        // Optional TLS, set with -Dchat.tls.keystore=<PKCS12 file> -Dchat.tls.password=<password>
+        servTCP.setTls(TlsContext.openConfigured());
         servTCP.launch();
+        if (journal != null) {
+            journal.close();
+        }
         System.exit(systemShutdown);
     }
 }
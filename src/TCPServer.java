@@ -6,6 +6,8 @@
  *
  * <p>Features:</p>
  * <ul>
+ *     <li>Splits the byte stream into newline-delimited messages, or into the frames of the binary
+ *     {@link WireProtocol} when the client opens the session with a hello frame ({@link WireCodec}).</li>
  *     <li>Echoes messages received from the client.</li>
  *     <li>Manages client disconnections and specific commands.</li>
  *     <li>Times out if no client connects within a specified interval (default: 1 minute).</li>
@@ -16,6 +18,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 
@@ -37,6 +40,28 @@ public class TCPServer {
     private final int timeout = 60000;  // Set connection time out at 1 min (60000 ms)
     private final int interval = 10000;  // Set remind interval at 10s (10000 ms)
     private long lastActivityTime = System.currentTimeMillis();   // Set the last activity time as start time
+    private long idleTimeout = 0;   // Disconnect a silent client after that long (ms), disabled unless set
+    private long readTimeout = 30000;   // Disconnect a client stalled in a message after 30 s (30000 ms), 0 to disable
+    private ChatJournal journal;   // Journal of the chat messages, none by default
+
+    // Predefined echo message to send back to the client
+    private final String echo = "Message received\n";
+    private final byte[] echo_buf = echo.getBytes(StandardCharsets.UTF_8);
+
+    // Current client session, used by the message handler
+    private String clientID;
+    private OutputStream output;
+    private SessionTimeouts timeouts;
+    private final WireCodec wireCodec = new WireCodec(WireProtocol.maxFrameLength);
+    private final WireCodec.MessageHandler messageHandler = this::handleMessage;
+    private final boolean compression = true;   // Deflated payloads accepted when a binary client offers them
+    private boolean compressed;   // Compression negotiated by the current client
+
+    // Handlers of the client commands, indexed by command
+    private final CommandHandler[] commandHandlers = CommandRegistry.newDispatchTable();
+
+    // Live counters published over JMX while the server runs
+    private final ServerMetrics metrics = new ServerMetrics("TCPServer");
 
     /**
      * Creates a TCPServer instance with a specified listening port.
@@ -46,6 +71,7 @@ public class TCPServer {
     public TCPServer(int listeningPort) {
         this.listeningPort = listeningPort;
         this.serverState = "Closed";
+        registerCommandHandlers();
     }
 
     /**
@@ -54,6 +80,25 @@ public class TCPServer {
     public TCPServer() {
         this.listeningPort = defaultPort;
         this.serverState = "Closed";
+        registerCommandHandlers();
+    }
+
+    /**
+     * Fills the command dispatch table with the TCP server handlers.
+     */
+    private void registerCommandHandlers() {
+        commandHandlers[CommandRegistry.Command.EXIT_CONSOLE.ordinal()] = (id, command) -> {
+            AsyncLogger.shared.info("User at " + id + " left the chat\n");
+            AsyncLogger.shared.info("Waiting for new connection...\n");
+            lastActivityTime = System.currentTimeMillis();
+            clientConnected = false;
+        };
+        commandHandlers[CommandRegistry.Command.CLOSE_SERVER.ordinal()] = (id, command) -> {
+            AsyncLogger.shared.info("Client " + id + " requested server shutdown.");
+            AsyncLogger.shared.info("Server closing...\n");
+            serverConnected = false;
+            clientConnected = false;
+        };
     }
 
     /**
@@ -65,6 +110,45 @@ public class TCPServer {
         return listeningPort;
     }
 
+    /**
+     * Sets the journal where the chat messages are recorded. Must be called before {@link #launch()}.
+     * The journal stays open when the server closes.
+     *
+     * @param journal the message journal, {@code null} for none.
+     */
+    public void setJournal(ChatJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the idle and read timeouts of the client sessions. Must be called before {@link #launch()}.
+     *
+     * @param idleTimeout the time without any message before a client is disconnected (ms), 0 to disable it.
+     * @param readTimeout the time a client can stall in the middle of a message (ms), 0 to disable it.
+     */
+    public void setSessionTimeouts(long idleTimeout, long readTimeout) {
+        this.idleTimeout = idleTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Sets the idle timeout of the client sessions, keeping the read timeout. Must be called before {@link #launch()}.
+     *
+     * @param idleTimeout the time without any message before a client is disconnected (ms), 0 to disable it.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Returns the live counters of the server.
+     *
+     * @return the server metrics.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Launches the server to accept client connections, handle communication, and manage commands.
      *
@@ -79,17 +163,16 @@ public class TCPServer {
      * @throws IOException if an I/O error occurs when opening or managing the server socket.
      */
     public void launch() throws IOException {
+        // Sessions run one after the other on this thread, so one borrowed buffer serves them all
+        ByteBuffer buf = BufferPool.shared.acquire();
 
         try(ServerSocket serverSocket = new ServerSocket(this.listeningPort)) {
+            // Published once the port is bound : the MBean server setup can take a while on a cold JVM
+            metrics.register(listeningPort);
             this.serverState = "Running";
-            System.out.println("Server is running and listening on port " + this.getListeningPort());
-
-            // Predefined echo message to send back to the client
-            String echo = "Message received\n";
-            byte[] echo_buf = echo.getBytes(StandardCharsets.UTF_8);
+            AsyncLogger.shared.info("Server is running and listening on port " + this.getListeningPort());
 
-
-            System.out.println("Waiting for connection...\n");
+            AsyncLogger.shared.info("Waiting for connection...\n");
             // Set reminder timeout for connection attempts by unblocking .accept()
             serverSocket.setSoTimeout(interval);
 
@@ -97,70 +180,144 @@ public class TCPServer {
             while(serverConnected){
                 // Close the server if the timeout for incoming connections is reached
                 if (System.currentTimeMillis() - lastActivityTime > timeout){
-                    System.out.println("Timeout reached. No connection received");
+                    AsyncLogger.shared.info("Timeout reached. No connection received");
                     break;
                 }
 
                 // Check for incoming connections
                 try (Socket clientSocket = serverSocket.accept()) {
                     // Define client ID
-                    String clientID = clientSocket.getInetAddress() + ":" + clientSocket.getPort();
+                    clientID = clientSocket.getInetAddress() + ":" + clientSocket.getPort();
 
-                    System.out.println("Connection from client : " + clientID);
+                    AsyncLogger.shared.info("Connection from client : " + clientID);
+                    metrics.sessionOpened();
                     // Reset the client connection flag
                     clientConnected = true;
+                    // Reset the decoder, so no partial message nor protocol leaks between clients
+                    wireCodec.reset();
+                    compressed = false;
+
+                    // Streams are fetched once per session
+                    InputStream input = clientSocket.getInputStream();
+                    output = clientSocket.getOutputStream();
+
+                    // A silent client would hold the server forever : end its input from the timer thread
+                    timeouts = new SessionTimeouts(IdleTimer.shared, idleTimeout, readTimeout,
+                            clientID, wireCodec::pendingBytes, () -> shutdownInput(clientSocket)).start();
 
                     // Client's session loop
-                    while (clientConnected) {
-                        InputStream input = clientSocket.getInputStream();
-                        OutputStream output = clientSocket.getOutputStream();
-
-                        // WIP : handle ? and not displaying when client use a command
-                        // Buffer for incoming data
-                        byte[] buf = new byte[maxBufSize];
-                        int byteRead = input.read(buf);
-
-                        // Decode the received message
-                        String receivedData = new String(buf, StandardCharsets.UTF_8);
-                        System.out.println("Client " + clientID + " says : " + receivedData);
-
-                        // WIP : Handle connection loss (byteRead = -1 is an end of a stream)
-                        if (byteRead == -1) {
-                            System.out.println("Client " + clientID + " disappeared\n");
-                            break;
-                        }
-                        // Handle user's disconnection
-                        if (receivedData.trim().equalsIgnoreCase(("exit console"))) {
-                            System.out.println("User at " + clientID + " left the chat\n");
-                            System.out.println("Waiting for new connection...\n");
-                            lastActivityTime = System.currentTimeMillis();
-                            clientConnected = false;
-                        }
-                        // Handle TCP server closure commanded by client
-                        if (receivedData.trim().equalsIgnoreCase("close server")) {
-                            System.out.println("Client " + clientID + " requested server shutdown.");
-                            System.out.println("Server closing...\n");
-                            serverConnected = false;
-                            clientConnected = false;
-                        }
+                    try {
+                        while (clientConnected) {
+                            // WIP : handle ? and not displaying when client use a command
+                            // Read into the reusable buffer
+                            int byteRead = input.read(buf.array(), buf.arrayOffset(), buf.capacity());
+
+                            // WIP : Handle connection loss (byteRead = -1 is an end of a stream)
+                            if (byteRead == -1) {
+                                AsyncLogger.shared.info("Client " + clientID + " disappeared\n");
+                                break;
+                            }
+                            metrics.bytesReceived(byteRead);
+                            timeouts.onRead();
 
-                        // WIP : handle when no message received (if it can happen), with a different echo message ?
-                        // Send an echo back to the client
-                        output.write(echo_buf);
-                        output.flush();
+                            // Handle every complete message of this read, in order
+                            wireCodec.decode(buf.array(), buf.arrayOffset(), byteRead, messageHandler);
+                        }
+                    } finally {
+                        timeouts.cancel();
+                        metrics.sessionClosed();
                     }
                 }catch(java.net.SocketTimeoutException e){
                     // Periodic reminder about the remaining timeout duration
                     long countdownSec = (lastActivityTime + timeout - System.currentTimeMillis()) / millisToSec;
                     // Avoid negative countdown values
                     if(countdownSec < 0){countdownSec = 0;}
-                    System.out.printf("Connection timeout in : %d sec\n",countdownSec);
+                    AsyncLogger.shared.info(String.format("Connection timeout in : %d sec",countdownSec));
                 }
             }
+        } finally {
+            // Give the receive buffer back to the pool
+            BufferPool.shared.release(buf);
+            metrics.unregister();
         }
         // Update the server state and print closure message
         this.serverState = "Closed";
-        System.out.println("Server closed\n");
+        AsyncLogger.shared.info("Server closed\n");
+        // Print the queued logs before returning to the caller
+        AsyncLogger.shared.flush();
+    }
+
+    /**
+     * Handles one message received from the current client, text or binary : displays it, processes the
+     * commands and sends the echo message back (an acknowledgement frame in binary mode).
+     *
+     * @param opcode the message opcode.
+     * @param flags the frame flags.
+     * @param sequence the sequence number of the client, returned in the acknowledgement.
+     * @param data the buffer holding the message.
+     * @param offset the start of the message.
+     * @param length the message length.
+     * @throws IOException if the echo cannot be sent.
+     */
+    private void handleMessage(int opcode, int flags, int sequence, byte[] data, int offset, int length) throws IOException {
+        // Ignore messages pipelined after a closing command
+        if (!clientConnected) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        timeouts.onMessage();
+
+        // Decode only the message bytes
+        String receivedData = FrameCodec.toString(data, offset, length);
+        byte[] reply = echo_buf;
+
+        switch (opcode) {
+            case WireProtocol.opcodeHello:
+                // Binary session opened : answer with the protocol version of the server and the compression
+                // accepted, and no echo
+                compressed = (flags & WireProtocol.flagDeflated) != 0 && compression;
+                AsyncLogger.shared.info("Client " + clientID + " speaks the binary protocol" + (compressed ? ", compressed" : ""));
+                reply = WireProtocol.encodeHello(sequence, compressed);
+                break;
+            case WireProtocol.opcodeChat:
+                AsyncLogger.shared.info("Client " + clientID + " says : " + receivedData);
+                if (journal != null) {
+                    journal.append(clientID, data, offset, length);
+                }
+                break;
+            default:
+                AsyncLogger.shared.info("Client " + clientID + " says : " + receivedData);
+                // Handle user's disconnection or TCP server closure commanded by client
+                CommandRegistry.Command command = CommandRegistry.commandOf(opcode);
+                CommandHandler handler = command != null ? commandHandlers[command.ordinal()] : null;
+                if (handler != null) {
+                    handler.handle(clientID, receivedData);
+                }
+                break;
+        }
+        if (reply == echo_buf && wireCodec.isBinary()) {
+            reply = WireProtocol.encode(WireProtocol.opcodeAck, sequence);
+        }
+
+        // WIP : handle when no message received (if it can happen), with a different echo message ?
+        // Send an echo back to the client
+        output.write(reply);
+        output.flush();
+        metrics.messageSent(reply.length);
+        metrics.messageHandled(startNanos);
+    }
+
+    /**
+     * Ends the input of a client socket : the blocked read returns the end of stream and the session ends.
+     *
+     * @param clientSocket the socket of the timed out client.
+     */
+    private static void shutdownInput(Socket clientSocket) {
+        try {
+            clientSocket.shutdownInput();
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Error closing resources: " + e.getMessage());
+        }
     }
 
     /**
@@ -194,7 +351,15 @@ public class TCPServer {
 
         // Instance of TCP server
         TCPServer servTCP = new TCPServer(port);
+        // Optional message journal, set with -Dchat.journal.dir=<directory>
+        ChatJournal journal = ChatJournal.openConfigured();
+        servTCP.setJournal(journal);
+        // Optional idle timeout of the sessions, set with -Dchat.idle.timeout=<ms>
+        servTCP.setIdleTimeout(SessionTimeouts.configuredIdleTimeout());
         servTCP.launch();
+        if (journal != null) {
+            journal.close();
+        }
         System.exit(systemShutdown);
     }
 
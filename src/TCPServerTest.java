@@ -56,7 +56,7 @@ class TCPServerTest {
     void testServerEchoesMessage() {
         try (Socket clientSocket = new Socket("localhost", testPort)) {
             OutputStream outputStream = clientSocket.getOutputStream();
-            byte[] message = "Hello, Server!".getBytes();
+            byte[] message = "Hello, Server!\n".getBytes();
             outputStream.write(message);
             outputStream.flush();
 
@@ -74,7 +74,7 @@ class TCPServerTest {
     void testServerHandlesExitConsoleCommand() {
         try (Socket clientSocket = new Socket("localhost", testPort)) {
             OutputStream outputStream = clientSocket.getOutputStream();
-            byte[] message = "exit console".getBytes();
+            byte[] message = "exit console\n".getBytes();
             outputStream.write(message);
             outputStream.flush();
 
@@ -0,0 +1,80 @@
+/**
+ * Starts the servers of the integration tests on their own thread, and waits until they can be reached
+ * instead of sleeping for a guessed time : a datagram or a connection sent before the bind is lost.
+ */
+import java.io.IOException;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+final class TestServers {
+    private static final long startTimeoutMillis = 10000;
+
+    /**
+     * Runs a server until it closes.
+     */
+    private interface Launch {
+        void run() throws IOException;
+    }
+
+    private TestServers() {
+    }
+
+    /**
+     * Launches a TCP server and waits until its port is bound.
+     *
+     * @param server the configured server.
+     * @return the thread running the server, which ends when the server closes.
+     * @throws InterruptedException if the wait is interrupted.
+     */
+    static Thread launch(TCPMultiServer server) throws InterruptedException {
+        return launch(server::launch, () -> isRunning(server));
+    }
+
+    /**
+     * Launches a UDP server and waits until its port is bound.
+     *
+     * @param server the configured server.
+     * @return the thread running the server, which ends when the server closes.
+     * @throws InterruptedException if the wait is interrupted.
+     */
+    static Thread launch(UDPServer server) throws InterruptedException {
+        return launch(server::launch, () -> isRunning(server));
+    }
+
+    /**
+     * Launches a gateway and waits until the ports of both its servers are bound.
+     *
+     * @param gateway the configured gateway.
+     * @return the thread running the gateway, which ends when the gateway closes.
+     * @throws InterruptedException if the wait is interrupted.
+     */
+    static Thread launch(ChatGateway gateway) throws InterruptedException {
+        return launch(gateway::launch, () -> isRunning(gateway.getTcpServer()) && isRunning(gateway.getUdpServer()));
+    }
+
+    /**
+     * Checks the state a server reports once its port is bound.
+     */
+    private static boolean isRunning(Object server) {
+        return server.toString().endsWith("Running");
+    }
+
+    private static Thread launch(Launch launch, BooleanSupplier running) throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                launch.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + startTimeoutMillis;
+        while (!running.getAsBoolean() && thread.isAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(running.getAsBoolean(), "The server should be running");
+        return thread;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * A non-blocking TLS connection : an {@link SSLEngine} driven over a {@link SocketChannel}, seen by the
+ * {@link NioSession} as a plain {@link ByteChannel} of decrypted bytes.
+ *
+ * <p>The channel never waits. A read answers the handshake records it receives and returns 0 until
+ * application bytes are decrypted, a write returns 0 while the handshake waits for the client or while
+ * encrypted records are still waiting for the socket ({@link #flush()}). Everything runs on the event loop
+ * thread of the session, including the delegated tasks of the handshake, so no state is shared.</p>
+ *
+ * <p>One record can decrypt to more bytes than the caller's buffer : the rest is kept, and
+ * {@link #hasBufferedInput()} tells the caller to read again before waiting for the socket.</p>
+ */
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+public class TlsChannel implements ByteChannel {
+    private static final ByteBuffer empty = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+
+    // Records read and not decrypted yet (filling), records encrypted and not written yet (draining),
+    // and decrypted bytes not read yet (filling)
+    private final ByteBuffer netIn;
+    private final ByteBuffer netOut;
+    private final ByteBuffer appIn;
+
+    /**
+     * Creates the TLS connection of an accepted client. The handshake starts with the first read.
+     *
+     * @param channel the non-blocking client channel.
+     * @param engine the server mode engine of the session.
+     */
+    public TlsChannel(SocketChannel channel, SSLEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut.flip();
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    /**
+     * Reads the decrypted bytes available, without waiting.
+     *
+     * @param dst the buffer to fill.
+     * @return the bytes read, 0 if none are decrypted yet, -1 once the client closed the connection.
+     * @throws IOException if the socket read fails or the client breaks the protocol.
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (appIn.position() == 0 && !unwrapRecords()) {
+            return -1;
+        }
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), dst.remaining());
+        ByteBuffer chunk = appIn.duplicate();
+        chunk.limit(chunk.position() + count);
+        dst.put(chunk);
+        appIn.position(appIn.position() + count);
+        appIn.compact();
+        return count;
+    }
+
+    /**
+     * Encrypts as many bytes as the socket accepts, without waiting.
+     *
+     * @param src the bytes to send.
+     * @return the bytes consumed, 0 while the handshake or earlier records wait.
+     * @throws IOException if the socket write fails or the connection is closed.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!progressHandshake() || isHandshaking()) {
+            return 0;
+        }
+        int consumed = 0;
+        while (src.hasRemaining()) {
+            netOut.compact();
+            SSLEngineResult result = engine.wrap(src, netOut);
+            netOut.flip();
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new ClosedChannelException();
+            }
+            consumed += result.bytesConsumed();
+            // Records left for the next write readiness : the bytes are consumed, not written yet
+            if (!flush()) {
+                break;
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Writes the encrypted records waiting for the socket.
+     *
+     * @return {@code true} once none are left, {@code false} if the socket is full.
+     * @throws IOException if the write fails.
+     */
+    public boolean flush() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (channel.write(netOut) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the handshake waits for the client. Application bytes can't be written meanwhile.
+     *
+     * @return {@code true} until the handshake is over.
+     */
+    public boolean isHandshaking() {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING && status != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    /**
+     * Checks if bytes are left from the previous reads, decrypted or not : the caller must read again rather
+     * than wait for the socket.
+     *
+     * @return {@code true} if a read may return bytes without the socket.
+     */
+    public boolean hasBufferedInput() {
+        return appIn.position() > 0 || netIn.position() > 0;
+    }
+
+    /**
+     * Checks if the client socket is open.
+     *
+     * @return {@code true} until {@link #close()}.
+     */
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Sends the closing alert if the socket takes it right away, then closes the socket.
+     *
+     * @throws IOException if the socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            engine.closeOutbound();
+            netOut.compact();
+            engine.wrap(empty, netOut);
+            netOut.flip();
+            flush();
+        } catch (IOException e) {
+            // The client may be gone already, the alert is only a courtesy
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Decrypts the records available, reading the socket once it runs out of them, and answers the
+     * handshake on the way.
+     *
+     * @return {@code false} once the client closed the connection and nothing is left to read.
+     * @throws IOException if the socket fails or the client breaks the protocol.
+     */
+    private boolean unwrapRecords() throws IOException {
+        while (progressHandshake()) {
+            netIn.flip();
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            switch (result.getStatus()) {
+                case OK:
+                    break;
+                case BUFFER_OVERFLOW:
+                    // The caller reads the decrypted bytes first
+                    return true;
+                case BUFFER_UNDERFLOW:
+                    if (appIn.position() > 0) {
+                        return true;
+                    }
+                    int bytesRead = channel.read(netIn);
+                    if (bytesRead == -1) {
+                        closeInbound();
+                        return false;
+                    }
+                    if (bytesRead == 0) {
+                        return true;
+                    }
+                    break;
+                case CLOSED:
+                    // Closing alert of the client
+                    return appIn.position() > 0;
+            }
+        }
+        // Handshake records wait for the socket, the caller flushes them
+        return true;
+    }
+
+    /**
+     * Runs the handshake steps that need no client bytes : delegated tasks and handshake records to send.
+     * The records of one flight are written together, in as few segments as possible.
+     *
+     * @return {@code false} if the records to send wait for the socket.
+     * @throws IOException if the socket write fails or the handshake fails.
+     */
+    private boolean progressHandshake() throws IOException {
+        while (true) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    break;
+                case NEED_WRAP:
+                    netOut.compact();
+                    SSLEngineResult result = engine.wrap(empty, netOut);
+                    netOut.flip();
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && !flush()) {
+                        // No room left for the next record until the socket takes the previous ones
+                        return false;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED && !netOut.hasRemaining()) {
+                        throw new ClosedChannelException();
+                    }
+                    break;
+                default:
+                    return flush();
+            }
+        }
+    }
+
+    /**
+     * Notes the end of stream of the client, even without a closing alert.
+     */
+    private void closeInbound() {
+        try {
+            engine.closeInbound();
+        } catch (SSLException e) {
+            // Connection cut without a closing alert : nothing more to read either way
+        }
+    }
+}
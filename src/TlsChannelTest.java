@@ -0,0 +1,103 @@
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of the TLS sessions of a running {@code TCPMultiServer} : {@code TlsChannel} in selector mode, the
+ * layered {@code SSLSocket} in thread mode.
+ */
+class TlsChannelTest {
+    private final int testPort = 12410;
+    private final char[] password = "chat-test".toCharArray();
+
+    /**
+     * Reads lines until one ends with the given text, and returns how many were read.
+     */
+    private static int readUntil(BufferedReader reader, String end) throws IOException {
+        int count = 0;
+        String line;
+        do {
+            line = reader.readLine();
+            assertNotNull(line, "The session ended before " + end);
+            count++;
+        } while (!line.endsWith(end));
+        return count;
+    }
+
+    private void assertServerSpeaksTls(ServerMode mode, int port) throws Exception {
+        Path directory = Files.createTempDirectory("chat-tls");
+        Path keyStore = directory.resolve("server.p12");
+        TlsContext.generateSelfSigned(keyStore, password);
+        SSLContext client = TlsContext.clientContext(keyStore, password);
+
+        try (ChatJournal journal = ChatJournal.open(Files.createDirectory(directory.resolve("journal")), 4096, 5)) {
+            for (int i = 1; i <= 50; i++) {
+                journal.append("/127.0.0.1:5000", "message " + i);
+            }
+            TCPMultiServer server = new TCPMultiServer(port, mode);
+            server.setTls(TlsContext.fromKeyStore(keyStore, password));
+            server.setJournal(journal);
+            server.setHistoryLength(5);
+            Thread serverThread = TestServers.launch(server);
+
+            long firstCreation;
+            try (SSLSocket socket = (SSLSocket) client.getSocketFactory().createSocket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream output = socket.getOutputStream();
+                firstCreation = socket.getSession().getCreationTime();
+
+                // The history goes through the engine
+                assertEquals(5, readUntil(reader, "says : message 50"));
+
+                // One record holding more messages than a receive buffer
+                StringBuilder lines = new StringBuilder();
+                for (int i = 0; i < 200; i++) {
+                    lines.append("line number ").append(i).append('\n');
+                }
+                output.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                output.flush();
+                for (int i = 0; i < 200; i++) {
+                    assertEquals("Message received", reader.readLine());
+                }
+            }
+
+            // A reconnecting client resumes its session instead of a full handshake
+            try (SSLSocket socket = (SSLSocket) client.getSocketFactory().createSocket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream output = socket.getOutputStream();
+                assertEquals(firstCreation, socket.getSession().getCreationTime(), "The session should be resumed");
+
+                // The messages of the first client are the history now
+                assertEquals(5, readUntil(reader, "says : line number 199"));
+                output.write("close server\n".getBytes(StandardCharsets.UTF_8));
+                output.flush();
+                assertEquals("Message received", reader.readLine());
+            }
+            // The thread mode notices the closure at its next accept timeout
+            serverThread.join(15000);
+            assertFalse(serverThread.isAlive(), "The server should be closed");
+        }
+    }
+
+    @Test
+    void testSelectorServerSpeaksTls() throws Exception {
+        assertServerSpeaksTls(ServerMode.SELECTOR, testPort);
+    }
+
+    @Test
+    void testThreadServerSpeaksTls() throws Exception {
+        assertServerSpeaksTls(ServerMode.THREAD, testPort + 1);
+    }
+}
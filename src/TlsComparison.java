@@ -0,0 +1,199 @@
+/**
+ * Compares the cost of TLS against plaintext on a {@link TCPMultiServer}, over loopback with a self-signed
+ * certificate.
+ *
+ * <p>The tool starts the server in-process, once in plaintext and once with TLS, then reports:</p>
+ * <ul>
+ *     <li>the handshake rate : connections per second, each one connecting, exchanging one echo and closing,
+ *     with full TLS handshakes, then with sessions resumed from the previous connection,</li>
+ *     <li>the echo throughput (round trips per second) when every connection sends messages concurrently.</li>
+ * </ul>
+ *
+ * <p>Usage: `java TlsComparison <port> <thread|selector|virtual> <connections> <messages per connection>`</p>
+ *
+ * <p>The plaintext server listens on the given port and the TLS server on the next one. The server logs are
+ * discarded while measuring so the console speed doesn't hide the encryption cost.</p>
+ */
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TlsComparison {
+    private static final int systemShutdown = 1;
+    private static final int maxBufSize = 1024;
+    private static final int clientWorkers = 8;   // Threads sharing the client connections during the throughput run
+    private static final int startupDelay = 500;   // Time given to the server to bind its port (ms)
+    private static final char[] keyStorePassword = "chat-benchmark".toCharArray();
+
+    // The help command is echoed but not broadcast : the runs measure the round trips, not the chat fan-out
+    private static final byte[] message = FrameCodec.encode("?");
+
+    // Connections that resumed their session, counted by connectionRate()
+    private static int resumedSessions = 0;
+
+    public static void main(String[] args) throws Exception {
+        // Parses command-line args
+        if (args.length < 4){
+            System.err.println("Usage: java TlsComparison <port> <thread|selector|virtual> <connections> <messages per connection>");
+            System.exit(systemShutdown);
+        }
+        int port = Integer.parseInt(args[0]);
+        ServerMode mode = ServerMode.fromArg(args[1]);
+        int connections = Integer.parseInt(args[2]);
+        int messages = Integer.parseInt(args[3]);
+
+        // Self-signed certificate for localhost, trusted by the clients of the tool only
+        Path keyStore = Files.createTempDirectory("chat-tls").resolve("server.p12");
+        TlsContext.generateSelfSigned(keyStore, keyStorePassword);
+        TlsContext tls = TlsContext.fromKeyStore(keyStore, keyStorePassword);
+        SSLContext client = TlsContext.clientContext(keyStore, keyStorePassword);
+
+        // Silence the server logs, results go to the original console
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Plaintext reference
+        TCPMultiServer plainServer = startServer(port, mode, null);
+        double plainRate = connectionRate(SocketFactory.getDefault(), port, connections, false);
+        double plainThroughput = echoThroughput(SocketFactory.getDefault(), port, connections, messages);
+        stopServer(plainServer);
+
+        // TLS : every handshake full, then every session resumed from the previous one
+        TCPMultiServer tlsServer = startServer(port + 1, mode, tls);
+        double fullRate = connectionRate(client.getSocketFactory(), port + 1, connections, true);
+        int fullResumed = resumedSessions;
+        int resumedBefore = resumedSessions;
+        double resumedRate = connectionRate(client.getSocketFactory(), port + 1, connections, false);
+        int resumed = resumedSessions - resumedBefore;
+        double tlsThroughput = echoThroughput(client.getSocketFactory(), port + 1, connections, messages);
+        stopServer(tlsServer);
+        System.setOut(console);
+
+        console.printf("mode=%s connections=%d messages=%d%n", mode, connections, messages);
+        console.printf("  handshake rate, plaintext    : %.0f conn/s%n", plainRate);
+        console.printf("  handshake rate, TLS full     : %.0f conn/s (%d of %d resumed)%n", fullRate, fullResumed, connections);
+        console.printf("  handshake rate, TLS resumed  : %.0f conn/s (%d of %d resumed)%n", resumedRate, resumed, connections);
+        console.printf("  echo throughput, plaintext   : %.0f msg/s%n", plainThroughput);
+        console.printf("  echo throughput, TLS         : %.0f msg/s%n", tlsThroughput);
+        System.exit(0);
+    }
+
+    /**
+     * Starts a server in a thread of its own and waits for it to listen.
+     */
+    private static TCPMultiServer startServer(int port, ServerMode mode, TlsContext tls) throws InterruptedException {
+        TCPMultiServer server = new TCPMultiServer(port, mode);
+        server.setTls(tls);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.launch();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        Thread.sleep(startupDelay);
+        return server;
+    }
+
+    /**
+     * Stops a server and gives it time to release its port and its sessions.
+     */
+    private static void stopServer(TCPMultiServer server) throws InterruptedException {
+        server.close();
+        Thread.sleep(startupDelay);
+    }
+
+    /**
+     * Opens connections one after the other : connect, handshake, one echo, close.
+     *
+     * @param factory plaintext or TLS client sockets.
+     * @param fullHandshakes {@code true} to forget each TLS session, so that the next connection can't resume it.
+     * @return the connections per second.
+     */
+    private static double connectionRate(SocketFactory factory, int port, int connections, boolean fullHandshakes) throws IOException {
+        byte[] buf = new byte[maxBufSize];
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            long connectTime = System.currentTimeMillis();
+            try (Socket socket = factory.createSocket("localhost", port)) {
+                // Like the chat clients : a TLS handshake is several small writes in a row
+                socket.setTcpNoDelay(true);
+                socket.getOutputStream().write(message);
+                socket.getOutputStream().flush();
+                socket.getInputStream().read(buf);
+                if (socket instanceof SSLSocket) {
+                    SSLSocket sslSocket = (SSLSocket) socket;
+                    // A resumed session keeps the creation time of the first handshake
+                    if (sslSocket.getSession().getCreationTime() < connectTime) {
+                        resumedSessions++;
+                    }
+                    if (fullHandshakes) {
+                        sslSocket.getSession().invalidate();
+                    }
+                }
+                socket.getOutputStream().write(FrameCodec.encode("exit console"));
+                socket.getOutputStream().flush();
+            }
+        }
+        return connections / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Sends messages over every connection at once, spread over a few client threads.
+     *
+     * @return the round trips per second.
+     */
+    private static double echoThroughput(SocketFactory factory, int port, int connections, int messages) throws Exception {
+        List<Socket> sockets = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            Socket socket = factory.createSocket("localhost", port);
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+        }
+        // Let the server register all the sessions, and the handshakes end
+        Thread.sleep(startupDelay);
+
+        List<Thread> workers = new ArrayList<>();
+        long runStart = System.nanoTime();
+        for (int w = 0; w < clientWorkers; w++) {
+            final int first = w;
+            Thread worker = new Thread(() -> {
+                byte[] buf = new byte[maxBufSize];
+                try {
+                    for (int m = 0; m < messages; m++) {
+                        for (int i = first; i < sockets.size(); i += clientWorkers) {
+                            Socket socket = sockets.get(i);
+                            OutputStream output = socket.getOutputStream();
+                            InputStream input = socket.getInputStream();
+                            output.write(message);
+                            output.flush();
+                            input.read(buf);
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("Client worker error: " + e.getMessage());
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long runNanos = System.nanoTime() - runStart;
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        return (long) connections * messages / (runNanos / 1e9);
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * TLS settings of the {@link TCPMultiServer} : one {@link SSLContext} holding the server certificate and the
+ * cache of the sessions it negotiated.
+ *
+ * <p>Every execution model encrypts with the JDK TLS engine. The selector sessions drive an {@link SSLEngine}
+ * themselves ({@link TlsChannel}), the blocking sessions get an {@link SSLSocket} layered on their accepted
+ * socket, which runs the same engine behind its streams.</p>
+ *
+ * <p>Reconnecting clients skip the full handshake :</p>
+ * <ul>
+ *     <li>The server keeps the sessions it negotiated in a bounded cache, for {@code sessionTimeout} seconds.</li>
+ *     <li>Session tickets are enabled : the server hands the client its session state encrypted, and resumes
+ *     it from the ticket even after the cache dropped the session.</li>
+ * </ul>
+ *
+ * <p>The server certificate comes from a PKCS12 keystore, set with the {@code chat.tls.keystore} and
+ * {@code chat.tls.password} system properties. {@link #generateSelfSigned(Path, char[])} writes a self-signed one
+ * with keytool, for tests and benchmarks on loopback.</p>
+ */
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+public class TlsContext {
+    private static final String keyStoreProperty = "chat.tls.keystore";
+    private static final String passwordProperty = "chat.tls.password";
+    private static final String ticketProperty = "jdk.tls.server.enableSessionTicketExtension";
+
+    // Server session cache : enough for every client of a busy server, resumable for one hour
+    public static final int defaultSessionCacheSize = 10000;
+    public static final int defaultSessionTimeout = 3600;   // Seconds
+
+    private final SSLContext sslContext;
+
+    /**
+     * Wraps an initialized context and sizes its server session cache.
+     *
+     * @param sslContext the context holding the server certificate.
+     * @param sessionCacheSize the number of sessions kept for resumption, 0 for no limit.
+     * @param sessionTimeout the time a session can be resumed (seconds), 0 for no limit.
+     */
+    public TlsContext(SSLContext sslContext, int sessionCacheSize, int sessionTimeout) {
+        this.sslContext = sslContext;
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeout);
+    }
+
+    /**
+     * Loads the server certificate and its private key from a PKCS12 keystore, with the default session cache.
+     *
+     * @param keyStore the keystore file.
+     * @param password the password of the keystore and of its key.
+     * @return the TLS settings.
+     * @throws IOException if the keystore cannot be read or holds no usable key.
+     */
+    public static TlsContext fromKeyStore(Path keyStore, char[] password) throws IOException {
+        enableSessionTickets();
+        try {
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(loadKeyStore(keyStore, password), password);
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagers.getKeyManagers(), null, null);
+            return new TlsContext(sslContext, defaultSessionCacheSize, defaultSessionTimeout);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Invalid keystore " + keyStore + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Opens the TLS settings set by the {@code chat.tls.keystore} and {@code chat.tls.password} system properties.
+     *
+     * @return the TLS settings, or {@code null} when the keystore property is not set.
+     * @throws IOException if the keystore cannot be loaded.
+     */
+    public static TlsContext openConfigured() throws IOException {
+        String keyStore = System.getProperty(keyStoreProperty);
+        if (keyStore == null) {
+            return null;
+        }
+        return fromKeyStore(Paths.get(keyStore), System.getProperty(passwordProperty, "").toCharArray());
+    }
+
+    /**
+     * Creates a client context trusting the certificates of a keystore, such as a self-signed server certificate.
+     * Its client session cache lets reconnections to the same host and port resume their session.
+     *
+     * @param keyStore the keystore holding the trusted certificates.
+     * @param password the password of the keystore.
+     * @return the client context.
+     * @throws IOException if the keystore cannot be read.
+     */
+    public static SSLContext clientContext(Path keyStore, char[] password) throws IOException {
+        try {
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(loadKeyStore(keyStore, password));
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustManagers.getTrustManagers(), null);
+            return sslContext;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Invalid keystore " + keyStore + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes a PKCS12 keystore holding a self-signed EC certificate for localhost, with the keytool of the
+     * running JDK.
+     *
+     * @param keyStore the keystore file to create, which must not exist.
+     * @param password the password of the keystore and of its key, 6 characters at least.
+     * @throws IOException if keytool is missing or fails.
+     */
+    public static void generateSelfSigned(Path keyStore, char[] password) throws IOException {
+        Path keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool");
+        String secret = new String(password);
+        Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "chat",
+                "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost", "-validity", "365",
+                "-ext", "SAN=dns:localhost,ip:127.0.0.1", "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", secret, "-keypass", secret)
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException("keytool failed: " + output.trim());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating " + keyStore, e);
+        }
+    }
+
+    /**
+     * Returns the JDK context, to share its certificate or inspect its session cache.
+     *
+     * @return the SSL context.
+     */
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Returns the cache of the sessions negotiated by the server.
+     *
+     * @return the server session context.
+     */
+    public SSLSessionContext getSessionContext() {
+        return sslContext.getServerSessionContext();
+    }
+
+    /**
+     * Creates the engine of a new non-blocking session.
+     *
+     * @param peerHost the client address, as a hint for the session cache.
+     * @param peerPort the client port.
+     * @return a server mode engine.
+     */
+    public SSLEngine newEngine(String peerHost, int peerPort) {
+        SSLEngine engine = sslContext.createSSLEngine(peerHost, peerPort);
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    /**
+     * Layers TLS on an accepted blocking socket. The handshake runs on the first read or write, or on
+     * {@link SSLSocket#startHandshake()}.
+     *
+     * @param socket the accepted plaintext socket, closed with the returned socket.
+     * @return the server mode TLS socket.
+     * @throws IOException if the socket cannot be layered.
+     */
+    public SSLSocket wrapAccepted(Socket socket) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) sslContext.getSocketFactory()
+                .createSocket(socket, socket.getInetAddress().getHostAddress(), socket.getPort(), true);
+        sslSocket.setUseClientMode(false);
+        return sslSocket;
+    }
+
+    /**
+     * Reads a PKCS12 keystore.
+     */
+    private static KeyStore loadKeyStore(Path path, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(path)) {
+            keyStore.load(input, password);
+        }
+        return keyStore;
+    }
+
+    /**
+     * Turns the stateless session tickets on, unless set on the command line. Read by the JDK when its TLS
+     * classes load, so before the first context is built.
+     */
+    private static void enableSessionTickets() {
+        if (System.getProperty(ticketProperty) == null) {
+            System.setProperty(ticketProperty, "true");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code TlsContext}.
+ */
+class TlsContextTest {
+    private final char[] password = "chat-test".toCharArray();
+
+    @Test
+    void testKeyStoreSetsUpTheSessionCache() throws Exception {
+        Path keyStore = Files.createTempDirectory("chat-tls").resolve("server.p12");
+        TlsContext.generateSelfSigned(keyStore, password);
+
+        TlsContext tls = TlsContext.fromKeyStore(keyStore, password);
+        assertEquals(TlsContext.defaultSessionCacheSize, tls.getSessionContext().getSessionCacheSize());
+        assertEquals(TlsContext.defaultSessionTimeout, tls.getSessionContext().getSessionTimeout());
+
+        SSLEngine engine = tls.newEngine("127.0.0.1", 5000);
+        assertFalse(engine.getUseClientMode(), "The engines should be on the server side");
+    }
+
+    @Test
+    void testWrongPasswordIsRejected() throws Exception {
+        Path keyStore = Files.createTempDirectory("chat-tls").resolve("server.p12");
+        TlsContext.generateSelfSigned(keyStore, password);
+
+        assertThrows(IOException.class, () -> TlsContext.fromKeyStore(keyStore, "wrong-password".toCharArray()));
+    }
+
+    @Test
+    void testNoKeyStoreMeansPlaintext() throws Exception {
+        assertNull(System.getProperty("chat.tls.keystore"));
+        assertNull(TlsContext.openConfigured());
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * A UDP client taking part in a {@link ChatRoom} shared with TCP sessions, as in the {@link ChatGateway}.
+ *
+ * <p>A UDP client joins the room by sending a hello frame : from then on, the messages of the other
+ * members are sent to its address as {@link WireProtocol} chat frames, one datagram each, from the
+ * listening socket of the server. There is no connection to close : the member leaves on
+ * {@code exit console}, or once it has been silent for the idle timeout of the server.</p>
+ *
+ * <p>A datagram is never queued : the send either fits in the socket buffer or is dropped, like any
+ * datagram.</p>
+ */
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+public class UDPChatMember implements ChatMember {
+    private final String clientID;
+    private final InetSocketAddress address;
+    private final DatagramChannel channel;
+    private final ServerMetrics metrics;
+    private final Runnable disconnectCallback;
+
+    // Expiry of a silent member, touched by each datagram of the client
+    private volatile IdleTimer.Timeout idleTimeout;
+
+    /**
+     * Creates the member of a UDP client.
+     *
+     * @param address the address the client sends from, and receives on.
+     * @param channel the listening channel of the server, sending the frames.
+     * @param metrics the counters of the server.
+     * @param disconnectCallback removes the member from the server and the room.
+     */
+    public UDPChatMember(InetSocketAddress address, DatagramChannel channel, ServerMetrics metrics, Runnable disconnectCallback) {
+        this.clientID = address.getAddress() + ":" + address.getPort();
+        this.address = address;
+        this.channel = channel;
+        this.metrics = metrics;
+        this.disconnectCallback = disconnectCallback;
+    }
+
+    /**
+     * Gets the printable "address:port" identifier of the client.
+     *
+     * @return the client ID.
+     */
+    @Override
+    public String getClientID() {
+        return clientID;
+    }
+
+    /**
+     * UDP members joined with a hello frame : they always take binary frames.
+     *
+     * @return {@code true}.
+     */
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    /**
+     * Gets the expiry of the member.
+     *
+     * @return the idle timeout, or {@code null} before it is set.
+     */
+    public IdleTimer.Timeout getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets the expiry of the member, scheduled by the server.
+     *
+     * @param idleTimeout the idle timeout.
+     */
+    public void setIdleTimeout(IdleTimer.Timeout idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Sends a frame to the client in one datagram. Called from the sender's thread, never waits : a full
+     * socket buffer drops the datagram.
+     *
+     * @param frame the encoded frame shared by every recipient.
+     */
+    @Override
+    public void deliver(byte[] frame) {
+        try {
+            if (channel.send(ByteBuffer.wrap(frame), address) > 0) {
+                metrics.messageSent(frame.length);
+            }
+        } catch (IOException e) {
+            AsyncLogger.shared.warn("Error while sending to " + clientID + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the client from the room and stops its expiry.
+     */
+    @Override
+    public void disconnect() {
+        IdleTimer.Timeout current = idleTimeout;
+        if (current != null) {
+            current.cancel();
+        }
+        disconnectCallback.run();
+    }
+}
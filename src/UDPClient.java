@@ -3,7 +3,7 @@
  * The client uses a console interface for user input and sends
  * messages to the server via UDP.
  *
- * <p>Usage: `java UDPClient <address> <port>`</p>
+ * <p>Usage: `java UDPClient <address> <port> [reliable] [binary]`</p>
  *
  * <p>Supported commands:</p>
  * <ul>
@@ -11,12 +11,31 @@
  *     <li>`CTRL + D` or `exit console` - Closes the client console.</li>
  *     <li>`close server` - Ends input and exits the program.</li>
  * </ul>
+ *
+ * <p>Messages are sent through a {@link DatagramChannel} connected to the server, from one reusable direct
+ * buffer. Without a console (input piped from a file or another program), every line already available is
+ * queued and the batch is sent in one go, instead of prompting for each line.</p>
+ *
+ * <p>Messages longer than one datagram are split into fragments ({@link FragmentPacket}), put back together
+ * by the server.</p>
+ *
+ * <p>In reliable mode, messages go through a {@link ReliableSender} : they are numbered, acknowledged by
+ * the server and retransmitted when lost, and the client waits for the last acknowledgements before
+ * closing.</p>
+ *
+ * <p>In binary mode, each message is a {@link WireProtocol} frame whose opcode tells the commands from the
+ * chat messages, fragmented like a text message when it is too long.</p>
  */
+import java.io.BufferedReader;
 import java.io.Console;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 
 public class UDPClient {
     private String serverHost;
@@ -24,8 +43,26 @@ public class UDPClient {
 
     // Constants
     private static final int systemShutdown = 1;
+    private final int maxBufSize = 1024;
+    private final int maxBatchMessages = 64;   // Messages sent per batch at most
     private boolean clientConnected = true;
 
+    // Reliable mode, and the longest wait for the last acknowledgements before closing (ms)
+    private boolean reliable = false;
+    private final long closeTimeout = 5000;
+    private ReliableSender reliableSender;
+
+    // Binary protocol, and the sequence number of the next message
+    private boolean binary = false;
+    private int nextSequence = 1;
+
+    // Messages waiting to be sent, and the buffer they are written from
+    private final ArrayDeque<byte[]> outgoing = new ArrayDeque<>();
+    private final ByteBuffer sendBuf = ByteBuffer.allocateDirect(maxBufSize);
+
+    // Id of the next fragmented message
+    private int nextMessageId = 0;
+
     /**
      * Constructs a UDP client to connect to a specified server.
      *
@@ -38,7 +75,25 @@ public class UDPClient {
     }
 
     /**
-     * Starts the client, reads user input from the console,
+     * Selects the reliable mode, with acknowledgements and retransmissions. Must be called before {@link #send()}.
+     *
+     * @param reliable {@code true} to deliver every message in order, even on a lossy link.
+     */
+    public void setReliable(boolean reliable) {
+        this.reliable = reliable;
+    }
+
+    /**
+     * Selects the binary {@link WireProtocol} instead of text messages. Must be called before {@link #send()}.
+     *
+     * @param binary {@code true} to send binary frames.
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Starts the client, reads user input from the console (or the standard input when there is none),
      * and sends it to the UDP server.
      *
      * <p>Special commands:</p>
@@ -48,68 +103,141 @@ public class UDPClient {
      *     <li>`close server` - Ends input and exits the program.</li>
      * </ul>
      *
-     * @throws Exception if a network error occurs or if the console is unavailable.
+     * @throws Exception if a network error occurs.
      */
     public void send() throws Exception {
-        // Open a socket for sending datagrams
-        DatagramSocket datagramSocket = new DatagramSocket();
-        InetAddress serverInetAddress = InetAddress.getByName(this.serverHost);
+        // Open a channel connected to the server : no address to resolve nor check on each send
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(new InetSocketAddress(this.serverHost, this.serverPort));
+            if (reliable) {
+                reliableSender = new ReliableSender(channel, maxBufSize);
+            }
 
-        // Get a console
-        Console console = System.console();
+            // Get a console, or read the lines piped on the standard input
+            Console console = System.console();
+            BufferedReader reader = console == null
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                    : null;
 
-        // Check if console is available
-        if (console == null) { 
-            System.err.println("No console available.");
-            System.exit(systemShutdown);
-        }
+            // Client's session loop
+            while (clientConnected) {
+                // Prompt user for input, then queue every line already typed or piped
+                String userInput = console != null
+                        ? console.readLine("Enter a message or '?' for help : ")
+                        : reader.readLine();
+                queueInput(userInput);
+                while (clientConnected && reader != null && reader.ready() && outgoing.size() < maxBatchMessages) {
+                    queueInput(reader.readLine());
+                }
 
-        // Client's session loop
-        while (clientConnected) {
-            // Prompt user for input
-            String userInput = console.readLine("Enter a message or '?' for help : ");
+                // Send the whole batch
+                flushMessages(channel);
+            }
 
-            // CTRL+D corresponds to en end-of-input (EOF), console.readLine() returns null
-            if (userInput==null){
-                // Treat CTRL+D as "exit console"
-                userInput = "exit console";
+            // Wait for the server to acknowledge the last messages
+            if (reliableSender != null) {
+                try {
+                    if (!reliableSender.flush(closeTimeout)) {
+                        System.err.println("Some messages were not acknowledged by the server");
+                    }
+                } finally {
+                    reliableSender.close();
+                    reliableSender = null;
+                }
             }
+        }
+        // Print closing message
+        System.out.println("Console closed\n");
+    }
 
-            // Encodes strings in UTF-8
-            byte[] data = userInput.getBytes(StandardCharsets.UTF_8);
+    /**
+     * Queues one input line and handles the client side of the commands.
+     *
+     * @param userInput the line read, {@code null} at the end of the input.
+     */
+    private void queueInput(String userInput) {
+        // CTRL+D corresponds to en end-of-input (EOF), readLine() returns null
+        if (userInput==null){
+            // Treat CTRL+D as "exit console"
+            userInput = "exit console";
+        }
+
+        // Encodes strings in UTF-8, in a binary frame if selected : one frame per message, fragmented when too long
+        queueMessage(binary ? WireCodec.encodeLine(userInput, nextSequence++, false, Integer.MAX_VALUE)
+                : userInput.getBytes(StandardCharsets.UTF_8));
+
+        // Handle help command display
+        if (userInput.trim().equalsIgnoreCase("?")){
+            System.out.println("\n>> CTRL + D or type 'exit console' to quit console\n" );
+            System.out.println(">> 'close server' to disconnect the server\n");
+        }
+        // Handle console and server closure
+        if (userInput.trim().equalsIgnoreCase("exit Console") || userInput.trim().equalsIgnoreCase("close server")){
+            System.out.println("Closing console...\n");
+            clientConnected = false;
+        }
+    }
 
-            // Send datagram to the server
-            DatagramPacket packet = new DatagramPacket(data, data.length, serverInetAddress, serverPort);
-            datagramSocket.send(packet);
+    /**
+     * Queues an encoded message, sent by the next {@link #flushMessages(DatagramChannel)}.
+     * A message longer than one datagram is queued as its fragments.
+     *
+     * @param data the message bytes.
+     */
+    public void queueMessage(byte[] data) {
+        // The reliable header takes room in each datagram
+        int maxDatagramSize = reliable ? maxBufSize - ReliablePacket.dataHeaderLength : maxBufSize;
+        if (data.length <= maxDatagramSize) {
+            outgoing.add(data);
+            return;
+        }
+        outgoing.addAll(FragmentPacket.split(data, maxDatagramSize, nextMessageId++));
+    }
 
-            // Handle help command display
-            if (userInput.trim().equalsIgnoreCase("?")){
-                System.out.println("\n>> CTRL + D or type 'exit console' to quit console\n" );
-                System.out.println(">> 'close server' to disconnect the server\n");
+    /**
+     * Sends every queued message, each as one datagram, through the reusable direct buffer
+     * (or the reliable sender in reliable mode).
+     *
+     * @param channel the channel connected to the server.
+     * @return the number of datagrams sent.
+     * @throws IOException if a datagram cannot be sent.
+     */
+    public int flushMessages(DatagramChannel channel) throws IOException {
+        int sent = 0;
+        byte[] data;
+        while ((data = outgoing.poll()) != null) {
+            if (reliableSender != null) {
+                // Waits for room in the window, retransmits what the server reports missing
+                reliableSender.send(data);
+                sent++;
+                continue;
             }
-            // Handle console and server closure
-            if (userInput.trim().equalsIgnoreCase("exit Console") || userInput.trim().equalsIgnoreCase("close server")){
-                System.out.println("Closing console...\n");
-                clientConnected = false;
+            sendBuf.clear();
+            // Messages are fragmented to the server receive size when queued
+            sendBuf.put(data, 0, Math.min(data.length, sendBuf.capacity())).flip();
+            try {
+                channel.write(sendBuf);
+                sent++;
+            } catch (PortUnreachableException e) {
+                // A connected channel reports the ICMP error of a previous datagram
+                System.err.println("Server unreachable on port " + this.serverPort);
             }
         }
-        // Close the socket and print closing message
-        datagramSocket.close();
-        System.out.println("Console closed\n");
+        return sent;
     }
 
     /**
      * The main method to start the UDP client.
      *
-     * <p>Usage: `java UDPClient <address> <port>`</p>
+     * <p>Usage: `java UDPClient <address> <port> [reliable] [binary]`</p>
      *
-     * @param args command-line arguments: the server address and port number.
+     * @param args command-line arguments: the server address and port number, then optionally `reliable` and `binary`.
      * @throws Exception if there is an error starting the client.
      */
     public static void main(String[] args) throws Exception {
         // Parses command-line args
         if (args.length < 2) {
-            System.err.println("Usage: java UDPClient <address> <port>");
+            System.err.println("Usage: java UDPClient <address> <port> [reliable] [binary]");
             System.exit(systemShutdown);
         }
 
@@ -119,6 +247,14 @@ public class UDPClient {
 
         // Instance of UDP Client
         UDPClient clientUDP = new UDPClient(host, port);
+        // Optional modes, in any order
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equalsIgnoreCase("reliable")) {
+                clientUDP.setReliable(true);
+            } else if (args[i].equalsIgnoreCase("binary")) {
+                clientUDP.setBinary(true);
+            }
+        }
         clientUDP.send();
     }
 }
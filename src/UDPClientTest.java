@@ -1,3 +1,4 @@
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -6,6 +7,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -16,6 +19,7 @@ class UDPClientTest {
     private final int maxBufSize = 1024;
     private UDPClient udpClient;
     private DatagramSocket serverSocket;
+    private Thread serverThread;
 
     @BeforeEach
     void setUp() throws Exception {
@@ -23,7 +27,7 @@ class UDPClientTest {
 
         // Create a mock server to receive client messages
         serverSocket = new DatagramSocket(TEST_PORT);
-        new Thread(() -> {
+        serverThread = new Thread(() -> {
             try {
                 byte[] buffer = new byte[maxBufSize];
                 DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
@@ -35,7 +39,18 @@ class UDPClientTest {
             } catch (Exception e) {
                 // Socket closed
             }
-        }).start();
+        });
+        serverThread.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        // Free the port for the mock server of the next test : the socket is only released once its
+        // receiving thread has left receive()
+        if (serverSocket != null) {
+            serverSocket.close();
+            serverThread.join();
+        }
     }
 
     @Test
@@ -51,7 +66,10 @@ class UDPClientTest {
         // Send messages
         udpClient.send();
 
-        // Check server-side logs for message receipt
+        // Check server-side logs for message receipt, printed by the mock server thread
+        for (int i = 0; i < 20 && !outContent.toString().contains("Hello, server!"); i++) {
+            Thread.sleep(50);
+        }
         assertTrue(outContent.toString().contains("Hello, server!"), "Client should send the message");
     }
 
@@ -67,4 +85,24 @@ class UDPClientTest {
 
         assertTrue(outContent.toString().contains("CTRL + D"), "Help command should display usage info");
     }
+
+    @Test
+    void testFlushSendsQueuedMessagesInOrder() throws Exception {
+        try (DatagramSocket receiver = new DatagramSocket(0);
+             DatagramChannel channel = DatagramChannel.open()) {
+            channel.connect(new InetSocketAddress("localhost", receiver.getLocalPort()));
+            udpClient.queueMessage("first".getBytes(StandardCharsets.UTF_8));
+            udpClient.queueMessage("second".getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(2, udpClient.flushMessages(channel));
+            assertEquals(0, udpClient.flushMessages(channel), "The queue should be empty after a flush");
+
+            byte[] buffer = new byte[maxBufSize];
+            for (String expected : new String[]{"first", "second"}) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                receiver.receive(packet);
+                assertEquals(expected, new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+            }
+        }
+    }
 }
@@ -0,0 +1,14 @@
+public class UDPCloseServerCommandHandler implements CommandHandler{
+    private final UDPServer udpServer;
+
+    public UDPCloseServerCommandHandler(UDPServer udpServer) {
+        this.udpServer = udpServer;
+    }
+
+    @Override
+    public void handle(String clientID,String receivedData){
+        AsyncLogger.shared.info("User at " + clientID + " requested server shutdown.");
+        AsyncLogger.shared.info("Server closing...\n");
+        udpServer.serverConnected = false;
+    }
+}
@@ -2,7 +2,6 @@ public class UDPExitCommandHandler implements CommandHandler{
 
     @Override
     public void handle(String clientID,String receivedData){
-        receivedData = "";
-        System.out.println("Bye Bye user "+ clientID + " ヾ(・ω・*)");
+        AsyncLogger.shared.info("Bye Bye user "+ clientID + " ヾ(・ω・*)");
     }
 }
@@ -0,0 +1,7 @@
+public class UDPHelpCommandHandler implements CommandHandler{
+
+    @Override
+    public void handle(String clientID,String receivedData){
+        AsyncLogger.shared.info("User at "+ clientID + " is looking at the help notice");
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Worker thread handling the datagrams of a subset of the {@link UDPServer} clients.
+ *
+ * <p>Receiver threads hand each datagram to the worker chosen by its sender address, so the
+ * datagrams of one client are always handled by the same worker, in the order they were received.
+ * Decoding, logging and command handling never delay the next {@code receive()}.</p>
+ *
+ * <p>The queue is bounded : when a worker falls behind, new datagrams are dropped like a full
+ * socket receive buffer would, and counted.</p>
+ */
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UDPPacketWorker extends Thread {
+    // Received datagram waiting to be handled, its buffer comes from the BufferPool
+    private static final class ReceivedPacket {
+        private final ByteBuffer buf;
+        private final InetSocketAddress sender;
+
+        private ReceivedPacket(ByteBuffer buf, InetSocketAddress sender) {
+            this.buf = buf;
+            this.sender = sender;
+        }
+    }
+
+    private final UDPServer udpServer;
+    private final ArrayBlockingQueue<ReceivedPacket> packets;
+    private volatile boolean workerRunning = true;
+    private final AtomicLong droppedPackets = new AtomicLong();
+
+    // Time waited for a datagram before checking if the worker must stop (ms)
+    private final int pollInterval = 100;
+
+    /**
+     * Creates a worker.
+     *
+     * @param udpServer the server whose handlers process the datagrams.
+     * @param queueCapacity the maximum number of datagrams waiting in this worker.
+     * @param name the thread name.
+     */
+    public UDPPacketWorker(UDPServer udpServer, int queueCapacity, String name) {
+        super(name);
+        this.udpServer = udpServer;
+        this.packets = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Queues a received datagram. Never waits : if the queue is full the datagram is dropped
+     * and its buffer given back to the pool.
+     *
+     * @param buf the pooled buffer holding the datagram, flipped for reading.
+     * @param sender the address the datagram came from.
+     * @return {@code true} if the datagram was queued.
+     */
+    public boolean submit(ByteBuffer buf, InetSocketAddress sender) {
+        if (packets.offer(new ReceivedPacket(buf, sender))) {
+            return true;
+        }
+        droppedPackets.incrementAndGet();
+        BufferPool.shared.release(buf);
+        return false;
+    }
+
+    /**
+     * Gets the number of datagrams dropped because this worker was behind.
+     *
+     * @return the dropped datagrams count.
+     */
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    /**
+     * Asks the worker to stop once its queued datagrams are handled.
+     */
+    public void shutdown() {
+        workerRunning = false;
+    }
+
+    /**
+     * Handles the queued datagrams in order until {@link #shutdown()} is called and the queue is empty.
+     */
+    @Override
+    public void run() {
+        while (workerRunning || !packets.isEmpty()) {
+            ReceivedPacket packet;
+            try {
+                packet = packets.poll(pollInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (packet == null) {
+                continue;
+            }
+            try {
+                ByteBuffer buf = packet.buf;
+                udpServer.handleDatagram(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(),
+                        packet.sender.getAddress(), packet.sender.getPort());
+            } finally {
+                BufferPool.shared.release(packet.buf);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code UDPPacketWorker}.
+ */
+class UDPPacketWorkerTest {
+    private final int queueCapacity = 4;
+    private final int messageCount = 100;
+    private final InetSocketAddress sender = new InetSocketAddress("localhost", 40000);
+
+    // Server recording the handled datagrams instead of logging them
+    private static class RecordingUDPServer extends UDPServer {
+        private final List<String> messages = new CopyOnWriteArrayList<>();
+
+        @Override
+        protected void handleDatagram(byte[] data, int offset, int length, InetAddress clientAddress, int clientPort) {
+            messages.add(new String(data, offset, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    private ByteBuffer datagram(String message) {
+        ByteBuffer buf = BufferPool.shared.acquire();
+        buf.put(message.getBytes(StandardCharsets.UTF_8)).flip();
+        return buf;
+    }
+
+    @Test
+    void testDatagramsAreHandledInOrder() throws InterruptedException {
+        RecordingUDPServer server = new RecordingUDPServer();
+        UDPPacketWorker worker = new UDPPacketWorker(server, messageCount, "test-worker");
+        worker.start();
+
+        for (int i = 0; i < messageCount; i++) {
+            assertTrue(worker.submit(datagram("message " + i), sender));
+        }
+        worker.shutdown();
+        worker.join();
+
+        assertEquals(messageCount, server.messages.size());
+        for (int i = 0; i < messageCount; i++) {
+            assertEquals("message " + i, server.messages.get(i));
+        }
+    }
+
+    @Test
+    void testFullQueueDropsDatagrams() throws InterruptedException {
+        RecordingUDPServer server = new RecordingUDPServer();
+        // Not started yet : nothing leaves the queue
+        UDPPacketWorker worker = new UDPPacketWorker(server, queueCapacity, "test-worker");
+
+        for (int i = 0; i < queueCapacity; i++) {
+            assertTrue(worker.submit(datagram("message " + i), sender));
+        }
+        assertFalse(worker.submit(datagram("dropped"), sender));
+        assertEquals(1, worker.getDroppedPackets());
+
+        // Queued datagrams are still handled on shutdown
+        worker.shutdown();
+        worker.start();
+        worker.join();
+        assertEquals(queueCapacity, server.messages.size());
+    }
+}
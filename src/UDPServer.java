@@ -2,7 +2,27 @@
  * A simple UDP server that listens for incoming datagrams and processes them.
  * The server allows clients to send messages and supports special commands for closing interacting with the server.
  *
- * <p>Usage: `java UDPServer <listening port>`</p>
+ * <p>Usage: `java UDPServer <listening port> [channel | <receiver threads> <worker threads>]`</p>
+ *
+ * <p>By default one thread receives and handles every datagram. With worker threads, receiver threads
+ * only read datagrams from {@link DatagramChannel}s and hand them to {@link UDPPacketWorker}s chosen by
+ * sender address, which keeps each client's messages in order. Several receivers each get their own
+ * channel bound with SO_REUSEPORT, so the kernel spreads the clients between them; where the option is
+ * not supported a single receiver is used.</p>
+ *
+ * <p>In channel mode, a non-blocking {@link DatagramChannel} is drained completely at each selector wakeup
+ * into one reusable direct buffer, with a larger socket receive buffer to absorb bursts.</p>
+ *
+ * <p>Clients of the reliable mode ({@link ReliableSender}) are recognized by the header of their datagrams :
+ * their messages are put back in order by a {@link ReliableReceiver} per client, and each datagram is
+ * acknowledged from the listening socket. Plain datagrams are handled as before.</p>
+ *
+ * <p>Messages longer than the receive buffer arrive in fragments ({@link FragmentPacket}), plain or reliable,
+ * and are put back together by a bounded {@link FragmentReassembler} before being handled.</p>
+ *
+ * <p>With a {@link ChatRoom} shared with a {@link TCPMultiServer} ({@link ChatGateway}), the chat messages are
+ * broadcast to the TCP clients, and a UDP client that sends a hello frame joins the room as a
+ * {@link UDPChatMember} to receive the messages of the others.</p>
  *
  * <p>Supported commands from clients:</p>
  * <ul>
@@ -16,18 +36,62 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 public class UDPServer {
     private int listeningPort;
-    private String serverState;
+    private volatile String serverState;
 
     // Default values and constants
     private final int defaultPort = 0;
     private final int maxBufSize = 1024;
     private final int DataOffset = 0;   // Offset for processing incoming data
     private static final int systemShutdown = 1;
-    private boolean serverConnected = true;
+    protected volatile boolean serverConnected = true;
+
+    // Threading of the receive path, no worker means the single-threaded loop
+    private int receiverThreads = 1;
+    private int workerThreads = 0;
+    private final int workerQueueCapacity = 4096;   // Datagrams waiting per worker before dropping
+    private final int shutdownPollInterval = 100;   // Check of the server closure while workers run (ms)
+
+    // Live counters published over JMX while the server runs
+    private final ServerMetrics metrics = new ServerMetrics("UDPServer");
+
+    // Non-blocking channel mode
+    private boolean channelMode = false;
+    private final int receiveBufferSize = 1 << 20;   // Socket receive buffer asked for bursts (1 MB)
+
+    // Reliable mode : receivers by client, dropped after a minute of silence, and the socket sending the ACKs
+    private final ConcurrentHashMap<InetSocketAddress, ReliableReceiver> reliableReceivers = new ConcurrentHashMap<>();
+    private final long reliableIdleTimeout = 60000;   // Forget a silent reliable client after 1 min (60000 ms)
+    private volatile DatagramChannel replyChannel;
+
+    // Reassembly of the fragmented messages : 256 KB per message, 16 MB and 4096 messages in progress at most,
+    // 5 s for a message to arrive completely
+    private final FragmentReassembler fragmentReassembler = new FragmentReassembler(256 * 1024, 16L << 20, 4096, 5000);
+
+    // Journal of the chat messages, none by default
+    private ChatJournal journal;
+
+    // Chat room shared with a TCP server, none by default, and the thread its broadcasts must run on
+    private ChatRoom chatRoom;
+    private Executor chatExecutor;
+    private final ConcurrentHashMap<InetSocketAddress, UDPChatMember> chatMembers = new ConcurrentHashMap<>();
+    private final long memberIdleTimeout = 300000;   // Silent member dropped from the room after 5 min (300000 ms)
+
+    // Handlers of the client commands, indexed by command
+    private final CommandHandler[] commandHandlers = CommandRegistry.newDispatchTable();
 
     /**
      * Constructs a UDP server with a specific listening port.
@@ -47,6 +111,92 @@ public class UDPServer {
         this.serverState = "Closed";
     }
 
+    /**
+     * Fills the command dispatch table with the UDP handlers, before the first datagram is received.
+     */
+    private void registerCommandHandlers() {
+        commandHandlers[CommandRegistry.Command.HELP.ordinal()] = new UDPHelpCommandHandler();
+        commandHandlers[CommandRegistry.Command.EXIT_CONSOLE.ordinal()] = new UDPExitCommandHandler();
+        commandHandlers[CommandRegistry.Command.CLOSE_SERVER.ordinal()] = new UDPCloseServerCommandHandler(this);
+    }
+
+    /**
+     * Sets the threading of the receive path. Must be called before {@link #launch()}.
+     *
+     * @param receiverThreads the number of threads receiving datagrams (at least 1).
+     * @param workerThreads the number of threads handling datagrams, 0 to handle them on the receiving thread.
+     */
+    public void setThreading(int receiverThreads, int workerThreads) {
+        this.receiverThreads = Math.max(1, receiverThreads);
+        this.workerThreads = Math.max(0, workerThreads);
+    }
+
+    /**
+     * Returns the live counters of the server.
+     *
+     * @return the server metrics.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Selects the non-blocking channel mode, which drains every pending datagram at each wakeup.
+     * Must be called before {@link #launch()}, ignored when worker threads are set.
+     *
+     * @param channelMode {@code true} to use a non-blocking {@link DatagramChannel}.
+     */
+    public void setChannelMode(boolean channelMode) {
+        this.channelMode = channelMode;
+    }
+
+    /**
+     * Sets the journal where the chat messages are recorded. Must be called before {@link #launch()}.
+     * The journal stays open when the server closes.
+     *
+     * @param journal the message journal, {@code null} for none.
+     */
+    public void setJournal(ChatJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Shares a chat room with a TCP server. Must be called before {@link #launch()}. The room journals the
+     * messages : the journal of this server, if any, is then left aside.
+     *
+     * @param chatRoom the room of the TCP clients.
+     * @param chatExecutor runs the broadcasts, on the receiving thread or elsewhere : every member takes
+     *                     deliveries from any thread.
+     */
+    public void setChatRoom(ChatRoom chatRoom, Executor chatExecutor) {
+        this.chatRoom = chatRoom;
+        this.chatExecutor = chatExecutor;
+    }
+
+    /**
+     * Stops the server from another thread : the listening channel is closed, which unblocks the receive.
+     */
+    public void close() {
+        serverConnected = false;
+        DatagramChannel channel = replyChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                AsyncLogger.shared.error("Error closing resources: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns the table of the fragmented messages being received.
+     *
+     * @return the fragment reassembler.
+     */
+    public FragmentReassembler getFragmentReassembler() {
+        return fragmentReassembler;
+    }
+
     /**
      * Gets the port number on which the server is listening.
      *
@@ -69,10 +219,44 @@ public class UDPServer {
      * @throws IOException if there is a network or socket error.
      */
     public void launch() throws IOException {
+        registerCommandHandlers();
+        try {
+            if (workerThreads > 0) {
+                launchWorkers();
+            } else if (channelMode) {
+                launchChannel();
+            } else {
+                launchSocket();
+            }
+        } finally {
+            metrics.unregister();
+            // Forget the reliable clients and the chat members of this run
+            for (ReliableReceiver receiver : reliableReceivers.values()) {
+                receiver.getIdleTimeout().cancel();
+            }
+            reliableReceivers.clear();
+            for (UDPChatMember member : chatMembers.values()) {
+                member.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Runs the classic loop : one thread receives and handles every datagram.
+     *
+     * @throws IOException if the socket cannot be opened or an I/O error occurs.
+     */
+    private void launchSocket() throws IOException {
         // Try-with-resources to ensure the socket is closed properly
-        try (DatagramSocket datagramSocket = new DatagramSocket(this.listeningPort)){
+        // The socket of a channel, so the ACKs of the reliable mode can be sent from it
+        try (DatagramChannel channel = DatagramChannel.open()){
+            channel.bind(new InetSocketAddress(this.listeningPort));
+            // Published once the port is bound : the MBean server setup can take a while on a cold JVM
+            metrics.register(listeningPort);
+            DatagramSocket datagramSocket = channel.socket();
+            replyChannel = channel;
             this.serverState = "Running";
-            System.out.println("UDPServer is running and listening on port " + this.getListeningPort());
+            AsyncLogger.shared.info("UDPServer is running and listening on port " + this.getListeningPort());
 
             // Buffer for incoming data
             byte[] buf = new byte[maxBufSize];
@@ -84,35 +268,376 @@ public class UDPServer {
                 // Wait for a datagram to be received
                 datagramSocket.receive(packet);
 
-                InetAddress clientAddress = packet.getAddress();
-                int clientPort = packet.getPort();
-                String clientID = clientAddress + ":" + clientPort;
+                handleDatagram(packet.getData(), DataOffset, packet.getLength(), packet.getAddress(), packet.getPort());
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by close() : the server closure, not an error
+            if (serverConnected) {
+                throw e;
+            }
+        }
+        // Update server state upon closure
+        this.serverState = "Closed";
+        AsyncLogger.shared.info("Server closed\n");
+        // Print the queued logs before returning to the caller
+        AsyncLogger.shared.flush();
+    }
+
+    /**
+     * Runs the non-blocking channel loop : each selector wakeup drains every pending datagram.
+     *
+     * @throws IOException if the channel cannot be opened or an I/O error occurs.
+     */
+    private void launchChannel() throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open();
+             Selector selector = Selector.open()) {
+            // A larger kernel buffer keeps bursts until the next drain instead of dropping them
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            channel.bind(new InetSocketAddress(this.listeningPort));
+            metrics.register(listeningPort);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            replyChannel = channel;
 
-                // Decode received data to UTF-8 string
-                String receivedData = new String(packet.getData(), DataOffset, packet.getLength(), StandardCharsets.UTF_8);
+            this.serverState = "Running";
+            AsyncLogger.shared.info("UDPServer is running and listening on port " + this.getListeningPort() + " (channel mode)");
 
-                // Display client address, port, and message content
-                System.out.println("User in " + clientAddress + " says on port " + clientPort + ": " + receivedData + "\n");
+            // Direct buffer reused for every datagram : the kernel copies straight into it
+            ByteBuffer buf = ByteBuffer.allocateDirect(maxBufSize);
+            // Heap copy of the datagram for the command matching and decoding
+            byte[] data = new byte[maxBufSize];
+
+            while (serverConnected) {
+                if (selector.select(shutdownPollInterval) == 0) {
+                    continue;
+                }
+                selector.selectedKeys().clear();
+
+                // Drain every pending datagram before waiting again
+                InetSocketAddress sender;
+                while (serverConnected && (sender = (InetSocketAddress) channel.receive(buf)) != null) {
+                    buf.flip();
+                    int length = buf.remaining();
+                    buf.get(data, DataOffset, length);
+                    buf.clear();
+                    handleDatagram(data, DataOffset, length, sender.getAddress(), sender.getPort());
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by close() : the server closure, not an error
+            if (serverConnected) {
+                throw e;
+            }
+        }
+        // Update server state upon closure
+        this.serverState = "Closed";
+        AsyncLogger.shared.info("Server closed\n");
+        // Print the queued logs before returning to the caller
+        AsyncLogger.shared.flush();
+    }
+
+    /**
+     * Starts the receiver threads and the worker pool, then waits for the server closure.
+     *
+     * @throws IOException if a channel cannot be opened or bound.
+     */
+    private void launchWorkers() throws IOException {
+        // Several receivers need SO_REUSEPORT : sharing one channel could reorder a client's datagrams
+        int channelCount = 1;
+        if (receiverThreads > 1) {
+            if (supportsReusePort()) {
+                channelCount = receiverThreads;
+            } else {
+                AsyncLogger.shared.warn("SO_REUSEPORT not supported, using a single receiver thread");
+            }
+        }
 
-                // Handle client's help request
-                if(receivedData.trim().equalsIgnoreCase(("?"))){
-                    System.out.println("User at "+ clientID + " is looking at the help notice");
+        DatagramChannel[] channels = new DatagramChannel[channelCount];
+        Thread[] receivers = new Thread[channelCount];
+        UDPPacketWorker[] workers = new UDPPacketWorker[workerThreads];
+        try {
+            for (int i = 0; i < channelCount; i++) {
+                channels[i] = DatagramChannel.open();
+                if (channelCount > 1) {
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
                 }
-                // Handle Console closure
-                if(receivedData.trim().equalsIgnoreCase(("exit console"))){
-                    System.out.println("Bye Bye user "+ clientID + " ヾ(・ω・*)");
+                channels[i].bind(new InetSocketAddress(this.listeningPort));
+            }
+            metrics.register(listeningPort);
+            // Every channel is bound to the listening port, any of them can send the ACKs
+            replyChannel = channels[0];
+            for (int i = 0; i < workerThreads; i++) {
+                workers[i] = new UDPPacketWorker(this, workerQueueCapacity, "udp-worker-" + i);
+                workers[i].start();
+            }
+            for (int i = 0; i < channelCount; i++) {
+                DatagramChannel channel = channels[i];
+                receivers[i] = new Thread(() -> receiveLoop(channel, workers), "udp-receiver-" + i);
+                receivers[i].start();
+            }
+
+            this.serverState = "Running";
+            AsyncLogger.shared.info("UDPServer is running and listening on port " + this.getListeningPort()
+                    + " (" + channelCount + " receivers, " + workerThreads + " workers)");
+
+            // Wait for a client to close the server
+            while (serverConnected) {
+                Thread.sleep(shutdownPollInterval);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            serverConnected = false;
+            // Closing the channels unblocks the receivers
+            for (DatagramChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
                 }
-                // Handle UDP server closure
-                if (receivedData.trim().equalsIgnoreCase("close server")){
-                    System.out.println("User at " + clientID + " requested server shutdown.");
-                    System.out.println("Server closing...\n");
-                    serverConnected = false;
+            }
+            for (Thread receiver : receivers) {
+                joinQuietly(receiver);
+            }
+            // Workers finish the datagrams already queued
+            for (UDPPacketWorker worker : workers) {
+                if (worker != null) {
+                    worker.shutdown();
+                    joinQuietly(worker);
                 }
             }
         }
+
         // Update server state upon closure
         this.serverState = "Closed";
-        System.out.println("Server closed\n");
+        AsyncLogger.shared.info("Server closed\n");
+        // Print the queued logs before returning to the caller
+        AsyncLogger.shared.flush();
+    }
+
+    /**
+     * Receiver thread loop : reads datagrams into pooled buffers and hands them to the sender's worker.
+     *
+     * @param channel the channel this receiver reads from.
+     * @param workers the worker pool.
+     */
+    private void receiveLoop(DatagramChannel channel, UDPPacketWorker[] workers) {
+        try {
+            while (serverConnected) {
+                ByteBuffer buf = BufferPool.shared.acquire();
+                InetSocketAddress sender = (InetSocketAddress) channel.receive(buf);
+                buf.flip();
+                // Same client, same worker : its datagrams stay in order
+                workers[Math.floorMod(sender.hashCode(), workers.length)].submit(buf, sender);
+            }
+        } catch (AsynchronousCloseException e) {
+            // Server closure
+        } catch (IOException e) {
+            AsyncLogger.shared.error("Error while receiving datagrams: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles one datagram : a message of a reliable client goes through its {@link ReliableReceiver},
+     * a plain datagram is the message itself.
+     * Called by the receiving thread or by a {@link UDPPacketWorker}.
+     *
+     * @param data the buffer holding the datagram.
+     * @param offset the start of the datagram.
+     * @param length the datagram length.
+     * @param clientAddress the address of the client.
+     * @param clientPort the port of the client.
+     */
+    protected void handleDatagram(byte[] data, int offset, int length, InetAddress clientAddress, int clientPort) {
+        metrics.bytesReceived(length);
+        if (ReliablePacket.isReliable(data, offset, length)) {
+            handleReliableDatagram(data, offset, length, new InetSocketAddress(clientAddress, clientPort));
+        } else {
+            handlePayload(data, offset, length, clientAddress, clientPort);
+        }
+    }
+
+    /**
+     * Handles the content of a datagram : a whole message, or a fragment added to its message.
+     *
+     * @param data the buffer holding the content.
+     * @param offset the start of the content.
+     * @param length the content length.
+     * @param clientAddress the address of the client.
+     * @param clientPort the port of the client.
+     */
+    private void handlePayload(byte[] data, int offset, int length, InetAddress clientAddress, int clientPort) {
+        if (!FragmentPacket.isFragment(data, offset, length)) {
+            handleMessage(data, offset, length, clientAddress, clientPort);
+            return;
+        }
+        byte[] message = fragmentReassembler.add(new InetSocketAddress(clientAddress, clientPort),
+                data, offset, length, System.nanoTime());
+        if (message != null) {
+            handleMessage(message, 0, message.length, clientAddress, clientPort);
+        }
+    }
+
+    /**
+     * Hands a reliable datagram to the receiver of its client, handles the messages now in order and
+     * sends the ACK back.
+     *
+     * @param data the buffer holding the datagram.
+     * @param offset the start of the datagram.
+     * @param length the datagram length.
+     * @param client the address of the client.
+     */
+    private void handleReliableDatagram(byte[] data, int offset, int length, InetSocketAddress client) {
+        if (!ReliablePacket.isData(data, offset, length)) {
+            return;
+        }
+        ReliableReceiver receiver = reliableReceivers.computeIfAbsent(client, this::newReliableReceiver);
+        receiver.getIdleTimeout().touch();
+
+        ByteBuffer ack = receiver.receive(data, offset, length,
+                (message, messageOffset, messageLength) ->
+                        handlePayload(message, messageOffset, messageLength, client.getAddress(), client.getPort()));
+        try {
+            replyChannel.send(ack, client);
+            metrics.messageSent(ReliablePacket.ackLength);
+        } catch (IOException e) {
+            // A lost ACK : the client retransmits and gets the next one
+            AsyncLogger.shared.warn("Error while acknowledging " + client + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates the receiver of a new reliable client, forgotten once the client is silent.
+     */
+    private ReliableReceiver newReliableReceiver(InetSocketAddress client) {
+        ReliableReceiver receiver = new ReliableReceiver();
+        receiver.setIdleTimeout(IdleTimer.shared.schedule(reliableIdleTimeout, () -> {
+            reliableReceivers.remove(client, receiver);
+            receiver.getIdleTimeout().cancel();
+        }));
+        return receiver;
+    }
+
+    /**
+     * Handles one message, text or binary frame : displays it and runs the client's command, if any.
+     *
+     * @param data the buffer holding the message.
+     * @param offset the start of the message.
+     * @param length the message length.
+     * @param clientAddress the address of the client.
+     * @param clientPort the port of the client.
+     */
+    private void handleMessage(byte[] data, int offset, int length, InetAddress clientAddress, int clientPort) {
+        long startNanos = System.nanoTime();
+
+        int opcode;
+        if (WireProtocol.isFrame(data, offset, length)) {
+            // Binary frame : the opcode is in the header, the payload follows it
+            if (WireProtocol.version(data, offset) != WireProtocol.version) {
+                AsyncLogger.shared.warn("Unsupported protocol version from " + clientAddress + ":" + clientPort);
+                return;
+            }
+            opcode = WireProtocol.opcode(data, offset);
+            offset += WireProtocol.headerLength;
+            length -= WireProtocol.headerLength;
+        } else {
+            // Recognize commands on the raw bytes, before decoding
+            CommandRegistry.Command command = CommandRegistry.shared.match(data, offset, length);
+            opcode = command != null ? command.getOpcode() : WireProtocol.opcodeChat;
+        }
+
+        // Decode received data to UTF-8 string
+        String receivedData = new String(data, offset, length, StandardCharsets.UTF_8);
+
+        // Display client address, port, and message content
+        AsyncLogger.shared.info("User in " + clientAddress + " says on port " + clientPort + ": " + receivedData + "\n");
+
+        InetSocketAddress client = chatRoom != null ? new InetSocketAddress(clientAddress, clientPort) : null;
+        UDPChatMember member = client != null ? chatMembers.get(client) : null;
+        if (member != null) {
+            member.getIdleTimeout().touch();
+        }
+
+        switch (opcode) {
+            case WireProtocol.opcodeHello:
+                // Nothing to negotiate : every datagram tells its protocol. With a shared room, the client joins it
+                if (client != null && member == null) {
+                    joinChat(client);
+                }
+                break;
+            case WireProtocol.opcodeChat:
+                if (chatRoom != null) {
+                    // The room journals the message too. A client that never said hello only speaks, as an address
+                    if (member != null) {
+                        chatExecutor.execute(() -> chatRoom.broadcast(member, receivedData));
+                    } else {
+                        String senderID = clientAddress + ":" + clientPort;
+                        chatExecutor.execute(() -> chatRoom.broadcast(senderID, receivedData));
+                    }
+                } else if (journal != null) {
+                    journal.append(clientAddress + ":" + clientPort, data, offset, length);
+                }
+                break;
+            default:
+                // Handle client's commands (help request, console closure, server closure)
+                CommandRegistry.Command command = CommandRegistry.commandOf(opcode);
+                CommandHandler handler = command != null ? commandHandlers[command.ordinal()] : null;
+                if (handler != null) {
+                    handler.handle(clientAddress + ":" + clientPort, command.getText());
+                }
+                if (member != null && command == CommandRegistry.Command.EXIT_CONSOLE) {
+                    member.disconnect();
+                }
+                break;
+        }
+        metrics.messageHandled(startNanos);
+    }
+
+    /**
+     * Adds a UDP client to the shared chat room, until it leaves or stays silent for the idle timeout.
+     *
+     * @param client the address of the client.
+     */
+    private void joinChat(InetSocketAddress client) {
+        UDPChatMember[] joined = new UDPChatMember[1];
+        UDPChatMember member = new UDPChatMember(client, replyChannel, metrics, () -> {
+            if (chatMembers.remove(client, joined[0])) {
+                chatRoom.leave(joined[0]);
+                AsyncLogger.shared.info("User " + joined[0].getClientID() + " left the chat room");
+            }
+        });
+        joined[0] = member;
+        member.setIdleTimeout(IdleTimer.shared.schedule(memberIdleTimeout, member::disconnect));
+        if (chatMembers.putIfAbsent(client, member) == null) {
+            chatRoom.join(member);
+            AsyncLogger.shared.info("User " + member.getClientID() + " joined the chat room");
+        } else {
+            member.getIdleTimeout().cancel();
+        }
+    }
+
+    /**
+     * Checks if the platform supports binding several UDP sockets to the same port.
+     *
+     * @return {@code true} if SO_REUSEPORT is available.
+     * @throws IOException if a probe channel cannot be opened.
+     */
+    private static boolean supportsReusePort() throws IOException {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    /**
+     * Waits for a thread to end, ignoring interruptions.
+     */
+    private static void joinQuietly(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -128,15 +653,15 @@ public class UDPServer {
     /**
      * Main method to start the UDP server.
      *
-     * <p>Usage: `java UDPServer <listening port>`</p>
+     * <p>Usage: `java UDPServer <listening port> [channel | <receiver threads> <worker threads>]`</p>
      *
-     * @param args command-line arguments containing the listening port.
+     * @param args command-line arguments containing the listening port, then optionally the threading.
      * @throws IOException if there is an error launching the server.
      */
     public static void main(String[] args) throws IOException {
         // Parses command-line args
         if (args.length < 1){
-            System.err.println("Usage: java UDPServer <listening port>");
+            System.err.println("Usage: java UDPServer <listening port> [channel | <receiver threads> <worker threads>]");
             System.exit(systemShutdown);
         }
 
@@ -145,7 +670,19 @@ public class UDPServer {
 
         // Instance of UDP server
         UDPServer servUDP = new UDPServer(port);
+        // Optional non-blocking channel or multi-threaded receive path
+        if (args.length > 1 && args[1].equalsIgnoreCase("channel")) {
+            servUDP.setChannelMode(true);
+        } else if (args.length > 2) {
+            servUDP.setThreading(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        }
+        // Optional message journal, set with -Dchat.journal.dir=<directory>
+        ChatJournal journal = ChatJournal.openConfigured();
+        servUDP.setJournal(journal);
         servUDP.launch();
+        if (journal != null) {
+            journal.close();
+        }
         System.exit(systemShutdown);
     }
 }
@@ -29,9 +29,20 @@ class UDPServerTest {
         serverThread.start();
     }
 
+    /**
+     * Waits until the server has bound its port, so a datagram sent to it is not lost.
+     */
+    private void awaitRunning() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!udpServer.toString().contains("Running") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
     @AfterEach
     void tearDown() {
         try {
+            awaitRunning();
             // Send a "close server" message to stop the server
             DatagramSocket socket = new DatagramSocket();
             byte[] message = "close server".getBytes();
@@ -53,6 +64,7 @@ class UDPServerTest {
 
     @Test
     void testReceiveMessage() throws Exception {
+        awaitRunning();
         // Send a test message to the server
         DatagramSocket socket = new DatagramSocket();
         byte[] message = "test message".getBytes();
@@ -67,6 +79,7 @@ class UDPServerTest {
 
     @Test
     void testCloseServerCommand() throws Exception {
+        awaitRunning();
         DatagramSocket socket = new DatagramSocket();
         byte[] message = "close server".getBytes();
         InetAddress address = InetAddress.getByName("localhost");
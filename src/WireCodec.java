@@ -0,0 +1,288 @@
+/**
+ * Rebuilds the messages of a TCP session from its byte stream, in either protocol.
+ *
+ * <p>The first byte received chooses the protocol of the whole session : the magic byte of a
+ * {@link WireProtocol} hello frame selects the binary frames, anything else the newline-delimited text of
+ * {@link FrameCodec}. In text mode the commands are recognized by the {@link CommandRegistry} and reported
+ * with their opcode, so a session handles both protocols with a single opcode switch.</p>
+ *
+ * <p>Like {@link FrameCodec}, a binary frame received whole is handed out as a slice of the read buffer,
+ * only a frame split over several reads is copied. A deflated payload is inflated before it is handed
+ * out, so the handlers never see compression.</p>
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class WireCodec {
+    /**
+     * Receives each decoded message.
+     */
+    public interface MessageHandler {
+        /**
+         * Handles one message.
+         *
+         * @param opcode the message opcode, {@link WireProtocol#opcodeChat} for a text chat message.
+         * @param flags the frame flags, 0 in text mode.
+         * @param sequence the sequence number of the sender, 0 in text mode.
+         * @param data the buffer holding the payload (the whole line in text mode).
+         * @param offset the start of the payload.
+         * @param length the payload length.
+         * @throws IOException if the message handling fails.
+         */
+        void onMessage(int opcode, int flags, int sequence, byte[] data, int offset, int length) throws IOException;
+    }
+
+    private static final int modeUnknown = 0;
+    private static final int modeText = 1;
+    private static final int modeBinary = 2;
+    private int mode = modeUnknown;
+
+    // Text mode
+    private final FrameCodec textCodec;
+    private final FrameCodec.FrameHandler textHandler = this::onTextFrame;
+    private MessageHandler handler;   // Handler of the decode call in progress
+
+    // Binary mode : header reader over the last read buffer, and the frame split over several reads
+    private final int maxFrameSize;
+    private final WireProtocol.Reader reader = new WireProtocol.Reader();
+    private byte[] wrappedArray = null;
+    private ByteBuffer wrapped = null;
+    private byte[] partialBuf = null;
+    private int partialLength = 0;
+    private byte[] inflatedBuf = null;   // Payload of the last deflated frame
+
+    /**
+     * Creates a decoder for one session.
+     *
+     * @param maxFrameSize the longest message accepted (bytes), header included.
+     */
+    public WireCodec(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+        this.textCodec = new FrameCodec(maxFrameSize);
+    }
+
+    /**
+     * Checks if the session speaks the binary protocol.
+     *
+     * @return {@code true} once a binary frame started the session.
+     */
+    public boolean isBinary() {
+        return mode == modeBinary;
+    }
+
+    /**
+     * Decodes received bytes and hands every complete message to the handler, in order.
+     *
+     * @param data the buffer holding the received bytes.
+     * @param offset the start of the received bytes.
+     * @param length the number of received bytes.
+     * @param handler the receiver of the messages.
+     * @throws IOException if a binary frame is invalid, or the handler fails.
+     */
+    public void decode(byte[] data, int offset, int length, MessageHandler handler) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        if (mode == modeUnknown) {
+            mode = data[offset] == WireProtocol.magic ? modeBinary : modeText;
+        }
+        if (mode == modeText) {
+            this.handler = handler;
+            try {
+                textCodec.decode(data, offset, length, textHandler);
+            } finally {
+                this.handler = null;
+            }
+        } else {
+            decodeBinary(data, offset, length, handler);
+        }
+    }
+
+    /**
+     * Gets the number of bytes of a message not completely received yet.
+     *
+     * @return the pending bytes.
+     */
+    public int pendingBytes() {
+        return mode == modeBinary ? partialLength : textCodec.pendingBytes();
+    }
+
+    /**
+     * Forgets the partial message and the protocol, for a new session.
+     */
+    public void reset() {
+        mode = modeUnknown;
+        partialLength = 0;
+        textCodec.reset();
+    }
+
+    /**
+     * Encodes a line typed by a user as a binary frame : the opcode of its command, if any, with only the
+     * command argument as payload, or a chat message.
+     *
+     * @param line the input line.
+     * @param sequence the sequence number of the message.
+     * @return the frames, ready to send to a TCP server.
+     */
+    public static byte[] encodeLine(String line, int sequence) {
+        return encodeLine(line, sequence, false);
+    }
+
+    /**
+     * Encodes a line typed by a user as a binary frame, with a deflated payload if the session negotiated
+     * compression and the payload is long enough.
+     *
+     * @param line the input line.
+     * @param sequence the sequence number of the message.
+     * @param compressed {@code true} if the session negotiated compression.
+     * @return the frames, ready to send to a TCP server.
+     */
+    public static byte[] encodeLine(String line, int sequence, boolean compressed) {
+        return encodeLine(line, sequence, compressed, WireProtocol.maxFrameLength);
+    }
+
+    /**
+     * Encodes a line typed by a user for a receiver with a frame size limit. A chat message longer than one
+     * frame, before compression, is sent as several chat frames with the same sequence number, cut between two UTF-8 characters,
+     * like the chunks {@link FrameCodec} makes of a long text line.
+     *
+     * @param line the input line.
+     * @param sequence the sequence number of the message.
+     * @param compressed {@code true} if the session negotiated compression.
+     * @param maxFrameSize the longest frame the receiver accepts (bytes), header included.
+     * @return the frames, one after the other, ready to send.
+     */
+    public static byte[] encodeLine(String line, int sequence, boolean compressed, int maxFrameSize) {
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        CommandRegistry.Command command = CommandRegistry.shared.match(text, 0, text.length);
+        if (command == null) {
+            // The receiver inflates a payload into a frame sized buffer : the limit applies before compression
+            int maxPayload = maxFrameSize - WireProtocol.headerLength;
+            if (text.length <= maxPayload) {
+                return encodeChat(text, 0, text.length, sequence, compressed);
+            }
+            ByteArrayOutputStream frames = new ByteArrayOutputStream(text.length + WireProtocol.headerLength
+                    * (text.length / maxPayload + 1));
+            for (int offset = 0; offset < text.length; ) {
+                int end = chunkEnd(text, offset, maxPayload);
+                frames.writeBytes(encodeChat(text, offset, end - offset, sequence, compressed));
+                offset = end;
+            }
+            return frames.toByteArray();
+        }
+        byte[] argument = command.hasArgument()
+                ? line.trim().substring(command.getText().length()).trim().getBytes(StandardCharsets.UTF_8)
+                : new byte[0];
+        return WireProtocol.encode(command.getOpcode(), sequence, argument, 0, argument.length);
+    }
+
+    /**
+     * Encodes one chat frame, deflated if the session negotiated compression.
+     */
+    private static byte[] encodeChat(byte[] text, int offset, int length, int sequence, boolean compressed) {
+        return compressed
+                ? PayloadCompressor.shared.encode(WireProtocol.opcodeChat, sequence, text, offset, length)
+                : WireProtocol.encode(WireProtocol.opcodeChat, sequence, text, offset, length);
+    }
+
+    /**
+     * Gets the end of the chunk of text starting at an offset : at most {@code maxLength} bytes, not cutting
+     * a UTF-8 character in two.
+     */
+    private static int chunkEnd(byte[] text, int offset, int maxLength) {
+        int end = Math.min(offset + maxLength, text.length);
+        // A continuation byte (10xxxxxx) is not the start of a character
+        while (end < text.length && end > offset + 1 && (text[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        return end;
+    }
+
+    private void onTextFrame(byte[] frame, int offset, int length) throws IOException {
+        CommandRegistry.Command command = CommandRegistry.shared.match(frame, offset, length);
+        int opcode = command != null ? command.getOpcode() : WireProtocol.opcodeChat;
+        handler.onMessage(opcode, 0, 0, frame, offset, length);
+    }
+
+    private void decodeBinary(byte[] data, int offset, int length, MessageHandler handler) throws IOException {
+        int end = offset + length;
+        while (offset < end) {
+            if (partialLength == 0 && end - offset >= WireProtocol.headerLength) {
+                // Whole header in the read buffer
+                int frameLength = checkedFrameLength(header(data, offset));
+                if (end - offset >= frameLength) {
+                    // Whole frame : hand out a slice of the read buffer
+                    deliver(reader, handler);
+                    offset += frameLength;
+                    continue;
+                }
+            }
+
+            // Frame split over several reads : collect its header, then its payload
+            if (partialBuf == null) {
+                partialBuf = new byte[maxFrameSize];
+            }
+            int needed = WireProtocol.headerLength - partialLength;
+            if (needed <= 0) {
+                needed = checkedFrameLength(header(partialBuf, 0)) - partialLength;
+            }
+            int copied = Math.min(needed, end - offset);
+            System.arraycopy(data, offset, partialBuf, partialLength, copied);
+            partialLength += copied;
+            offset += copied;
+
+            if (partialLength >= WireProtocol.headerLength
+                    && partialLength == checkedFrameLength(header(partialBuf, 0))) {
+                partialLength = 0;
+                deliver(reader, handler);
+            }
+        }
+    }
+
+    /**
+     * Points the header reader at a frame of a buffer.
+     */
+    private WireProtocol.Reader header(byte[] data, int offset) {
+        if (data != wrappedArray) {
+            wrappedArray = data;
+            wrapped = ByteBuffer.wrap(data);
+        }
+        return reader.wrap(wrapped, offset);
+    }
+
+    /**
+     * Validates a frame header and gets the whole frame length.
+     */
+    private int checkedFrameLength(WireProtocol.Reader frame) throws IOException {
+        if (!frame.hasMagic()) {
+            throw new IOException("Invalid frame header");
+        }
+        if (frame.version() != WireProtocol.version) {
+            throw new IOException("Unsupported protocol version " + frame.version());
+        }
+        int length = frame.length();
+        if (length < 0 || length > maxFrameSize - WireProtocol.headerLength) {
+            throw new IOException("Frame of " + length + " bytes is too long");
+        }
+        return WireProtocol.headerLength + length;
+    }
+
+    /**
+     * Hands the frame the reader points at to the handler, inflating its payload if needed.
+     */
+    private void deliver(WireProtocol.Reader frame, MessageHandler handler) throws IOException {
+        int flags = frame.flags();
+        // In a hello frame, the flag only offers compression
+        if ((flags & WireProtocol.flagDeflated) == 0 || frame.opcode() == WireProtocol.opcodeHello) {
+            handler.onMessage(frame.opcode(), flags, frame.sequence(), wrappedArray, frame.payloadOffset(), frame.length());
+            return;
+        }
+        if (inflatedBuf == null) {
+            inflatedBuf = new byte[maxFrameSize];
+        }
+        int length = PayloadCompressor.shared.inflate(wrappedArray, frame.payloadOffset(), frame.length(), inflatedBuf);
+        handler.onMessage(frame.opcode(), flags & ~WireProtocol.flagDeflated, frame.sequence(), inflatedBuf, 0, length);
+    }
+}
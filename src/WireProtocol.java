@@ -0,0 +1,261 @@
+/**
+ * Binary wire protocol of the chat, version 1, spoken next to the newline-delimited text of netcat users.
+ *
+ * <p>Every frame starts with a 12 bytes header, then {@code length} bytes of payload :</p>
+ * <ul>
+ *     <li>magic byte 0xFD, which never appears in UTF-8 text (the reliable and fragmented UDP datagrams use
+ *     0xFE and 0xFF);</li>
+ *     <li>protocol version;</li>
+ *     <li>opcode : hello, chat message, acknowledgement, or one of the client commands;</li>
+ *     <li>flags : {@link #flagDeflated} marks a payload compressed by {@link PayloadCompressor}. In a hello
+ *     frame, the client offers compression with it and the server accepts by returning it;</li>
+ *     <li>payload length (int);</li>
+ *     <li>sequence number chosen by the sender, returned in the acknowledgement of the message.</li>
+ * </ul>
+ *
+ * <p>Negotiation : a binary client opens its TCP session with a hello frame, answered by a hello frame of
+ * the server. Any other first byte keeps the session in text mode, so netcat still works. A UDP datagram is
+ * binary when it starts with the magic byte. Integers are big-endian.</p>
+ *
+ * <p>{@link Reader} and {@link Writer} are flyweights : they read and write the header fields in place in a
+ * {@link ByteBuffer}, one instance being reused for every frame of a session.</p>
+ */
+import java.nio.ByteBuffer;
+
+public final class WireProtocol {
+    static final byte magic = (byte) 0xFD;
+    static final byte version = 1;
+    static final int headerLength = 12;   // magic, version, opcode, flags, length, sequence
+    static final int maxFrameLength = 1024;   // Longest frame the TCP servers accept, header included
+
+    // Opcodes
+    static final int opcodeHello = 0;
+    static final int opcodeChat = 1;
+    static final int opcodeAck = 2;
+    static final int opcodeHelp = 3;
+    static final int opcodeExitConsole = 4;
+    static final int opcodeCloseServer = 5;
+    static final int opcodeHistory = 6;
+    static final int opcodeCount = 7;
+
+    static final int flagsNone = 0;
+    static final int flagDeflated = 0x01;
+
+    private static final int versionOffset = 1;
+    private static final int opcodeOffset = 2;
+    private static final int flagsOffset = 3;
+    private static final int lengthOffset = 4;
+    private static final int sequenceOffset = 8;
+
+    private WireProtocol() {
+    }
+
+    /**
+     * Reads the header fields of a frame in place.
+     */
+    public static final class Reader {
+        private ByteBuffer buffer;
+        private int offset;
+
+        /**
+         * Points the reader at a frame.
+         *
+         * @param buffer the buffer holding the frame.
+         * @param offset the start of the frame.
+         * @return this reader.
+         */
+        public Reader wrap(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            return this;
+        }
+
+        /**
+         * Checks the magic byte of the frame.
+         */
+        public boolean hasMagic() {
+            return buffer.get(offset) == magic;
+        }
+
+        /**
+         * Gets the protocol version of the frame.
+         */
+        public int version() {
+            return buffer.get(offset + versionOffset) & 0xFF;
+        }
+
+        /**
+         * Gets the opcode of the frame.
+         */
+        public int opcode() {
+            return buffer.get(offset + opcodeOffset) & 0xFF;
+        }
+
+        /**
+         * Gets the flags of the frame.
+         */
+        public int flags() {
+            return buffer.get(offset + flagsOffset) & 0xFF;
+        }
+
+        /**
+         * Gets the payload length.
+         */
+        public int length() {
+            return buffer.getInt(offset + lengthOffset);
+        }
+
+        /**
+         * Gets the sequence number of the sender.
+         */
+        public int sequence() {
+            return buffer.getInt(offset + sequenceOffset);
+        }
+
+        /**
+         * Gets the start of the payload, right after the header.
+         */
+        public int payloadOffset() {
+            return offset + headerLength;
+        }
+    }
+
+    /**
+     * Writes the header of a frame in place.
+     */
+    public static final class Writer {
+        private ByteBuffer buffer;
+        private int offset;
+
+        /**
+         * Points the writer at the start of a frame.
+         *
+         * @param buffer the buffer receiving the frame.
+         * @param offset the start of the frame.
+         * @return this writer.
+         */
+        public Writer wrap(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            return this;
+        }
+
+        /**
+         * Writes the whole header, the payload goes right after it.
+         *
+         * @param opcode the frame opcode.
+         * @param flags the frame flags.
+         * @param length the payload length.
+         * @param sequence the sequence number.
+         * @return this writer.
+         */
+        public Writer header(int opcode, int flags, int length, int sequence) {
+            buffer.put(offset, magic);
+            buffer.put(offset + versionOffset, version);
+            buffer.put(offset + opcodeOffset, (byte) opcode);
+            buffer.put(offset + flagsOffset, (byte) flags);
+            buffer.putInt(offset + lengthOffset, length);
+            buffer.putInt(offset + sequenceOffset, sequence);
+            return this;
+        }
+
+        /**
+         * Gets the start of the payload, right after the header.
+         */
+        public int payloadOffset() {
+            return offset + headerLength;
+        }
+    }
+
+    /**
+     * Checks if a message is a binary frame.
+     *
+     * @param data the buffer holding the message.
+     * @param offset the start of the message.
+     * @param length the message length.
+     * @return {@code true} when the message starts with a complete header.
+     */
+    public static boolean isFrame(byte[] data, int offset, int length) {
+        return length >= headerLength && data[offset] == magic;
+    }
+
+    /**
+     * Gets the protocol version of a frame held in an array, like {@link Reader#version()}.
+     *
+     * @param frame the buffer holding the frame.
+     * @param offset the start of the frame.
+     * @return the version.
+     */
+    public static int version(byte[] frame, int offset) {
+        return frame[offset + versionOffset] & 0xFF;
+    }
+
+    /**
+     * Gets the opcode of a frame held in an array, like {@link Reader#opcode()}.
+     *
+     * @param frame the buffer holding the frame.
+     * @param offset the start of the frame.
+     * @return the opcode.
+     */
+    public static int opcode(byte[] frame, int offset) {
+        return frame[offset + opcodeOffset] & 0xFF;
+    }
+
+    /**
+     * Encodes a whole frame.
+     *
+     * @param opcode the frame opcode.
+     * @param sequence the sequence number.
+     * @param payload the payload bytes.
+     * @param offset the start of the payload.
+     * @param length the payload length.
+     * @return the frame, ready to send.
+     */
+    public static byte[] encode(int opcode, int sequence, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[headerLength + length];
+        new Writer().wrap(ByteBuffer.wrap(frame), 0).header(opcode, flagsNone, length, sequence);
+        System.arraycopy(payload, offset, frame, headerLength, length);
+        return frame;
+    }
+
+    /**
+     * Encodes the header of a frame whose payload is sent separately, such as a chunk of a file.
+     *
+     * @param opcode the frame opcode.
+     * @param sequence the sequence number.
+     * @param length the length of the payload that will follow.
+     * @return the header, ready to send.
+     */
+    public static byte[] encodeHeader(int opcode, int sequence, int length) {
+        byte[] header = new byte[headerLength];
+        new Writer().wrap(ByteBuffer.wrap(header), 0).header(opcode, flagsNone, length, sequence);
+        return header;
+    }
+
+    /**
+     * Encodes a hello frame, which opens a binary session or answers it.
+     *
+     * @param sequence the sequence number.
+     * @param compression {@code true} to offer (client) or accept (server) deflated payloads.
+     * @return the frame, ready to send.
+     */
+    public static byte[] encodeHello(int sequence, boolean compression) {
+        byte[] frame = new byte[headerLength];
+        new Writer().wrap(ByteBuffer.wrap(frame), 0)
+                .header(opcodeHello, compression ? flagDeflated : flagsNone, 0, sequence);
+        return frame;
+    }
+
+    /**
+     * Encodes a frame without payload.
+     *
+     * @param opcode the frame opcode.
+     * @param sequence the sequence number.
+     * @return the frame, ready to send.
+     */
+    public static byte[] encode(int opcode, int sequence) {
+        byte[] frame = new byte[headerLength];
+        new Writer().wrap(ByteBuffer.wrap(frame), 0).header(opcode, flagsNone, 0, sequence);
+        return frame;
+    }
+}
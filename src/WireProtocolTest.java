@@ -0,0 +1,240 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@code WireProtocol} and {@code WireCodec}.
+ */
+class WireProtocolTest {
+    private final int testPort = 12390;
+    private final int maxFrameSize = 1024;
+
+    /**
+     * A decoded message, with a copy of its payload.
+     */
+    private record Message(int opcode, int sequence, String payload) {
+    }
+
+    private static WireCodec.MessageHandler collector(List<Message> messages) {
+        return (opcode, flags, sequence, data, offset, length) ->
+                messages.add(new Message(opcode, sequence, new String(data, offset, length, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void testHeaderRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        WireProtocol.Writer writer = new WireProtocol.Writer().wrap(buffer, 8);
+        writer.header(WireProtocol.opcodeHistory, 3, 40, 123456);
+        assertEquals(8 + WireProtocol.headerLength, writer.payloadOffset());
+
+        WireProtocol.Reader reader = new WireProtocol.Reader().wrap(buffer, 8);
+        assertTrue(reader.hasMagic());
+        assertEquals(WireProtocol.version, reader.version());
+        assertEquals(WireProtocol.opcodeHistory, reader.opcode());
+        assertEquals(3, reader.flags());
+        assertEquals(40, reader.length());
+        assertEquals(123456, reader.sequence());
+        assertEquals(8 + WireProtocol.headerLength, reader.payloadOffset());
+    }
+
+    @Test
+    void testFramesSplitOverReads() throws IOException {
+        byte[] first = WireProtocol.encode(WireProtocol.opcodeChat, 1, "hello".getBytes(), 0, 5);
+        byte[] second = WireProtocol.encode(WireProtocol.opcodeAck, 2);
+        byte[] third = WireProtocol.encode(WireProtocol.opcodeChat, 3, "world!".getBytes(), 0, 6);
+        byte[] stream = new byte[first.length + second.length + third.length];
+        System.arraycopy(first, 0, stream, 0, first.length);
+        System.arraycopy(second, 0, stream, first.length, second.length);
+        System.arraycopy(third, 0, stream, first.length + second.length, third.length);
+
+        // Byte by byte, then in two reads cutting the second header
+        for (int cut : new int[] {1, first.length + 5}) {
+            WireCodec codec = new WireCodec(maxFrameSize);
+            List<Message> messages = new ArrayList<>();
+            for (int offset = 0; offset < stream.length; offset += cut) {
+                codec.decode(stream, offset, Math.min(cut, stream.length - offset), collector(messages));
+            }
+            assertTrue(codec.isBinary());
+            assertEquals(0, codec.pendingBytes());
+            assertEquals(List.of(new Message(WireProtocol.opcodeChat, 1, "hello"),
+                    new Message(WireProtocol.opcodeAck, 2, ""),
+                    new Message(WireProtocol.opcodeChat, 3, "world!")), messages);
+        }
+    }
+
+    @Test
+    void testTextLinesMapToOpcodes() throws IOException {
+        WireCodec codec = new WireCodec(maxFrameSize);
+        List<Message> messages = new ArrayList<>();
+        byte[] stream = "hi there\n?\nhistory 5\nexit console\n".getBytes(StandardCharsets.UTF_8);
+        codec.decode(stream, 0, stream.length, collector(messages));
+
+        assertFalse(codec.isBinary());
+        assertEquals(List.of(new Message(WireProtocol.opcodeChat, 0, "hi there"),
+                new Message(WireProtocol.opcodeHelp, 0, "?"),
+                new Message(WireProtocol.opcodeHistory, 0, "history 5"),
+                new Message(WireProtocol.opcodeExitConsole, 0, "exit console")), messages);
+    }
+
+    @Test
+    void testEncodeLineKeepsCommandArgument() throws IOException {
+        WireCodec codec = new WireCodec(maxFrameSize);
+        List<Message> messages = new ArrayList<>();
+        for (String line : new String[] {"history from 12", "close server", "hi"}) {
+            byte[] frame = WireCodec.encodeLine(line, 7);
+            codec.decode(frame, 0, frame.length, collector(messages));
+        }
+        assertEquals(List.of(new Message(WireProtocol.opcodeHistory, 7, "from 12"),
+                new Message(WireProtocol.opcodeCloseServer, 7, ""),
+                new Message(WireProtocol.opcodeChat, 7, "hi")), messages);
+    }
+
+    @Test
+    void testLongLineIsSentInSeveralFrames() throws IOException {
+        // 1601 bytes, the first cut falls inside a two bytes character
+        String line = "x" + "\u00e9".repeat(800);
+        byte[] frames = WireCodec.encodeLine(line, 9);
+
+        WireCodec codec = new WireCodec(maxFrameSize);
+        List<Message> messages = new ArrayList<>();
+        codec.decode(frames, 0, frames.length, collector(messages));
+        assertEquals(2, messages.size());
+        StringBuilder received = new StringBuilder();
+        for (Message message : messages) {
+            assertEquals(WireProtocol.opcodeChat, message.opcode());
+            assertEquals(9, message.sequence());
+            received.append(message.payload());
+        }
+        assertEquals(line, received.toString());
+    }
+
+    @Test
+    void testInvalidFramesAreRejected() {
+        // Unknown version
+        byte[] frame = WireProtocol.encode(WireProtocol.opcodeHello, 0);
+        frame[1] = 2;
+        assertThrows(IOException.class,
+                () -> new WireCodec(maxFrameSize).decode(frame, 0, frame.length, collector(new ArrayList<>())));
+
+        // Longer than the codec accepts
+        byte[] payload = new byte[maxFrameSize];
+        byte[] tooLong = WireProtocol.encode(WireProtocol.opcodeChat, 0, payload, 0, payload.length);
+        assertThrows(IOException.class,
+                () -> new WireCodec(maxFrameSize).decode(tooLong, 0, tooLong.length, collector(new ArrayList<>())));
+    }
+
+    @Test
+    void testCommandsByOpcode() {
+        for (CommandRegistry.Command command : CommandRegistry.Command.values()) {
+            assertSame(command, CommandRegistry.commandOf(command.getOpcode()));
+        }
+        assertNull(CommandRegistry.commandOf(WireProtocol.opcodeChat));
+        assertNull(CommandRegistry.commandOf(200));
+    }
+
+    /**
+     * Reads the frames of a binary session until one matches.
+     */
+    private static List<Message> readUntil(InputStream input, WireCodec codec, Predicate<Message> last) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        byte[] buf = new byte[4096];
+        while (messages.stream().noneMatch(last)) {
+            int read = input.read(buf);
+            assertNotEquals(-1, read, "Connection closed by the server");
+            codec.decode(buf, 0, read, collector(messages));
+        }
+        return messages;
+    }
+
+    private void assertServerSpeaksBothProtocols(ServerMode mode, int port) throws Exception {
+        Path directory = Files.createTempDirectory("wire-protocol");
+        try (ChatJournal journal = ChatJournal.open(directory, 4096, 5)) {
+            for (int i = 1; i <= 3; i++) {
+                journal.append("/127.0.0.1:5000", "message " + i);
+            }
+            TCPMultiServer server = new TCPMultiServer(port, mode);
+            server.setJournal(journal);
+            server.setHistoryLength(2);
+            Thread serverThread = TestServers.launch(server);
+
+            try (Socket binarySocket = new Socket("localhost", port);
+                 Socket textSocket = new Socket("localhost", port)) {
+                binarySocket.setSoTimeout(5000);
+                textSocket.setSoTimeout(5000);
+                InputStream binaryInput = binarySocket.getInputStream();
+                OutputStream binaryOutput = binarySocket.getOutputStream();
+                WireCodec codec = new WireCodec(64 * 1024 + WireProtocol.headerLength);
+                BufferedReader textReader = new BufferedReader(new InputStreamReader(textSocket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream textOutput = textSocket.getOutputStream();
+
+                // Hello answered, then the history in history frames
+                binaryOutput.write(WireProtocol.encode(WireProtocol.opcodeHello, 0));
+                binaryOutput.flush();
+                List<Message> messages = readUntil(binaryInput, codec, m -> m.payload().contains("message 3"));
+                assertEquals(WireProtocol.opcodeHello, messages.get(0).opcode());
+                assertEquals(WireProtocol.opcodeHistory, messages.get(1).opcode());
+                assertTrue(messages.get(1).payload().startsWith("2 "));
+
+                // The text client gets its history as lines, after the hello timeout
+                assertTrue(textReader.readLine().startsWith("2 "));
+                assertTrue(textReader.readLine().startsWith("3 "));
+
+                // A binary message is acknowledged with its sequence number, and broadcast as a text line
+                binaryOutput.write(WireCodec.encodeLine("from binary", 42));
+                binaryOutput.flush();
+                messages = readUntil(binaryInput, codec, m -> m.opcode() == WireProtocol.opcodeAck);
+                assertEquals(42, messages.get(messages.size() - 1).sequence());
+                assertTrue(textReader.readLine().endsWith("says : from binary"));
+
+                // A text message is broadcast as a chat frame
+                textOutput.write("from text\n".getBytes(StandardCharsets.UTF_8));
+                textOutput.flush();
+                assertEquals("Message received", textReader.readLine());
+                messages = readUntil(binaryInput, codec, m -> m.opcode() == WireProtocol.opcodeChat);
+                assertTrue(messages.get(messages.size() - 1).payload().endsWith("says : from text"));
+
+                // A line longer than one frame is sent in several frames, broadcast as several lines
+                String longLine = "long".repeat(375);
+                binaryOutput.write(WireCodec.encodeLine(longLine, 44));
+                binaryOutput.flush();
+                readUntil(binaryInput, codec, m -> m.opcode() == WireProtocol.opcodeAck && m.sequence() == 44);
+                StringBuilder received = new StringBuilder();
+                while (received.length() < longLine.length()) {
+                    String line = textReader.readLine();
+                    received.append(line, line.indexOf("says : ") + "says : ".length(), line.length());
+                }
+                assertEquals(longLine, received.toString());
+
+                binaryOutput.write(WireCodec.encodeLine("close server", 43));
+                binaryOutput.flush();
+            }
+            // The thread mode notices the closure at its next accept timeout
+            serverThread.join(15000);
+            assertFalse(serverThread.isAlive(), "The server should be closed");
+        }
+    }
+
+    @Test
+    void testThreadServerSpeaksBothProtocols() throws Exception {
+        assertServerSpeaksBothProtocols(ServerMode.THREAD, testPort);
+    }
+
+    @Test
+    void testSelectorServerSpeaksBothProtocols() throws Exception {
+        assertServerSpeaksBothProtocols(ServerMode.SELECTOR, testPort + 1);
+    }
+}